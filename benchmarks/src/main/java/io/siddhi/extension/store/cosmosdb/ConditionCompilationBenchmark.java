@@ -0,0 +1,67 @@
+/*
+ * Copyright (c) 2019, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+
+
+package io.siddhi.extension.store.cosmosdb;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the cost of compiling a table condition, i.e. visiting the condition, parametrizing it and building the
+ * query texts. Conditions are compiled once per query, but this bounds the deployment time of apps with many queries.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConditionCompilationBenchmark {
+
+    @Param({"equality", "conjunction", "composite"})
+    private String expression;
+
+    @Benchmark
+    public CosmosCompiledCondition compile() {
+        CosmosConditionVisitor visitor = new CosmosConditionVisitor(ConditionExpressions.COLLECTION_ID, false);
+        switch (expression) {
+            case "equality":
+                ConditionExpressions.visitEquality(visitor);
+                break;
+            case "conjunction":
+                ConditionExpressions.visitConjunction(visitor);
+                break;
+            default:
+                ConditionExpressions.visitComposite(visitor);
+                break;
+        }
+        return ConditionExpressions.compile(visitor);
+    }
+}
@@ -0,0 +1,184 @@
+/*
+ * Copyright (c) 2019, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+
+
+package io.siddhi.extension.store.cosmosdb;
+
+import io.siddhi.core.table.record.ExpressionVisitor.MathOperator;
+import io.siddhi.extension.store.cosmosdb.util.CosmosTableConstants;
+import io.siddhi.extension.store.cosmosdb.util.CosmosTableUtils;
+import io.siddhi.query.api.definition.Attribute;
+import io.siddhi.query.api.expression.condition.Compare;
+
+/**
+ * Representative table conditions, visited the way Siddhi's ExpressionBuilder visits the 'on' condition of a query.
+ * The expressions are replayed directly on a {@link CosmosConditionVisitor}, so that benchmarks do not need a Siddhi
+ * runtime to compile conditions.
+ */
+final class ConditionExpressions {
+
+    static final String COLLECTION_ID = "StockTable";
+    static final String STREAM_ID = "StockStream";
+    static final String PROJECTION = "StockTable.symbol, StockTable.price, StockTable.volume";
+
+    private ConditionExpressions() {
+    }
+
+    /**
+     * Compiles the given condition the way the CosmosDB Event Table does.
+     *
+     * @param visitor the visitor the condition was replayed on.
+     * @return the compiled condition.
+     */
+    static CosmosCompiledCondition compile(CosmosConditionVisitor visitor) {
+        String condition = visitor.returnCondition();
+        return new CosmosCompiledCondition(condition,
+                CosmosTableUtils.buildQuery(CosmosTableConstants.SQL_SELECT, COLLECTION_ID, condition),
+                CosmosTableUtils.buildQuery(CosmosTableConstants.SQL_SELECT_ATTRIBUTES, PROJECTION, COLLECTION_ID,
+                        condition),
+                CosmosTableUtils.buildQuery(CosmosTableConstants.SQL_SELECT_TOP_ONE_ID, COLLECTION_ID,
+                        COLLECTION_ID, condition),
+                visitor.getParameters(), null, null, null, null);
+    }
+
+    /**
+     * 'on StockTable.symbol == symbol'.
+     */
+    static void visitEquality(CosmosConditionVisitor visitor) {
+        visitCompare(visitor, Compare.Operator.EQUAL, "symbol", Attribute.Type.STRING);
+    }
+
+    /**
+     * 'on StockTable.symbol == symbol and StockTable.price > 100'.
+     */
+    static void visitConjunction(CosmosConditionVisitor visitor) {
+        visitor.beginVisitAnd();
+        visitor.beginVisitAndLeftOperand();
+        visitCompare(visitor, Compare.Operator.EQUAL, "symbol", Attribute.Type.STRING);
+        visitor.endVisitAndLeftOperand();
+        visitor.beginVisitAndRightOperand();
+        visitConstantCompare(visitor, Compare.Operator.GREATER_THAN, "price", 100f, Attribute.Type.FLOAT);
+        visitor.endVisitAndRightOperand();
+        visitor.endVisitAnd();
+    }
+
+    /**
+     * 'on (StockTable.price * 2 >= price or not (StockTable.volume < 100)) and str:contains(StockTable.symbol,
+     * symbol)'.
+     */
+    static void visitComposite(CosmosConditionVisitor visitor) {
+        visitor.beginVisitAnd();
+        visitor.beginVisitAndLeftOperand();
+        visitor.beginVisitOr();
+        visitor.beginVisitOrLeftOperand();
+        visitor.beginVisitCompare(Compare.Operator.GREATER_THAN_EQUAL);
+        visitor.beginVisitCompareLeftOperand(Compare.Operator.GREATER_THAN_EQUAL);
+        visitor.beginVisitMath(MathOperator.MULTIPLY);
+        visitor.beginVisitMathLeftOperand(MathOperator.MULTIPLY);
+        visitor.beginVisitStoreVariable(COLLECTION_ID, "price", Attribute.Type.FLOAT);
+        visitor.endVisitStoreVariable(COLLECTION_ID, "price", Attribute.Type.FLOAT);
+        visitor.endVisitMathLeftOperand(MathOperator.MULTIPLY);
+        visitor.beginVisitMathRightOperand(MathOperator.MULTIPLY);
+        visitor.beginVisitConstant(2, Attribute.Type.INT);
+        visitor.endVisitConstant(2, Attribute.Type.INT);
+        visitor.endVisitMathRightOperand(MathOperator.MULTIPLY);
+        visitor.endVisitMath(MathOperator.MULTIPLY);
+        visitor.endVisitCompareLeftOperand(Compare.Operator.GREATER_THAN_EQUAL);
+        visitor.beginVisitCompareRightOperand(Compare.Operator.GREATER_THAN_EQUAL);
+        visitor.beginVisitStreamVariable("price", STREAM_ID, "price", Attribute.Type.FLOAT);
+        visitor.endVisitStreamVariable("price", STREAM_ID, "price", Attribute.Type.FLOAT);
+        visitor.endVisitCompareRightOperand(Compare.Operator.GREATER_THAN_EQUAL);
+        visitor.endVisitCompare(Compare.Operator.GREATER_THAN_EQUAL);
+        visitor.endVisitOrLeftOperand();
+        visitor.beginVisitOrRightOperand();
+        visitor.beginVisitNot();
+        visitConstantCompare(visitor, Compare.Operator.LESS_THAN, "volume", 100L, Attribute.Type.LONG);
+        visitor.endVisitNot();
+        visitor.endVisitOrRightOperand();
+        visitor.endVisitOr();
+        visitor.endVisitAndLeftOperand();
+        visitor.beginVisitAndRightOperand();
+        visitor.beginVisitAttributeFunction("str", "contains");
+        visitor.beginVisitParameterAttributeFunction(0);
+        visitor.beginVisitStoreVariable(COLLECTION_ID, "symbol", Attribute.Type.STRING);
+        visitor.endVisitStoreVariable(COLLECTION_ID, "symbol", Attribute.Type.STRING);
+        visitor.endVisitParameterAttributeFunction(0);
+        visitor.beginVisitParameterAttributeFunction(1);
+        visitor.beginVisitStreamVariable("symbol", STREAM_ID, "symbol", Attribute.Type.STRING);
+        visitor.endVisitStreamVariable("symbol", STREAM_ID, "symbol", Attribute.Type.STRING);
+        visitor.endVisitParameterAttributeFunction(1);
+        visitor.endVisitAttributeFunction("str", "contains");
+        visitor.endVisitAndRightOperand();
+        visitor.endVisitAnd();
+    }
+
+    /**
+     * 'on StockTable.attribute0 == attribute0 and ... and StockTable.attributeN == attributeN', i.e. a condition
+     * binding the given number of stream variables.
+     *
+     * @param visitor    the visitor to replay the condition on.
+     * @param attributes the number of attributes compared, which must be at least one.
+     */
+    static void visitEqualities(CosmosConditionVisitor visitor, int attributes) {
+        if (attributes == 1) {
+            visitCompare(visitor, Compare.Operator.EQUAL, attributeName(0), Attribute.Type.STRING);
+            return;
+        }
+        visitor.beginVisitAnd();
+        visitor.beginVisitAndLeftOperand();
+        visitEqualities(visitor, attributes - 1);
+        visitor.endVisitAndLeftOperand();
+        visitor.beginVisitAndRightOperand();
+        visitCompare(visitor, Compare.Operator.EQUAL, attributeName(attributes - 1), Attribute.Type.STRING);
+        visitor.endVisitAndRightOperand();
+        visitor.endVisitAnd();
+    }
+
+    static String attributeName(int index) {
+        return "attribute" + index;
+    }
+
+    private static void visitCompare(CosmosConditionVisitor visitor, Compare.Operator operator, String attribute,
+                                     Attribute.Type type) {
+        visitor.beginVisitCompare(operator);
+        visitor.beginVisitCompareLeftOperand(operator);
+        visitor.beginVisitStoreVariable(COLLECTION_ID, attribute, type);
+        visitor.endVisitStoreVariable(COLLECTION_ID, attribute, type);
+        visitor.endVisitCompareLeftOperand(operator);
+        visitor.beginVisitCompareRightOperand(operator);
+        visitor.beginVisitStreamVariable(attribute, STREAM_ID, attribute, type);
+        visitor.endVisitStreamVariable(attribute, STREAM_ID, attribute, type);
+        visitor.endVisitCompareRightOperand(operator);
+        visitor.endVisitCompare(operator);
+    }
+
+    private static void visitConstantCompare(CosmosConditionVisitor visitor, Compare.Operator operator,
+                                             String attribute, Object value, Attribute.Type type) {
+        visitor.beginVisitCompare(operator);
+        visitor.beginVisitCompareLeftOperand(operator);
+        visitor.beginVisitStoreVariable(COLLECTION_ID, attribute, type);
+        visitor.endVisitStoreVariable(COLLECTION_ID, attribute, type);
+        visitor.endVisitCompareLeftOperand(operator);
+        visitor.beginVisitCompareRightOperand(operator);
+        visitor.beginVisitConstant(value, type);
+        visitor.endVisitConstant(value, type);
+        visitor.endVisitCompareRightOperand(operator);
+        visitor.endVisitCompare(operator);
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright (c) 2019, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+
+
+package io.siddhi.extension.store.cosmosdb;
+
+import com.microsoft.azure.documentdb.Document;
+import io.siddhi.extension.store.cosmosdb.util.CosmosTableUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the per-event cost of converting a record to the document written by add(), with and without deriving the
+ * document id from a primary key.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DocumentConstructionBenchmark {
+
+    @Param({"3", "10", "30"})
+    private int attributeCount;
+
+    private List<String> attributeNames;
+    private Object[] record;
+
+    @Setup
+    public void setup() {
+        attributeNames = new ArrayList<>(attributeCount);
+        record = new Object[attributeCount];
+        for (int i = 0; i < attributeCount; i++) {
+            attributeNames.add(ConditionExpressions.attributeName(i));
+            record[i] = i % 2 == 0 ? "value/" + i : (Object) (i * 100L);
+        }
+    }
+
+    @Benchmark
+    public Document toDocument() {
+        return CosmosTableUtils.toDocument(attributeNames, record);
+    }
+
+    @Benchmark
+    public Document toDocumentWithDerivedId() {
+        Document document = CosmosTableUtils.toDocument(attributeNames, record);
+        document.setId(CosmosTableUtils.encodeDocumentId(new Object[]{record[0]}));
+        return document;
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright (c) 2019, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+
+
+package io.siddhi.extension.store.cosmosdb;
+
+import io.siddhi.core.util.statistics.BufferedEventsTracker;
+import io.siddhi.core.util.statistics.EventBufferHolder;
+import io.siddhi.core.util.statistics.LatencyTracker;
+import io.siddhi.core.util.statistics.MemoryUsageTracker;
+import io.siddhi.core.util.statistics.StatisticsManager;
+import io.siddhi.core.util.statistics.StatisticsTrackerFactory;
+import io.siddhi.core.util.statistics.ThroughputTracker;
+import io.siddhi.query.api.annotation.Element;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A statistics tracker factory which totals the metrics reported by the CosmosDB Event Tables of a Siddhi app, i.e.
+ * the requests, request units, documents and throttled requests of each table operation, so that the load harness
+ * can report them for real accounts as well as for the emulator.
+ */
+final class HarnessStatistics implements StatisticsTrackerFactory {
+
+    private static final String TABLE_METRIC = ".cosmosdb.";
+    private final Map<String, LongAdder> totals = new ConcurrentHashMap<>();
+
+    /**
+     * Returns the total of a metric over all the table operations.
+     *
+     * @param metric the metric, i.e. 'requests', 'requestUnits', 'documents' or 'throttledRequests'.
+     * @return the total.
+     */
+    long getTotal(String metric) {
+        long total = 0;
+        for (Map.Entry<String, LongAdder> entry : totals.entrySet()) {
+            if (entry.getKey().contains("." + metric + ".")) {
+                total += entry.getValue().sum();
+            }
+        }
+        return total;
+    }
+
+    void reset() {
+        for (LongAdder total : totals.values()) {
+            total.reset();
+        }
+    }
+
+    private LongAdder getCounter(String name) {
+        return name.contains(TABLE_METRIC) ? totals.computeIfAbsent(name, key -> new LongAdder()) : null;
+    }
+
+    @Override
+    public LatencyTracker createLatencyTracker(String name, StatisticsManager statisticsManager) {
+        //Requests are counted as they are marked in, since the harness measures latencies by itself.
+        LongAdder counter = getCounter(name);
+        return new LatencyTracker() {
+            @Override
+            public void markIn() {
+                if (counter != null) {
+                    counter.increment();
+                }
+            }
+
+            @Override
+            public void markOut() {
+            }
+
+            @Override
+            public String getName() {
+                return name;
+            }
+        };
+    }
+
+    @Override
+    public ThroughputTracker createThroughputTracker(String name, StatisticsManager statisticsManager) {
+        LongAdder counter = getCounter(name);
+        return new ThroughputTracker() {
+            @Override
+            public void eventIn() {
+                eventsIn(1);
+            }
+
+            @Override
+            public void eventsIn(int eventNumber) {
+                if (counter != null) {
+                    counter.add(eventNumber);
+                }
+            }
+
+            @Override
+            public String getName() {
+                return name;
+            }
+        };
+    }
+
+    @Override
+    public BufferedEventsTracker createBufferSizeTracker(StatisticsManager statisticsManager) {
+        return new BufferedEventsTracker() {
+            @Override
+            public void registerEventBufferHolder(EventBufferHolder eventBufferHolder, String name) {
+            }
+
+            @Override
+            public String getName(EventBufferHolder eventBufferHolder) {
+                return null;
+            }
+
+            @Override
+            public void enableEventBufferHolderMetrics() {
+            }
+
+            @Override
+            public void disableEventBufferHolderMetrics() {
+            }
+        };
+    }
+
+    @Override
+    public MemoryUsageTracker createMemoryUsageTracker(StatisticsManager statisticsManager) {
+        return new MemoryUsageTracker() {
+            @Override
+            public void registerObject(Object object, String name) {
+            }
+
+            @Override
+            public void enableMemoryUsageMetrics() {
+            }
+
+            @Override
+            public void disableMemoryUsageMetrics() {
+            }
+
+            @Override
+            public String getName(Object object) {
+                return null;
+            }
+        };
+    }
+
+    @Override
+    public StatisticsManager createStatisticsManager(String prefix, String siddhiAppName, List<Element> elements) {
+        return new StatisticsManager() {
+            @Override
+            public void startReporting() {
+            }
+
+            @Override
+            public void stopReporting() {
+            }
+
+            @Override
+            public void cleanup() {
+            }
+        };
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright (c) 2019, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+
+
+package io.siddhi.extension.store.cosmosdb;
+
+import com.microsoft.azure.documentdb.SqlParameterCollection;
+import io.siddhi.extension.store.cosmosdb.util.CosmosTableUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the per-event cost of binding the runtime values of a compiled condition to its query parameters, for
+ * conditions with 1 to 20 stream variables.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParameterResolutionBenchmark {
+
+    @Param({"1", "2", "5", "10", "20"})
+    private int parameterCount;
+
+    private CosmosCompiledCondition compiledCondition;
+    private Map<String, Object> conditionParameterMap;
+
+    @Setup
+    public void setup() {
+        CosmosConditionVisitor visitor = new CosmosConditionVisitor(ConditionExpressions.COLLECTION_ID, false);
+        ConditionExpressions.visitEqualities(visitor, parameterCount);
+        compiledCondition = ConditionExpressions.compile(visitor);
+        conditionParameterMap = new HashMap<>();
+        for (int i = 0; i < parameterCount; i++) {
+            conditionParameterMap.put(ConditionExpressions.attributeName(i), "value" + i);
+        }
+    }
+
+    @Benchmark
+    public SqlParameterCollection resolveParameters() {
+        return CosmosTableUtils.resolveParameters(compiledCondition, conditionParameterMap);
+    }
+}
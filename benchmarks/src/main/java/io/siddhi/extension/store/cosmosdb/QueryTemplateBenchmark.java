@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 2019, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+
+package io.siddhi.extension.store.cosmosdb;
+
+import com.microsoft.azure.documentdb.SqlParameterCollection;
+import com.microsoft.azure.documentdb.SqlQuerySpec;
+import io.siddhi.extension.store.cosmosdb.util.CosmosTableConstants;
+import io.siddhi.extension.store.cosmosdb.util.CosmosTableUtils;
+import io.siddhi.query.api.definition.Attribute;
+import io.siddhi.query.api.expression.condition.Compare;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the per-event cost of preparing the query of a compiled condition, i.e. the work done by the CosmosDB
+ * Event Table for every find/update/delete before the request is sent to the store.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class QueryTemplateBenchmark {
+
+    private static final String COLLECTION_ID = "StockTable";
+
+    private CosmosCompiledCondition compiledCondition;
+    private Map<String, Object> conditionParameterMap;
+
+    @Setup
+    public void setup() {
+        // Equivalent of 'on StockTable.symbol == symbol and StockTable.price > 100'.
+        CosmosConditionVisitor visitor = new CosmosConditionVisitor(COLLECTION_ID, false);
+        visitor.beginVisitAnd();
+        visitor.beginVisitAndLeftOperand();
+        visitor.beginVisitCompare(Compare.Operator.EQUAL);
+        visitor.beginVisitStoreVariable(COLLECTION_ID, "symbol", Attribute.Type.STRING);
+        visitor.beginVisitCompareRightOperand(Compare.Operator.EQUAL);
+        visitor.beginVisitStreamVariable("symbol", "StockStream", "symbol", Attribute.Type.STRING);
+        visitor.endVisitCompare(Compare.Operator.EQUAL);
+        visitor.endVisitAndLeftOperand();
+        visitor.beginVisitAndRightOperand();
+        visitor.beginVisitCompare(Compare.Operator.GREATER_THAN);
+        visitor.beginVisitStoreVariable(COLLECTION_ID, "price", Attribute.Type.FLOAT);
+        visitor.beginVisitCompareRightOperand(Compare.Operator.GREATER_THAN);
+        visitor.beginVisitConstant(100f, Attribute.Type.FLOAT);
+        visitor.endVisitCompare(Compare.Operator.GREATER_THAN);
+        visitor.endVisitAndRightOperand();
+        visitor.endVisitAnd();
+        String condition = visitor.returnCondition();
+        compiledCondition = new CosmosCompiledCondition(condition,
+                CosmosTableUtils.buildQuery(CosmosTableConstants.SQL_SELECT, COLLECTION_ID, condition),
+                CosmosTableUtils.buildQuery(CosmosTableConstants.SQL_SELECT_ATTRIBUTES, ConditionExpressions.PROJECTION,
+                        COLLECTION_ID, condition),
+                CosmosTableUtils.buildQuery(CosmosTableConstants.SQL_SELECT_TOP_ONE_ID, COLLECTION_ID,
+                        COLLECTION_ID, condition),
+                visitor.getParameters(), null, null, null, null);
+        conditionParameterMap = new HashMap<>();
+        conditionParameterMap.put("symbol", "WSO2");
+    }
+
+    /**
+     * The query preparation as done before the query texts were built at compile time.
+     */
+    @Benchmark
+    public SqlQuerySpec replaceFirstPerEvent() {
+        SqlParameterCollection parameters = CosmosTableUtils.resolveParameters(compiledCondition,
+                conditionParameterMap);
+        String queryText = CosmosTableConstants.SQL_SELECT.replaceFirst(
+                CosmosTableConstants.SQL_QUESTION_MARK, COLLECTION_ID);
+        queryText = queryText.replaceFirst(CosmosTableConstants.SQL_QUESTION_MARK,
+                compiledCondition.getCompiledQuery());
+        return new SqlQuerySpec(queryText, parameters);
+    }
+
+    /**
+     * The query preparation as done by the CosmosDB Event Table.
+     */
+    @Benchmark
+    public SqlQuerySpec precompiledTemplate() {
+        SqlParameterCollection parameters = CosmosTableUtils.resolveParameters(compiledCondition,
+                conditionParameterMap);
+        return new SqlQuerySpec(compiledCondition.getSelectQuery(), parameters);
+    }
+}
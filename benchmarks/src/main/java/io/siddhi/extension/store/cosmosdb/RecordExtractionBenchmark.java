@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) 2019, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+
+
+package io.siddhi.extension.store.cosmosdb;
+
+import com.microsoft.azure.documentdb.Document;
+import io.siddhi.query.api.definition.Attribute;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the cost of extracting the records of a page of query results, as done by {@link CosmosIterator} for
+ * every record returned by find(), over documents of increasing width.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RecordExtractionBenchmark {
+
+    private static final int PAGE_SIZE = 100;
+
+    @Param({"5", "20", "50"})
+    private int attributeCount;
+
+    private List<String> attributes;
+    private Attribute.Type[] types;
+    private List<Document> page;
+
+    @Setup
+    public void setup() {
+        attributes = new ArrayList<>(attributeCount);
+        types = new Attribute.Type[attributeCount];
+        for (int i = 0; i < attributeCount; i++) {
+            attributes.add(ConditionExpressions.attributeName(i));
+        }
+        page = new ArrayList<>(PAGE_SIZE);
+        for (int i = 0; i < PAGE_SIZE; i++) {
+            Document document = new Document();
+            document.setId("document" + i);
+            for (int j = 0; j < attributeCount; j++) {
+                //Alternate the attribute types, as stored by tables with mixed attribute types.
+                switch (j % 3) {
+                    case 0:
+                        document.set(attributes.get(j), "value" + i);
+                        types[j] = Attribute.Type.STRING;
+                        break;
+                    case 1:
+                        document.set(attributes.get(j), (long) i * j);
+                        types[j] = Attribute.Type.LONG;
+                        break;
+                    default:
+                        document.set(attributes.get(j), i * 0.5d);
+                        types[j] = Attribute.Type.DOUBLE;
+                        break;
+                }
+            }
+            page.add(document);
+        }
+    }
+
+    @Benchmark
+    public void extractPage(Blackhole blackhole) {
+        CosmosIterator iterator = new CosmosIterator(page, attributes, types, ConditionExpressions.COLLECTION_ID);
+        while (iterator.hasNext()) {
+            blackhole.consume(iterator.next());
+        }
+    }
+}
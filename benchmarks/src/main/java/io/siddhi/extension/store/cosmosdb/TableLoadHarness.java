@@ -0,0 +1,286 @@
+/*
+ * Copyright (c) 2019, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+
+
+package io.siddhi.extension.store.cosmosdb;
+
+import com.microsoft.azure.documentdb.ConnectionPolicy;
+import com.microsoft.azure.documentdb.ConsistencyLevel;
+import com.microsoft.azure.documentdb.Database;
+import com.microsoft.azure.documentdb.DocumentClient;
+import com.microsoft.azure.documentdb.DocumentClientException;
+import io.siddhi.core.SiddhiAppRuntime;
+import io.siddhi.core.SiddhiManager;
+import io.siddhi.core.config.StatisticsConfiguration;
+import io.siddhi.core.event.Event;
+import io.siddhi.core.stream.input.InputHandler;
+import io.siddhi.core.stream.output.StreamCallback;
+import io.siddhi.core.util.config.InMemoryConfigManager;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An end-to-end load harness, which pushes events through a Siddhi app using a CosmosDB Event Table and reports the
+ * throughput, request units (RU) per event and latency percentiles of each workload. Unlike the microbenchmarks, it
+ * exercises the table along with the DocumentClient and the account, hence it is used to compare connection modes,
+ * batch sizes and concurrency settings on the same workload.
+ * <p>
+ * The harness runs against the account given by the 'cosmosdb.uri' and 'cosmosdb.key' system properties, or else
+ * against an in-process emulator. It is configured through the following system properties.
+ * <ul>
+ * <li>harness.workloads: the workloads to run in order, out of insert, update, updateOrInsert, join and delete
+ * (default: all of them, in that order). Each workload works on the documents written by the insert workload.</li>
+ * <li>harness.events: the number of events pushed per workload (default: 100000).</li>
+ * <li>harness.threads: the number of threads pushing events concurrently (default: 1).</li>
+ * <li>harness.table.options: additional elements of the store annotation, e.g.
+ * "bulk.insert.batch.size='100', max.inflight.writes='16'".</li>
+ * <li>harness.config.{name}: a system parameter of the table, e.g. harness.config.connectionMode=DirectHttps.</li>
+ * <li>harness.database: the database the table is created in (default: Benchmark).</li>
+ * <li>harness.emulator.latency and harness.emulator.throttle.probability: the latency in milliseconds added to each
+ * request, and the probability of throttling a request, when running against the emulator.</li>
+ * </ul>
+ * For example, 'java -Dharness.events=1000000 -Dharness.threads=8 -Dharness.config.connectionMode=Gateway -cp
+ * benchmarks.jar io.siddhi.extension.store.cosmosdb.TableLoadHarness'. The emulator only serves the gateway
+ * connection mode.
+ */
+public final class TableLoadHarness {
+
+    private static final String COLLECTION_ID = "LoadHarnessTable";
+    private static final String CONFIG_PREFIX = "harness.config.";
+    private static final List<String> WORKLOADS = Arrays.asList("insert", "update", "updateOrInsert", "join",
+            "delete");
+
+    private final String uri;
+    private final String key;
+    private final String database;
+    private final int events;
+    private final int threads;
+    private final String tableOptions;
+    private final Map<String, String> systemConfigs = new HashMap<>();
+
+    private TableLoadHarness(String uri, String key) {
+        this.uri = uri;
+        this.key = key;
+        this.database = System.getProperty("harness.database", "Benchmark");
+        this.events = Integer.getInteger("harness.events", 100000);
+        this.threads = Integer.getInteger("harness.threads", 1);
+        String options = System.getProperty("harness.table.options", "").trim();
+        this.tableOptions = options.isEmpty() ? "" : ", " + options;
+        for (String property : System.getProperties().stringPropertyNames()) {
+            if (property.startsWith(CONFIG_PREFIX)) {
+                systemConfigs.put("store.cosmosdb." + property.substring(CONFIG_PREFIX.length()),
+                        System.getProperty(property));
+            }
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        CosmosEmulator emulator = null;
+        String uri = System.getProperty("cosmosdb.uri");
+        String key = System.getProperty("cosmosdb.key");
+        if (uri == null) {
+            emulator = new CosmosEmulator().start();
+            emulator.setLatency(Long.getLong("harness.emulator.latency", 0));
+            emulator.setThrottleProbability(Double.parseDouble(
+                    System.getProperty("harness.emulator.throttle.probability", "0")));
+            uri = emulator.getUri();
+            key = CosmosEmulator.MASTER_KEY;
+        }
+        TableLoadHarness harness = new TableLoadHarness(uri, key);
+        String workloads = System.getProperty("harness.workloads", String.join(",", WORKLOADS));
+        try {
+            harness.run(Arrays.asList(workloads.split(",")));
+        } finally {
+            if (emulator != null) {
+                emulator.stop();
+            }
+        }
+    }
+
+    private void run(List<String> workloads) throws InterruptedException {
+        prepareCollection();
+        System.out.println(String.format(Locale.ENGLISH, "Running %s against '%s' with %d events and %d thread(s)" +
+                        "%s%s", workloads, uri, events, threads, tableOptions.isEmpty() ? "" : ", options: " +
+                        tableOptions.substring(2), systemConfigs.isEmpty() ? "" : ", configs: " + systemConfigs));
+        System.out.println(String.format(Locale.ENGLISH, "%-16s %10s %12s %10s %10s %10s %10s %10s %10s %10s",
+                "workload", "events", "events/s", "RU/event", "requests", "throttled", "p50 (us)", "p90 (us)",
+                "p99 (us)", "max (us)"));
+        for (String workload : workloads) {
+            if (!WORKLOADS.contains(workload.trim())) {
+                throw new IllegalArgumentException("Unknown workload '" + workload + "', expected one of " +
+                        WORKLOADS + ".");
+            }
+            runWorkload(workload.trim());
+        }
+    }
+
+    private void runWorkload(String workload) throws InterruptedException {
+        HarnessStatistics statistics = new HarnessStatistics();
+        SiddhiManager siddhiManager = new SiddhiManager();
+        siddhiManager.setStatisticsConfiguration(new StatisticsConfiguration(statistics));
+        siddhiManager.setConfigManager(new InMemoryConfigManager(systemConfigs, null));
+        SiddhiAppRuntime siddhiAppRuntime = siddhiManager.createSiddhiAppRuntime(createApp(workload));
+        AtomicLong outputEvents = new AtomicLong();
+        siddhiAppRuntime.addCallback("OutputStream", new StreamCallback() {
+            @Override
+            public void receive(Event[] events) {
+                outputEvents.addAndGet(events.length);
+            }
+        });
+        InputHandler inputHandler = siddhiAppRuntime.getInputHandler("InputStream");
+        siddhiAppRuntime.start();
+        statistics.reset();
+
+        long[][] latencies = new long[threads][];
+        List<Thread> senders = new ArrayList<>(threads);
+        long start = System.nanoTime();
+        for (int t = 0; t < threads; t++) {
+            int thread = t;
+            Thread sender = new Thread(() -> latencies[thread] = send(inputHandler, thread, workload),
+                    "LoadHarness-" + workload + "-" + t);
+            senders.add(sender);
+            sender.start();
+        }
+        for (Thread sender : senders) {
+            sender.join();
+        }
+        //Shutting down the app waits for the writes in flight, which are part of the workload.
+        siddhiAppRuntime.shutdown();
+        long elapsed = System.nanoTime() - start;
+        siddhiManager.shutdown();
+
+        long[] allLatencies = merge(latencies);
+        double requestUnits = statistics.getTotal("requestUnits");
+        System.out.println(String.format(Locale.ENGLISH,
+                "%-16s %10d %12.1f %10.2f %10d %10d %10.1f %10.1f %10.1f %10.1f%s", workload, allLatencies.length,
+                allLatencies.length / (elapsed / 1e9), requestUnits / allLatencies.length,
+                statistics.getTotal("requests"), statistics.getTotal("throttledRequests"),
+                percentile(allLatencies, 0.5), percentile(allLatencies, 0.9), percentile(allLatencies, 0.99),
+                percentile(allLatencies, 1), workload.equals("join") ? " (" + outputEvents.get() + " joined)" : ""));
+    }
+
+    private String createApp(String workload) {
+        String query;
+        switch (workload) {
+            case "insert":
+                query = "from InputStream insert into StockTable;";
+                break;
+            case "update":
+                query = "from InputStream update StockTable set StockTable.price = price " +
+                        "on StockTable.symbol == symbol;";
+                break;
+            case "updateOrInsert":
+                query = "from InputStream update or insert into StockTable " +
+                        "set StockTable.price = price, StockTable.volume = volume on StockTable.symbol == symbol;";
+                break;
+            case "join":
+                query = "from InputStream join StockTable on StockTable.symbol == InputStream.symbol " +
+                        "select InputStream.symbol as symbol, StockTable.price as price insert into OutputStream;";
+                break;
+            default:
+                query = "from InputStream delete StockTable on StockTable.symbol == symbol;";
+                break;
+        }
+        return "@app:name('LoadHarness') @app:statistics('true') " +
+                "define stream InputStream (symbol string, price float, volume long); " +
+                "define stream OutputStream (symbol string, price float); " +
+                "@store(type='cosmosdb', uri='" + uri + "', access.key='" + key + "', database.name='" + database +
+                "', collection.name='" + COLLECTION_ID + "'" + tableOptions + ") " +
+                "@PrimaryKey('symbol') " +
+                "define table StockTable (symbol string, price float, volume long); " +
+                "@info(name = 'query') " + query;
+    }
+
+    /**
+     * Pushes the share of the events of a thread, i.e. every event whose index is the thread number modulo the number
+     * of threads, and returns the latency of each push in nanoseconds.
+     */
+    private long[] send(InputHandler inputHandler, int thread, String workload) {
+        int count = events / threads + (thread < events % threads ? 1 : 0);
+        long[] latencies = new long[count];
+        float priceOffset = workload.equals("insert") ? 0 : 1;
+        for (int i = 0; i < count; i++) {
+            int index = i * threads + thread;
+            Object[] data = {"SYMBOL" + index, 50f + (index % 100) + priceOffset, (long) index};
+            long start = System.nanoTime();
+            try {
+                inputHandler.send(data);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return Arrays.copyOf(latencies, i);
+            }
+            latencies[i] = System.nanoTime() - start;
+        }
+        return latencies;
+    }
+
+    private void prepareCollection() {
+        try (DocumentClient documentClient = new DocumentClient(uri, key, ConnectionPolicy.GetDefault(),
+                ConsistencyLevel.Session)) {
+            List<Database> databases = documentClient.queryDatabases("SELECT * FROM root r WHERE r.id='" +
+                    database + "'", null).getQueryIterable().toList();
+            if (databases.isEmpty()) {
+                Database databaseDefinition = new Database();
+                databaseDefinition.setId(database);
+                documentClient.createDatabase(databaseDefinition, null);
+            }
+            try {
+                documentClient.deleteCollection(String.format("/dbs/%s/colls/%s", database, COLLECTION_ID), null);
+            } catch (DocumentClientException e) {
+                if (e.getStatusCode() != 404) {
+                    throw e;
+                }
+            }
+        } catch (DocumentClientException e) {
+            throw new IllegalStateException("Failed to prepare the collection of the load harness. ", e);
+        }
+    }
+
+    private static long[] merge(long[][] latencies) {
+        int length = 0;
+        for (long[] threadLatencies : latencies) {
+            length += threadLatencies.length;
+        }
+        long[] merged = new long[length];
+        int position = 0;
+        for (long[] threadLatencies : latencies) {
+            System.arraycopy(threadLatencies, 0, merged, position, threadLatencies.length);
+            position += threadLatencies.length;
+        }
+        Arrays.sort(merged);
+        return merged;
+    }
+
+    /**
+     * Returns a percentile of sorted latencies, in microseconds.
+     */
+    private static double percentile(long[] sortedLatencies, double percentile) {
+        if (sortedLatencies.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(percentile * sortedLatencies.length) - 1;
+        return sortedLatencies[Math.max(0, index)] / 1000.0;
+    }
+}
@@ -0,0 +1,540 @@
+/*
+ * Copyright (c) 2019, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+
+package io.siddhi.extension.store.cosmosdb;
+
+import com.microsoft.azure.documentdb.ChangeFeedOptions;
+import com.microsoft.azure.documentdb.Document;
+import com.microsoft.azure.documentdb.DocumentClient;
+import com.microsoft.azure.documentdb.DocumentClientException;
+import com.microsoft.azure.documentdb.FeedOptions;
+import com.microsoft.azure.documentdb.PartitionKeyRange;
+import com.microsoft.azure.documentdb.QueryIterable;
+import com.microsoft.azure.documentdb.Resource;
+import io.siddhi.core.exception.SiddhiAppRuntimeException;
+import io.siddhi.extension.store.cosmosdb.util.CosmosTableConstants;
+import io.siddhi.extension.store.cosmosdb.util.CosmosTableUtils;
+import io.siddhi.query.api.definition.Attribute;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.ToDoubleFunction;
+import java.util.function.ToIntFunction;
+
+/**
+ * An in-memory copy of the collection of a CosmosDB Event Table, which serves the reads of the table without querying
+ * Cosmos DB. The copy is loaded by reading the change feed of each partition key range of the collection from its
+ * beginning, and is kept current by reading the changes which follow in the background. Records are held by the
+ * resource ids of their documents, and hash indexes are kept on the attributes which the compiled conditions of the
+ * table compare for equality.
+ * <p>
+ * The change feed holds the creates and replaces of documents, but not their deletes. Hence the documents deleted by
+ * the table are removed from the copy directly, while the copy is reloaded periodically, if configured, to drop the
+ * documents deleted by others. Writes of the table are seen by its following reads, which catch up with the change
+ * feed before being served.
+ */
+final class CosmosChangeFeedReplica {
+
+    private static final Log log = LogFactory.getLog(CosmosChangeFeedReplica.class);
+    private final String collectionId;
+    private final List<String> attributeNames;
+    private final Attribute.Type[] attributeTypes;
+    private final long pollIntervalMillis;
+    private final long reloadIntervalNanos;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<String, Object[]> records = new HashMap<>();
+    private final Map<String, String> resourceIds = new HashMap<>();
+    private final Map<String, String> documentIds = new HashMap<>();
+    private final Map<Integer, Map<Object, Set<String>>> indexes = new HashMap<>();
+    private final Object feedLock = new Object();
+    private final Map<String, String> continuations = new HashMap<>();
+    private final AtomicBoolean stale = new AtomicBoolean();
+    private final AtomicBoolean reloadRequired = new AtomicBoolean();
+    private DocumentClient documentClient;
+    private String collectionLink;
+    private RequestExecutor requestExecutor;
+    private ScheduledExecutorService executorService;
+    private long loadTime;
+    private volatile long caughtUpTime;
+
+    /**
+     * Creates a replica.
+     *
+     * @param collectionId          the id of the replicated collection.
+     * @param attributeNames        the names of the attributes of the table, in the order of the records.
+     * @param attributeTypes        the types of the attributes of the table.
+     * @param pollIntervalSeconds   the number of seconds between two reads of the change feed.
+     * @param reloadIntervalSeconds the number of seconds after which the replica is reloaded, or a non-positive value
+     *                              if it should only be reloaded on the bulk deletes of the table.
+     */
+    CosmosChangeFeedReplica(String collectionId, List<String> attributeNames, Attribute.Type[] attributeTypes,
+                            double pollIntervalSeconds, double reloadIntervalSeconds) {
+        this.collectionId = collectionId;
+        this.attributeNames = attributeNames;
+        this.attributeTypes = attributeTypes;
+        this.pollIntervalMillis = Math.max((long) (pollIntervalSeconds * 1000), 1);
+        this.reloadIntervalNanos = (long) (reloadIntervalSeconds * 1_000_000_000L);
+    }
+
+    /**
+     * Method for loading the replica and starting to read the change feed in the background.
+     *
+     * @param documentClient  the client of the collection.
+     * @param collectionLink  the link of the collection.
+     * @param requestExecutor the executor of the requests made to Cosmos DB, which accounts for their charges.
+     * @throws DocumentClientException if the collection could not be loaded.
+     */
+    void start(DocumentClient documentClient, String collectionLink, RequestExecutor requestExecutor)
+            throws DocumentClientException {
+        stop();
+        synchronized (feedLock) {
+            this.documentClient = documentClient;
+            this.collectionLink = collectionLink;
+            this.requestExecutor = requestExecutor;
+            load();
+        }
+        executorService = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "CosmosDB-Replica-" + collectionId);
+            thread.setDaemon(true);
+            return thread;
+        });
+        executorService.scheduleWithFixedDelay(this::refreshInBackground, pollIntervalMillis, pollIntervalMillis,
+                TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Method for stopping to read the change feed and discarding the records of the replica.
+     */
+    void stop() {
+        if (executorService != null) {
+            executorService.shutdownNow();
+            executorService = null;
+        }
+        synchronized (feedLock) {
+            lock.writeLock().lock();
+            try {
+                records.clear();
+                resourceIds.clear();
+                documentIds.clear();
+                indexes.values().forEach(Map::clear);
+            } finally {
+                lock.writeLock().unlock();
+            }
+            continuations.clear();
+            documentClient = null;
+            caughtUpTime = 0;
+        }
+    }
+
+    /**
+     * Method for keeping a hash index on an attribute, which is built from the records already held, if any.
+     *
+     * @param attributeIndex the index of the attribute in the records.
+     */
+    void addIndex(int attributeIndex) {
+        lock.writeLock().lock();
+        try {
+            if (indexes.containsKey(attributeIndex)) {
+                return;
+            }
+            Map<Object, Set<String>> index = new HashMap<>();
+            for (Map.Entry<String, Object[]> entry : records.entrySet()) {
+                index.computeIfAbsent(getIndexKey(entry.getValue()[attributeIndex]), key -> new HashSet<>())
+                        .add(entry.getKey());
+            }
+            indexes.put(attributeIndex, index);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Method for marking that the table has written documents, which its following reads should see.
+     */
+    void markStale() {
+        stale.set(true);
+    }
+
+    /**
+     * Method for marking that the table has deleted documents which it cannot identify, e.g. on the server side, which
+     * requires the replica to be reloaded before its following reads, since deletes are not part of the change feed.
+     */
+    void markReloadRequired() {
+        reloadRequired.set(true);
+    }
+
+    /**
+     * Method for removing the record of a document deleted by the table, since deletes are not part of the change
+     * feed. The record is removed in order with the changes read from the feed, so that a change read before the
+     * delete does not bring the record back.
+     *
+     * @param documentId the id of the deleted document.
+     */
+    void removeDocument(String documentId) {
+        synchronized (feedLock) {
+            lock.writeLock().lock();
+            try {
+                String resourceId = resourceIds.get(documentId);
+                if (resourceId != null) {
+                    remove(resourceId);
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * Method for removing the record of a document deleted by the table, given its resource id.
+     *
+     * @param resourceId the resource id of the deleted document.
+     * @see #removeDocument(String)
+     */
+    void removeResource(String resourceId) {
+        synchronized (feedLock) {
+            lock.writeLock().lock();
+            try {
+                remove(resourceId);
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * Method for finding the records which satisfy a condition.
+     *
+     * @param condition    the condition.
+     * @param parameterMap the map which contains the runtime value(s) for the condition.
+     * @return the records, which must not be modified.
+     */
+    List<Object[]> find(CosmosReplicaCondition condition, Map<String, Object> parameterMap) {
+        catchUp();
+        List<Object[]> matchingRecords = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            for (Object[] record : getCandidates(condition, parameterMap)) {
+                if (condition.matches(record, parameterMap)) {
+                    matchingRecords.add(record);
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return matchingRecords;
+    }
+
+    /**
+     * Method for checking whether any record satisfies a condition.
+     *
+     * @param condition    the condition.
+     * @param parameterMap the map which contains the runtime value(s) for the condition.
+     * @return true if a record satisfies the condition.
+     */
+    boolean contains(CosmosReplicaCondition condition, Map<String, Object> parameterMap) {
+        catchUp();
+        lock.readLock().lock();
+        try {
+            for (Object[] record : getCandidates(condition, parameterMap)) {
+                if (condition.matches(record, parameterMap)) {
+                    return true;
+                }
+            }
+            return false;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Method for reading the lag of the replica behind the change feed, i.e. the time since the replica last read all
+     * the changes of the feed.
+     *
+     * @return the lag in milliseconds, or 0 if the replica is not started.
+     */
+    long getLag() {
+        long lastCaughtUpTime = caughtUpTime;
+        return lastCaughtUpTime == 0 ? 0 : System.currentTimeMillis() - lastCaughtUpTime;
+    }
+
+    private Collection<Object[]> getCandidates(CosmosReplicaCondition condition, Map<String, Object> parameterMap) {
+        Map<Object, Set<String>> index = indexes.get(condition.getIndexAttribute());
+        if (index == null) {
+            return records.values();
+        }
+        Object indexValue = condition.resolveIndexValue(parameterMap);
+        Set<String> resourceIds = indexValue == null ? null : index.get(getIndexKey(indexValue));
+        if (resourceIds == null) {
+            return Collections.emptyList();
+        }
+        List<Object[]> candidates = new ArrayList<>(resourceIds.size());
+        for (String resourceId : resourceIds) {
+            candidates.add(records.get(resourceId));
+        }
+        return candidates;
+    }
+
+    /**
+     * Method for reading the changes written by the table, before serving one of its reads.
+     */
+    private void catchUp() {
+        try {
+            if (reloadRequired.getAndSet(false)) {
+                stale.set(false);
+                synchronized (feedLock) {
+                    load();
+                }
+            } else if (stale.getAndSet(false)) {
+                synchronized (feedLock) {
+                    poll();
+                }
+            }
+        } catch (DocumentClientException e) {
+            throw new SiddhiAppRuntimeException("Error reading the change feed of store '" + collectionId + "'. ", e);
+        }
+    }
+
+    private void refreshInBackground() {
+        try {
+            synchronized (feedLock) {
+                if (documentClient == null) {
+                    return;
+                }
+                if (reloadIntervalNanos > 0 && System.nanoTime() - loadTime >= reloadIntervalNanos) {
+                    load();
+                } else {
+                    poll();
+                }
+            }
+        } catch (DocumentClientException | RuntimeException e) {
+            //The replica falls behind until the feed can be read again, which is reflected by its lag.
+            log.warn("Failed to read the change feed of store '" + collectionId + "'. The replica is " + getLag() +
+                    " ms behind the feed. ", e);
+        }
+    }
+
+    /**
+     * Method for loading all the documents of the collection, replacing the records held. Must be called holding the
+     * feed lock.
+     */
+    private void load() throws DocumentClientException {
+        long startTime = System.currentTimeMillis();
+        QueryIterable<PartitionKeyRange> rangeIterable = documentClient.readPartitionKeyRanges(collectionLink,
+                (FeedOptions) null).getQueryIterable();
+        List<PartitionKeyRange> ranges = new ArrayList<>();
+        List<PartitionKeyRange> page;
+        while ((page = fetchNextPage(rangeIterable)) != null) {
+            ranges.addAll(page);
+        }
+        continuations.clear();
+        Map<String, Document> loadedDocuments = new HashMap<>();
+        for (PartitionKeyRange range : ranges) {
+            continuations.put(range.getId(), null);
+            for (Document document : readChanges(range.getId())) {
+                loadedDocuments.put(document.getResourceId(), document);
+            }
+        }
+        lock.writeLock().lock();
+        try {
+            records.clear();
+            resourceIds.clear();
+            documentIds.clear();
+            indexes.values().forEach(Map::clear);
+            for (Document document : loadedDocuments.values()) {
+                put(document);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        loadTime = System.nanoTime();
+        caughtUpTime = startTime;
+        if (log.isDebugEnabled()) {
+            log.debug("Loaded " + loadedDocuments.size() + " document(s) of store '" + collectionId + "' from " +
+                    ranges.size() + " partition key range(s) in " + (System.currentTimeMillis() - startTime) +
+                    " ms. ");
+        }
+    }
+
+    /**
+     * Method for reading the changes which followed the last read of the change feed, and applying them to the
+     * records held. The replica is reloaded if a partition key range no longer exists, e.g. after it is split. Must be
+     * called holding the feed lock.
+     */
+    private void poll() throws DocumentClientException {
+        long startTime = System.currentTimeMillis();
+        List<Document> changes = new ArrayList<>();
+        try {
+            for (String rangeId : continuations.keySet()) {
+                changes.addAll(readChanges(rangeId));
+            }
+        } catch (DocumentClientException e) {
+            if (e.getStatusCode() != CosmosTableConstants.HTTP_STATUS_GONE) {
+                throw e;
+            }
+            load();
+            return;
+        }
+        if (!changes.isEmpty()) {
+            lock.writeLock().lock();
+            try {
+                for (Document document : changes) {
+                    put(document);
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+        caughtUpTime = startTime;
+    }
+
+    /**
+     * Method for reading the changes of a partition key range which followed the last read of its change feed, or
+     * all of its documents if its change feed was not read yet.
+     *
+     * @param rangeId the id of the partition key range.
+     * @return the changed documents, in the order of their changes.
+     */
+    private List<Document> readChanges(String rangeId) throws DocumentClientException {
+        ChangeFeedOptions options = new ChangeFeedOptions();
+        options.setPartitionKeyRangeId(rangeId);
+        String continuation = continuations.get(rangeId);
+        if (continuation == null) {
+            options.setStartFromBeginning(true);
+        } else {
+            options.setRequestContinuation(continuation);
+        }
+        QueryIterable<Document> feedIterable = documentClient.queryDocumentChangeFeed(collectionLink, options)
+                .getQueryIterable();
+        List<Document> changes = new ArrayList<>();
+        List<Document> page;
+        do {
+            page = fetchNextPage(feedIterable);
+            if (page != null) {
+                changes.addAll(page);
+            }
+            //The etag of a page of the feed is the position to continue reading the feed from.
+            Map<String, String> responseHeaders = feedIterable.getResponseHeaders();
+            String etag = responseHeaders == null ? null : responseHeaders.get(CosmosTableConstants.HEADER_ETAG);
+            if (etag != null) {
+                continuations.put(rangeId, etag);
+            }
+        } while (page != null);
+        return changes;
+    }
+
+    private <T extends Resource> List<T> fetchNextPage(QueryIterable<T> queryIterable)
+            throws DocumentClientException {
+        return requestExecutor.execute(queryIterable::fetchNextBlock, page -> page == null ? 0 :
+                CosmosTableUtils.getRequestCharge(queryIterable.getResponseHeaders()),
+                page -> page == null ? 0 : page.size());
+    }
+
+    private Object[] toRecord(Document document) {
+        Object[] record = new Object[attributeNames.size()];
+        for (int i = 0; i < record.length; i++) {
+            record[i] = CosmosTableUtils.convertValue(document.get(attributeNames.get(i)), attributeTypes[i]);
+        }
+        return record;
+    }
+
+    /**
+     * Method for holding the record of a document, replacing the previous version of the document, if any. Must be
+     * called holding the write lock.
+     */
+    private void put(Document document) {
+        String resourceId = document.getResourceId();
+        Object[] record = toRecord(document);
+        Object[] previousRecord = records.put(resourceId, record);
+        resourceIds.put(document.getId(), resourceId);
+        documentIds.put(resourceId, document.getId());
+        for (Map.Entry<Integer, Map<Object, Set<String>>> index : indexes.entrySet()) {
+            if (previousRecord != null) {
+                removeIndexKey(index.getValue(), previousRecord[index.getKey()], resourceId);
+            }
+            index.getValue().computeIfAbsent(getIndexKey(record[index.getKey()]), key -> new HashSet<>())
+                    .add(resourceId);
+        }
+    }
+
+    /**
+     * Method for removing the record of a document, if held. Must be called holding the write lock.
+     */
+    private void remove(String resourceId) {
+        Object[] record = records.remove(resourceId);
+        if (record == null) {
+            return;
+        }
+        resourceIds.remove(documentIds.remove(resourceId), resourceId);
+        for (Map.Entry<Integer, Map<Object, Set<String>>> index : indexes.entrySet()) {
+            removeIndexKey(index.getValue(), record[index.getKey()], resourceId);
+        }
+    }
+
+    private static void removeIndexKey(Map<Object, Set<String>> index, Object value, String resourceId) {
+        Object key = getIndexKey(value);
+        Set<String> keyResourceIds = index.get(key);
+        if (keyResourceIds != null) {
+            keyResourceIds.remove(resourceId);
+            if (keyResourceIds.isEmpty()) {
+                index.remove(key);
+            }
+        }
+    }
+
+    /**
+     * Method for building the key of a value in a hash index. Numbers which are equal in value share a key regardless
+     * of their types, as they are equal in conditions.
+     *
+     * @param value the value.
+     * @return the key of the value.
+     */
+    private static Object getIndexKey(Object value) {
+        if (CosmosReplicaConditionVisitor.isIntegral(value)) {
+            return ((Number) value).longValue();
+        } else if (value instanceof Number) {
+            double doubleValue = ((Number) value).doubleValue();
+            return doubleValue == (long) doubleValue ? (Object) (long) doubleValue : (Object) doubleValue;
+        }
+        return value;
+    }
+
+    /**
+     * The executor of the requests made by the replica, which accounts for their charges as the table does.
+     */
+    @FunctionalInterface
+    interface RequestExecutor {
+
+        <T> T execute(CosmosRequest<T> request, ToDoubleFunction<T> requestCharge, ToIntFunction<T> documentCount)
+                throws DocumentClientException;
+    }
+}
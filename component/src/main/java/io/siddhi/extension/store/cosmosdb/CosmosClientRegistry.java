@@ -0,0 +1,124 @@
+/*
+ * Copyright (c) 2019, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+
+package io.siddhi.extension.store.cosmosdb;
+
+import com.microsoft.azure.documentdb.ConnectionPolicy;
+import com.microsoft.azure.documentdb.ConsistencyLevel;
+import com.microsoft.azure.documentdb.DocumentClient;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A registry of the DocumentClients used by CosmosDB Event Tables. Tables connecting to the same account with the same
+ * connection policy and consistency level share a single client, along with its connection pool and metadata caches.
+ * A client is closed when the last table using it releases it.
+ */
+final class CosmosClientRegistry {
+
+    private static final Log log = LogFactory.getLog(CosmosClientRegistry.class);
+    private static final Map<List<Object>, SharedClient> clients = new HashMap<>();
+    private static final Map<DocumentClient, SharedClient> clientsByInstance = new IdentityHashMap<>();
+
+    private CosmosClientRegistry() {
+    }
+
+    /**
+     * Method for acquiring a reference to the client for the given account and settings, creating it if no table
+     * holds such a client.
+     *
+     * @param uri              the uri of the account.
+     * @param accessKey        the access key of the account.
+     * @param connectionPolicy the connection policy of the client.
+     * @param consistencyLevel the consistency level of the client.
+     * @return the client, which should be released through {@link #release(DocumentClient)} once no longer used.
+     */
+    static synchronized DocumentClient acquire(String uri, String accessKey, ConnectionPolicy connectionPolicy,
+                                               ConsistencyLevel consistencyLevel) {
+        List<Object> clientKey = getClientKey(uri, accessKey, connectionPolicy, consistencyLevel);
+        SharedClient sharedClient = clients.get(clientKey);
+        if (sharedClient == null) {
+            sharedClient = new SharedClient(clientKey,
+                    new DocumentClient(uri, accessKey, connectionPolicy, consistencyLevel));
+            clients.put(clientKey, sharedClient);
+            clientsByInstance.put(sharedClient.documentClient, sharedClient);
+        } else if (log.isDebugEnabled()) {
+            log.debug("Sharing the client of '" + uri + "' with " + sharedClient.references + " other table(s).");
+        }
+        sharedClient.references++;
+        return sharedClient.documentClient;
+    }
+
+    /**
+     * Method for releasing a reference to a client acquired from the registry. The client is closed when no table
+     * holds a reference to it.
+     *
+     * @param documentClient the client to be released.
+     */
+    static synchronized void release(DocumentClient documentClient) {
+        SharedClient sharedClient = clientsByInstance.get(documentClient);
+        if (sharedClient == null) {
+            return;
+        }
+        if (--sharedClient.references == 0) {
+            clients.remove(sharedClient.clientKey);
+            clientsByInstance.remove(documentClient);
+            documentClient.close();
+        }
+    }
+
+    /**
+     * Method for building the key identifying a client, from the values of its settings. ConnectionPolicy does not
+     * define equality, hence the key holds the individual settings.
+     */
+    private static List<Object> getClientKey(String uri, String accessKey, ConnectionPolicy connectionPolicy,
+                                             ConsistencyLevel consistencyLevel) {
+        return Arrays.asList(uri, accessKey, consistencyLevel,
+                connectionPolicy.getRequestTimeout(), connectionPolicy.getDirectRequestTimeout(),
+                connectionPolicy.getMediaRequestTimeout(), connectionPolicy.getConnectionMode(),
+                connectionPolicy.getMediaReadMode(), connectionPolicy.getMaxPoolSize(),
+                connectionPolicy.getIdleConnectionTimeout(), connectionPolicy.getUserAgentSuffix(),
+                connectionPolicy.getRetryOptions().getMaxRetryAttemptsOnThrottledRequests(),
+                connectionPolicy.getRetryOptions().getMaxRetryWaitTimeInSeconds(),
+                connectionPolicy.getEnableEndpointDiscovery(), String.valueOf(connectionPolicy.getPreferredLocations()),
+                connectionPolicy.isUsingMultipleWriteLocations(),
+                connectionPolicy.getHandleServiceUnavailableFromProxy());
+    }
+
+    /**
+     * A client along with the number of tables holding a reference to it.
+     */
+    private static class SharedClient {
+
+        private final List<Object> clientKey;
+        private final DocumentClient documentClient;
+        private int references;
+
+        private SharedClient(List<Object> clientKey, DocumentClient documentClient) {
+            this.clientKey = clientKey;
+            this.documentClient = documentClient;
+        }
+    }
+}
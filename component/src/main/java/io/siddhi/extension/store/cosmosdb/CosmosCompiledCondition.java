@@ -19,32 +19,107 @@
 
 package io.siddhi.extension.store.cosmosdb;
 
+import com.microsoft.azure.documentdb.SqlParameter;
 import io.siddhi.core.executor.ExpressionExecutor;
 import io.siddhi.core.table.record.UpdateOrInsertReducer;
 import io.siddhi.core.util.collection.operator.CompiledCondition;
+import io.siddhi.extension.store.cosmosdb.util.Constant;
+import io.siddhi.extension.store.cosmosdb.util.CosmosTableConstants;
 
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
 import java.util.SortedMap;
 
 /**
  * Implementation class of {@link CompiledCondition} corresponding to the CosmosDB Event Table.
  * Maintains the condition string returned by the ConditionVisitor as well as a map of parameters to be used at runtime.
+ * The condition refers to its parameters by name ("@p1", "@p2", ...), hence only the parameter values need to be bound
+ * at runtime. Constant parameters are bound once, at compile time.
+ * The full texts of the select, find and contains queries are also built once, at compile time, so that no query
+ * text is assembled per event. Instances are immutable and are shared by all the events processed through the
+ * condition.
+ * When the condition identifies a single document, the operands which make up the document key are kept as well, so
+ * that the document can be addressed directly instead of being queried.
+ * When the change feed replica or the write-behind buffer of the table is enabled, the condition is also compiled for
+ * evaluation over the records of the replica or the buffered documents, if it can be evaluated in memory.
  */
 public class CosmosCompiledCondition implements CompiledCondition {
 
-    private String compiledQuery;
-    private SortedMap<Integer, Object> parameters;
+    private final String compiledQuery;
+    private final String selectQuery;
+    private final String findQuery;
+    private final String containsQuery;
+    private final SortedMap<Integer, Object> parameters;
+    private final List<String> parameterNames;
+    private final List<Object> parameterBindings;
+    private final List<Object> documentKeyOperands;
+    private final CosmosReplicaCondition replicaCondition;
 
-    public CosmosCompiledCondition(String compiledQuery, SortedMap<Integer, Object> parameters,
+    public CosmosCompiledCondition(String compiledQuery, String selectQuery, String findQuery, String containsQuery,
+                                   SortedMap<Integer, Object> parameters, Object[] documentKeyOperands,
                                    UpdateOrInsertReducer updateOrInsertReducer,
-                                   ExpressionExecutor inMemorySetExpressionExecutor) {
+                                   ExpressionExecutor inMemorySetExpressionExecutor,
+                                   CosmosReplicaCondition replicaCondition) {
+        this.documentKeyOperands = documentKeyOperands == null ? null :
+                Collections.unmodifiableList(Arrays.asList(documentKeyOperands.clone()));
+        this.replicaCondition = replicaCondition;
         this.compiledQuery = compiledQuery;
-        this.parameters = parameters;
+        this.selectQuery = selectQuery;
+        this.findQuery = findQuery;
+        this.containsQuery = containsQuery;
+        this.parameters = Collections.unmodifiableSortedMap(parameters);
+        String[] parameterNames = new String[parameters.size()];
+        Object[] parameterBindings = new Object[parameters.size()];
+        int index = 0;
+        for (Map.Entry<Integer, Object> entry : parameters.entrySet()) {
+            String parameterName = CosmosTableConstants.SQL_PARAMETER_PREFIX + entry.getKey();
+            parameterNames[index] = parameterName;
+            if (entry.getValue() instanceof Constant) {
+                parameterBindings[index] = new SqlParameter(parameterName,
+                        ((Constant) entry.getValue()).getValue());
+            } else {
+                parameterBindings[index] = entry.getValue();
+            }
+            index++;
+        }
+        this.parameterNames = Collections.unmodifiableList(Arrays.asList(parameterNames));
+        this.parameterBindings = Collections.unmodifiableList(Arrays.asList(parameterBindings));
     }
 
     public String getCompiledQuery() {
         return compiledQuery;
     }
 
+    /**
+     * Returns the query which selects all the documents matching this condition.
+     *
+     * @return the select query with placeholders for the condition parameters.
+     */
+    public String getSelectQuery() {
+        return selectQuery;
+    }
+
+    /**
+     * Returns the query which selects only the attributes of the table from the documents matching this condition,
+     * leaving out the system properties and any other properties of the documents.
+     *
+     * @return the find query with placeholders for the condition parameters.
+     */
+    public String getFindQuery() {
+        return findQuery;
+    }
+
+    /**
+     * Returns the existence check query of this condition, which selects at most a single document identifier.
+     *
+     * @return the contains query with placeholders for the condition parameters.
+     */
+    public String getContainsQuery() {
+        return containsQuery;
+    }
+
     public String toString() {
         return getCompiledQuery();
     }
@@ -52,4 +127,56 @@ public class CosmosCompiledCondition implements CompiledCondition {
     public SortedMap<Integer, Object> getParameters() {
         return parameters;
     }
+
+    /**
+     * Returns the names of the parameters of this condition, in the order of their ordinals.
+     *
+     * @return the unmodifiable list of parameter names.
+     */
+    public List<String> getParameterNames() {
+        return parameterNames;
+    }
+
+    /**
+     * Returns the bindings of the parameters of this condition, in the order of their ordinals. A binding is either a
+     * {@link SqlParameter} which was resolved at compile time (for constants) or the
+     * {@link io.siddhi.query.api.definition.Attribute} whose runtime value should be bound to the parameter.
+     *
+     * @return the unmodifiable list of parameter bindings.
+     */
+    public List<Object> getParameterBindings() {
+        return parameterBindings;
+    }
+
+    /**
+     * Returns the operands the document key attributes are compared to, in the order of the document key attributes.
+     * An operand is either a {@link Constant} or the {@link io.siddhi.query.api.definition.Attribute} whose runtime
+     * value the key attribute should be equal to.
+     *
+     * @return the unmodifiable list of document key operands, or null if the condition does not identify a single
+     * document.
+     */
+    public List<Object> getDocumentKeyOperands() {
+        return documentKeyOperands;
+    }
+
+    /**
+     * Returns the condition compiled for evaluation in memory, over the change feed replica or the write-behind buffer
+     * of the table.
+     *
+     * @return the replica condition, or null if neither is enabled or the condition cannot be evaluated in memory.
+     */
+    CosmosReplicaCondition getReplicaCondition() {
+        return replicaCondition;
+    }
+
+    /**
+     * Checks whether this compiled expression consists of a single stream variable or constant, as in the set clause
+     * 'set FooTable.price = price'.
+     *
+     * @return true if the expression is a single operand.
+     */
+    public boolean isSingleOperand() {
+        return parameters.size() == 1 && compiledQuery.equals(parameterNames.get(0));
+    }
 }
@@ -0,0 +1,127 @@
+/*
+ * Copyright (c) 2019, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+
+package io.siddhi.extension.store.cosmosdb;
+
+import com.microsoft.azure.documentdb.SqlParameter;
+import io.siddhi.core.util.collection.operator.CompiledSelection;
+import io.siddhi.extension.store.cosmosdb.util.Constant;
+import io.siddhi.extension.store.cosmosdb.util.CosmosTableConstants;
+import io.siddhi.extension.store.cosmosdb.util.CosmosTableUtils;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Implementation class of {@link CompiledSelection} corresponding to the CosmosDB Event Table.
+ * Maintains the select clause of a query, along with its GROUP BY, ORDER BY and OFFSET/LIMIT clauses, so that the
+ * selection is performed by Cosmos DB and only the resulting rows are retrieved. Each selected expression is aliased
+ * by its position ("_a0", "_a1", ...) and its parameters are named apart from those of the condition ("@s0_1", ...),
+ * hence the selection can be combined with any condition of the table. The full query text is built once for each
+ * condition the selection is used with.
+ */
+public class CosmosCompiledSelection implements CompiledSelection {
+
+    private final String selectClause;
+    private final String trailingClauses;
+    private final List<String> aliases;
+    private final List<String> parameterNames;
+    private final List<Object> parameterBindings;
+    private final Map<CosmosCompiledCondition, String> queries = new ConcurrentHashMap<>();
+
+    /**
+     * Creates a compiled selection.
+     *
+     * @param selectClause    the selected expressions along with their aliases, including the TOP clause if any.
+     * @param trailingClauses the GROUP BY, ORDER BY and OFFSET/LIMIT clauses following the condition, if any.
+     * @param aliases         the aliases of the selected expressions, in the order of the output attributes.
+     * @param parameters      the parameters of the selected expressions, keyed by their names. A parameter is either
+     *                        a {@link Constant} or the stream variable
+     *                        {@link io.siddhi.query.api.definition.Attribute} whose runtime value should be bound.
+     */
+    public CosmosCompiledSelection(String selectClause, String trailingClauses, List<String> aliases,
+                                   Map<String, Object> parameters) {
+        this.selectClause = selectClause;
+        this.trailingClauses = trailingClauses;
+        this.aliases = Collections.unmodifiableList(aliases);
+        String[] parameterNames = new String[parameters.size()];
+        Object[] parameterBindings = new Object[parameters.size()];
+        int index = 0;
+        for (Map.Entry<String, Object> entry : parameters.entrySet()) {
+            parameterNames[index] = entry.getKey();
+            if (entry.getValue() instanceof Constant) {
+                parameterBindings[index] = new SqlParameter(entry.getKey(), ((Constant) entry.getValue()).getValue());
+            } else {
+                parameterBindings[index] = entry.getValue();
+            }
+            index++;
+        }
+        this.parameterNames = Collections.unmodifiableList(Arrays.asList(parameterNames));
+        this.parameterBindings = Collections.unmodifiableList(Arrays.asList(parameterBindings));
+    }
+
+    /**
+     * Returns the query which performs this selection over the documents matching the given condition.
+     *
+     * @param compiledCondition the compiled condition of the query.
+     * @param collectionId      the id of the collection queried.
+     * @return the query with placeholders for the parameters of the condition and the selection.
+     */
+    public String getQuery(CosmosCompiledCondition compiledCondition, String collectionId) {
+        return queries.computeIfAbsent(compiledCondition, condition -> CosmosTableUtils.buildQuery(
+                CosmosTableConstants.SQL_SELECT_PROJECTION, selectClause, collectionId,
+                condition.getCompiledQuery(), trailingClauses));
+    }
+
+    /**
+     * Returns the aliases of the selected expressions, which are the names of the properties of the resulting rows.
+     *
+     * @return the aliases, in the order of the output attributes.
+     */
+    public List<String> getAliases() {
+        return aliases;
+    }
+
+    /**
+     * Returns the names of the parameters of this selection.
+     *
+     * @return the unmodifiable list of parameter names.
+     */
+    public List<String> getParameterNames() {
+        return parameterNames;
+    }
+
+    /**
+     * Returns the bindings of the parameters of this selection, in the order of their names.
+     *
+     * @return the unmodifiable list of parameter bindings.
+     * @see CosmosCompiledCondition#getParameterBindings()
+     */
+    public List<Object> getParameterBindings() {
+        return parameterBindings;
+    }
+
+    @Override
+    public String toString() {
+        return selectClause + trailingClauses;
+    }
+}
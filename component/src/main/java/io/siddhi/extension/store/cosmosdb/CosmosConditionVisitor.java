@@ -29,6 +29,7 @@ import io.siddhi.query.api.expression.condition.Compare;
 
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.Locale;
 import java.util.Map;
 import java.util.SortedMap;
 import java.util.Stack;
@@ -53,6 +54,7 @@ public class CosmosConditionVisitor extends BaseExpressionVisitor {
     private String finalCompiledCondition;
     private String tableName;
     private boolean isAfterSelectClause;
+    private String parameterPrefix;
 
     private Map<String, Object> placeholders;
     private SortedMap<Integer, Object> parameters;
@@ -67,10 +69,33 @@ public class CosmosConditionVisitor extends BaseExpressionVisitor {
     private StringBuilder subSelect;
     private StringBuilder outerCompiledCondition;
 
-    private String[] supportedFunctions = {"sum", "avg", "min", "max"};
+    private String[] supportedFunctions = {"sum", "avg", "min", "max", "count"};
+    private boolean aggregation;
+    private int aggregateDepth;
+    private boolean unaggregatedStoreVariable;
+
+    private boolean keyCondition = true;
+    private Map<String, Object> keyOperands;
+    private boolean inCompare;
+    private String compareStoreAttribute;
+    private Object compareOperand;
 
     CosmosConditionVisitor(String tableName, boolean isAfterSelectClause) {
+        this(tableName, isAfterSelectClause, CosmosTableConstants.SQL_PARAMETER_PREFIX);
+    }
+
+    /**
+     * Creates a visitor which names the parameters of the condition with the given prefix, so that expressions
+     * compiled separately, such as the condition and the select clause of a query, can be bound in the same query.
+     *
+     * @param tableName           the name of the table the condition refers to.
+     * @param isAfterSelectClause whether store attributes should be referred to by their bare names, as in clauses
+     *                            evaluated after the select clause.
+     * @param parameterPrefix     the prefix of the parameter names, followed by their ordinals.
+     */
+    CosmosConditionVisitor(String tableName, boolean isAfterSelectClause, String parameterPrefix) {
         this.tableName = tableName;
+        this.parameterPrefix = parameterPrefix;
         this.condition = new StringBuilder();
         this.streamVarCount = 0;
         this.constantCount = 0;
@@ -80,6 +105,7 @@ public class CosmosConditionVisitor extends BaseExpressionVisitor {
         this.outerCompiledCondition = new StringBuilder();
         this.lastConditionParams = new Stack<>();
         this.isAfterSelectClause = isAfterSelectClause;
+        this.keyOperands = new HashMap<>();
     }
 
     private CosmosConditionVisitor() {
@@ -95,6 +121,38 @@ public class CosmosConditionVisitor extends BaseExpressionVisitor {
         return this.parameters;
     }
 
+    /**
+     * Returns the operands the store attributes are compared to, if the condition is a conjunction of equality
+     * comparisons between distinct store attributes and stream variables or constants, e.g.
+     * 'FooTable.id == id and FooTable.symbol == 'WSO2''.
+     *
+     * @return a map of store attribute names and the {@link Attribute} or {@link Constant} they should be equal to, or
+     * null if the condition is of any other form.
+     */
+    Map<String, Object> getKeyOperands() {
+        return (keyCondition && !keyOperands.isEmpty()) ? keyOperands : null;
+    }
+
+    /**
+     * Checks whether the expression aggregates documents, i.e. whether it calls sum(), avg(), min(), max() or
+     * count().
+     *
+     * @return true if the expression contains an aggregate function.
+     */
+    boolean isAggregation() {
+        return aggregation;
+    }
+
+    /**
+     * Checks whether the expression refers to store attributes outside of aggregate functions, e.g. 'price' in
+     * 'sum(volume) + price'.
+     *
+     * @return true if a store attribute is referred to outside of an aggregate function.
+     */
+    boolean hasUnaggregatedStoreVariables() {
+        return unaggregatedStoreVariable;
+    }
+
     @Override
     public void beginVisitAnd() {
         condition.append(OPEN_PARENTHESIS);
@@ -127,6 +185,7 @@ public class CosmosConditionVisitor extends BaseExpressionVisitor {
 
     @Override
     public void beginVisitOr() {
+        keyCondition = false;
         condition.append(OPEN_PARENTHESIS);
     }
 
@@ -157,6 +216,7 @@ public class CosmosConditionVisitor extends BaseExpressionVisitor {
 
     @Override
     public void beginVisitNot() {
+        keyCondition = false;
         condition.append(CosmosTableConstants.SQL_NOT).append(WHITESPACE).append(OPEN_PARENTHESIS);
     }
 
@@ -167,11 +227,22 @@ public class CosmosConditionVisitor extends BaseExpressionVisitor {
 
     @Override
     public void beginVisitCompare(Compare.Operator operator) {
+        if (operator != Compare.Operator.EQUAL || inCompare) {
+            keyCondition = false;
+        }
+        inCompare = true;
+        compareStoreAttribute = null;
+        compareOperand = null;
         condition.append(OPEN_PARENTHESIS);
     }
 
     @Override
     public void endVisitCompare(Compare.Operator operator) {
+        if (compareStoreAttribute == null || compareOperand == null ||
+                keyOperands.put(compareStoreAttribute, compareOperand) != null) {
+            keyCondition = false;
+        }
+        inCompare = false;
         condition.append(CLOSE_PARENTHESIS);
     }
 
@@ -217,6 +288,7 @@ public class CosmosConditionVisitor extends BaseExpressionVisitor {
 
     @Override
     public void beginVisitIsNull(String streamId) {
+        keyCondition = false;
     }
 
     @Override
@@ -226,6 +298,7 @@ public class CosmosConditionVisitor extends BaseExpressionVisitor {
 
     @Override
     public void beginVisitIn(String storeId) {
+        keyCondition = false;
         condition.append(CosmosTableConstants.SQL_IN).append(WHITESPACE);
     }
 
@@ -243,7 +316,9 @@ public class CosmosConditionVisitor extends BaseExpressionVisitor {
         } else {
             name = this.generateConstantName();
         }
-        this.placeholders.put(name, new Constant(value, type));
+        Constant constant = new Constant(value, type);
+        this.visitKeyOperand(constant);
+        this.placeholders.put(name, constant);
         condition.append("[").append(name).append("]").append(WHITESPACE);
     }
 
@@ -254,6 +329,7 @@ public class CosmosConditionVisitor extends BaseExpressionVisitor {
 
     @Override
     public void beginVisitMath(MathOperator mathOperator) {
+        keyCondition = false;
         condition.append(OPEN_PARENTHESIS);
     }
 
@@ -301,9 +377,17 @@ public class CosmosConditionVisitor extends BaseExpressionVisitor {
 
     @Override
     public void beginVisitAttributeFunction(String namespace, String functionName) {
+        keyCondition = false;
         if (CosmosTableUtils.isEmpty(namespace) &&
                 (Arrays.stream(supportedFunctions).anyMatch(functionName::equals))) {
-            condition.append(functionName).append(CosmosTableConstants.OPEN_PARENTHESIS);
+            aggregation = true;
+            aggregateDepth++;
+            condition.append(functionName.toUpperCase(Locale.ENGLISH)).append(CosmosTableConstants.OPEN_PARENTHESIS);
+            if (functionName.equals("count")) {
+                //Siddhi counts events without an argument, while Cosmos DB counts the documents for which the
+                //argument is defined.
+                condition.append("1");
+            }
         } else if (namespace.trim().equals("str") && functionName.equals("contains")) {
             condition.append("CONTAINS").append(OPEN_PARENTHESIS);
             nextProcessContainsPattern = true;
@@ -311,7 +395,8 @@ public class CosmosConditionVisitor extends BaseExpressionVisitor {
             lastConditionExist = true;
         } else {
             throw new OperationNotSupportedException("The CosmosDB Event table does not support functions other than " +
-                    "sum(), avg(), min(), max(), str:contains() and incrementalAggregator:last() but function '" +
+                    "sum(), avg(), min(), max(), count(), str:contains() and incrementalAggregator:last() but " +
+                    "function '" +
                     ((CosmosTableUtils.isEmpty(namespace)) ? "" + functionName : namespace + ":" + functionName) +
                     "' was specified.");
 
@@ -320,8 +405,11 @@ public class CosmosConditionVisitor extends BaseExpressionVisitor {
 
     @Override
     public void endVisitAttributeFunction(String namespace, String functionName) {
-        if ((namespace.trim().equals("str") && functionName.equals("contains")) ||
+        if (CosmosTableUtils.isEmpty(namespace) &&
                 (Arrays.stream(supportedFunctions).anyMatch(functionName::equals))) {
+            aggregateDepth--;
+            condition.append(CLOSE_PARENTHESIS).append(WHITESPACE);
+        } else if (namespace.trim().equals("str") && functionName.equals("contains")) {
             condition.append(CLOSE_PARENTHESIS).append(WHITESPACE);
         } else if (namespace.trim().equals("incrementalAggregator") && functionName.equals("last")) {
             String maxVariableName = lastConditionParams.pop();
@@ -337,7 +425,8 @@ public class CosmosConditionVisitor extends BaseExpressionVisitor {
 
         } else {
             throw new OperationNotSupportedException("The CosmosDB Event table does not support functions other than " +
-                    "sum(), avg(), min(), max(), str:contains() and incrementalAggregator:last() but function '" +
+                    "sum(), avg(), min(), max(), count(), str:contains() and incrementalAggregator:last() but " +
+                    "function '" +
                     ((CosmosTableUtils.isEmpty(namespace)) ? "" + functionName : namespace + ":" + functionName) +
                     "' was specified.");
         }
@@ -345,7 +434,9 @@ public class CosmosConditionVisitor extends BaseExpressionVisitor {
 
     @Override
     public void beginVisitParameterAttributeFunction(int index) {
-        //Not applicable
+        if (index > 0 && !lastConditionExist) {
+            condition.append(CosmosTableConstants.SQL_PARAMETER_SEPARATOR).append(WHITESPACE);
+        }
     }
 
     @Override
@@ -362,7 +453,9 @@ public class CosmosConditionVisitor extends BaseExpressionVisitor {
         } else {
             name = this.generateStreamVarName();
         }
-        this.placeholders.put(name, new Attribute(id, type));
+        Attribute streamVariable = new Attribute(id, type);
+        this.visitKeyOperand(streamVariable);
+        this.placeholders.put(name, streamVariable);
         condition.append("[").append(name).append("]").append(WHITESPACE);
     }
 
@@ -373,6 +466,13 @@ public class CosmosConditionVisitor extends BaseExpressionVisitor {
 
     @Override
     public void beginVisitStoreVariable(String storeId, String attributeName, Attribute.Type type) {
+        if (!inCompare || compareStoreAttribute != null) {
+            keyCondition = false;
+        }
+        compareStoreAttribute = attributeName;
+        if (aggregateDepth == 0) {
+            unaggregatedStoreVariable = true;
+        }
         if (!lastConditionExist) {
             if (!isAfterSelectClause) {
                 condition.append(this.tableName).append(".").append(attributeName).append(WHITESPACE);
@@ -391,12 +491,24 @@ public class CosmosConditionVisitor extends BaseExpressionVisitor {
         //Not applicable
     }
 
+    /**
+     * Method for keeping track of the stream variable or constant a store attribute is compared to.
+     *
+     * @param operand the {@link Attribute} or {@link Constant} visited.
+     */
+    private void visitKeyOperand(Object operand) {
+        if (!inCompare || compareOperand != null) {
+            keyCondition = false;
+        }
+        compareOperand = operand;
+    }
+
     /**
      * Util method for walking through the generated condition string and isolating the parameters which will be filled
-     * in later as part of building the SQL statement. This method will:
-     * (a) eliminate all temporary placeholders and put "?" in their places.
-     * (b) build and maintain a sorted map of ordinals and the corresponding parameters which will fit into the above
-     * places in the PreparedStatement.
+     * in later as part of building the SQL query. This method will:
+     * (a) eliminate all temporary placeholders and put named parameters ("@p1", "@p2", ...) in their places.
+     * (b) build and maintain a sorted map of ordinals and the corresponding parameters which will be bound to the
+     * above named parameters in the query.
      */
     private void parametrizeCondition() {
         String query = this.condition.toString();
@@ -407,13 +519,11 @@ public class CosmosConditionVisitor extends BaseExpressionVisitor {
                 String candidate = token.substring(0, token.indexOf("]"));
                 if (this.placeholders.containsKey(candidate)) {
                     this.parameters.put(ordinal, this.placeholders.get(candidate));
+                    query = query.replace("[" + candidate + "]", this.parameterPrefix + ordinal);
                     ordinal++;
                 }
             }
         }
-        for (String placeholder : this.placeholders.keySet()) {
-            query = query.replace("[" + placeholder + "]", "?");
-        }
         this.finalCompiledCondition = query;
     }
 
@@ -445,7 +555,7 @@ public class CosmosConditionVisitor extends BaseExpressionVisitor {
      * @return a placeholder string of known format.
      */
     private String generatePatternStreamVarName() {
-        String name = "pattern-value" + this.streamVarCount;
+        String name = "pattern-strVar" + this.streamVarCount;
         this.streamVarCount++;
         return name;
     }
@@ -456,7 +566,7 @@ public class CosmosConditionVisitor extends BaseExpressionVisitor {
      * @return a placeholder string of known format.
      */
     private String generatePatternConstantName() {
-        String name = "pattern-value" + this.constantCount;
+        String name = "pattern-const" + this.constantCount;
         this.constantCount++;
         return name;
     }
@@ -27,34 +27,82 @@ import com.microsoft.azure.documentdb.DocumentClient;
 import com.microsoft.azure.documentdb.DocumentClientException;
 import com.microsoft.azure.documentdb.DocumentCollection;
 import com.microsoft.azure.documentdb.FeedOptions;
+import com.microsoft.azure.documentdb.PartitionKey;
+import com.microsoft.azure.documentdb.PartitionKeyDefinition;
+import com.microsoft.azure.documentdb.QueryIterable;
 import com.microsoft.azure.documentdb.RequestOptions;
+import com.microsoft.azure.documentdb.ResourceResponse;
+import com.microsoft.azure.documentdb.SqlParameter;
+import com.microsoft.azure.documentdb.SqlParameterCollection;
 import com.microsoft.azure.documentdb.SqlQuerySpec;
+import com.microsoft.azure.documentdb.StoredProcedure;
+import com.microsoft.azure.documentdb.StoredProcedureResponse;
 import io.siddhi.annotation.Example;
 import io.siddhi.annotation.Extension;
 import io.siddhi.annotation.Parameter;
 import io.siddhi.annotation.SystemParameter;
 import io.siddhi.annotation.util.DataType;
+import io.siddhi.core.config.SiddhiQueryContext;
+import io.siddhi.core.event.ComplexEventChunk;
+import io.siddhi.core.event.state.StateEvent;
+import io.siddhi.core.event.stream.StreamEvent;
 import io.siddhi.core.exception.ConnectionUnavailableException;
+import io.siddhi.core.exception.OperationNotSupportedException;
+import io.siddhi.core.exception.QueryableRecordTableException;
 import io.siddhi.core.exception.SiddhiAppCreationException;
 import io.siddhi.core.exception.SiddhiAppRuntimeException;
-import io.siddhi.core.table.record.AbstractRecordTable;
+import io.siddhi.core.executor.VariableExpressionExecutor;
+import io.siddhi.core.table.CompiledUpdateSet;
+import io.siddhi.core.table.Table;
+import io.siddhi.core.table.record.AbstractQueryableRecordTable;
 import io.siddhi.core.table.record.ExpressionBuilder;
 import io.siddhi.core.table.record.RecordIterator;
+import io.siddhi.core.util.SiddhiConstants;
+import io.siddhi.core.util.collection.AddingStreamEventExtractor;
 import io.siddhi.core.util.collection.operator.CompiledCondition;
 import io.siddhi.core.util.collection.operator.CompiledExpression;
+import io.siddhi.core.util.collection.operator.CompiledSelection;
+import io.siddhi.core.util.collection.operator.MatchingMetaInfoHolder;
 import io.siddhi.core.util.config.ConfigReader;
+import io.siddhi.extension.store.cosmosdb.util.Constant;
 import io.siddhi.extension.store.cosmosdb.util.CosmosTableConstants;
 import io.siddhi.extension.store.cosmosdb.util.CosmosTableUtils;
 import io.siddhi.query.api.annotation.Annotation;
+import io.siddhi.query.api.annotation.Element;
 import io.siddhi.query.api.definition.Attribute;
 import io.siddhi.query.api.definition.TableDefinition;
+import io.siddhi.query.api.execution.query.selection.OrderByAttribute;
+import io.siddhi.query.api.execution.query.selection.Selector;
 import io.siddhi.query.api.util.AnnotationHelper;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.file.Paths;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.function.ToDoubleFunction;
+import java.util.function.ToIntFunction;
 import java.util.stream.Collectors;
 
+import static io.siddhi.core.util.SiddhiConstants.ANNOTATION_PRIMARY_KEY;
 import static io.siddhi.core.util.SiddhiConstants.ANNOTATION_STORE;
 
 /**
@@ -65,7 +113,10 @@ import static io.siddhi.core.util.SiddhiConstants.ANNOTATION_STORE;
         namespace = "store",
         description = "Using this extension a Cosmos DB Event Table can be configured to persist events " +
                 "in a Cosmos DB of user's choice. Create, update, delete, find and contains operations can be " +
-                "performed on document collections in Cosmos DB using this extension.",
+                "performed on document collections in Cosmos DB using this extension. Joins and on-demand queries " +
+                "on the table have their selection, i.e. projections, aggregations, grouping, ordering and limits, " +
+                "performed by Cosmos DB wherever its SQL supports them, so that only the resulting rows are " +
+                "retrieved.",
         parameters = {
                 @Parameter(name = "uri",
                         description = "The Cosmos DB uri for the Cosmos DB data store. The uri must be of the " +
@@ -109,6 +160,26 @@ import static io.siddhi.core.util.SiddhiConstants.ANNOTATION_STORE;
                         type = {DataType.STRING},
                         optional = true,
                         defaultValue = "null"),
+                @Parameter(name = "partition.key.attribute",
+                        description = "The attribute of the table holding the partition key of each document. A " +
+                                "collection created by the table is partitioned by the attribute, while an " +
+                                "existing partitioned collection should be partitioned by it. Requests are routed " +
+                                "to the logical partition of the documents they write, and documents are read, " +
+                                "replaced and deleted directly if the attribute is part of the primary key. Bulk " +
+                                "writes are grouped by partition key, so that each stored procedure execution " +
+                                "stays within a single partition, while partial updates and bulk deletes are " +
+                                "executed on each partition holding matching documents. Cannot be used along " +
+                                "with 'partition.key'.",
+                        type = {DataType.STRING},
+                        optional = true,
+                        defaultValue = "null"),
+                @Parameter(name = "max.parallel.partition.writes",
+                        description = "The maximum number of partitions written in parallel by a bulk write, a " +
+                                "partial update or a bulk delete whose documents belong to several partitions, " +
+                                "when 'partition.key.attribute' is configured.",
+                        type = {DataType.INT},
+                        optional = true,
+                        defaultValue = "4"),
                 @Parameter(name = "offer.throughput",
                         description = "Sets the throughput in the form of Request Units per second when creating " +
                                 "a document collection. Possible values for this parameter are positive integers.",
@@ -166,6 +237,196 @@ import static io.siddhi.core.util.SiddhiConstants.ANNOTATION_STORE;
                         type = {DataType.STRING},
                         optional = true,
                         defaultValue = "false"),
+                @Parameter(name = "is.enable.bulk.insert",
+                        description = "Enables bulk inserts. When enabled, a bulk import stored procedure is " +
+                                "registered in the collection and the records of an insert batch are written " +
+                                "through it in chunks, instead of one request per record. Documents which fail to " +
+                                "be created are logged without failing the rest of the batch. Possible values are " +
+                                "'true' or 'false'.",
+                        type = {DataType.STRING},
+                        optional = true,
+                        defaultValue = "false"),
+                @Parameter(name = "bulk.insert.batch.size",
+                        description = "The maximum number of documents sent to the bulk import stored procedure in " +
+                                "a single request. Only applicable when 'is.enable.bulk.insert' is 'true'. Possible " +
+                                "values for this parameter are positive integers.",
+                        type = {DataType.STRING},
+                        optional = true,
+                        defaultValue = "100"),
+                @Parameter(name = "is.enable.partial.update",
+                        description = "Enables partial updates. When enabled, a stored procedure is registered in " +
+                                "the collection and updates are performed on the server side, sending only the " +
+                                "values of the set clause instead of reading and replacing whole documents. Updates " +
+                                "fall back to replacing documents when the stored procedure is not available, e.g. " +
+                                "for partitioned collections without a 'partition.key' or a " +
+                                "'partition.key.attribute'. Possible values are 'true' or 'false'.",
+                        type = {DataType.STRING},
+                        optional = true,
+                        defaultValue = "false"),
+                @Parameter(name = "is.enable.bulk.delete",
+                        description = "Enables bulk deletes. When enabled, a stored procedure is registered in the " +
+                                "collection and the documents matching a delete condition are deleted on the server " +
+                                "side, instead of being queried and deleted one by one. Deletes fall back to the " +
+                                "client side when the stored procedure is not available, e.g. for partitioned " +
+                                "collections without a 'partition.key' or a 'partition.key.attribute'. Possible " +
+                                "values are 'true' or 'false'.",
+                        type = {DataType.STRING},
+                        optional = true,
+                        defaultValue = "false"),
+                @Parameter(name = "max.inflight.writes",
+                        description = "The maximum number of write requests which can be in flight at a time. When " +
+                                "greater than 1, writes are performed asynchronously and the calling thread is " +
+                                "only blocked when this many writes are in flight. Writes on the same document id " +
+                                "are performed in order. Reads, and writes which are not addressed by a document " +
+                                "id, wait for the in-flight writes to complete. Failures of asynchronous writes " +
+                                "are logged, and the first of them fails the next operation of the table which " +
+                                "dispatches a write or waits for the in-flight writes, so that it reaches the " +
+                                "error handling of the stream.",
+                        type = {DataType.INT},
+                        optional = true,
+                        defaultValue = "1"),
+                @Parameter(name = "execution.mode",
+                        description = "The threads which perform the writes of the table. In the 'dedicated' mode, " +
+                                "writes are performed by the calling thread, or by 'max.inflight.writes' threads " +
+                                "created for the table when asynchronous writes are enabled. In the 'shared' mode, " +
+                                "writes are performed asynchronously by a pool of threads shared by all the tables " +
+                                "(see the 'sharedWriterThreads' system parameter), so that the number of threads " +
+                                "does not grow with the number of tables, while 'max.inflight.writes' bounds the " +
+                                "writes in flight for the table. Possible values are 'dedicated' or 'shared'.",
+                        type = {DataType.STRING},
+                        optional = true,
+                        defaultValue = "dedicated"),
+                @Parameter(name = "request.unit.budget",
+                        description = "The budget of request units (RU) per second for the requests of the table. " +
+                                "Requests are paced so that the request charges of their responses stay within the " +
+                                "budget, instead of being throttled by Cosmos DB and retried. By default, requests " +
+                                "are not paced. The budget of the account, shared by all its tables, can be set " +
+                                "through the 'accountRequestUnitsPerSecond' system parameter.",
+                        type = {DataType.DOUBLE},
+                        optional = true,
+                        defaultValue = "0"),
+                @Parameter(name = "cache.max.size",
+                        description = "The maximum number of records held by the near cache of the table, which " +
+                                "serves repeated finds, contains checks and joins with the same condition values " +
+                                "from memory instead of querying Cosmos DB. A result is counted by the records it " +
+                                "holds, and a contains check as a single record. The cache is invalidated by every " +
+                                "write of the table, but not by the writes of others, which are only seen once the " +
+                                "cached results expire. By default, the cache is disabled.",
+                        type = {DataType.INT},
+                        optional = true,
+                        defaultValue = "0"),
+                @Parameter(name = "cache.expiry.seconds",
+                        description = "The number of seconds after which a result cached in the near cache " +
+                                "expires.",
+                        type = {DataType.DOUBLE},
+                        optional = true,
+                        defaultValue = "60"),
+                @Parameter(name = "cache.eviction.policy",
+                        description = "The results evicted from the near cache when it is full. Possible values are " +
+                                "'LRU', which evicts the least recently used results, or 'LFU', which evicts the " +
+                                "least frequently used results.",
+                        type = {DataType.STRING},
+                        optional = true,
+                        defaultValue = "LRU"),
+                @Parameter(name = "is.enable.change.feed.replica",
+                        description = "Enables the change feed replica of the table, for collections which are " +
+                                "written by others and mostly read by Siddhi. When enabled, a full copy of the " +
+                                "collection is loaded into memory when the table connects, and is kept current by " +
+                                "reading the change feed of the collection in the background. Finds, contains " +
+                                "checks and joins are then served from the copy, through hash indexes on the " +
+                                "attributes their conditions compare for equality. Conditions which cannot be " +
+                                "evaluated in memory are still queried from Cosmos DB. Writes of the table are " +
+                                "seen by its following reads, while documents deleted by others are only dropped " +
+                                "when the copy is reloaded, since deletes are not part of the change feed. " +
+                                "Possible values are 'true' or 'false'.",
+                        type = {DataType.STRING},
+                        optional = true,
+                        defaultValue = "false"),
+                @Parameter(name = "replica.poll.interval.seconds",
+                        description = "The number of seconds between two reads of the change feed by the change " +
+                                "feed replica.",
+                        type = {DataType.DOUBLE},
+                        optional = true,
+                        defaultValue = "1"),
+                @Parameter(name = "replica.reload.interval.seconds",
+                        description = "The number of seconds after which the change feed replica is reloaded, " +
+                                "dropping the documents deleted by others. By default, the replica is only " +
+                                "reloaded when the table deletes documents on the server side, through bulk " +
+                                "deletes. Documents the table deletes otherwise are removed from the replica " +
+                                "directly.",
+                        type = {DataType.DOUBLE},
+                        optional = true,
+                        defaultValue = "0"),
+                @Parameter(name = "is.enable.write.behind",
+                        description = "Enables the write-behind buffer of the table. When enabled, inserts, updates, " +
+                                "update or inserts and deletes which are addressed by a document id are buffered " +
+                                "and performed later, and the successive writes of a document are coalesced into a " +
+                                "single write, e.g. the set clauses of successive updates are merged keeping the " +
+                                "last value of each attribute. The buffer is flushed on a timer and when it holds " +
+                                "the maximum number of documents. Finds and contains checks consult the buffer, " +
+                                "while other operations perform only the buffered writes of the documents they may " +
+                                "touch, or the whole buffer if their condition cannot be evaluated in memory. " +
+                                "Failures of the buffered writes are logged. Possible values are 'true' or 'false'.",
+                        type = {DataType.STRING},
+                        optional = true,
+                        defaultValue = "false"),
+                @Parameter(name = "write.behind.flush.interval.seconds",
+                        description = "The number of seconds between two flushes of the write-behind buffer on the " +
+                                "timer, which bounds the time a write is held in the buffer.",
+                        type = {DataType.DOUBLE},
+                        optional = true,
+                        defaultValue = "1"),
+                @Parameter(name = "write.behind.max.buffered.documents",
+                        description = "The number of documents with buffered writes at which the write-behind " +
+                                "buffer is flushed by the writing thread.",
+                        type = {DataType.INT},
+                        optional = true,
+                        defaultValue = "1000"),
+                @Parameter(name = "write.ahead.log.directory",
+                        description = "Enables the write-ahead log of the table, kept in a subdirectory of the " +
+                                "given directory named after the database and the collection. When enabled, " +
+                                "all the writes of the table, including the writes based on a condition along " +
+                                "with the condition and its parameters, are appended to the log on the local disk " +
+                                "and shipped to Cosmos DB in batches by a background thread, so that the stream " +
+                                "is not blocked while " +
+                                "Cosmos DB is unreachable or throttling. Batches failing transiently are retried, " +
+                                "and writes which are not acknowledged by Cosmos DB are shipped again after a " +
+                                "restart, hence a write may be shipped more than once, which creates duplicates " +
+                                "of documents with generated ids. Reads of the table wait until the logged writes " +
+                                "are shipped, for at most 'write.ahead.log.read.timeout.seconds', and fail right " +
+                                "away while shipping the logged writes fails. The write-behind buffer and the " +
+                                "asynchronous writes are not used along with the log.",
+                        type = {DataType.STRING},
+                        optional = true,
+                        defaultValue = "null"),
+                @Parameter(name = "write.ahead.log.segment.size",
+                        description = "The size of a segment file of the write-ahead log, in bytes. A new " +
+                                "segment is started once the current one is full, and segments holding only " +
+                                "writes acknowledged by Cosmos DB are deleted.",
+                        type = {DataType.INT},
+                        optional = true,
+                        defaultValue = "16777216"),
+                @Parameter(name = "write.ahead.log.sync",
+                        description = "Whether the writes appended to the write-ahead log are forced to the disk " +
+                                "before the operation returns, so that they survive a crash of the operating " +
+                                "system, and not only of the process. Possible values are 'true' or 'false'.",
+                        type = {DataType.STRING},
+                        optional = true,
+                        defaultValue = "false"),
+                @Parameter(name = "write.ahead.log.retry.interval.seconds",
+                        description = "The number of seconds to wait before shipping a batch of the write-ahead " +
+                                "log again, after it failed transiently.",
+                        type = {DataType.DOUBLE},
+                        optional = true,
+                        defaultValue = "5"),
+                @Parameter(name = "write.ahead.log.read.timeout.seconds",
+                        description = "The maximum number of seconds a read of the table waits for the writes " +
+                                "of the write-ahead log to be shipped, after which the read fails. Reads fail " +
+                                "without waiting while shipping the logged writes fails, e.g. while Cosmos DB is " +
+                                "unreachable or throttling.",
+                        type = {DataType.DOUBLE},
+                        optional = true,
+                        defaultValue = "10"),
                 @Parameter(name = "partition.key.range.id",
                         description = "Sets the partitionKeyRangeId on query options.",
                         type = {DataType.STRING},
@@ -200,6 +461,14 @@ import static io.siddhi.core.util.SiddhiConstants.ANNOTATION_STORE;
                         type = {DataType.STRING},
                         optional = true,
                         defaultValue = "0"),
+                @Parameter(name = "page.size",
+                        description = "Sets the maximum number of documents fetched from the Cosmos DB in a single " +
+                                "page of a query. Query results are fetched page by page as they are consumed. When " +
+                                "not set, the page size defined by the service is used. Possible values for this " +
+                                "parameter are positive integers.",
+                        type = {DataType.STRING},
+                        optional = true,
+                        defaultValue = "null"),
                 @Parameter(name = "response.continuation.token.limit.in.kb",
                         description = "Sets the ResponseContinuationTokenLimitInKb feed option for document query " +
                                 "requests in the Azure Cosmos DB service. ResponseContinuationTokenLimitInKb is used " +
@@ -298,7 +567,18 @@ import static io.siddhi.core.util.SiddhiConstants.ANNOTATION_STORE;
                                 "must match or be weaker than that provisioned for the database account. Consistency " +
                                 "levels by order of strength are Strong, BoundedStaleness, Session and Eventual.",
                         defaultValue = "Session",
-                        possibleParameters = {"Strong", "BoundedStaleness", "Session", "Eventual", "ConsistentPrefix"})
+                        possibleParameters = {"Strong", "BoundedStaleness", "Session", "Eventual", "ConsistentPrefix"}),
+                @SystemParameter(name = "sharedWriterThreads",
+                        description = "Sets the number of threads of the pool which performs the writes of the " +
+                                "tables in the 'shared' execution mode. The pool is shared by all such tables.",
+                        defaultValue = "32",
+                        possibleParameters = "any positive integer"),
+                @SystemParameter(name = "accountRequestUnitsPerSecond",
+                        description = "Sets the budget of request units (RU) per second shared by all the tables " +
+                                "of a Cosmos DB account. Requests are paced so that the request charges of their " +
+                                "responses stay within the budget. The value 0 disables pacing at the account level.",
+                        defaultValue = "0",
+                        possibleParameters = "any non-negative number")
         },
         examples = {
                 @Example(
@@ -419,12 +699,37 @@ import static io.siddhi.core.util.SiddhiConstants.ANNOTATION_STORE;
                                 "'volume' of the types 'string', 'float' and 'long' respectively). Then if there are" +
                                 " documents in the FooTable which match the 'symbol' and 'price' given in " +
                                 "'containsStream', those attribute values are inserted into the logStream."
+                ),
+                @Example(
+                        syntax = "@Store(type=\"cosmosdb\"," +
+                                "uri=\"https://myCosmosDBName.documents.azure.com:443\", \n" +
+                                "access.key= 'access key generated by the Cosmos DB', \n " +
+                                "database.name=\"admin\") \n" +
+                                "@PrimaryKey(\"symbol\")\n" +
+                                "define table FooTable (symbol string, price float, volume long);\n" +
+                                "define stream updateStream (symbol string, price float);\n" +
+                                "from updateStream \n" +
+                                "update FooTable \n" +
+                                "set FooTable.price = price \n" +
+                                "on FooTable.symbol == symbol ;",
+                        description = "The above example creates an event table named 'FooTable' whose documents " +
+                                "are identified by the 'symbol' attribute. The document id is derived from the " +
+                                "primary key attributes, hence inserting a document with an existing 'symbol' fails, " +
+                                "and conditions which compare all the primary key attributes for equality, such as " +
+                                "the one in the above update, are served by reading the document directly instead " +
+                                "of querying the collection."
                 )
         }
 )
-public class CosmosDBEventTable extends AbstractRecordTable {
+public class CosmosDBEventTable extends AbstractQueryableRecordTable {
+    private static final Log log = LogFactory.getLog(CosmosDBEventTable.class);
     private DocumentClient documentClient;
+    private String uri;
+    private String accessKey;
+    private ConnectionPolicy connectionPolicy;
+    private ConsistencyLevel consistencyLevel;
     private List<String> attributeNames;
+    private Attribute.Type[] attributeTypes;
     private String databaseId;
     private String collectionId;
     private String collectionLink;
@@ -432,11 +737,46 @@ public class CosmosDBEventTable extends AbstractRecordTable {
     private RequestOptions requestOptions;
     private FeedOptions feedOptions;
     private boolean disableAutomaticIdGeneration;
+    private boolean bulkInsertEnabled;
+    private int bulkInsertBatchSize;
+    private String bulkImportProcedureLink;
+    private boolean partialUpdateEnabled;
+    private String patchUpdateProcedureLink;
+    private boolean bulkDeleteEnabled;
+    private String bulkDeleteProcedureLink;
+    private int maxInflightWrites;
+    private boolean sharedExecution;
+    private int sharedWriterThreads;
+    private CosmosWriteDispatcher writeDispatcher;
+    private double requestUnitsPerSecond;
+    private double accountRequestUnitsPerSecond;
+    private volatile CosmosRequestUnitLimiter requestUnitLimiter;
+    private CosmosTableMetrics metrics;
+    private CosmosQueryCache queryCache;
+    private CosmosChangeFeedReplica replica;
+    private CosmosWriteBehindBuffer writeBehindBuffer;
+    private CosmosWriteAheadLog writeAheadLog;
+    private long writeAheadLogReadTimeoutMillis;
+    private RequestOptions storedProcedureOptions;
+    private RequestOptions readOptions;
+    private Annotation storeAnnotation;
+    private String partitionKeyAttribute;
+    private int maxParallelPartitionWrites;
+    private boolean routedByPartitionKey;
+    private ExecutorService partitionWriteExecutor;
+    private final Map<Object, PartitionOptions> partitionOptions = new PartitionOptionsCache();
+    private List<String> documentKeyAttributes;
+    private Attribute.Type[] documentKeyTypes;
+    private int[] documentKeyIndexes;
+    private boolean derivedDocumentId;
+    private String documentLinkPrefix;
 
     @Override
     protected void init(TableDefinition tableDefinition, ConfigReader configReader) {
         this.attributeNames =
                 tableDefinition.getAttributeList().stream().map(Attribute::getName).collect(Collectors.toList());
+        this.attributeTypes = tableDefinition.getAttributeList().stream().map(Attribute::getType)
+                .toArray(Attribute.Type[]::new);
         Annotation storeAnnotation = AnnotationHelper.getAnnotation(ANNOTATION_STORE, tableDefinition.getAnnotations());
         this.databaseId = storeAnnotation.getElement(CosmosTableConstants.ANNOTATION_ELEMENT_DATABASE_NAME);
         if (CosmosTableUtils.isEmpty(databaseId)) {
@@ -448,25 +788,337 @@ public class CosmosDBEventTable extends AbstractRecordTable {
                 storeAnnotation.getElement(CosmosTableConstants.ANNOTATION_ELEMENT_COLLECTION_NAME);
         this.collectionId = CosmosTableUtils.isEmpty(customCollectionName) ? tableDefinition.getId() :
                 customCollectionName;
-        this.createDocumentClient(storeAnnotation, configReader);
+        this.initDocumentClientSettings(storeAnnotation, configReader);
         disableAutomaticIdGeneration = Boolean.parseBoolean(storeAnnotation.getElement(
                 CosmosTableConstants.ANNOTATION_ELEMENT_ID_GENERATION));
         requestOptions = CosmosTableUtils.getCustomRequestOptions(storeAnnotation);
         feedOptions = CosmosTableUtils.getFeedOptions(storeAnnotation);
+        storedProcedureOptions = CosmosTableUtils.getStoredProcedureOptions(requestOptions);
+        readOptions = CosmosTableUtils.getReadOptions(requestOptions);
+        this.storeAnnotation = storeAnnotation;
+        this.initDocumentKey(tableDefinition);
+        this.initPartitionKey(storeAnnotation);
+        this.initReplica(storeAnnotation);
+        this.initWriteBehindBuffer(storeAnnotation);
+        this.initQueryCache(storeAnnotation);
+        metrics = CosmosTableMetrics.create(siddhiAppContext, tableDefinition.getId(), queryCache != null);
+        if (metrics != null && replica != null) {
+            metrics.trackReplicaLag(replica::getLag);
+        }
+        bulkInsertEnabled = Boolean.parseBoolean(storeAnnotation.getElement(
+                CosmosTableConstants.ANNOTATION_ELEMENT_ENABLE_BULK_INSERT));
+        partialUpdateEnabled = Boolean.parseBoolean(storeAnnotation.getElement(
+                CosmosTableConstants.ANNOTATION_ELEMENT_ENABLE_PARTIAL_UPDATE));
+        bulkDeleteEnabled = Boolean.parseBoolean(storeAnnotation.getElement(
+                CosmosTableConstants.ANNOTATION_ELEMENT_ENABLE_BULK_DELETE));
+        String batchSize = storeAnnotation.getElement(CosmosTableConstants.ANNOTATION_ELEMENT_BULK_INSERT_BATCH_SIZE);
+        bulkInsertBatchSize = CosmosTableUtils.isEmpty(batchSize) ?
+                CosmosTableConstants.DEFAULT_BULK_INSERT_BATCH_SIZE : Integer.parseInt(batchSize.trim());
+        if (bulkInsertBatchSize <= 0) {
+            throw new SiddhiAppCreationException("Parameter '" +
+                    CosmosTableConstants.ANNOTATION_ELEMENT_BULK_INSERT_BATCH_SIZE + "' should be a positive " +
+                    "integer for store '" + collectionId + "', but found '" + batchSize + "'. ");
+        }
+        this.initWriteAheadLog(storeAnnotation);
+        String inflightWrites = storeAnnotation.getElement(
+                CosmosTableConstants.ANNOTATION_ELEMENT_MAX_INFLIGHT_WRITES);
+        maxInflightWrites = CosmosTableUtils.isEmpty(inflightWrites) ?
+                CosmosTableConstants.DEFAULT_MAX_INFLIGHT_WRITES : Integer.parseInt(inflightWrites.trim());
+        if (maxInflightWrites <= 0) {
+            throw new SiddhiAppCreationException("Parameter '" +
+                    CosmosTableConstants.ANNOTATION_ELEMENT_MAX_INFLIGHT_WRITES + "' should be a positive " +
+                    "integer for store '" + collectionId + "', but found '" + inflightWrites + "'. ");
+        }
+        String requestUnits = storeAnnotation.getElement(
+                CosmosTableConstants.ANNOTATION_ELEMENT_REQUEST_UNIT_BUDGET);
+        requestUnitsPerSecond = CosmosTableUtils.isEmpty(requestUnits) ? 0 : Double.parseDouble(requestUnits.trim());
+        accountRequestUnitsPerSecond = Double.parseDouble(configReader.readConfig(
+                CosmosTableConstants.ACCOUNT_REQUEST_UNITS_PER_SECOND, "0"));
+        if (metrics != null && requestUnitsPerSecond > 0) {
+            metrics.trackRequestUnitFillLevel(false, () -> getRequestUnitFillLevel(false));
+        }
+        if (metrics != null && accountRequestUnitsPerSecond > 0) {
+            metrics.trackRequestUnitFillLevel(true, () -> getRequestUnitFillLevel(true));
+        }
+        String executionMode = storeAnnotation.getElement(CosmosTableConstants.ANNOTATION_ELEMENT_EXECUTION_MODE);
+        if (CosmosTableUtils.isEmpty(executionMode) ||
+                CosmosTableConstants.EXECUTION_MODE_DEDICATED.equalsIgnoreCase(executionMode.trim())) {
+            sharedExecution = false;
+        } else if (CosmosTableConstants.EXECUTION_MODE_SHARED.equalsIgnoreCase(executionMode.trim())) {
+            sharedExecution = true;
+            sharedWriterThreads = Integer.parseInt(configReader.readConfig(
+                    CosmosTableConstants.SHARED_WRITER_THREADS, CosmosTableConstants.DEFAULT_SHARED_WRITER_THREADS));
+        } else {
+            throw new SiddhiAppCreationException("Parameter '" +
+                    CosmosTableConstants.ANNOTATION_ELEMENT_EXECUTION_MODE + "' should be either '" +
+                    CosmosTableConstants.EXECUTION_MODE_DEDICATED + "' or '" +
+                    CosmosTableConstants.EXECUTION_MODE_SHARED + "' for store '" + collectionId + "', but found '" +
+                    executionMode + "'. ");
+        }
+    }
+
+    /**
+     * Method for creating the change feed replica of the table, if it is enabled.
+     *
+     * @param storeAnnotation the store annotation which contains the replica parameters.
+     */
+    private void initReplica(Annotation storeAnnotation) {
+        if (!Boolean.parseBoolean(storeAnnotation.getElement(
+                CosmosTableConstants.ANNOTATION_ELEMENT_ENABLE_CHANGE_FEED_REPLICA))) {
+            return;
+        }
+        String pollInterval = storeAnnotation.getElement(
+                CosmosTableConstants.ANNOTATION_ELEMENT_REPLICA_POLL_INTERVAL_SECONDS);
+        double pollIntervalSeconds = CosmosTableUtils.isEmpty(pollInterval) ?
+                CosmosTableConstants.DEFAULT_REPLICA_POLL_INTERVAL_SECONDS : Double.parseDouble(pollInterval.trim());
+        if (pollIntervalSeconds <= 0) {
+            throw new SiddhiAppCreationException("Parameter '" +
+                    CosmosTableConstants.ANNOTATION_ELEMENT_REPLICA_POLL_INTERVAL_SECONDS + "' should be a positive " +
+                    "number for store '" + collectionId + "', but found '" + pollInterval + "'. ");
+        }
+        String reloadInterval = storeAnnotation.getElement(
+                CosmosTableConstants.ANNOTATION_ELEMENT_REPLICA_RELOAD_INTERVAL_SECONDS);
+        double reloadIntervalSeconds = CosmosTableUtils.isEmpty(reloadInterval) ? 0 :
+                Double.parseDouble(reloadInterval.trim());
+        if (reloadIntervalSeconds < 0) {
+            throw new SiddhiAppCreationException("Parameter '" +
+                    CosmosTableConstants.ANNOTATION_ELEMENT_REPLICA_RELOAD_INTERVAL_SECONDS + "' should be a " +
+                    "non-negative number for store '" + collectionId + "', but found '" + reloadInterval + "'. ");
+        }
+        replica = new CosmosChangeFeedReplica(collectionId, attributeNames, attributeTypes, pollIntervalSeconds,
+                reloadIntervalSeconds);
+    }
+
+    /**
+     * Method for creating the write-behind buffer of the table, if it is enabled.
+     *
+     * @param storeAnnotation the store annotation which contains the write-behind parameters.
+     */
+    private void initWriteBehindBuffer(Annotation storeAnnotation) {
+        if (!Boolean.parseBoolean(storeAnnotation.getElement(
+                CosmosTableConstants.ANNOTATION_ELEMENT_ENABLE_WRITE_BEHIND))) {
+            return;
+        }
+        String flushInterval = storeAnnotation.getElement(
+                CosmosTableConstants.ANNOTATION_ELEMENT_WRITE_BEHIND_FLUSH_INTERVAL_SECONDS);
+        double flushIntervalSeconds = CosmosTableUtils.isEmpty(flushInterval) ?
+                CosmosTableConstants.DEFAULT_WRITE_BEHIND_FLUSH_INTERVAL_SECONDS :
+                Double.parseDouble(flushInterval.trim());
+        if (flushIntervalSeconds <= 0) {
+            throw new SiddhiAppCreationException("Parameter '" +
+                    CosmosTableConstants.ANNOTATION_ELEMENT_WRITE_BEHIND_FLUSH_INTERVAL_SECONDS + "' should be a " +
+                    "positive number for store '" + collectionId + "', but found '" + flushInterval + "'. ");
+        }
+        String maxBuffered = storeAnnotation.getElement(
+                CosmosTableConstants.ANNOTATION_ELEMENT_WRITE_BEHIND_MAX_BUFFERED_DOCUMENTS);
+        int maxBufferedDocuments = CosmosTableUtils.isEmpty(maxBuffered) ?
+                CosmosTableConstants.DEFAULT_WRITE_BEHIND_MAX_BUFFERED_DOCUMENTS :
+                Integer.parseInt(maxBuffered.trim());
+        if (maxBufferedDocuments <= 0) {
+            throw new SiddhiAppCreationException("Parameter '" +
+                    CosmosTableConstants.ANNOTATION_ELEMENT_WRITE_BEHIND_MAX_BUFFERED_DOCUMENTS + "' should be a " +
+                    "positive integer for store '" + collectionId + "', but found '" + maxBuffered + "'. ");
+        }
+        writeBehindBuffer = new CosmosWriteBehindBuffer(collectionId, maxBufferedDocuments, flushIntervalSeconds,
+                this::performBufferedWrites);
+    }
+
+    /**
+     * Method for creating the write-ahead log of the table, if a directory is configured for it. The logged writes
+     * are shipped in batches of the bulk insert batch size.
+     *
+     * @param storeAnnotation the store annotation which contains the write-ahead log parameters.
+     */
+    private void initWriteAheadLog(Annotation storeAnnotation) {
+        String logDirectory = storeAnnotation.getElement(
+                CosmosTableConstants.ANNOTATION_ELEMENT_WRITE_AHEAD_LOG_DIRECTORY);
+        if (CosmosTableUtils.isEmpty(logDirectory)) {
+            return;
+        }
+        String segmentSize = storeAnnotation.getElement(
+                CosmosTableConstants.ANNOTATION_ELEMENT_WRITE_AHEAD_LOG_SEGMENT_SIZE);
+        int logSegmentSize = CosmosTableUtils.isEmpty(segmentSize) ?
+                CosmosTableConstants.DEFAULT_WRITE_AHEAD_LOG_SEGMENT_SIZE : Integer.parseInt(segmentSize.trim());
+        if (logSegmentSize <= 0) {
+            throw new SiddhiAppCreationException("Parameter '" +
+                    CosmosTableConstants.ANNOTATION_ELEMENT_WRITE_AHEAD_LOG_SEGMENT_SIZE + "' should be a " +
+                    "positive integer for store '" + collectionId + "', but found '" + segmentSize + "'. ");
+        }
+        String retryInterval = storeAnnotation.getElement(
+                CosmosTableConstants.ANNOTATION_ELEMENT_WRITE_AHEAD_LOG_RETRY_INTERVAL_SECONDS);
+        double retryIntervalSeconds = CosmosTableUtils.isEmpty(retryInterval) ?
+                CosmosTableConstants.DEFAULT_WRITE_AHEAD_LOG_RETRY_INTERVAL_SECONDS :
+                Double.parseDouble(retryInterval.trim());
+        if (retryIntervalSeconds <= 0) {
+            throw new SiddhiAppCreationException("Parameter '" +
+                    CosmosTableConstants.ANNOTATION_ELEMENT_WRITE_AHEAD_LOG_RETRY_INTERVAL_SECONDS + "' should be " +
+                    "a positive number for store '" + collectionId + "', but found '" + retryInterval + "'. ");
+        }
+        String readTimeout = storeAnnotation.getElement(
+                CosmosTableConstants.ANNOTATION_ELEMENT_WRITE_AHEAD_LOG_READ_TIMEOUT_SECONDS);
+        double readTimeoutSeconds = CosmosTableUtils.isEmpty(readTimeout) ?
+                CosmosTableConstants.DEFAULT_WRITE_AHEAD_LOG_READ_TIMEOUT_SECONDS :
+                Double.parseDouble(readTimeout.trim());
+        if (readTimeoutSeconds < 0) {
+            throw new SiddhiAppCreationException("Parameter '" +
+                    CosmosTableConstants.ANNOTATION_ELEMENT_WRITE_AHEAD_LOG_READ_TIMEOUT_SECONDS + "' should be " +
+                    "a non-negative number for store '" + collectionId + "', but found '" + readTimeout + "'. ");
+        }
+        writeAheadLogReadTimeoutMillis = (long) (readTimeoutSeconds * 1000);
+        if (writeBehindBuffer != null) {
+            log.warn("Parameter '" + CosmosTableConstants.ANNOTATION_ELEMENT_ENABLE_WRITE_BEHIND + "' is ignored " +
+                    "for store '" + collectionId + "', since its writes are shipped from the write-ahead log. ");
+            writeBehindBuffer = null;
+        }
+        boolean syncOnWrite = Boolean.parseBoolean(storeAnnotation.getElement(
+                CosmosTableConstants.ANNOTATION_ELEMENT_WRITE_AHEAD_LOG_SYNC));
+        writeAheadLog = new CosmosWriteAheadLog(collectionId, Paths.get(logDirectory.trim(), databaseId,
+                collectionId), logSegmentSize, syncOnWrite, bulkInsertBatchSize, retryIntervalSeconds,
+                this::shipLoggedWrites);
+    }
+
+    /**
+     * Method for creating the near cache of the table, if a maximum size is configured for it.
+     *
+     * @param storeAnnotation the store annotation which contains the cache parameters.
+     */
+    private void initQueryCache(Annotation storeAnnotation) {
+        String maxSize = storeAnnotation.getElement(CosmosTableConstants.ANNOTATION_ELEMENT_CACHE_MAX_SIZE);
+        int cacheMaxSize = CosmosTableUtils.isEmpty(maxSize) ? 0 : Integer.parseInt(maxSize.trim());
+        if (cacheMaxSize < 0) {
+            throw new SiddhiAppCreationException("Parameter '" +
+                    CosmosTableConstants.ANNOTATION_ELEMENT_CACHE_MAX_SIZE + "' should be a non-negative " +
+                    "integer for store '" + collectionId + "', but found '" + maxSize + "'. ");
+        }
+        if (cacheMaxSize == 0) {
+            return;
+        }
+        if (replica != null) {
+            log.warn("Parameter '" + CosmosTableConstants.ANNOTATION_ELEMENT_CACHE_MAX_SIZE + "' is ignored for " +
+                    "store '" + collectionId + "', since its reads are served by the change feed replica. ");
+            return;
+        }
+        String expirySeconds = storeAnnotation.getElement(
+                CosmosTableConstants.ANNOTATION_ELEMENT_CACHE_EXPIRY_SECONDS);
+        double cacheExpirySeconds = CosmosTableUtils.isEmpty(expirySeconds) ?
+                CosmosTableConstants.DEFAULT_CACHE_EXPIRY_SECONDS : Double.parseDouble(expirySeconds.trim());
+        if (cacheExpirySeconds <= 0) {
+            throw new SiddhiAppCreationException("Parameter '" +
+                    CosmosTableConstants.ANNOTATION_ELEMENT_CACHE_EXPIRY_SECONDS + "' should be a positive " +
+                    "number for store '" + collectionId + "', but found '" + expirySeconds + "'. ");
+        }
+        String evictionPolicy = storeAnnotation.getElement(
+                CosmosTableConstants.ANNOTATION_ELEMENT_CACHE_EVICTION_POLICY);
+        boolean leastFrequentlyUsed;
+        if (CosmosTableUtils.isEmpty(evictionPolicy) ||
+                CosmosTableConstants.CACHE_EVICTION_POLICY_LRU.equalsIgnoreCase(evictionPolicy.trim())) {
+            leastFrequentlyUsed = false;
+        } else if (CosmosTableConstants.CACHE_EVICTION_POLICY_LFU.equalsIgnoreCase(evictionPolicy.trim())) {
+            leastFrequentlyUsed = true;
+        } else {
+            throw new SiddhiAppCreationException("Parameter '" +
+                    CosmosTableConstants.ANNOTATION_ELEMENT_CACHE_EVICTION_POLICY + "' should be either '" +
+                    CosmosTableConstants.CACHE_EVICTION_POLICY_LRU + "' or '" +
+                    CosmosTableConstants.CACHE_EVICTION_POLICY_LFU + "' for store '" + collectionId +
+                    "', but found '" + evictionPolicy + "'. ");
+        }
+        queryCache = new CosmosQueryCache(cacheMaxSize, cacheExpirySeconds, leastFrequentlyUsed);
+    }
+
+    /**
+     * Method for resolving the attributes which identify a document of the table. If the table defines a primary key,
+     * the document id is derived from the primary key attributes, unless the primary key is the 'id' attribute
+     * itself. Otherwise, a string attribute named 'id' is used as the document id, if available.
+     *
+     * @param tableDefinition the definition of the table.
+     */
+    private void initDocumentKey(TableDefinition tableDefinition) {
+        Attribute idAttribute = tableDefinition.getAttributeList().stream().filter(attribute ->
+                attribute.getName().equals(CosmosTableConstants.DOCUMENT_ID)).findFirst().orElse(null);
+        Annotation primaryKeyAnnotation = AnnotationHelper.getAnnotation(ANNOTATION_PRIMARY_KEY,
+                tableDefinition.getAnnotations());
+        if (primaryKeyAnnotation != null) {
+            if (primaryKeyAnnotation.getElements().isEmpty()) {
+                throw new SiddhiAppCreationException("Annotation '" + ANNOTATION_PRIMARY_KEY +
+                        "' should contain at least one attribute for store '" + collectionId + "'. ");
+            }
+            documentKeyAttributes = new ArrayList<>();
+            for (Element element : primaryKeyAnnotation.getElements()) {
+                String attributeName = element.getValue().trim();
+                if (!attributeNames.contains(attributeName)) {
+                    throw new SiddhiAppCreationException("Primary key attribute '" + attributeName + "' is not " +
+                            "defined in store '" + collectionId + "'. ");
+                }
+                documentKeyAttributes.add(attributeName);
+            }
+            derivedDocumentId = !(idAttribute != null && idAttribute.getType() == Attribute.Type.STRING &&
+                    documentKeyAttributes.equals(Collections.singletonList(CosmosTableConstants.DOCUMENT_ID)));
+            if (derivedDocumentId && idAttribute != null) {
+                throw new SiddhiAppCreationException("Attribute '" + CosmosTableConstants.DOCUMENT_ID + "' of store '" +
+                        collectionId + "' is reserved for the document id, which is derived from the primary key " +
+                        "attributes. Either use a string attribute '" + CosmosTableConstants.DOCUMENT_ID + "' as " +
+                        "the only primary key attribute or rename the attribute. ");
+            }
+        } else if (idAttribute != null && idAttribute.getType() == Attribute.Type.STRING) {
+            documentKeyAttributes = Collections.singletonList(CosmosTableConstants.DOCUMENT_ID);
+        } else {
+            return;
+        }
+        documentKeyTypes = new Attribute.Type[documentKeyAttributes.size()];
+        documentKeyIndexes = new int[documentKeyAttributes.size()];
+        for (int i = 0; i < documentKeyIndexes.length; i++) {
+            documentKeyIndexes[i] = attributeNames.indexOf(documentKeyAttributes.get(i));
+            documentKeyTypes[i] = tableDefinition.getAttributeList().get(documentKeyIndexes[i]).getType();
+        }
+    }
+
+    /**
+     * Method for resolving the attribute holding the partition key of the documents, if configured.
+     *
+     * @param storeAnnotation the store annotation which contains the partition key parameters.
+     */
+    private void initPartitionKey(Annotation storeAnnotation) {
+        String attribute = storeAnnotation.getElement(
+                CosmosTableConstants.ANNOTATION_ELEMENT_PARTITION_KEY_ATTRIBUTE);
+        if (CosmosTableUtils.isEmpty(attribute)) {
+            return;
+        }
+        partitionKeyAttribute = attribute.trim();
+        int attributeIndex = attributeNames.indexOf(partitionKeyAttribute);
+        if (attributeIndex < 0 || attributeTypes[attributeIndex] == Attribute.Type.OBJECT) {
+            throw new SiddhiAppCreationException("Parameter '" +
+                    CosmosTableConstants.ANNOTATION_ELEMENT_PARTITION_KEY_ATTRIBUTE + "' should be a primitive " +
+                    "attribute of store '" + collectionId + "', but found '" + attribute + "'. ");
+        }
+        if (requestOptions.getPartitionKey() != null) {
+            throw new SiddhiAppCreationException("Parameters '" +
+                    CosmosTableConstants.ANNOTATION_ELEMENT_PARTITION_KEY + "' and '" +
+                    CosmosTableConstants.ANNOTATION_ELEMENT_PARTITION_KEY_ATTRIBUTE + "' cannot be used together " +
+                    "for store '" + collectionId + "'. ");
+        }
+        String parallelWrites = storeAnnotation.getElement(
+                CosmosTableConstants.ANNOTATION_ELEMENT_MAX_PARALLEL_PARTITION_WRITES);
+        maxParallelPartitionWrites = CosmosTableUtils.isEmpty(parallelWrites) ?
+                CosmosTableConstants.DEFAULT_MAX_PARALLEL_PARTITION_WRITES : Integer.parseInt(parallelWrites.trim());
+        if (maxParallelPartitionWrites <= 0) {
+            throw new SiddhiAppCreationException("Parameter '" +
+                    CosmosTableConstants.ANNOTATION_ELEMENT_MAX_PARALLEL_PARTITION_WRITES + "' should be a " +
+                    "positive integer for store '" + collectionId + "', but found '" + parallelWrites + "'. ");
+        }
     }
 
     /**
-     * Method for creating Document Client.
+     * Method for resolving the settings of the Document Client, which is acquired when the table connects.
      *
      * @param storeAnnotation the source annotation which contains the needed parameters.
      * @param configReader Returns the value of a system property if set else the default value is returned
      *
      */
-    private void createDocumentClient(Annotation storeAnnotation, ConfigReader configReader) {
-        String uri = storeAnnotation.getElement(CosmosTableConstants.ANNOTATION_ELEMENT_URI);
-        String accessKey = storeAnnotation.getElement(CosmosTableConstants.ANNOTATION_ELEMENT_ACCESS_KEY);
-        ConnectionPolicy connectionPolicy = CosmosTableUtils.generateConnectionPolicy(configReader);
-        ConsistencyLevel consistencyLevel = ConsistencyLevel.valueOf(configReader.readConfig(
+    private void initDocumentClientSettings(Annotation storeAnnotation, ConfigReader configReader) {
+        uri = storeAnnotation.getElement(CosmosTableConstants.ANNOTATION_ELEMENT_URI);
+        accessKey = storeAnnotation.getElement(CosmosTableConstants.ANNOTATION_ELEMENT_ACCESS_KEY);
+        connectionPolicy = CosmosTableUtils.generateConnectionPolicy(configReader);
+        consistencyLevel = ConsistencyLevel.valueOf(configReader.readConfig(
                 CosmosTableConstants.CONSISTENCY_LEVEL, String.valueOf(ConsistencyLevel.Session)));
         if (CosmosTableUtils.isEmpty(uri)) {
             throw new SiddhiAppCreationException("Required parameter '" + CosmosTableConstants.ANNOTATION_ELEMENT_URI
@@ -475,13 +1127,32 @@ public class CosmosDBEventTable extends AbstractRecordTable {
             throw new SiddhiAppCreationException("Required parameter '" +
                     CosmosTableConstants.ANNOTATION_ELEMENT_ACCESS_KEY + "' cannot be empty for store '" +
                     collectionId + "'. ");
-        } else {
-            documentClient = new DocumentClient(uri, accessKey, connectionPolicy, consistencyLevel);
+        }
+        //The client is only created on connect, hence the uri is validated here to fail the app creation.
+        try {
+            URI accountUri = new URI(uri);
+            if (accountUri.getScheme() == null || accountUri.getHost() == null) {
+                throw new SiddhiAppCreationException("Invalid value '" + uri + "' for parameter '" +
+                        CosmosTableConstants.ANNOTATION_ELEMENT_URI + "' of store '" + collectionId +
+                        "'. The uri must be of the form 'https://{host}:{port}'. ");
+            }
+        } catch (URISyntaxException e) {
+            throw new SiddhiAppCreationException("Invalid value '" + uri + "' for parameter '" +
+                    CosmosTableConstants.ANNOTATION_ELEMENT_URI + "' of store '" + collectionId + "'. ", e);
         }
     }
 
     @Override
     protected void connect() throws ConnectionUnavailableException {
+        if (documentClient == null) {
+            //Tables of the same account share a client, instead of each opening its own connection pool.
+            documentClient = CosmosClientRegistry.acquire(uri, accessKey, connectionPolicy, consistencyLevel);
+        }
+        if (requestUnitLimiter == null && (requestUnitsPerSecond > 0 || accountRequestUnitsPerSecond > 0)) {
+            CosmosRequestUnitLimiter accountLimiter = accountRequestUnitsPerSecond > 0 ?
+                    CosmosRequestUnitLimiter.acquireAccountLimiter(uri, accountRequestUnitsPerSecond) : null;
+            requestUnitLimiter = new CosmosRequestUnitLimiter(collectionId, requestUnitsPerSecond, accountLimiter);
+        }
         String databaseQuery = CosmosTableConstants.SQL_SELECT_FROM_ROOT.replaceFirst(
                 CosmosTableConstants.SQL_QUESTION_MARK, "'" + databaseId + "'");
         List<Database> databaseList =
@@ -498,6 +1169,12 @@ public class CosmosDBEventTable extends AbstractRecordTable {
                 try {
                     DocumentCollection collectionDefinition = new DocumentCollection();
                     collectionDefinition.setId(collectionId);
+                    if (partitionKeyAttribute != null) {
+                        PartitionKeyDefinition partitionKeyDefinition = new PartitionKeyDefinition();
+                        partitionKeyDefinition.setPaths(Collections.singletonList(
+                                CosmosTableConstants.PARTITION_KEY_PATH_PREFIX + partitionKeyAttribute));
+                        collectionDefinition.setPartitionKey(partitionKeyDefinition);
+                    }
                     try {
                     documentCollection = documentClient.createCollection(database.getSelfLink(),
                             collectionDefinition, requestOptions).getResource();
@@ -510,6 +1187,74 @@ public class CosmosDBEventTable extends AbstractRecordTable {
             }
             if (documentCollection != null) {
                 collectionLink = documentCollection.getSelfLink();
+                initPartitionRouting();
+                //Documents of a partitioned collection can only be read directly when the partition is known.
+                if (documentKeyAttributes != null && (!isPartitioned(documentCollection) ||
+                        requestOptions.getPartitionKey() != null ||
+                        routedByPartitionKey && documentKeyAttributes.contains(partitionKeyAttribute))) {
+                    documentLinkPrefix = String.format(CosmosTableConstants.DOCUMENT_LINK_PREFIX, databaseId,
+                            collectionId);
+                }
+                if (bulkInsertEnabled) {
+                    bulkImportProcedureLink = registerStoredProcedure(
+                            CosmosTableConstants.BULK_IMPORT_PROCEDURE_ID,
+                            CosmosTableConstants.BULK_IMPORT_PROCEDURE_BODY);
+                }
+                //Stored procedures run within a single partition, hence they are executed on each partition
+                //holding matching documents when requests are routed by the partition key attribute.
+                boolean partitionRouted = !isPartitioned(documentCollection) ||
+                        requestOptions.getPartitionKey() != null || routedByPartitionKey;
+                if (partialUpdateEnabled) {
+                    if (partitionRouted) {
+                        patchUpdateProcedureLink = registerStoredProcedure(
+                                CosmosTableConstants.PATCH_UPDATE_PROCEDURE_ID,
+                                CosmosTableConstants.PATCH_UPDATE_PROCEDURE_BODY);
+                    } else {
+                        log.warn("Partial updates are not available for the partitioned store '" + collectionId +
+                                "' since neither '" + CosmosTableConstants.ANNOTATION_ELEMENT_PARTITION_KEY +
+                                "' nor '" + CosmosTableConstants.ANNOTATION_ELEMENT_PARTITION_KEY_ATTRIBUTE +
+                                "' is configured. Falling back to replacing documents. ");
+                    }
+                }
+                if (bulkDeleteEnabled) {
+                    if (partitionRouted) {
+                        bulkDeleteProcedureLink = registerStoredProcedure(
+                                CosmosTableConstants.BULK_DELETE_PROCEDURE_ID,
+                                CosmosTableConstants.BULK_DELETE_PROCEDURE_BODY);
+                    } else {
+                        log.warn("Bulk deletes are not available for the partitioned store '" + collectionId +
+                                "' since neither '" + CosmosTableConstants.ANNOTATION_ELEMENT_PARTITION_KEY +
+                                "' nor '" + CosmosTableConstants.ANNOTATION_ELEMENT_PARTITION_KEY_ATTRIBUTE +
+                                "' is configured. Falling back to deleting documents one by one. ");
+                    }
+                }
+                if (writeDispatcher == null && writeAheadLog == null) {
+                    if (sharedExecution) {
+                        writeDispatcher = new CosmosWriteDispatcher(collectionId, maxInflightWrites,
+                                sharedWriterThreads);
+                    } else if (maxInflightWrites > 1) {
+                        writeDispatcher = new CosmosWriteDispatcher(collectionId, maxInflightWrites);
+                    }
+                }
+                if (writeBehindBuffer != null) {
+                    writeBehindBuffer.start();
+                }
+                if (writeAheadLog != null) {
+                    try {
+                        writeAheadLog.open();
+                    } catch (IOException e) {
+                        throw new SiddhiAppRuntimeException("Failed to open the write-ahead log of store '" +
+                                collectionId + "'. ", e);
+                    }
+                }
+                if (replica != null) {
+                    try {
+                        replica.start(documentClient, collectionLink, this::executeReplicaRequest);
+                    } catch (DocumentClientException e) {
+                        throw new ConnectionUnavailableException("Failed to load the change feed replica of store '" +
+                                collectionId + "'. ", e);
+                    }
+                }
             } else {
                 throw new SiddhiAppCreationException("Failed to find or create the Document collection "
                         + collectionId);
@@ -519,178 +1264,2308 @@ public class CosmosDBEventTable extends AbstractRecordTable {
         }
     }
 
-    @Override
-    protected void add(List<Object[]> records) {
-        for (Object[] record : records) {
-            Document insertDocument = new Document();
-            for (int counter = 0; counter < this.attributeNames.size(); counter++) {
-                String key = this.attributeNames.get(counter);
-                Object value = record[counter];
-                insertDocument.set(key, value);
-            }
-            try {
-                documentClient.createDocument(collectionLink, insertDocument, requestOptions,
-                        disableAutomaticIdGeneration);
-            } catch (DocumentClientException e) {
-                throw new SiddhiAppRuntimeException("Failed to add document to store: '" + collectionId + "'", e);
-            }
+    /**
+     * Method for enabling the routing of requests by the partition key attribute, if the collection is partitioned by
+     * it.
+     */
+    private void initPartitionRouting() {
+        if (partitionKeyAttribute == null) {
+            return;
+        }
+        if (!isPartitioned(documentCollection)) {
+            log.warn("Parameter '" + CosmosTableConstants.ANNOTATION_ELEMENT_PARTITION_KEY_ATTRIBUTE + "' is " +
+                    "ignored for store '" + collectionId + "', since its collection is not partitioned. ");
+            return;
+        }
+        String partitionKeyPath = CosmosTableConstants.PARTITION_KEY_PATH_PREFIX + partitionKeyAttribute;
+        if (!documentCollection.getPartitionKey().getPaths().contains(partitionKeyPath)) {
+            throw new SiddhiAppCreationException("Collection of store '" + collectionId + "' is partitioned by " +
+                    documentCollection.getPartitionKey().getPaths() + ", instead of '" + partitionKeyPath + "'. ");
+        }
+        routedByPartitionKey = true;
+        if (maxParallelPartitionWrites > 1 && partitionWriteExecutor == null) {
+            partitionWriteExecutor = CosmosWriteDispatcher.createExecutorService(collectionId + "-Partition",
+                    maxParallelPartitionWrites);
         }
     }
 
-    @Override
-    protected RecordIterator<Object[]> find(Map<String, Object> findConditionParameterMap,
-                                            CompiledCondition compiledCondition) {
-        List<Document> documentList;
-        try {
-            documentList = queryDocuments((CosmosCompiledCondition) compiledCondition, findConditionParameterMap);
-        } catch (SQLException e) {
-            throw new SiddhiAppRuntimeException("Error retrieving documents from store '" + collectionId + "'. ",
-                    e);
-        }
-        return new CosmosIterator(documentList, this.attributeNames);
+    /**
+     * Checks whether the given collection is partitioned.
+     *
+     * @param collection the document collection.
+     * @return true if the collection defines a partition key.
+     */
+    private static boolean isPartitioned(DocumentCollection collection) {
+        return collection.getPartitionKey() != null && collection.getPartitionKey().getPaths() != null &&
+                !collection.getPartitionKey().getPaths().isEmpty();
     }
 
-    @Override
-    protected boolean contains(Map<String, Object> containsConditionParameterMap,
-                               CompiledCondition compiledCondition) {
-        List<Document> documentList;
+    /**
+     * Registers (or refreshes) a stored procedure in the collection of this table.
+     *
+     * @param procedureId the id of the stored procedure.
+     * @param body        the JavaScript body of the stored procedure.
+     * @return the self link of the registered stored procedure, or null if the registration failed.
+     */
+    private String registerStoredProcedure(String procedureId, String body) {
+        StoredProcedure storedProcedure = new StoredProcedure();
+        storedProcedure.setId(procedureId);
+        storedProcedure.setBody(body);
         try {
-            documentList = queryDocuments((CosmosCompiledCondition) compiledCondition, containsConditionParameterMap);
-        } catch (SQLException e) {
-            throw new SiddhiAppRuntimeException("Error performing contains check for store '" + collectionId +
-                    "'. ", e);
-        }
-        if (documentList != null) {
-            return documentList.size() > 0;
-        } else {
-            return false;
+            return documentClient.upsertStoredProcedure(collectionLink, storedProcedure, null).getResource()
+                    .getSelfLink();
+        } catch (DocumentClientException e) {
+            log.warn("Failed to register the stored procedure '" + procedureId + "' in store '" + collectionId +
+                    "'. Falling back to per document requests. ", e);
+            return null;
         }
     }
 
     @Override
-    protected void delete(List<Map<String, Object>> deleteConditionParameterMaps,
-                          CompiledCondition compiledCondition) {
-        try {
-            for (Map<String, Object> deleteConditionParameterMap : deleteConditionParameterMaps) {
-                List<Document> documentList = queryDocuments((CosmosCompiledCondition) compiledCondition,
-                        deleteConditionParameterMap);
-                for (Document toDeleteDocument : documentList) {
-                    try {
-                        documentClient.deleteDocument(toDeleteDocument.getSelfLink(), requestOptions);
-                    } catch (DocumentClientException e) {
-                        throw new SiddhiAppRuntimeException("Error performing document deletion for store: '" +
-                                collectionId + "'. ", e);
-                    }
-                }
+    protected void add(List<Object[]> records) {
+        enterOperation(SiddhiConstants.METRIC_TYPE_INSERT);
+        List<Document> documents = new ArrayList<>(records.size());
+        if (writeAheadLog != null) {
+            List<Document> entries = new ArrayList<>(records.size());
+            for (Object[] record : records) {
+                entries.add(toLogEntry(CosmosWriteBehindBuffer.WriteType.CREATE, null, toDocument(record), null));
             }
-        } catch (SQLException e) {
-            throw new SiddhiAppRuntimeException("Error performing document deletion for store: '" +
-                    collectionId + "'. ", e);
+            writeAheadLog.append(entries);
+            return;
         }
-    }
-
-    @Override
-    protected void update(CompiledCondition compiledCondition, List<Map<String, Object>> updateConditionParameterMaps,
-                          Map<String, CompiledExpression> map, List<Map<String, Object>> updateSetParameterMaps) {
-        for (int i = 0; i < updateConditionParameterMaps.size(); i++) {
-            Map<String, Object> updateConditionParameterMap = null;
-            for (Map<String, Object> conditionParameters : updateConditionParameterMaps) {
-                updateConditionParameterMap = conditionParameters;
+        for (Object[] record : records) {
+            Document document = toDocument(record);
+            if (writeBehindBuffer != null && document.getId() != null) {
+                writeBehindBuffer.create(document.getId(), document);
+            } else {
+                documents.add(document);
             }
-            int ordinal = updateConditionParameterMaps.indexOf(updateConditionParameterMap);
-            List<Document> documentList;
-            try {
-                documentList = queryDocuments((CosmosCompiledCondition) compiledCondition, updateConditionParameterMap);
-            } catch (SQLException e) {
-                throw new SiddhiAppRuntimeException("Error performing document update operations for store '" +
-                        collectionId + "'. ", e);
+        }
+        if (bulkImportProcedureLink != null && documents.size() > 1) {
+            if (writeDispatcher == null) {
+                bulkAdd(documents);
+                return;
             }
-            if (documentList != null) {
-                for (Document toUpdateDocument : documentList) {
-                    try {
-                        for (String key : updateSetParameterMaps.get(ordinal).keySet()) {
-                            Object value = updateSetParameterMaps.get(ordinal).get(key);
-                            toUpdateDocument.set(key, value);
-                        }
-                        documentClient.replaceDocument(toUpdateDocument, requestOptions);
-                    } catch (DocumentClientException e) {
-                        throw new SiddhiAppRuntimeException("Error performing document update operations for store '" +
-                                collectionId + "'. ", e);
-                    }
-                }
+            for (int chunkStart = 0; chunkStart < documents.size(); chunkStart += bulkInsertBatchSize) {
+                List<Document> chunk = documents.subList(chunkStart,
+                        Math.min(chunkStart + bulkInsertBatchSize, documents.size()));
+                dispatchWrite(getDocumentIds(chunk), "add", () -> bulkAdd(chunk));
             }
+            return;
+        }
+        for (Document insertDocument : documents) {
+            dispatchWrite(getDocumentIds(Collections.singletonList(insertDocument)), "add",
+                    () -> createDocument(insertDocument));
         }
     }
 
-    @Override
-    protected void updateOrAdd(CompiledCondition compiledCondition,
-                               List<Map<String, Object>> updateConditionParameterMaps,
-                               Map<String, CompiledExpression> map, List<Map<String, Object>> updateSetParameterMaps,
-                               List<Object[]> addingDocuments) {
-        for (int i = 0; i < updateConditionParameterMaps.size(); i++) {
-            Map<String, Object> updateOrAddConditionParameterMap = null;
-            for (Map<String, Object> conditionParameters : updateConditionParameterMaps) {
-                updateOrAddConditionParameterMap = conditionParameters;
-            }
-            int ordinal = updateConditionParameterMaps.indexOf(updateOrAddConditionParameterMap);
-            List<Document> documentList;
-            try {
-                documentList = queryDocuments((CosmosCompiledCondition) compiledCondition,
-                        updateOrAddConditionParameterMap);
-            } catch (SQLException e) {
-                throw new SiddhiAppRuntimeException("Error performing update/insert operations for store '" +
-                        collectionId + "'. ", e);
-            }
-            if (documentList != null) {
-                if (documentList.size() > 0) {
-                    for (Document toUpdateDocument : documentList) {
-                        try {
-                            for (String key : updateSetParameterMaps.get(ordinal).keySet()) {
-                                Object value = updateSetParameterMaps.get(ordinal).get(key);
-                                toUpdateDocument.set(key, value);
-                            }
-                            documentClient.replaceDocument(toUpdateDocument, requestOptions);
-                        } catch (DocumentClientException e) {
-                            throw new SiddhiAppRuntimeException("Error performing update/insert operations for " +
-                                    "store '" + collectionId + "'. ", e);
-                        }
-                    }
-                } else {
-                    add(addingDocuments);
+    /**
+     * Method for performing a write, asynchronously if writes are dispatched, or else on the calling thread.
+     *
+     * @param documentIds the ids of the documents the write affects.
+     * @param operation   the name of the write operation.
+     * @param write       the write to be performed.
+     */
+    private void dispatchWrite(Collection<String> documentIds, String operation, Runnable write) {
+        if (writeDispatcher == null) {
+            write.run();
+        } else {
+            Runnable dispatchedWrite = queryCache == null ? write : () -> {
+                try {
+                    write.run();
+                } finally {
+                    //Results read while the write was in flight are discarded.
+                    queryCache.invalidate();
                 }
-            }
+            };
+            //Requests made by the dispatched write are attributed to the operation dispatching it.
+            writeDispatcher.dispatch(documentIds, operation,
+                    metrics == null ? dispatchedWrite : metrics.bindOperation(dispatchedWrite));
         }
     }
 
-    @Override
-    protected CompiledCondition compileCondition(ExpressionBuilder expressionBuilder) {
-        CosmosConditionVisitor visitor = new CosmosConditionVisitor(this.collectionId, false);
-        expressionBuilder.build(visitor);
-        return new CosmosCompiledCondition(visitor.returnCondition(), visitor.getParameters(),
-                expressionBuilder.getUpdateOrInsertReducer(), expressionBuilder.getInMemorySetExpressionExecutor());
+    /**
+     * Method for marking the table operation the calling thread performs, to which the metrics of its requests are
+     * attributed.
+     *
+     * @param operation the metric type of the operation.
+     */
+    private void enterOperation(String operation) {
+        if (metrics != null) {
+            metrics.enterOperation(operation);
+        }
     }
 
-    @Override
-    protected CompiledExpression compileSetAttribute(ExpressionBuilder expressionBuilder) {
-        return compileCondition(expressionBuilder);
+    /**
+     * Method for performing a write in the background, e.g. for the write-behind buffer or the write-ahead log. The
+     * requests of the write are attributed to the table operation of its kind, regardless of the operation the
+     * calling thread performs, if any.
+     *
+     * @param type  the type of the write.
+     * @param write the write to be performed.
+     */
+    private void performInBackground(CosmosWriteBehindBuffer.WriteType type, Runnable write) {
+        if (metrics == null) {
+            write.run();
+            return;
+        }
+        String operation;
+        switch (type) {
+            case CREATE:
+                operation = SiddhiConstants.METRIC_TYPE_INSERT;
+                break;
+            case UPSERT:
+                operation = SiddhiConstants.METRIC_TYPE_UPDATE_OR_INSERT;
+                break;
+            case DELETE:
+                operation = SiddhiConstants.METRIC_TYPE_DELETE;
+                break;
+            default:
+                operation = SiddhiConstants.METRIC_TYPE_UPDATE;
+        }
+        metrics.bindOperation(operation, write).run();
     }
 
-    private List<Document> queryDocuments(CosmosCompiledCondition compiledCondition,
-                                          Map<String, Object> conditionParameterMap) throws SQLException {
-        String condition = CosmosTableUtils.resolveCondition(compiledCondition, conditionParameterMap);
-        SqlQuerySpec query = new SqlQuerySpec();
-        String queryText = CosmosTableConstants.SQL_SELECT.replaceFirst(
-                CosmosTableConstants.SQL_QUESTION_MARK, collectionId);
-        queryText = queryText.replaceFirst(CosmosTableConstants.SQL_QUESTION_MARK, condition);
-        query.setQueryText(queryText);
-        return documentClient.queryDocuments(collectionLink, query, feedOptions).getQueryIterable().toList();
+    /**
+     * Method for waiting until the dispatched and the logged writes are performed, before an operation on Cosmos DB.
+     * Since all the writes are logged when the write-ahead log is enabled, only reads wait for the logged writes, and
+     * only for a bounded time.
+     *
+     * @param flushBuffer whether the write-behind buffer should be flushed as well, which is not needed for reads
+     *                    which consult the buffer, or which flush only the buffered writes they depend on.
+     */
+    private void awaitDispatchedWrites(boolean flushBuffer) {
+        if (flushBuffer && writeBehindBuffer != null) {
+            writeBehindBuffer.flush();
+        }
+        if (writeAheadLog != null) {
+            writeAheadLog.awaitShipped(writeAheadLogReadTimeoutMillis);
+        }
+        if (writeDispatcher != null) {
+            writeDispatcher.flush();
+        }
     }
 
-    @Override
-    protected void disconnect() {
+    /**
+     * Method for collecting the ids of the given documents, skipping the ids which are generated by Cosmos DB.
+     *
+     * @param documents the documents.
+     * @return the ids of the documents.
+     */
+    private static List<String> getDocumentIds(List<Document> documents) {
+        List<String> documentIds = new ArrayList<>(documents.size());
+        for (Document document : documents) {
+            if (document.getId() != null) {
+                documentIds.add(document.getId());
+            }
+        }
+        return documentIds;
+    }
+
+    /**
+     * Method for resolving the request options of the partition holding the given document.
+     *
+     * @param document the document.
+     * @return the request options.
+     */
+    private RequestOptions getRequestOptions(Document document) {
+        return routedByPartitionKey ? getPartitionOptions(getPartitionKeyValue(document)).requestOptions :
+                requestOptions;
+    }
+
+    /**
+     * Method for resolving the request options of the partition holding the document with the given id, which is
+     * addressed directly, hence holds the partition key attribute in its primary key.
+     *
+     * @param documentId the id of the document.
+     * @return the request options.
+     */
+    private RequestOptions getRequestOptions(String documentId) {
+        return routedByPartitionKey ? getPartitionOptions(getPartitionKeyValue(documentId)).requestOptions :
+                requestOptions;
+    }
+
+    private Object getPartitionKeyValue(Document document) {
+        Object value = document.get(partitionKeyAttribute);
+        return value instanceof Float ? Double.valueOf(value.toString()) : value;
+    }
+
+    private Object getPartitionKeyValue(String documentId) {
+        if (!derivedDocumentId) {
+            //The partition key attribute is the 'id' attribute itself.
+            return documentId;
+        }
+        int keyIndex = documentKeyAttributes.indexOf(partitionKeyAttribute);
+        return CosmosTableUtils.parseValue(CosmosTableUtils.decodeDocumentId(documentId)[keyIndex],
+                documentKeyTypes[keyIndex]);
+    }
+
+    /**
+     * Method for resolving the request options of the given logical partition. Options of recently used partitions
+     * are cached, since they are not modified once built.
+     *
+     * @param partitionKeyValue the value of the partition key attribute.
+     * @return the request options of the partition.
+     */
+    private PartitionOptions getPartitionOptions(Object partitionKeyValue) {
+        synchronized (partitionOptions) {
+            PartitionOptions options = partitionOptions.get(partitionKeyValue);
+            if (options == null) {
+                RequestOptions partitionRequestOptions = CosmosTableUtils.getCustomRequestOptions(storeAnnotation);
+                partitionRequestOptions.setPartitionKey(new PartitionKey(partitionKeyValue));
+                options = new PartitionOptions(partitionRequestOptions);
+                partitionOptions.put(partitionKeyValue, options);
+            }
+            return options;
+        }
+    }
+
+    /**
+     * Method for creating a single document.
+     *
+     * @param document the document to be created.
+     */
+    private void createDocument(Document document) {
+        try {
+            execute(() -> documentClient.createDocument(collectionLink, document, getRequestOptions(document),
+                    disableAutomaticIdGeneration), ResourceResponse::getRequestCharge);
+        } catch (DocumentClientException e) {
+            if (e.getStatusCode() == CosmosTableConstants.HTTP_STATUS_CONFLICT) {
+                throw new SiddhiAppRuntimeException("A document with id '" + document.getId() + "' already " +
+                        "exists in store: '" + collectionId + "'", e);
+            }
+            throw new SiddhiAppRuntimeException("Failed to add document to store: '" + collectionId + "'", e);
+        }
+    }
+
+    /**
+     * Method for converting a record to a document, according to the table's attribute order. If the document id is
+     * derived from the primary key, the id of the document is set as well.
+     *
+     * @param record the record to be converted.
+     * @return the document holding the values of the record.
+     */
+    private Document toDocument(Object[] record) {
+        Document document = CosmosTableUtils.toDocument(this.attributeNames, record);
+        if (derivedDocumentId) {
+            Object[] keyValues = new Object[documentKeyIndexes.length];
+            for (int i = 0; i < keyValues.length; i++) {
+                keyValues[i] = record[documentKeyIndexes[i]];
+            }
+            String documentId = CosmosTableUtils.encodeDocumentId(keyValues);
+            if (documentId == null) {
+                throw new SiddhiAppRuntimeException("Primary key attributes " + documentKeyAttributes + " cannot " +
+                        "be null for store: '" + collectionId + "'");
+            }
+            document.setId(documentId);
+        }
+        if (routedByPartitionKey && document.get(partitionKeyAttribute) == null) {
+            throw new SiddhiAppRuntimeException("Partition key attribute '" + partitionKeyAttribute + "' cannot be " +
+                    "null for store: '" + collectionId + "'");
+        }
+        return document;
+    }
+
+    /**
+     * Method for converting the values of a set clause to a record, if the set clause assigns all the attributes.
+     *
+     * @param updateSet the values to be set, keyed by the table attribute they are assigned to.
+     * @return the record holding the values, or null if the set clause does not assign all the attributes.
+     */
+    private Object[] toRecord(Map<String, Object> updateSet) {
+        if (!updateSet.keySet().containsAll(attributeNames)) {
+            return null;
+        }
+        Object[] record = new Object[attributeNames.size()];
+        for (int i = 0; i < record.length; i++) {
+            record[i] = updateSet.get(attributeNames.get(i));
+        }
+        return record;
+    }
+
+    /**
+     * Method for adding documents through the bulk import stored procedure.
+     *
+     * @param documents the documents to be added.
+     */
+    private void bulkAdd(List<Document> documents) {
+        bulkWrite(documents, false);
+    }
+
+    /**
+     * Method for writing documents through the bulk import stored procedure. The documents are sent in chunks of the
+     * configured batch size and are written in order. A stored procedure execution may stop early when it runs out of
+     * its execution budget, in which case the remaining documents of the chunk are sent again. Documents which could
+     * not be written are logged, without failing the rest of the batch.
+     *
+     * @param documents the documents to be written.
+     * @param upsert    whether existing documents with the same ids should be replaced, instead of failing.
+     */
+    private void bulkWrite(List<Document> documents, boolean upsert) {
+        if (!routedByPartitionKey) {
+            bulkWrite(documents, upsert, storedProcedureOptions);
+            return;
+        }
+        //A stored procedure execution is scoped to a single partition, hence the documents are grouped by partition.
+        Map<Object, List<Document>> partitions = new LinkedHashMap<>();
+        for (Document document : documents) {
+            partitions.computeIfAbsent(getPartitionKeyValue(document), key -> new ArrayList<>()).add(document);
+        }
+        if (partitions.size() == 1 || partitionWriteExecutor == null) {
+            for (Map.Entry<Object, List<Document>> partition : partitions.entrySet()) {
+                bulkWrite(partition.getValue(), upsert, getPartitionOptions(partition.getKey()).storedProcedureOptions);
+            }
+            return;
+        }
+        List<Runnable> partitionWrites = new ArrayList<>(partitions.size());
+        for (Map.Entry<Object, List<Document>> partition : partitions.entrySet()) {
+            RequestOptions options = getPartitionOptions(partition.getKey()).storedProcedureOptions;
+            partitionWrites.add(() -> bulkWrite(partition.getValue(), upsert, options));
+        }
+        writePartitions(partitionWrites, "bulk write");
+    }
+
+    /**
+     * Method for performing the writes of several partitions, in parallel on the partition write threads. Partitions
+     * are independent, hence the writes of the other partitions are completed even if the write of a partition fails,
+     * and the first failure is thrown once they are completed.
+     *
+     * @param partitionWrites the writes of the partitions.
+     * @param operation       the name of the write operation, for logging purposes.
+     */
+    private void writePartitions(List<Runnable> partitionWrites, String operation) {
+        if (partitionWrites.size() == 1 || partitionWriteExecutor == null) {
+            partitionWrites.forEach(Runnable::run);
+            return;
+        }
+        List<CompletableFuture<Void>> completions = new ArrayList<>(partitionWrites.size());
+        for (Runnable partitionWrite : partitionWrites) {
+            completions.add(CompletableFuture.runAsync(
+                    metrics == null ? partitionWrite : metrics.bindOperation(partitionWrite), partitionWriteExecutor));
+        }
+        SiddhiAppRuntimeException failure = null;
+        for (CompletableFuture<Void> completion : completions) {
+            try {
+                completion.join();
+            } catch (CompletionException e) {
+                if (failure == null) {
+                    failure = e.getCause() instanceof SiddhiAppRuntimeException ?
+                            (SiddhiAppRuntimeException) e.getCause() : new SiddhiAppRuntimeException("Failed to " +
+                            operation + " documents in store: '" + collectionId + "'", e.getCause());
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Method for writing documents of a single partition through the bulk import stored procedure.
+     *
+     * @param documents        the documents to be written.
+     * @param upsert           whether existing documents with the same ids should be replaced, instead of failing.
+     * @param procedureOptions the request options of the stored procedure executions.
+     * @see #bulkWrite(List, boolean)
+     */
+    private void bulkWrite(List<Document> documents, boolean upsert, RequestOptions procedureOptions) {
+        for (int chunkStart = 0; chunkStart < documents.size(); chunkStart += bulkInsertBatchSize) {
+            List<Document> chunk = documents.subList(chunkStart,
+                    Math.min(chunkStart + bulkInsertBatchSize, documents.size()));
+            int offset = 0;
+            while (offset < chunk.size()) {
+                Document batch = new Document();
+                batch.set(CosmosTableConstants.BULK_IMPORT_DOCUMENTS, chunk.subList(offset, chunk.size()));
+                batch.set(CosmosTableConstants.BULK_IMPORT_DISABLE_ID_GENERATION, disableAutomaticIdGeneration);
+                batch.set(CosmosTableConstants.BULK_IMPORT_UPSERT, upsert);
+                Document result;
+                try {
+                    result = execute(() -> documentClient.executeStoredProcedure(bulkImportProcedureLink,
+                            procedureOptions, new Object[]{batch}), StoredProcedureResponse::getRequestCharge,
+                            CosmosDBEventTable::getProcessedDocuments).getResponseAsDocument();
+                } catch (DocumentClientException e) {
+                    throw new SiddhiAppRuntimeException("Failed to bulk " + (upsert ? "upsert" : "add") +
+                            " documents to store: '" + collectionId + "'", e);
+                }
+                for (Document failure : result.getCollection(CosmosTableConstants.BULK_IMPORT_FAILURES,
+                        Document.class)) {
+                    log.error("Failed to " + (upsert ? "upsert" : "add") + " the document at position '" +
+                            (chunkStart + offset +
+                            failure.getInt(CosmosTableConstants.BULK_IMPORT_FAILURE_INDEX)) + "' of the batch to " +
+                            "store: '" + collectionId + "'. " +
+                            failure.getString(CosmosTableConstants.BULK_IMPORT_FAILURE_MESSAGE));
+                }
+                int processed = result.getInt(CosmosTableConstants.BULK_IMPORT_PROCESSED);
+                if (processed == 0) {
+                    throw new SiddhiAppRuntimeException("Bulk import stored procedure did not process any " +
+                            "documents for store: '" + collectionId + "'");
+                }
+                offset += processed;
+            }
+        }
+    }
+
+    @Override
+    protected RecordIterator<Object[]> find(Map<String, Object> findConditionParameterMap,
+                                            CompiledCondition compiledCondition) {
+        CosmosCompiledCondition cosmosCompiledCondition = (CosmosCompiledCondition) compiledCondition;
+        enterOperation(SiddhiConstants.METRIC_TYPE_FIND);
+        if (isReplicated(cosmosCompiledCondition)) {
+            awaitDispatchedWrites(cosmosCompiledCondition, findConditionParameterMap);
+            return CosmosQueryCache.iterator(replica.find(cosmosCompiledCondition.getReplicaCondition(),
+                    findConditionParameterMap));
+        }
+        List<Object> cacheKey = null;
+        if (queryCache != null) {
+            cacheKey = getCacheKey(SiddhiConstants.METRIC_TYPE_FIND, cosmosCompiledCondition, null,
+                    findConditionParameterMap);
+            List<Object[]> cachedRecords = getCachedResult(cacheKey);
+            if (cachedRecords != null) {
+                return CosmosQueryCache.iterator(cachedRecords);
+            }
+        }
+        awaitDispatchedWrites(!isPointAddressable(cosmosCompiledCondition) &&
+                !isBufferOverlaid(cosmosCompiledCondition));
+        long cacheGeneration = queryCache == null ? 0 : queryCache.getGeneration();
+        RecordIterator<Object[]> records;
+        Map<String, CosmosWriteBehindBuffer.PendingWrite> bufferedWrites;
+        if (isPointAddressable(cosmosCompiledCondition)) {
+            Document document = readCurrentDocument(cosmosCompiledCondition, findConditionParameterMap);
+            records = new CosmosIterator(document == null ? Collections.emptyList() :
+                    Collections.singletonList(document), this.attributeNames, this.attributeTypes, this.collectionId);
+        } else if (!(bufferedWrites = getBufferedWrites(cosmosCompiledCondition)).isEmpty()) {
+            records = new CosmosIterator(queryCurrentDocuments(cosmosCompiledCondition, findConditionParameterMap,
+                    bufferedWrites), this.attributeNames, this.attributeTypes, this.collectionId);
+        } else {
+            QueryIterable<Document> queryIterable;
+            try {
+                queryIterable = queryDocuments(cosmosCompiledCondition.getFindQuery(), cosmosCompiledCondition,
+                        findConditionParameterMap);
+            } catch (SQLException e) {
+                throw new SiddhiAppRuntimeException("Error retrieving documents from store '" + collectionId +
+                        "'. ", e);
+            }
+            records = new CosmosIterator(() -> fetchNextPage(queryIterable), this.attributeNames,
+                    this.attributeTypes, this.collectionId);
+        }
+        return cacheKey == null ? records : queryCache.caching(cacheKey, cacheGeneration, records);
+    }
+
+    @Override
+    protected RecordIterator<Object[]> query(Map<String, Object> parameterMap, CompiledCondition compiledCondition,
+                                             CompiledSelection compiledSelection, Attribute[] outputAttributes) {
+        CosmosCompiledCondition cosmosCompiledCondition = (CosmosCompiledCondition) compiledCondition;
+        CosmosCompiledSelection cosmosCompiledSelection = (CosmosCompiledSelection) compiledSelection;
+        enterOperation(SiddhiConstants.METRIC_TYPE_FIND);
+        List<Object> cacheKey = null;
+        if (queryCache != null) {
+            cacheKey = getCacheKey(cosmosCompiledSelection, cosmosCompiledCondition, cosmosCompiledSelection,
+                    parameterMap);
+            List<Object[]> cachedRecords = getCachedResult(cacheKey);
+            if (cachedRecords != null) {
+                return CosmosQueryCache.iterator(cachedRecords);
+            }
+        }
+        awaitDispatchedWrites(cosmosCompiledCondition, parameterMap);
+        long cacheGeneration = queryCache == null ? 0 : queryCache.getGeneration();
+        List<SqlParameter> parameters = new ArrayList<>(CosmosTableUtils.resolveParameters(cosmosCompiledCondition,
+                parameterMap));
+        parameters.addAll(CosmosTableUtils.resolveParameters(cosmosCompiledSelection.getParameterNames(),
+                cosmosCompiledSelection.getParameterBindings(), parameterMap));
+        QueryIterable<Document> queryIterable = executeQuery(new SqlQuerySpec(
+                cosmosCompiledSelection.getQuery(cosmosCompiledCondition, collectionId),
+                new SqlParameterCollection(parameters)));
+        Attribute.Type[] types = outputAttributes == null ? null :
+                Arrays.stream(outputAttributes).map(Attribute::getType).toArray(Attribute.Type[]::new);
+        RecordIterator<Object[]> records = new CosmosIterator(() -> fetchNextPage(queryIterable),
+                cosmosCompiledSelection.getAliases(), types, this.collectionId);
+        return cacheKey == null ? records : queryCache.caching(cacheKey, cacheGeneration, records);
+    }
+
+    @Override
+    protected boolean contains(Map<String, Object> containsConditionParameterMap,
+                               CompiledCondition compiledCondition) {
+        CosmosCompiledCondition cosmosCompiledCondition = (CosmosCompiledCondition) compiledCondition;
+        enterOperation(SiddhiConstants.METRIC_TYPE_CONTAINS);
+        if (isReplicated(cosmosCompiledCondition)) {
+            awaitDispatchedWrites(cosmosCompiledCondition, containsConditionParameterMap);
+            return replica.contains(cosmosCompiledCondition.getReplicaCondition(), containsConditionParameterMap);
+        }
+        if (queryCache == null) {
+            awaitDispatchedWrites(!isPointAddressable(cosmosCompiledCondition) &&
+                    !isBufferOverlaid(cosmosCompiledCondition));
+            return containsDocuments(cosmosCompiledCondition, containsConditionParameterMap);
+        }
+        List<Object> cacheKey = getCacheKey(SiddhiConstants.METRIC_TYPE_CONTAINS, cosmosCompiledCondition, null,
+                containsConditionParameterMap);
+        Boolean cachedResult = getCachedResult(cacheKey);
+        if (cachedResult != null) {
+            return cachedResult;
+        }
+        awaitDispatchedWrites(!isPointAddressable(cosmosCompiledCondition) &&
+                !isBufferOverlaid(cosmosCompiledCondition));
+        long cacheGeneration = queryCache.getGeneration();
+        boolean contains = containsDocuments(cosmosCompiledCondition, containsConditionParameterMap);
+        queryCache.put(cacheKey, contains, 1, cacheGeneration);
+        return contains;
+    }
+
+    /**
+     * Checks whether the reads with the given condition are served by the change feed replica of the table.
+     *
+     * @param compiledCondition the compiled condition.
+     * @return true if the replica is enabled and can evaluate the condition.
+     */
+    private boolean isReplicated(CosmosCompiledCondition compiledCondition) {
+        return replica != null && compiledCondition.getReplicaCondition() != null;
+    }
+
+    /**
+     * Checks whether the reads with the given condition are answered from Cosmos DB overlaid with the writes held in
+     * the write-behind buffer, instead of flushing the buffer first.
+     *
+     * @param compiledCondition the compiled condition.
+     * @return true if the buffer is enabled and the condition can be evaluated over the buffered documents.
+     */
+    private boolean isBufferOverlaid(CosmosCompiledCondition compiledCondition) {
+        return writeBehindBuffer != null && compiledCondition.getReplicaCondition() != null;
+    }
+
+    /**
+     * Method for taking the writes held in the write-behind buffer, to be overlaid on a read with the given condition.
+     *
+     * @param compiledCondition the compiled condition.
+     * @return the buffered writes keyed by document id, which is empty if the read is not overlaid.
+     */
+    private Map<String, CosmosWriteBehindBuffer.PendingWrite> getBufferedWrites(
+            CosmosCompiledCondition compiledCondition) {
+        return isBufferOverlaid(compiledCondition) ? writeBehindBuffer.getAll() : Collections.emptyMap();
+    }
+
+    /**
+     * Method for querying the documents matching a condition as they are after the given buffered writes, in the way
+     * point reads consult the write-behind buffer. The documents matching the condition are queried along with the
+     * stored versions of the buffered documents, the buffered writes are applied to the latter, and the resulting
+     * documents are matched against the condition in memory. Buffered documents which are not stored yet follow the
+     * queried documents.
+     *
+     * @param compiledCondition     the compiled condition, which can be evaluated in memory.
+     * @param conditionParameterMap the map which contains the runtime value(s) for the condition.
+     * @param bufferedWrites        the buffered writes, keyed by document id.
+     * @return the request fetching the next page of the documents, which returns null once they are all fetched.
+     */
+    private CosmosRequest<List<Document>> queryCurrentDocuments(
+            CosmosCompiledCondition compiledCondition, Map<String, Object> conditionParameterMap,
+            Map<String, CosmosWriteBehindBuffer.PendingWrite> bufferedWrites) {
+        List<SqlParameter> parameters = new ArrayList<>(CosmosTableUtils.resolveParameters(compiledCondition,
+                conditionParameterMap));
+        parameters.add(new SqlParameter(CosmosTableConstants.SQL_BUFFERED_DOCUMENT_IDS_PARAMETER,
+                new ArrayList<>(bufferedWrites.keySet())));
+        QueryIterable<Document> queryIterable = executeQuery(new SqlQuerySpec(CosmosTableUtils.buildQuery(
+                CosmosTableConstants.SQL_SELECT_MATCHING_OR_BUFFERED, collectionId, collectionId,
+                compiledCondition.getCompiledQuery()), new SqlParameterCollection(parameters)));
+        Set<String> unstoredDocumentIds = new LinkedHashSet<>(bufferedWrites.keySet());
+        AtomicBoolean fetched = new AtomicBoolean();
+        return () -> {
+            if (fetched.get()) {
+                return null;
+            }
+            List<Document> page = fetchNextPage(queryIterable);
+            List<Document> documents = new ArrayList<>();
+            if (page == null) {
+                fetched.set(true);
+                for (String documentId : unstoredDocumentIds) {
+                    addMatchingDocument(documents, bufferedWrites.get(documentId).applyTo(null), compiledCondition,
+                            conditionParameterMap);
+                }
+                return documents;
+            }
+            for (Document storedDocument : page) {
+                CosmosWriteBehindBuffer.PendingWrite bufferedWrite = bufferedWrites.get(storedDocument.getId());
+                if (bufferedWrite == null) {
+                    //Documents without buffered writes are only queried if they match the condition.
+                    documents.add(storedDocument);
+                    continue;
+                }
+                unstoredDocumentIds.remove(storedDocument.getId());
+                addMatchingDocument(documents, bufferedWrite.applyTo(storedDocument), compiledCondition,
+                        conditionParameterMap);
+            }
+            return documents;
+        };
+    }
+
+    private void addMatchingDocument(List<Document> documents, Document document,
+                                     CosmosCompiledCondition compiledCondition,
+                                     Map<String, Object> conditionParameterMap) {
+        if (document != null && matches(document, compiledCondition, conditionParameterMap)) {
+            documents.add(document);
+        }
+    }
+
+    /**
+     * Checks whether a document matches a condition, evaluated in memory.
+     *
+     * @param document              the document.
+     * @param compiledCondition     the compiled condition, which can be evaluated in memory.
+     * @param conditionParameterMap the map which contains the runtime value(s) for the condition.
+     * @return true if the document matches the condition.
+     */
+    private boolean matches(Document document, CosmosCompiledCondition compiledCondition,
+                            Map<String, Object> conditionParameterMap) {
+        Object[] record = new Object[attributeNames.size()];
+        for (int i = 0; i < record.length; i++) {
+            record[i] = CosmosTableUtils.convertValue(document.get(attributeNames.get(i)), attributeTypes[i]);
+        }
+        return compiledCondition.getReplicaCondition().matches(record, conditionParameterMap);
+    }
+
+    /**
+     * Method for waiting until the writes an operation on Cosmos DB with the given condition depends on are
+     * performed. Documents addressed by their id are read through the write-behind buffer, hence their buffered writes
+     * are not performed.
+     *
+     * @param compiledCondition     the compiled condition.
+     * @param conditionParameterMap the map which contains the runtime value(s) for the condition.
+     */
+    private void awaitDispatchedWrites(CosmosCompiledCondition compiledCondition,
+                                       Map<String, Object> conditionParameterMap) {
+        if (!isPointAddressable(compiledCondition)) {
+            flushBufferedWrites(compiledCondition, conditionParameterMap);
+        }
+        awaitDispatchedWrites(false);
+    }
+
+    /**
+     * Method for performing the buffered writes an operation with the given condition depends on, i.e. the writes of
+     * the documents which match the condition either before or after their buffered writes. The stored versions of
+     * the buffered documents are queried to find them, and the writes of other documents remain buffered. All the
+     * buffered writes are performed if the condition cannot be evaluated in memory.
+     *
+     * @param compiledCondition     the compiled condition.
+     * @param conditionParameterMap the map which contains the runtime value(s) for the condition.
+     */
+    private void flushBufferedWrites(CosmosCompiledCondition compiledCondition,
+                                     Map<String, Object> conditionParameterMap) {
+        if (writeBehindBuffer == null) {
+            return;
+        }
+        if (!isBufferOverlaid(compiledCondition)) {
+            writeBehindBuffer.flush();
+            return;
+        }
+        Map<String, CosmosWriteBehindBuffer.PendingWrite> bufferedWrites = writeBehindBuffer.getAll();
+        if (bufferedWrites.isEmpty()) {
+            return;
+        }
+        Map<String, Document> storedDocuments = new HashMap<>();
+        SqlParameterCollection parameters = new SqlParameterCollection(new SqlParameter(
+                CosmosTableConstants.SQL_BUFFERED_DOCUMENT_IDS_PARAMETER, new ArrayList<>(bufferedWrites.keySet())));
+        try {
+            forEachDocument(executeQuery(new SqlQuerySpec(CosmosTableUtils.buildQuery(
+                    CosmosTableConstants.SQL_SELECT_BUFFERED, collectionId, collectionId), parameters)),
+                    document -> storedDocuments.put(document.getId(), document));
+        } catch (DocumentClientException e) {
+            throw new SiddhiAppRuntimeException("Error retrieving documents from store '" + collectionId + "'. ", e);
+        }
+        List<String> documentIds = new ArrayList<>();
+        for (Map.Entry<String, CosmosWriteBehindBuffer.PendingWrite> bufferedWrite : bufferedWrites.entrySet()) {
+            Document storedDocument = storedDocuments.get(bufferedWrite.getKey());
+            Document currentDocument = bufferedWrite.getValue().applyTo(storedDocument);
+            if ((storedDocument != null && matches(storedDocument, compiledCondition, conditionParameterMap)) ||
+                    (currentDocument != null && matches(currentDocument, compiledCondition, conditionParameterMap))) {
+                documentIds.add(bufferedWrite.getKey());
+            }
+        }
+        writeBehindBuffer.flush(documentIds);
+    }
+
+    /**
+     * Method for checking whether any document matches a condition.
+     *
+     * @param cosmosCompiledCondition       the compiled condition.
+     * @param containsConditionParameterMap the map which contains the runtime value(s) for the condition.
+     * @return true if a document matches the condition.
+     */
+    private boolean containsDocuments(CosmosCompiledCondition cosmosCompiledCondition,
+                                      Map<String, Object> containsConditionParameterMap) {
+        if (isPointAddressable(cosmosCompiledCondition)) {
+            return readCurrentDocument(cosmosCompiledCondition, containsConditionParameterMap) != null;
+        }
+        Map<String, CosmosWriteBehindBuffer.PendingWrite> bufferedWrites = getBufferedWrites(cosmosCompiledCondition);
+        CosmosRequest<List<Document>> pageRequest;
+        if (bufferedWrites.isEmpty()) {
+            SqlParameterCollection parameters = CosmosTableUtils.resolveParameters(cosmosCompiledCondition,
+                    containsConditionParameterMap);
+            QueryIterable<Document> queryIterable = executeQuery(new SqlQuerySpec(
+                    cosmosCompiledCondition.getContainsQuery(), parameters));
+            pageRequest = () -> fetchNextPage(queryIterable);
+        } else {
+            pageRequest = queryCurrentDocuments(cosmosCompiledCondition, containsConditionParameterMap,
+                    bufferedWrites);
+        }
+        try {
+            List<Document> page;
+            while ((page = pageRequest.execute()) != null) {
+                if (!page.isEmpty()) {
+                    return true;
+                }
+            }
+            return false;
+        } catch (DocumentClientException e) {
+            throw new SiddhiAppRuntimeException("Error retrieving documents from store '" + collectionId + "'. ",
+                    e);
+        }
+    }
+
+    /**
+     * Method for building the key of a read in the near cache, from the query and the runtime values bound to its
+     * parameters. Constant parameters are part of the compiled query, hence only the runtime values are included.
+     *
+     * @param query        the kind of the read, or the selection of the query.
+     * @param condition    the compiled condition of the read.
+     * @param selection    the compiled selection of the query, or null.
+     * @param parameterMap the map which contains the runtime value(s) of the parameters.
+     * @return the key of the read.
+     */
+    private static List<Object> getCacheKey(Object query, CosmosCompiledCondition condition,
+                                            CosmosCompiledSelection selection, Map<String, Object> parameterMap) {
+        List<Object> cacheKey = new ArrayList<>();
+        cacheKey.add(query);
+        cacheKey.add(condition);
+        addParameterValues(cacheKey, condition.getParameterBindings(), parameterMap);
+        if (selection != null) {
+            addParameterValues(cacheKey, selection.getParameterBindings(), parameterMap);
+        }
+        return cacheKey;
+    }
+
+    private static void addParameterValues(List<Object> cacheKey, List<Object> parameterBindings,
+                                           Map<String, Object> parameterMap) {
+        for (Object parameterBinding : parameterBindings) {
+            if (parameterBinding instanceof Attribute) {
+                cacheKey.add(parameterMap.get(((Attribute) parameterBinding).getName()));
+            }
+        }
+    }
+
+    /**
+     * Method for looking up the result of a read in the near cache, tracking the hit or miss.
+     *
+     * @param cacheKey the key of the read.
+     * @param <T>      the type of the result.
+     * @return the cached result, or null if it is not cached.
+     */
+    @SuppressWarnings("unchecked")
+    private <T> T getCachedResult(List<Object> cacheKey) {
+        T cachedResult = (T) queryCache.get(cacheKey);
+        if (metrics != null) {
+            metrics.cacheLookedUp(cachedResult != null);
+        }
+        return cachedResult;
+    }
+
+    /**
+     * Method for discarding the results of the near cache, before and after a write of the table. Results read while
+     * the write is performed are not cached, since they may not reflect the write.
+     */
+    private void invalidateCache() {
+        if (queryCache != null) {
+            queryCache.invalidate();
+        }
+    }
+
+    /**
+     * Method for marking that the table has written to its collection, so that the change feed replica, if enabled,
+     * reflects the write before serving the following reads.
+     */
+    private void markReplicaChanged() {
+        if (replica != null) {
+            replica.markStale();
+        }
+    }
+
+    @Override
+    public void add(ComplexEventChunk<StreamEvent> addingEventChunk) throws ConnectionUnavailableException {
+        invalidateCache();
+        try {
+            super.add(addingEventChunk);
+        } finally {
+            invalidateCache();
+            markReplicaChanged();
+        }
+    }
+
+    @Override
+    public void delete(ComplexEventChunk<StateEvent> deletingEventChunk, CompiledCondition compiledCondition)
+            throws ConnectionUnavailableException {
+        invalidateCache();
+        try {
+            super.delete(deletingEventChunk, compiledCondition);
+        } finally {
+            invalidateCache();
+        }
+    }
+
+    @Override
+    public void update(ComplexEventChunk<StateEvent> updatingEventChunk, CompiledCondition compiledCondition,
+                       CompiledUpdateSet compiledUpdateSet) throws ConnectionUnavailableException {
+        invalidateCache();
+        try {
+            super.update(updatingEventChunk, compiledCondition, compiledUpdateSet);
+        } finally {
+            invalidateCache();
+            markReplicaChanged();
+        }
+    }
+
+    @Override
+    public void updateOrAdd(ComplexEventChunk<StateEvent> updateOrAddingEventChunk,
+                            CompiledCondition compiledCondition, CompiledUpdateSet compiledUpdateSet,
+                            AddingStreamEventExtractor addingStreamEventExtractor)
+            throws ConnectionUnavailableException {
+        invalidateCache();
+        try {
+            super.updateOrAdd(updateOrAddingEventChunk, compiledCondition, compiledUpdateSet,
+                    addingStreamEventExtractor);
+        } finally {
+            invalidateCache();
+            markReplicaChanged();
+        }
+    }
+
+    @Override
+    protected void delete(List<Map<String, Object>> deleteConditionParameterMaps,
+                          CompiledCondition compiledCondition) {
+        CosmosCompiledCondition cosmosCompiledCondition = (CosmosCompiledCondition) compiledCondition;
+        enterOperation(SiddhiConstants.METRIC_TYPE_DELETE);
+        for (Map<String, Object> deleteConditionParameterMap : deleteConditionParameterMaps) {
+            if (isPointAddressable(cosmosCompiledCondition)) {
+                String documentId = resolveDocumentId(cosmosCompiledCondition, deleteConditionParameterMap);
+                if (documentId != null && writeAheadLog != null) {
+                    writeAheadLog.append(Collections.singletonList(toLogEntry(
+                            CosmosWriteBehindBuffer.WriteType.DELETE, documentId, null, null)));
+                } else if (documentId != null && writeBehindBuffer != null) {
+                    writeBehindBuffer.delete(documentId);
+                } else if (documentId != null) {
+                    dispatchWrite(Collections.singletonList(documentId), "delete",
+                            () -> deleteDocument(documentId));
+                }
+                continue;
+            }
+            if (writeAheadLog != null) {
+                writeAheadLog.append(Collections.singletonList(toLogEntry(
+                        CosmosWriteBehindBuffer.WriteType.DELETE, cosmosCompiledCondition,
+                        deleteConditionParameterMap, null, null)));
+                continue;
+            }
+            awaitDispatchedWrites(cosmosCompiledCondition, deleteConditionParameterMap);
+            deleteDocuments(cosmosCompiledCondition.getCompiledQuery(), toSelectQuery(cosmosCompiledCondition,
+                    deleteConditionParameterMap));
+        }
+    }
+
+    /**
+     * Method for deleting the documents matching a condition, on the server side if the bulk delete stored procedure
+     * is available, or one at a time.
+     *
+     * @param condition   the condition.
+     * @param selectQuery the query which selects the documents matching the condition, along with its parameters.
+     */
+    private void deleteDocuments(String condition, SqlQuerySpec selectQuery) {
+        if (bulkDeleteProcedureLink != null) {
+            executeStoredProcedure(bulkDeleteProcedureLink, condition, selectQuery, Collections.emptyMap(),
+                    "delete");
+            if (replica != null) {
+                //The documents deleted on the server side are not known, hence the replica is reloaded.
+                replica.markReloadRequired();
+            }
+            return;
+        }
+        try {
+            forEachDocument(executeQuery(selectQuery), this::deleteDocument);
+        } catch (DocumentClientException e) {
+            throw new SiddhiAppRuntimeException("Error performing document deletion for store: '" +
+                    collectionId + "'. ", e);
+        }
+    }
+
+    /**
+     * Method for deleting the document with the given id. The document is removed from the change feed replica, if
+     * enabled, since deletes are not part of the change feed.
+     *
+     * @param documentId the id of the document to be deleted.
+     */
+    private void deleteDocument(String documentId) {
+        deleteDocument(documentLinkPrefix + documentId, getRequestOptions(documentId));
+        if (replica != null) {
+            replica.removeDocument(documentId);
+        }
+    }
+
+    /**
+     * Method for deleting a document read from the collection.
+     *
+     * @param document the document to be deleted.
+     * @see #deleteDocument(String)
+     */
+    private void deleteDocument(Document document) {
+        deleteDocument(document.getSelfLink(), getRequestOptions(document));
+        if (replica != null) {
+            replica.removeResource(document.getResourceId());
+        }
+    }
+
+    /**
+     * Method for deleting a single document. A document which no longer exists is considered deleted.
+     *
+     * @param documentLink the link of the document to be deleted.
+     * @param options      the request options of the partition of the document.
+     */
+    private void deleteDocument(String documentLink, RequestOptions options) {
+        try {
+            execute(() -> documentClient.deleteDocument(documentLink, options),
+                    ResourceResponse::getRequestCharge);
+        } catch (DocumentClientException e) {
+            if (e.getStatusCode() != CosmosTableConstants.HTTP_STATUS_NOT_FOUND) {
+                throw new SiddhiAppRuntimeException("Error performing document deletion for store: '" +
+                        collectionId + "'. ", e);
+            }
+        }
+    }
+
+    @Override
+    protected void update(CompiledCondition compiledCondition, List<Map<String, Object>> updateConditionParameterMaps,
+                          Map<String, CompiledExpression> map, List<Map<String, Object>> updateSetParameterMaps) {
+        CosmosCompiledCondition cosmosCompiledCondition = (CosmosCompiledCondition) compiledCondition;
+        enterOperation(SiddhiConstants.METRIC_TYPE_UPDATE);
+        for (int i = 0; i < updateConditionParameterMaps.size(); i++) {
+            Map<String, Object> updateSet = CosmosTableUtils.resolveUpdateSet(map, updateSetParameterMaps.get(i));
+            if (isPointAddressable(cosmosCompiledCondition)) {
+                Map<String, Object> conditionParameterMap = updateConditionParameterMaps.get(i);
+                String documentId = resolveDocumentId(cosmosCompiledCondition, conditionParameterMap);
+                if (documentId == null) {
+                    continue;
+                }
+                Object[] replacingRecord = toRecord(updateSet);
+                Document replacingDocument = replacingRecord == null ? null : toDocument(replacingRecord);
+                if (writeAheadLog != null) {
+                    if (replacingDocument != null && documentId.equals(replacingDocument.getId())) {
+                        writeAheadLog.append(Collections.singletonList(toLogEntry(
+                                CosmosWriteBehindBuffer.WriteType.REPLACE, documentId, replacingDocument, null)));
+                        continue;
+                    }
+                    //Updates moving the document are logged as well, since they are shipped by reading the document.
+                    writeAheadLog.append(Collections.singletonList(toLogEntry(
+                            CosmosWriteBehindBuffer.WriteType.UPDATE, documentId, null, updateSet)));
+                    continue;
+                }
+                if (writeBehindBuffer != null) {
+                    if (replacingDocument != null && documentId.equals(replacingDocument.getId())) {
+                        writeBehindBuffer.replace(documentId, replacingDocument);
+                        continue;
+                    }
+                    if (!movesDocument(updateSet) && !updateSet.containsKey(CosmosTableConstants.DOCUMENT_ID)) {
+                        writeBehindBuffer.update(documentId, updateSet, cosmosCompiledCondition,
+                                conditionParameterMap);
+                        continue;
+                    }
+                    //Writes which cannot be buffered are performed after the buffered writes of the document.
+                    writeBehindBuffer.flush(Collections.singletonList(documentId));
+                }
+                if (replacingDocument != null && documentId.equals(replacingDocument.getId())) {
+                    //The set clause makes up the whole document, hence the document is replaced without reading it.
+                    dispatchWrite(Collections.singletonList(documentId), "update",
+                            () -> replaceDocument(documentLinkPrefix + documentId, replacingDocument));
+                    continue;
+                }
+                if (isPatchable(updateSet)) {
+                    dispatchWrite(Collections.singletonList(documentId), "update",
+                            () -> patchDocuments(cosmosCompiledCondition, conditionParameterMap, updateSet));
+                    continue;
+                }
+                if (!movesDocument(updateSet)) {
+                    dispatchWrite(Collections.singletonList(documentId), "update", () -> {
+                        Document toUpdateDocument = readDocument(cosmosCompiledCondition, conditionParameterMap);
+                        if (toUpdateDocument != null) {
+                            replaceDocument(toUpdateDocument, updateSet);
+                        }
+                    });
+                    continue;
+                }
+            }
+            if (writeAheadLog != null) {
+                writeAheadLog.append(Collections.singletonList(toLogEntry(CosmosWriteBehindBuffer.WriteType.UPDATE,
+                        cosmosCompiledCondition, updateConditionParameterMaps.get(i), null, updateSet)));
+                continue;
+            }
+            awaitDispatchedWrites(cosmosCompiledCondition, updateConditionParameterMaps.get(i));
+            if (isPatchable(updateSet)) {
+                patchDocuments(cosmosCompiledCondition, updateConditionParameterMaps.get(i), updateSet);
+                continue;
+            }
+            if (isPointAddressable(cosmosCompiledCondition)) {
+                Document toUpdateDocument = readDocument(cosmosCompiledCondition, updateConditionParameterMaps.get(i));
+                if (toUpdateDocument != null) {
+                    replaceDocument(toUpdateDocument, updateSet);
+                }
+                continue;
+            }
+            try {
+                QueryIterable<Document> queryIterable = queryDocuments(cosmosCompiledCondition,
+                        updateConditionParameterMaps.get(i));
+                forEachDocument(queryIterable, toUpdateDocument -> replaceDocument(toUpdateDocument, updateSet));
+            } catch (SQLException | DocumentClientException e) {
+                throw new SiddhiAppRuntimeException("Error performing document update operations for store '" +
+                        collectionId + "'. ", e);
+            }
+        }
+    }
+
+    @Override
+    protected void updateOrAdd(CompiledCondition compiledCondition,
+                               List<Map<String, Object>> updateConditionParameterMaps,
+                               Map<String, CompiledExpression> map, List<Map<String, Object>> updateSetParameterMaps,
+                               List<Object[]> addingDocuments) {
+        CosmosCompiledCondition cosmosCompiledCondition = (CosmosCompiledCondition) compiledCondition;
+        enterOperation(SiddhiConstants.METRIC_TYPE_UPDATE_OR_INSERT);
+        List<Document> upsertingDocuments = new ArrayList<>();
+        for (int i = 0; i < updateConditionParameterMaps.size(); i++) {
+            Map<String, Object> updateSet = CosmosTableUtils.resolveUpdateSet(map, updateSetParameterMaps.get(i));
+            if (isPointAddressable(cosmosCompiledCondition)) {
+                Document upsertingDocument = toUpsertingDocument(cosmosCompiledCondition,
+                        updateConditionParameterMaps.get(i), updateSet, addingDocuments.get(i));
+                if (upsertingDocument != null && writeAheadLog != null) {
+                    writeAheadLog.append(Collections.singletonList(toLogEntry(
+                            CosmosWriteBehindBuffer.WriteType.UPSERT, upsertingDocument.getId(), upsertingDocument,
+                            null)));
+                    continue;
+                } else if (upsertingDocument != null && writeBehindBuffer != null) {
+                    writeBehindBuffer.upsert(upsertingDocument.getId(), upsertingDocument);
+                    continue;
+                } else if (upsertingDocument != null) {
+                    upsertingDocuments.add(upsertingDocument);
+                    continue;
+                }
+            }
+            if (writeAheadLog != null) {
+                Document addingDocument = toDocument(addingDocuments.get(i));
+                if (isPointAddressable(cosmosCompiledCondition)) {
+                    writeAheadLog.append(Collections.singletonList(toLogEntry(
+                            CosmosWriteBehindBuffer.WriteType.UPSERT, resolveDocumentId(cosmosCompiledCondition,
+                                    updateConditionParameterMaps.get(i)), addingDocument, updateSet)));
+                } else {
+                    writeAheadLog.append(Collections.singletonList(toLogEntry(
+                            CosmosWriteBehindBuffer.WriteType.UPSERT, cosmosCompiledCondition,
+                            updateConditionParameterMaps.get(i), addingDocument, updateSet)));
+                }
+                continue;
+            }
+            //Pending upserts are written first, to preserve the order of the events.
+            upsertDocuments(upsertingDocuments);
+            if (isPointAddressable(cosmosCompiledCondition)) {
+                Map<String, Object> conditionParameterMap = updateConditionParameterMaps.get(i);
+                Document addingDocument = toDocument(addingDocuments.get(i));
+                List<String> documentIds = new ArrayList<>(2);
+                String documentId = resolveDocumentId(cosmosCompiledCondition, conditionParameterMap);
+                if (documentId != null) {
+                    documentIds.add(documentId);
+                }
+                if (addingDocument.getId() != null && !addingDocument.getId().equals(documentId)) {
+                    documentIds.add(addingDocument.getId());
+                }
+                if (writeBehindBuffer != null && addingDocument.getId() != null &&
+                        addingDocument.getId().equals(documentId) && !movesDocument(updateSet) &&
+                        !updateSet.containsKey(CosmosTableConstants.DOCUMENT_ID)) {
+                    //The document is read through the buffer, so that the update or add is buffered as an upsert.
+                    Document currentDocument = readCurrentDocument(cosmosCompiledCondition, conditionParameterMap);
+                    writeBehindBuffer.upsert(documentId, currentDocument == null ? addingDocument :
+                            CosmosWriteBehindBuffer.applyUpdateSet(currentDocument, updateSet));
+                    continue;
+                }
+                if (writeBehindBuffer != null) {
+                    //Only the buffered writes of the documents the operation touches are performed first.
+                    writeBehindBuffer.flush(documentIds);
+                }
+                if (!movesDocument(updateSet)) {
+                    dispatchWrite(documentIds, "update or add", () -> {
+                        Document toUpdateDocument = readDocument(cosmosCompiledCondition, conditionParameterMap);
+                        if (toUpdateDocument != null) {
+                            replaceDocument(toUpdateDocument, updateSet);
+                        } else {
+                            createDocument(addingDocument);
+                        }
+                    });
+                    continue;
+                }
+            }
+            awaitDispatchedWrites(cosmosCompiledCondition, updateConditionParameterMaps.get(i));
+            boolean updated = false;
+            if (isPointAddressable(cosmosCompiledCondition)) {
+                Document toUpdateDocument = readDocument(cosmosCompiledCondition, updateConditionParameterMaps.get(i));
+                if (toUpdateDocument != null) {
+                    replaceDocument(toUpdateDocument, updateSet);
+                    updated = true;
+                }
+            } else {
+                try {
+                    QueryIterable<Document> queryIterable = queryDocuments(cosmosCompiledCondition,
+                            updateConditionParameterMaps.get(i));
+                    updated = forEachDocument(queryIterable,
+                            toUpdateDocument -> replaceDocument(toUpdateDocument, updateSet)) > 0;
+                } catch (SQLException | DocumentClientException e) {
+                    throw new SiddhiAppRuntimeException("Error performing update/insert operations for store '" +
+                            collectionId + "'. ", e);
+                }
+            }
+            if (!updated) {
+                Document addingDocument = toDocument(addingDocuments.get(i));
+                dispatchWrite(getDocumentIds(Collections.singletonList(addingDocument)), "add",
+                        () -> createDocument(addingDocument));
+            }
+        }
+        upsertDocuments(upsertingDocuments);
+    }
+
+    /**
+     * Method for building the document which an update or insert operation results in, regardless of whether the
+     * document exists. This is possible when the set clause assigns all the attributes with the same values as the
+     * record to be added, and the resulting document keeps the id given in the condition.
+     *
+     * @param compiledCondition     the compiled condition which identifies a single document.
+     * @param conditionParameterMap the map which contains the runtime value(s) for the condition.
+     * @param updateSet             the values to be set, keyed by the table attribute they are assigned to.
+     * @param addingRecord          the record to be added if the document does not exist.
+     * @return the document to be upserted, or null if the operation cannot be done as an upsert.
+     */
+    private Document toUpsertingDocument(CosmosCompiledCondition compiledCondition,
+                                         Map<String, Object> conditionParameterMap, Map<String, Object> updateSet,
+                                         Object[] addingRecord) {
+        Object[] record = toRecord(updateSet);
+        if (record == null || !Arrays.equals(record, addingRecord)) {
+            return null;
+        }
+        String documentId = resolveDocumentId(compiledCondition, conditionParameterMap);
+        Document upsertingDocument = toDocument(record);
+        return (documentId != null && documentId.equals(upsertingDocument.getId())) ? upsertingDocument : null;
+    }
+
+    /**
+     * Method for upserting documents, in order. The given list is cleared once the documents are dispatched.
+     *
+     * @param documents the documents to be upserted.
+     */
+    private void upsertDocuments(List<Document> documents) {
+        if (documents.isEmpty()) {
+            return;
+        }
+        if (bulkImportProcedureLink != null && documents.size() > 1) {
+            List<Document> upsertingDocuments = new ArrayList<>(documents);
+            dispatchWrite(getDocumentIds(upsertingDocuments), "update or add",
+                    () -> bulkWrite(upsertingDocuments, true));
+        } else {
+            for (Document document : documents) {
+                dispatchWrite(Collections.singletonList(document.getId()), "update or add",
+                        () -> upsertDocument(document));
+            }
+        }
+        documents.clear();
+    }
+
+    /**
+     * Method for upserting a single document.
+     *
+     * @param document the document to be upserted.
+     */
+    private void upsertDocument(Document document) {
+        try {
+            execute(() -> documentClient.upsertDocument(collectionLink, document, getRequestOptions(document), true),
+                    ResourceResponse::getRequestCharge);
+        } catch (DocumentClientException e) {
+            throw new SiddhiAppRuntimeException("Error performing update/insert operations for store '" +
+                    collectionId + "'. ", e);
+        }
+    }
+
+    /**
+     * Checks whether the given set clause can be applied through the partial update stored procedure.
+     *
+     * @param updateSet the values to be set, keyed by the table attribute they are assigned to.
+     * @return true if the set clause can be applied on the server side.
+     */
+    private boolean isPatchable(Map<String, Object> updateSet) {
+        return patchUpdateProcedureLink != null && !movesDocument(updateSet);
+    }
+
+    /**
+     * Checks whether the given set clause may move documents, i.e. assign primary key attributes from which the
+     * document ids are derived. Such documents cannot be updated by replacing them.
+     *
+     * @param updateSet the values to be set, keyed by the table attribute they are assigned to.
+     * @return true if the set clause may change the ids of the updated documents.
+     */
+    private boolean movesDocument(Map<String, Object> updateSet) {
+        return derivedDocumentId && documentKeyAttributes.stream().anyMatch(updateSet::containsKey);
+    }
+
+    /**
+     * Method for applying the values of a set clause to the documents matching the given condition, on the server
+     * side, through the partial update stored procedure.
+     *
+     * @param compiledCondition     the compiled condition.
+     * @param conditionParameterMap the map which contains the runtime value(s) for the condition.
+     * @param updateSet             the values to be set, keyed by the table attribute they are assigned to.
+     */
+    private void patchDocuments(CosmosCompiledCondition compiledCondition, Map<String, Object> conditionParameterMap,
+                                Map<String, Object> updateSet) {
+        patchDocuments(compiledCondition.getCompiledQuery(), toSelectQuery(compiledCondition, conditionParameterMap),
+                updateSet);
+    }
+
+    /**
+     * Method for applying the values of a set clause to the documents matching a condition, on the server side.
+     *
+     * @param condition   the condition.
+     * @param selectQuery the query which selects the documents matching the condition, along with its parameters.
+     * @param updateSet   the values to be set, keyed by the table attribute they are assigned to.
+     * @see #patchDocuments(CosmosCompiledCondition, Map, Map)
+     */
+    private void patchDocuments(String condition, SqlQuerySpec selectQuery, Map<String, Object> updateSet) {
+        executeStoredProcedure(patchUpdateProcedureLink, condition, selectQuery,
+                Collections.singletonMap(CosmosTableConstants.PATCH_UPDATE_SET, updateSet), "update");
+    }
+
+    /**
+     * Method for building the query which selects the documents matching the given condition.
+     *
+     * @param compiledCondition     the compiled condition.
+     * @param conditionParameterMap the map which contains the runtime value(s) for the condition.
+     * @return the select query, along with the parameters bound to the condition.
+     */
+    private static SqlQuerySpec toSelectQuery(CosmosCompiledCondition compiledCondition,
+                                              Map<String, Object> conditionParameterMap) {
+        return new SqlQuerySpec(compiledCondition.getSelectQuery(), CosmosTableUtils.resolveParameters(
+                compiledCondition, conditionParameterMap));
+    }
+
+    /**
+     * Method for executing a stored procedure which processes the documents matching the given condition. Stored
+     * procedures run within a single partition, hence when requests are routed by the partition key attribute, the
+     * partition key values of the matching documents are queried first, and the procedure is executed on each of their
+     * partitions.
+     *
+     * @param procedureLink     the link of the stored procedure.
+     * @param condition         the condition.
+     * @param selectQuery       the query which selects the documents matching the condition, along with its
+     *                          parameters.
+     * @param requestProperties the properties of the request to the stored procedure, besides the query.
+     * @param operation         the name of the operation performed by the stored procedure, for logging purposes.
+     */
+    private void executeStoredProcedure(String procedureLink, String condition, SqlQuerySpec selectQuery,
+                                        Map<String, Object> requestProperties, String operation) {
+        if (!routedByPartitionKey) {
+            executeStoredProcedure(procedureLink, buildProcedureRequest(selectQuery, requestProperties),
+                    storedProcedureOptions, operation);
+            return;
+        }
+        List<Runnable> partitionExecutions = new ArrayList<>();
+        for (Object partitionKeyValue : queryPartitionKeyValues(condition, selectQuery.getParameters(),
+                operation)) {
+            RequestOptions options = getPartitionOptions(partitionKeyValue).storedProcedureOptions;
+            //Each execution holds its own request, since the continuation of the execution is set on it.
+            Document request = buildProcedureRequest(selectQuery, requestProperties);
+            partitionExecutions.add(() -> executeStoredProcedure(procedureLink, request, options, operation));
+        }
+        if (!partitionExecutions.isEmpty()) {
+            writePartitions(partitionExecutions, operation);
+        }
+    }
+
+    private static Document buildProcedureRequest(SqlQuerySpec selectQuery, Map<String, Object> requestProperties) {
+        Document request = new Document();
+        request.set(CosmosTableConstants.PROCEDURE_QUERY, selectQuery);
+        for (Map.Entry<String, Object> requestProperty : requestProperties.entrySet()) {
+            request.set(requestProperty.getKey(), requestProperty.getValue());
+        }
+        return request;
+    }
+
+    /**
+     * Method for querying the distinct partition key values of the documents matching the given condition, reading
+     * only the partition key attribute of the documents.
+     *
+     * @param condition  the condition.
+     * @param parameters the parameters bound to the condition.
+     * @param operation  the name of the operation the partitions are queried for, for logging purposes.
+     * @return the partition key values.
+     */
+    private Set<Object> queryPartitionKeyValues(String condition, SqlParameterCollection parameters,
+                                                String operation) {
+        String query = CosmosTableUtils.buildQuery(CosmosTableConstants.SQL_SELECT_ATTRIBUTES,
+                collectionId + "." + partitionKeyAttribute, collectionId, condition);
+        Set<Object> partitionKeyValues = new LinkedHashSet<>();
+        try {
+            forEachDocument(executeQuery(new SqlQuerySpec(query, parameters)),
+                    document -> partitionKeyValues.add(getPartitionKeyValue(document)));
+        } catch (DocumentClientException e) {
+            throw new SiddhiAppRuntimeException("Failed to query the partitions of the documents to " + operation +
+                    " in store: '" + collectionId + "'", e);
+        }
+        //Documents of the table always hold the partition key attribute.
+        partitionKeyValues.remove(null);
+        return partitionKeyValues;
+    }
+
+    /**
+     * Method for executing a stored procedure which processes the documents matching a query. A stored procedure
+     * execution may stop early when it runs out of its execution budget, in which case it returns a continuation, and
+     * it is executed again with the continuation until all the documents are processed.
+     *
+     * @param procedureLink    the link of the stored procedure.
+     * @param request          the request to the stored procedure, holding the query.
+     * @param procedureOptions the request options of the stored procedure executions.
+     * @param operation        the name of the operation performed by the stored procedure, for logging purposes.
+     * @return the number of documents processed.
+     */
+    private int executeStoredProcedure(String procedureLink, Document request, RequestOptions procedureOptions,
+                                       String operation) {
+        request.set(CosmosTableConstants.PROCEDURE_PAGE_SIZE, feedOptions.getPageSize() == null ?
+                CosmosTableConstants.DEFAULT_PROCEDURE_PAGE_SIZE : feedOptions.getPageSize());
+        int processed = 0;
+        Object continuation = null;
+        do {
+            request.set(CosmosTableConstants.PROCEDURE_CONTINUATION, continuation);
+            Document result;
+            try {
+                result = execute(() -> documentClient.executeStoredProcedure(procedureLink, procedureOptions,
+                        new Object[]{request}), StoredProcedureResponse::getRequestCharge,
+                        CosmosDBEventTable::getProcessedDocuments).getResponseAsDocument();
+            } catch (DocumentClientException e) {
+                throw new SiddhiAppRuntimeException("Failed to " + operation + " documents in store: '" +
+                        collectionId + "'", e);
+            }
+            int processedInExecution = result.getInt(CosmosTableConstants.PROCEDURE_PROCESSED);
+            Object nextContinuation = result.get(CosmosTableConstants.PROCEDURE_CONTINUATION);
+            if (processedInExecution == 0 && nextContinuation != null &&
+                    nextContinuation.toString().equals(String.valueOf(continuation))) {
+                throw new SiddhiAppRuntimeException("Stored procedure did not make progress while trying to " +
+                        operation + " documents in store: '" + collectionId + "'");
+            }
+            processed += processedInExecution;
+            continuation = nextContinuation;
+        } while (continuation != null);
+        if (log.isDebugEnabled()) {
+            log.debug("Stored procedure '" + procedureLink + "' processed " + processed + " documents to " +
+                    operation + " in store: '" + collectionId + "'");
+        }
+        return processed;
+    }
+
+    /**
+     * Method for applying the values of a set clause to a document and replacing the stored document with it.
+     *
+     * @param toUpdateDocument the document to be updated.
+     * @param updateSet        the values to be set, keyed by the table attribute they are assigned to.
+     */
+    private void replaceDocument(Document toUpdateDocument, Map<String, Object> updateSet) {
+        for (Map.Entry<String, Object> entry : updateSet.entrySet()) {
+            toUpdateDocument.set(entry.getKey(), entry.getValue());
+        }
+        if (movesDocument(updateSet)) {
+            Object[] record = new Object[attributeNames.size()];
+            for (int i = 0; i < record.length; i++) {
+                record[i] = toUpdateDocument.get(attributeNames.get(i));
+            }
+            Document replacingDocument = toDocument(record);
+            if (!replacingDocument.getId().equals(toUpdateDocument.getId())) {
+                //The primary key is updated, hence the document is moved to the id derived from the new key.
+                if (writeBehindBuffer != null) {
+                    writeBehindBuffer.flush(Collections.singletonList(replacingDocument.getId()));
+                }
+                createDocument(replacingDocument);
+                deleteDocument(toUpdateDocument);
+                return;
+            }
+        }
+        try {
+            execute(() -> documentClient.replaceDocument(toUpdateDocument, getRequestOptions(toUpdateDocument)),
+                    ResourceResponse::getRequestCharge);
+        } catch (DocumentClientException e) {
+            throw new SiddhiAppRuntimeException("Error performing document update operations for store '" +
+                    collectionId + "'. ", e);
+        }
+    }
+
+    /**
+     * Method for replacing the document with the given link, if it exists.
+     *
+     * @param documentLink      the link of the document to be replaced.
+     * @param replacingDocument the document to replace the stored document with.
+     */
+    private void replaceDocument(String documentLink, Document replacingDocument) {
+        try {
+            execute(() -> documentClient.replaceDocument(documentLink, replacingDocument,
+                    getRequestOptions(replacingDocument)),
+                    ResourceResponse::getRequestCharge);
+        } catch (DocumentClientException e) {
+            if (e.getStatusCode() != CosmosTableConstants.HTTP_STATUS_NOT_FOUND) {
+                throw new SiddhiAppRuntimeException("Error performing document update operations for store '" +
+                        collectionId + "'. ", e);
+            }
+        }
+    }
+
+    /**
+     * Checks whether the documents matching the given condition can be addressed directly through their links,
+     * instead of being queried.
+     *
+     * @param compiledCondition the compiled condition.
+     * @return true if the condition identifies a single document which can be read directly.
+     */
+    private boolean isPointAddressable(CosmosCompiledCondition compiledCondition) {
+        return documentLinkPrefix != null && compiledCondition.getDocumentKeyOperands() != null;
+    }
+
+    /**
+     * Method for resolving the id of the document identified by the given condition, using values from the runtime.
+     *
+     * @param compiledCondition     the compiled condition which identifies a single document.
+     * @param conditionParameterMap the map which contains the runtime value(s) for the condition.
+     * @return the id of the document, or null if no document can have the resolved id.
+     */
+    private String resolveDocumentId(CosmosCompiledCondition compiledCondition,
+                                     Map<String, Object> conditionParameterMap) {
+        List<Object> documentKeyOperands = compiledCondition.getDocumentKeyOperands();
+        if (derivedDocumentId) {
+            Object[] keyValues = new Object[documentKeyOperands.size()];
+            for (int i = 0; i < keyValues.length; i++) {
+                keyValues[i] = CosmosTableUtils.resolveOperand(documentKeyOperands.get(i), conditionParameterMap);
+            }
+            return CosmosTableUtils.encodeDocumentId(keyValues);
+        }
+        Object documentId = CosmosTableUtils.resolveOperand(documentKeyOperands.get(0), conditionParameterMap);
+        if (!(documentId instanceof String) || CosmosTableUtils.isEmpty((String) documentId) ||
+                ((String) documentId).chars().anyMatch(character ->
+                        CosmosTableConstants.DOCUMENT_ID_INVALID_CHARACTERS.indexOf(character) >= 0)) {
+            //Such ids are rejected by Cosmos DB, hence there cannot be a document with the id.
+            return null;
+        }
+        return (String) documentId;
+    }
+
+    /**
+     * Method for reading the current version of the document identified by the given condition, which reflects the
+     * writes of the document held in the write-behind buffer, if any.
+     *
+     * @param compiledCondition     the compiled condition which identifies a single document.
+     * @param conditionParameterMap the map which contains the runtime value(s) for the condition.
+     * @return the document, or null if it does not exist.
+     */
+    private Document readCurrentDocument(CosmosCompiledCondition compiledCondition,
+                                         Map<String, Object> conditionParameterMap) {
+        String documentId = writeBehindBuffer == null ? null :
+                resolveDocumentId(compiledCondition, conditionParameterMap);
+        CosmosWriteBehindBuffer.PendingWrite pendingWrite = documentId == null ? null :
+                writeBehindBuffer.get(documentId);
+        if (pendingWrite == null) {
+            return readDocument(compiledCondition, conditionParameterMap);
+        }
+        switch (pendingWrite.getType()) {
+            case REPLACE:
+            case UPDATE:
+                return pendingWrite.applyTo(readDocument(compiledCondition, conditionParameterMap));
+            default:
+                //Creations, upserts and deletes do not depend on the stored document.
+                return pendingWrite.applyTo(null);
+        }
+    }
+
+    /**
+     * Method for performing the writes flushed from the write-behind buffer, each of which is addressed to a distinct
+     * document. Documents to be created or upserted are written in bulk, if the bulk import stored procedure is
+     * available. Failures are logged, since the writing events have already been processed.
+     *
+     * @param pendingWrites the writes to be performed.
+     */
+    private void performBufferedWrites(List<CosmosWriteBehindBuffer.PendingWrite> pendingWrites) {
+        List<Document> creatingDocuments = new ArrayList<>();
+        List<Document> upsertingDocuments = new ArrayList<>();
+        for (CosmosWriteBehindBuffer.PendingWrite pendingWrite : pendingWrites) {
+            switch (pendingWrite.getType()) {
+                case CREATE:
+                    creatingDocuments.add(pendingWrite.getDocument());
+                    continue;
+                case UPSERT:
+                    upsertingDocuments.add(pendingWrite.getDocument());
+                    continue;
+                default:
+                    break;
+            }
+            try {
+                performInBackground(pendingWrite.getType(), () -> performBufferedWrite(pendingWrite));
+            } catch (SiddhiAppRuntimeException e) {
+                log.error("Failed to write the buffered " + pendingWrite.getType() + " of document '" +
+                        pendingWrite.getDocumentId() + "' to store: '" + collectionId + "'. ", e);
+            }
+        }
+        performInBackground(CosmosWriteBehindBuffer.WriteType.CREATE, () -> writeDocuments(creatingDocuments, false));
+        performInBackground(CosmosWriteBehindBuffer.WriteType.UPSERT, () -> writeDocuments(upsertingDocuments, true));
+        //Results read while the writes were buffered are discarded.
+        invalidateCache();
+    }
+
+    /**
+     * Method for performing a buffered write which replaces, updates or deletes a single document.
+     *
+     * @param pendingWrite the write to be performed.
+     */
+    private void performBufferedWrite(CosmosWriteBehindBuffer.PendingWrite pendingWrite) {
+        switch (pendingWrite.getType()) {
+            case REPLACE:
+                replaceDocument(documentLinkPrefix + pendingWrite.getDocumentId(), pendingWrite.getDocument());
+                break;
+            case UPDATE:
+                if (isPatchable(pendingWrite.getUpdateSet())) {
+                    patchDocuments(pendingWrite.getCompiledCondition(), pendingWrite.getConditionParameterMap(),
+                            pendingWrite.getUpdateSet());
+                } else {
+                    Document toUpdateDocument = readDocument(pendingWrite.getCompiledCondition(),
+                            pendingWrite.getConditionParameterMap());
+                    if (toUpdateDocument != null) {
+                        replaceDocument(toUpdateDocument, pendingWrite.getUpdateSet());
+                    }
+                }
+                break;
+            default:
+                deleteDocument(pendingWrite.getDocumentId());
+        }
+    }
+
+    /**
+     * Method for creating or upserting documents flushed from the write-behind buffer, in bulk if possible.
+     *
+     * @param documents the documents to be written.
+     * @param upsert    whether existing documents with the same ids should be replaced, instead of failing.
+     */
+    private void writeDocuments(List<Document> documents, boolean upsert) {
+        if (bulkImportProcedureLink != null && documents.size() > 1) {
+            try {
+                bulkWrite(documents, upsert);
+            } catch (SiddhiAppRuntimeException e) {
+                log.error("Failed to write " + documents.size() + " buffered document(s) to store: '" +
+                        collectionId + "'. ", e);
+            }
+            return;
+        }
+        for (Document document : documents) {
+            try {
+                if (upsert) {
+                    upsertDocument(document);
+                } else {
+                    createDocument(document);
+                }
+            } catch (SiddhiAppRuntimeException e) {
+                log.error("Failed to write the buffered document '" + document.getId() + "' to store: '" +
+                        collectionId + "'. ", e);
+            }
+        }
+    }
+
+    /**
+     * Method for building an entry of the write-ahead log.
+     *
+     * @param type       the type of the write.
+     * @param documentId the id of the written document, or null for a document to be created.
+     * @param document   the document to be written, or null for updates and deletes.
+     * @param updateSet  the values to be set by an update, or null for other writes.
+     * @return the entry.
+     */
+    private static Document toLogEntry(CosmosWriteBehindBuffer.WriteType type, String documentId, Document document,
+                                       Map<String, Object> updateSet) {
+        Document entry = new Document();
+        entry.set(CosmosTableConstants.WRITE_AHEAD_LOG_ENTRY_TYPE, type.name());
+        if (documentId != null) {
+            entry.set(CosmosTableConstants.WRITE_AHEAD_LOG_ENTRY_DOCUMENT_ID, documentId);
+        }
+        if (document != null) {
+            entry.set(CosmosTableConstants.WRITE_AHEAD_LOG_ENTRY_DOCUMENT, document);
+        }
+        if (updateSet != null) {
+            entry.set(CosmosTableConstants.WRITE_AHEAD_LOG_ENTRY_UPDATE_SET, updateSet);
+        }
+        return entry;
+    }
+
+    /**
+     * Method for building an entry of the write-ahead log for a write on the documents matching a condition. The
+     * condition is logged along with the values of its parameters, so that the documents are selected when the write
+     * is shipped.
+     *
+     * @param type                  the type of the write, where an upsert stands for an update or insert.
+     * @param compiledCondition     the compiled condition.
+     * @param conditionParameterMap the map which contains the runtime value(s) for the condition.
+     * @param document              the document to be added if no document matches, or null for other writes.
+     * @param updateSet             the values to be set by an update, or null for deletes.
+     * @return the entry.
+     */
+    private static Document toLogEntry(CosmosWriteBehindBuffer.WriteType type,
+                                       CosmosCompiledCondition compiledCondition,
+                                       Map<String, Object> conditionParameterMap, Document document,
+                                       Map<String, Object> updateSet) {
+        Document entry = toLogEntry(type, null, document, updateSet);
+        entry.set(CosmosTableConstants.WRITE_AHEAD_LOG_ENTRY_CONDITION, compiledCondition.getCompiledQuery());
+        Document parameters = new Document();
+        for (SqlParameter parameter : CosmosTableUtils.resolveParameters(compiledCondition, conditionParameterMap)) {
+            parameters.set(parameter.getName(), parameter.getValue(Object.class));
+        }
+        entry.set(CosmosTableConstants.WRITE_AHEAD_LOG_ENTRY_PARAMETERS, parameters);
+        return entry;
+    }
+
+    /**
+     * Method for shipping writes of the write-ahead log to Cosmos DB, in order. Consecutive creations are written in
+     * bulk, if the bulk import stored procedure is available and the writes are not replayed, and are written one at
+     * a time if the bulk write fails permanently. Writes failing permanently are logged and skipped, while shipping
+     * stops at the first write failing transiently, so that it is retried later.
+     *
+     * @param entries  the logged writes.
+     * @param replayed whether the writes may have been applied already, in which case they are not written in bulk.
+     * @return the number of writes which are shipped or skipped.
+     */
+    private int shipLoggedWrites(List<Document> entries, boolean replayed) {
+        int shipped = 0;
+        int bulkFailedUntil = 0;
+        while (shipped < entries.size()) {
+            Document entry = entries.get(shipped);
+            CosmosWriteBehindBuffer.WriteType type = CosmosWriteBehindBuffer.WriteType.valueOf(
+                    entry.getString(CosmosTableConstants.WRITE_AHEAD_LOG_ENTRY_TYPE));
+            List<Document> creatingDocuments = new ArrayList<>();
+            //Creations whose bulk write failed are written one at a time.
+            for (int i = shipped; !replayed && bulkImportProcedureLink != null && shipped >= bulkFailedUntil &&
+                    i < entries.size() && entries.get(i).getString(CosmosTableConstants.WRITE_AHEAD_LOG_ENTRY_TYPE)
+                    .equals(CosmosWriteBehindBuffer.WriteType.CREATE.name()); i++) {
+                creatingDocuments.add(entries.get(i).getObject(CosmosTableConstants.WRITE_AHEAD_LOG_ENTRY_DOCUMENT,
+                        Document.class));
+            }
+            int count = Math.max(creatingDocuments.size(), 1);
+            try {
+                if (count > 1) {
+                    performInBackground(type, () -> bulkWrite(creatingDocuments, false));
+                } else {
+                    performInBackground(type, () -> shipLoggedWrite(type, entry));
+                }
+            } catch (RuntimeException e) {
+                if (isTransientFailure(e)) {
+                    log.warn("Failed to ship the logged writes of store '" + collectionId + "', which are retried " +
+                            "later. " + e.getMessage());
+                    break;
+                }
+                if (count > 1) {
+                    //Only the creations failing when written one at a time are skipped.
+                    log.warn("Failed to bulk write the logged creations of " + count + " document(s) to store '" +
+                            collectionId + "', which are written one at a time. " + e.getMessage());
+                    bulkFailedUntil = shipped + count;
+                    continue;
+                }
+                log.error("Failed to write the logged " + type + " to store: '" + collectionId + "'. ", e);
+            }
+            shipped += count;
+        }
+        if (shipped > 0) {
+            //Results read while the writes were logged are discarded.
+            invalidateCache();
+        }
+        return shipped;
+    }
+
+    /**
+     * Method for performing a single write of the write-ahead log. Updates of a single document are applied by reading
+     * and replacing the document, while writes logged with a condition are applied to the documents matching the
+     * condition when the write is shipped. An upsert logged with a set clause is an update or insert, which adds its
+     * document if no document is updated. A creation of a document which already exists is taken as applied, since
+     * the write may have been applied by an attempt which failed, e.g. timed out, or by a bulk write.
+     *
+     * @param type  the type of the write.
+     * @param entry the logged write.
+     */
+    private void shipLoggedWrite(CosmosWriteBehindBuffer.WriteType type, Document entry) {
+        String documentId = entry.getString(CosmosTableConstants.WRITE_AHEAD_LOG_ENTRY_DOCUMENT_ID);
+        Document document = entry.has(CosmosTableConstants.WRITE_AHEAD_LOG_ENTRY_DOCUMENT) ?
+                entry.getObject(CosmosTableConstants.WRITE_AHEAD_LOG_ENTRY_DOCUMENT, Document.class) : null;
+        Map<String, Object> updateSet = entry.has(CosmosTableConstants.WRITE_AHEAD_LOG_ENTRY_UPDATE_SET) ?
+                entry.getObject(CosmosTableConstants.WRITE_AHEAD_LOG_ENTRY_UPDATE_SET, Document.class).getHashMap() :
+                null;
+        String condition = entry.getString(CosmosTableConstants.WRITE_AHEAD_LOG_ENTRY_CONDITION);
+        SqlQuerySpec selectQuery = null;
+        if (condition != null) {
+            List<SqlParameter> parameters = new ArrayList<>();
+            for (Map.Entry<String, Object> parameter : entry.getObject(
+                    CosmosTableConstants.WRITE_AHEAD_LOG_ENTRY_PARAMETERS, Document.class).getHashMap().entrySet()) {
+                parameters.add(new SqlParameter(parameter.getKey(), parameter.getValue()));
+            }
+            selectQuery = new SqlQuerySpec(CosmosTableUtils.buildQuery(CosmosTableConstants.SQL_SELECT,
+                    collectionId, condition), new SqlParameterCollection(parameters));
+        }
+        switch (type) {
+            case CREATE:
+                createLoggedDocument(document);
+                break;
+            case UPSERT:
+                if (updateSet == null) {
+                    upsertDocument(document);
+                } else if ((condition == null ? updateLoggedDocument(documentId, updateSet) :
+                        replaceDocuments(selectQuery, updateSet)) == 0) {
+                    createLoggedDocument(document);
+                }
+                break;
+            case REPLACE:
+                replaceDocument(documentLinkPrefix + documentId, document);
+                break;
+            case UPDATE:
+                if (condition == null) {
+                    updateLoggedDocument(documentId, updateSet);
+                } else if (isPatchable(updateSet)) {
+                    patchDocuments(condition, selectQuery, updateSet);
+                } else {
+                    replaceDocuments(selectQuery, updateSet);
+                }
+                break;
+            default:
+                if (condition == null) {
+                    deleteDocument(documentId);
+                } else {
+                    deleteDocuments(condition, selectQuery);
+                }
+        }
+    }
+
+    /**
+     * Method for creating a logged document, taking a document which already exists as created.
+     *
+     * @param document the document to be created.
+     */
+    private void createLoggedDocument(Document document) {
+        try {
+            createDocument(document);
+        } catch (SiddhiAppRuntimeException e) {
+            if (!(e.getCause() instanceof DocumentClientException) ||
+                    ((DocumentClientException) e.getCause()).getStatusCode() !=
+                            CosmosTableConstants.HTTP_STATUS_CONFLICT) {
+                throw e;
+            }
+            if (log.isDebugEnabled()) {
+                log.debug("Logged creation of document '" + document.getId() + "' was already shipped to " +
+                        "store: '" + collectionId + "'. ");
+            }
+        }
+    }
+
+    /**
+     * Method for applying a logged set clause to the document with the given id, by reading and replacing it.
+     *
+     * @param documentId the id of the document, or null if the condition of the update did not resolve to an id.
+     * @param updateSet  the values to be set, keyed by the table attribute they are assigned to.
+     * @return the number of documents updated.
+     */
+    private int updateLoggedDocument(String documentId, Map<String, Object> updateSet) {
+        Document toUpdateDocument = documentId == null ? null : readDocument(documentId);
+        if (toUpdateDocument == null) {
+            return 0;
+        }
+        replaceDocument(toUpdateDocument, updateSet);
+        return 1;
+    }
+
+    /**
+     * Method for applying the values of a set clause to each document resulting from a query, by replacing them.
+     *
+     * @param selectQuery the query which selects the documents to be updated, along with its parameters.
+     * @param updateSet   the values to be set, keyed by the table attribute they are assigned to.
+     * @return the number of documents updated.
+     */
+    private int replaceDocuments(SqlQuerySpec selectQuery, Map<String, Object> updateSet) {
+        try {
+            return forEachDocument(executeQuery(selectQuery),
+                    toUpdateDocument -> replaceDocument(toUpdateDocument, updateSet));
+        } catch (DocumentClientException e) {
+            throw new SiddhiAppRuntimeException("Error performing document update operations for store '" +
+                    collectionId + "'. ", e);
+        }
+    }
+
+    /**
+     * Checks whether a write failed due to a condition which may go away when the write is retried, such as Cosmos DB
+     * being unreachable, overloaded or throttling.
+     *
+     * @param e the failure of the write.
+     * @return true if the write should be retried.
+     */
+    private static boolean isTransientFailure(RuntimeException e) {
+        if (e instanceof IllegalStateException) {
+            //Failures to reach Cosmos DB surface from the client as illegal states.
+            return true;
+        }
+        if (!(e instanceof SiddhiAppRuntimeException) || !(e.getCause() instanceof DocumentClientException)) {
+            return false;
+        }
+        int statusCode = ((DocumentClientException) e.getCause()).getStatusCode();
+        return statusCode == CosmosTableConstants.HTTP_STATUS_REQUEST_TIMEOUT ||
+                statusCode == CosmosTableConstants.HTTP_STATUS_TOO_MANY_REQUESTS ||
+                statusCode == CosmosTableConstants.HTTP_STATUS_RETRY_WITH ||
+                statusCode >= CosmosTableConstants.HTTP_STATUS_INTERNAL_SERVER_ERROR;
+    }
+
+    /**
+     * Method for reading the document identified by the given condition, through a point read.
+     *
+     * @param compiledCondition     the compiled condition which identifies a single document.
+     * @param conditionParameterMap the map which contains the runtime value(s) for the condition.
+     * @return the document, or null if it does not exist.
+     */
+    private Document readDocument(CosmosCompiledCondition compiledCondition,
+                                  Map<String, Object> conditionParameterMap) {
+        String documentId = resolveDocumentId(compiledCondition, conditionParameterMap);
+        return documentId == null ? null : readDocument(documentId);
+    }
+
+    /**
+     * Method for reading the document with the given id, through a point read.
+     *
+     * @param documentId the id of the document.
+     * @return the document, or null if it does not exist.
+     */
+    private Document readDocument(String documentId) {
+        try {
+            return execute(() -> documentClient.readDocument(documentLinkPrefix + documentId,
+                    routedByPartitionKey ? getPartitionOptions(getPartitionKeyValue(documentId)).readOptions :
+                            readOptions),
+                    ResourceResponse::getRequestCharge).getResource();
+        } catch (DocumentClientException e) {
+            if (e.getStatusCode() == CosmosTableConstants.HTTP_STATUS_NOT_FOUND) {
+                return null;
+            }
+            throw new SiddhiAppRuntimeException("Error retrieving document '" + documentId + "' from store '" +
+                    collectionId + "'. ", e);
+        }
+    }
+
+    @Override
+    protected CompiledCondition compileCondition(ExpressionBuilder expressionBuilder) {
+        CosmosConditionVisitor visitor = new CosmosConditionVisitor(this.collectionId, false);
+        expressionBuilder.build(visitor);
+        String condition = visitor.returnCondition();
+        String selectQuery = CosmosTableUtils.buildQuery(CosmosTableConstants.SQL_SELECT, collectionId, condition);
+        String findQuery = CosmosTableUtils.buildQuery(CosmosTableConstants.SQL_SELECT_ATTRIBUTES,
+                attributeNames.stream().map(attributeName -> collectionId + "." + attributeName)
+                        .collect(Collectors.joining(CosmosTableConstants.SQL_ATTRIBUTE_SEPARATOR)),
+                collectionId, condition);
+        String containsQuery = CosmosTableUtils.buildQuery(CosmosTableConstants.SQL_SELECT_TOP_ONE_ID,
+                collectionId, collectionId, condition);
+        CosmosReplicaCondition replicaCondition = null;
+        if (replica != null || writeBehindBuffer != null) {
+            CosmosReplicaConditionVisitor replicaVisitor = new CosmosReplicaConditionVisitor(attributeNames);
+            expressionBuilder.build(replicaVisitor);
+            replicaCondition = replicaVisitor.getCondition();
+            if (replica != null && replicaCondition != null && replicaCondition.getIndexAttribute() >= 0) {
+                replica.addIndex(replicaCondition.getIndexAttribute());
+            }
+        }
+        return new CosmosCompiledCondition(condition, selectQuery, findQuery, containsQuery, visitor.getParameters(),
+                getDocumentKeyOperands(visitor.getKeyOperands()), expressionBuilder.getUpdateOrInsertReducer(),
+                expressionBuilder.getInMemorySetExpressionExecutor(), replicaCondition);
+    }
+
+    /**
+     * Method for arranging the operands of a condition according to the document key attributes of the table.
+     *
+     * @param keyOperands the operands of the condition, keyed by the store attribute they are compared to.
+     * @return the document key operands, or null if the condition does not compare exactly the document key
+     * attributes.
+     */
+    private Object[] getDocumentKeyOperands(Map<String, Object> keyOperands) {
+        if (documentKeyAttributes == null || keyOperands == null ||
+                !keyOperands.keySet().equals(new HashSet<>(documentKeyAttributes))) {
+            return null;
+        }
+        Object[] documentKeyOperands = new Object[documentKeyAttributes.size()];
+        for (int i = 0; i < documentKeyOperands.length; i++) {
+            documentKeyOperands[i] = keyOperands.get(documentKeyAttributes.get(i));
+            Attribute.Type operandType = documentKeyOperands[i] instanceof Constant ?
+                    ((Constant) documentKeyOperands[i]).getType() : ((Attribute) documentKeyOperands[i]).getType();
+            if (derivedDocumentId && operandType != documentKeyTypes[i]) {
+                //Ids are derived from the textual form of the values, which depends on their types.
+                return null;
+            }
+        }
+        return documentKeyOperands;
+    }
+
+    @Override
+    public CompiledSelection compileSelection(Selector selector, List<Attribute> expectedOutputAttributes,
+                                              MatchingMetaInfoHolder matchingMetaInfoHolder,
+                                              List<VariableExpressionExecutor> variableExpressionExecutors,
+                                              Map<String, Table> tableMap, SiddhiQueryContext siddhiQueryContext) {
+        if (replica != null) {
+            //The records are found through the replica, over which Siddhi performs the selection.
+            throw unsupportedSelection("its reads are served by the change feed replica");
+        }
+        if (selector.getSelectionList().isEmpty() && expectedOutputAttributes.size() != attributeNames.size()) {
+            //'select *' of a join also selects the attributes of the joined stream, which only Siddhi can provide.
+            throw unsupportedSelection("it selects attributes other than those of the store");
+        }
+        return super.compileSelection(selector, expectedOutputAttributes, matchingMetaInfoHolder,
+                variableExpressionExecutors, tableMap, siddhiQueryContext);
+    }
+
+    @Override
+    protected CompiledSelection compileSelection(List<SelectAttributeBuilder> selectAttributeBuilders,
+                                                 List<ExpressionBuilder> groupByExpressionBuilder,
+                                                 ExpressionBuilder havingExpressionBuilder,
+                                                 List<OrderByAttributeBuilder> orderByAttributeBuilders,
+                                                 Long limit, Long offset) {
+        if (havingExpressionBuilder != null) {
+            throw unsupportedSelection("Cosmos DB does not support 'having' clauses");
+        }
+        StringBuilder selectClause = new StringBuilder();
+        List<String> aliases = new ArrayList<>(selectAttributeBuilders.size());
+        Map<String, String> renamedExpressions = new HashMap<>();
+        List<String> unaggregatedExpressions = new ArrayList<>();
+        Map<String, Object> parameters = new LinkedHashMap<>();
+        boolean aggregation = false;
+        for (SelectAttributeBuilder selectAttributeBuilder : selectAttributeBuilders) {
+            //Each expression names its parameters apart, since they are all bound along with the condition.
+            String parameterPrefix = CosmosTableConstants.SQL_SELECTION_PARAMETER_PREFIX + aliases.size() + "_";
+            CosmosConditionVisitor visitor = new CosmosConditionVisitor(this.collectionId, false, parameterPrefix);
+            buildSelection(selectAttributeBuilder.getExpressionBuilder(), visitor);
+            String expression = visitor.returnCondition();
+            if (visitor.isAggregation()) {
+                if (visitor.hasUnaggregatedStoreVariables()) {
+                    throw unsupportedSelection("'" + expression + "' refers to attributes both within and outside " +
+                            "of aggregate functions");
+                }
+                aggregation = true;
+            } else {
+                unaggregatedExpressions.add(expression);
+            }
+            for (Map.Entry<Integer, Object> parameter : visitor.getParameters().entrySet()) {
+                parameters.put(parameterPrefix + parameter.getKey(), parameter.getValue());
+            }
+            String alias = CosmosTableConstants.SQL_SELECTION_ALIAS_PREFIX + aliases.size();
+            if (!aliases.isEmpty()) {
+                selectClause.append(CosmosTableConstants.SQL_PARAMETER_SEPARATOR)
+                        .append(CosmosTableConstants.WHITESPACE);
+            }
+            selectClause.append(expression).append(CosmosTableConstants.SQL_AS).append(alias);
+            aliases.add(alias);
+            renamedExpressions.put(selectAttributeBuilder.getRename(), expression);
+        }
+        StringBuilder trailingClauses = new StringBuilder();
+        List<String> groupByExpressions = new ArrayList<>();
+        if (groupByExpressionBuilder != null) {
+            for (ExpressionBuilder expressionBuilder : groupByExpressionBuilder) {
+                //Siddhi groups by the attributes of the store, or else by the renamed attributes of the selection.
+                String attributeName = compileAttributeReference(expressionBuilder);
+                String expression = attributeNames.contains(attributeName) ?
+                        this.collectionId + "." + attributeName : renamedExpressions.get(attributeName);
+                if (expression == null) {
+                    throw unsupportedSelection("'" + attributeName + "' cannot be grouped by");
+                }
+                groupByExpressions.add(expression);
+            }
+            trailingClauses.append(CosmosTableConstants.SQL_GROUP_BY).append(String.join(
+                    CosmosTableConstants.SQL_PARAMETER_SEPARATOR + CosmosTableConstants.WHITESPACE,
+                    groupByExpressions));
+        }
+        if ((aggregation || !groupByExpressions.isEmpty()) &&
+                !groupByExpressions.containsAll(unaggregatedExpressions)) {
+            throw unsupportedSelection("Cosmos DB only selects the grouped expressions along with aggregates");
+        }
+        if (orderByAttributeBuilders != null) {
+            //Ordering by more than one attribute requires a composite index, which the collection may not have.
+            if (aggregation || !groupByExpressions.isEmpty() || orderByAttributeBuilders.size() > 1) {
+                throw unsupportedSelection("Cosmos DB only orders ungrouped documents by a single attribute");
+            }
+            OrderByAttributeBuilder orderByAttributeBuilder = orderByAttributeBuilders.get(0);
+            //Siddhi orders the selected events, hence the renamed attributes of the selection take precedence.
+            String attributeName = compileAttributeReference(orderByAttributeBuilder.getExpressionBuilder());
+            String expression = renamedExpressions.containsKey(attributeName) ?
+                    renamedExpressions.get(attributeName) : this.collectionId + "." + attributeName;
+            if (attributeNames.stream().noneMatch(name -> expression.equals(this.collectionId + "." + name))) {
+                throw unsupportedSelection("'" + attributeName + "' is not an attribute of the store");
+            }
+            trailingClauses.append(CosmosTableConstants.SQL_ORDER_BY).append(expression)
+                    .append(orderByAttributeBuilder.getOrder() == OrderByAttribute.Order.DESC ?
+                            CosmosTableConstants.SQL_DESCENDING : CosmosTableConstants.SQL_ASCENDING);
+        }
+        if ((limit != null || offset != null) && !groupByExpressions.isEmpty()) {
+            throw unsupportedSelection("Cosmos DB does not limit grouped results");
+        }
+        if (offset != null) {
+            if (limit == null) {
+                throw unsupportedSelection("Cosmos DB requires a limit along with an offset");
+            }
+            trailingClauses.append(CosmosTableUtils.buildQuery(CosmosTableConstants.SQL_OFFSET_LIMIT,
+                    String.valueOf(offset), String.valueOf(limit)));
+        } else if (limit != null) {
+            selectClause.insert(0, CosmosTableUtils.buildQuery(CosmosTableConstants.SQL_TOP, String.valueOf(limit)));
+        }
+        //Cosmos DB aggregates, groups and skips documents within each partition.
+        if ((aggregation || !groupByExpressions.isEmpty() || offset != null) && isQueriedAcrossPartitions()) {
+            throw unsupportedSelection("its queries span several partitions, within each of which Cosmos DB " +
+                    "aggregates, groups and skips documents");
+        }
+        return new CosmosCompiledSelection(selectClause.toString(), trailingClauses.toString(), aliases, parameters);
+    }
+
+    /**
+     * Method for checking whether the queries of the table may span several partitions. This is decided from the
+     * configuration, since selections are compiled before the collection is connected to. Queries without a
+     * 'partition.key' can only span partitions when documents are partitioned by 'partition.key.attribute' or when
+     * cross partition queries are enabled, as Cosmos DB rejects them otherwise.
+     *
+     * @return true if the queries may span several partitions.
+     */
+    private boolean isQueriedAcrossPartitions() {
+        return requestOptions.getPartitionKey() == null &&
+                (partitionKeyAttribute != null || Boolean.TRUE.equals(feedOptions.getEnableCrossPartitionQuery()));
+    }
+
+    /**
+     * Method for compiling a reference to an attribute in a clause evaluated after the select clause, such as GROUP
+     * BY or ORDER BY.
+     *
+     * @param expressionBuilder the expression builder of the attribute.
+     * @return the name of the attribute, which is either an attribute of the store or a renamed attribute of the
+     * selection.
+     */
+    private String compileAttributeReference(ExpressionBuilder expressionBuilder) {
+        CosmosConditionVisitor visitor = new CosmosConditionVisitor(this.collectionId, true);
+        buildSelection(expressionBuilder, visitor);
+        String attributeName = visitor.returnCondition();
+        if (!visitor.getParameters().isEmpty()) {
+            throw unsupportedSelection("it groups or orders by attributes of the joined stream");
+        }
+        return attributeName;
+    }
+
+    private void buildSelection(ExpressionBuilder expressionBuilder, CosmosConditionVisitor visitor) {
+        try {
+            expressionBuilder.build(visitor);
+        } catch (OperationNotSupportedException e) {
+            throw new QueryableRecordTableException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Method for reporting a selection which cannot be performed by Cosmos DB. Siddhi then queries the documents
+     * matching the condition and performs the selection itself.
+     *
+     * @param reason the reason the selection cannot be performed by Cosmos DB.
+     * @return the exception to be thrown.
+     */
+    private QueryableRecordTableException unsupportedSelection(String reason) {
+        return new QueryableRecordTableException("The selection cannot be performed by the store '" +
+                this.collectionId + "' since " + reason + ". ");
+    }
+
+    @Override
+    protected CompiledExpression compileSetAttribute(ExpressionBuilder expressionBuilder) {
+        CosmosCompiledCondition compiledSetAttribute = (CosmosCompiledCondition) compileCondition(expressionBuilder);
+        if (!compiledSetAttribute.isSingleOperand()) {
+            throw new OperationNotSupportedException("The CosmosDB Event table only supports setting attributes to " +
+                    "stream attributes or constants, but found '" + compiledSetAttribute.getCompiledQuery() + "' " +
+                    "for store '" + collectionId + "'. ");
+        }
+        return compiledSetAttribute;
+    }
+
+    private QueryIterable<Document> queryDocuments(CosmosCompiledCondition compiledCondition,
+                                                   Map<String, Object> conditionParameterMap) throws SQLException {
+        return queryDocuments(compiledCondition.getSelectQuery(), compiledCondition, conditionParameterMap);
+    }
+
+    private QueryIterable<Document> queryDocuments(String query, CosmosCompiledCondition compiledCondition,
+                                                   Map<String, Object> conditionParameterMap) throws SQLException {
+        SqlParameterCollection parameters = CosmosTableUtils.resolveParameters(compiledCondition,
+                conditionParameterMap);
+        return executeQuery(new SqlQuerySpec(query, parameters));
+    }
+
+    private QueryIterable<Document> executeQuery(SqlQuerySpec query) {
+        return documentClient.queryDocuments(collectionLink, query, feedOptions).getQueryIterable();
+    }
+
+    /**
+     * Method for reading the number of documents processed by a stored procedure execution.
+     *
+     * @param response the response of the stored procedure.
+     * @return the number of documents processed.
+     */
+    private static int getProcessedDocuments(StoredProcedureResponse response) {
+        Integer processed = response.getResponseAsDocument().getInt(CosmosTableConstants.PROCEDURE_PROCESSED);
+        return processed == null ? 0 : processed;
+    }
+
+    /**
+     * Method for fetching the next page of a query.
+     *
+     * @param queryIterable the query.
+     * @return the documents of the page, or null if there are no more pages.
+     * @throws DocumentClientException if the page could not be fetched.
+     */
+    private List<Document> fetchNextPage(QueryIterable<Document> queryIterable) throws DocumentClientException {
+        return execute(queryIterable::fetchNextBlock, page -> page == null ? 0 :
+                CosmosTableUtils.getRequestCharge(queryIterable.getResponseHeaders()),
+                page -> page == null ? 0 : page.size());
+    }
+
+    /**
+     * Method for performing an action on each document resulting from a query, page by page.
+     *
+     * @param queryIterable the query.
+     * @param action        the action to be performed.
+     * @return the number of documents the action was performed on.
+     * @throws DocumentClientException if a page could not be fetched.
+     */
+    private int forEachDocument(QueryIterable<Document> queryIterable, Consumer<Document> action)
+            throws DocumentClientException {
+        int count = 0;
+        List<Document> page;
+        while ((page = fetchNextPage(queryIterable)) != null) {
+            for (Document document : page) {
+                action.accept(document);
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Method for executing a request to Cosmos DB which touches a single document.
+     *
+     * @see #execute(CosmosRequest, ToDoubleFunction, ToIntFunction)
+     */
+    private <T> T execute(CosmosRequest<T> request, ToDoubleFunction<T> requestCharge)
+            throws DocumentClientException {
+        return execute(request, requestCharge, response -> 1);
+    }
+
+    /**
+     * Method for executing a request to Cosmos DB, within the request unit budget of the table, if any. The request
+     * charge of the response, or of the error, is taken from the budget once the request completes, and is tracked
+     * along with the latency of the request and the documents it touched, if statistics are enabled.
+     *
+     * @param request       the request.
+     * @param requestCharge the function reading the request charge from the response.
+     * @param documentCount the function reading the number of documents touched from the response.
+     * @param <T>           the type of the response.
+     * @return the response.
+     * @throws DocumentClientException if the request failed.
+     */
+    private <T> T execute(CosmosRequest<T> request, ToDoubleFunction<T> requestCharge,
+                          ToIntFunction<T> documentCount) throws DocumentClientException {
+        CosmosRequestUnitLimiter limiter = requestUnitLimiter;
+        if (limiter != null) {
+            limiter.acquire();
+        }
+        if (metrics != null) {
+            metrics.requestStarted();
+        }
+        double charge = 0;
+        int documents = 0;
+        boolean throttled = false;
+        try {
+            T response = request.execute();
+            charge = requestCharge.applyAsDouble(response);
+            documents = documentCount.applyAsInt(response);
+            return response;
+        } catch (DocumentClientException e) {
+            charge = CosmosTableUtils.getRequestCharge(e.getResponseHeaders());
+            throttled = e.getStatusCode() == CosmosTableConstants.HTTP_STATUS_TOO_MANY_REQUESTS;
+            if (log.isDebugEnabled()) {
+                log.debug("Request to store '" + collectionId + "' failed with status " + e.getStatusCode() +
+                        ", activity id '" + e.getActivityId() + "' and request charge " + charge + ". ");
+            }
+            throw e;
+        } finally {
+            //Requests failing without a response, e.g. when Cosmos DB is unreachable, are completed as well.
+            if (limiter != null) {
+                limiter.consume(charge);
+            }
+            if (metrics != null) {
+                metrics.requestCompleted(charge, documents, throttled);
+            }
+        }
+    }
+
+    /**
+     * Method for executing a request of the change feed replica. Requests made while reading the change feed in the
+     * background are attributed to the find operation, since they serve the reads of the table.
+     *
+     * @see #execute(CosmosRequest, ToDoubleFunction, ToIntFunction)
+     */
+    private <T> T executeReplicaRequest(CosmosRequest<T> request, ToDoubleFunction<T> requestCharge,
+                                        ToIntFunction<T> documentCount) throws DocumentClientException {
+        if (metrics != null && !metrics.isInOperation()) {
+            //The replica reads the change feed in the background on a thread of its own.
+            metrics.enterOperation(SiddhiConstants.METRIC_TYPE_FIND);
+        }
+        return execute(request, requestCharge, documentCount);
+    }
+
+    /**
+     * Method for reading the fill level of the request unit budget of the table or of its account, for the gauges of
+     * the table. A budget is reported as full while the table is not connected.
+     *
+     * @param account whether the fill level of the budget of the account is read, instead of the one of the table.
+     * @return the fill level, between 0 and 1.
+     */
+    private double getRequestUnitFillLevel(boolean account) {
+        CosmosRequestUnitLimiter limiter = requestUnitLimiter;
+        if (limiter != null && account) {
+            limiter = limiter.getParent();
+        }
+        return limiter == null ? 1 : limiter.getFillLevel();
+    }
+
+    @Override
+    protected void disconnect() {
+        if (writeBehindBuffer != null && documentClient != null) {
+            writeBehindBuffer.stop();
+        }
+        if (writeAheadLog != null) {
+            writeAheadLog.close();
+        }
+        if (replica != null) {
+            replica.stop();
+        }
+        if (writeDispatcher != null) {
+            writeDispatcher.shutdown();
+            writeDispatcher = null;
+        }
+        if (partitionWriteExecutor != null) {
+            partitionWriteExecutor.shutdown();
+            partitionWriteExecutor = null;
+        }
+        if (queryCache != null) {
+            //Writes of others made while disconnected are not seen by the cached results.
+            queryCache.invalidate();
+            if (log.isDebugEnabled()) {
+                log.debug("Near cache of store '" + collectionId + "' served " + queryCache.getHits() +
+                        " read(s) and missed " + queryCache.getMisses() + " read(s). ");
+            }
+        }
+        if (requestUnitLimiter != null) {
+            if (requestUnitLimiter.getParent() != null) {
+                CosmosRequestUnitLimiter.releaseAccountLimiter(requestUnitLimiter.getParent());
+            }
+            requestUnitLimiter = null;
+        }
         documentCollection = null;
         if (documentClient != null) {
-            documentClient.close();
+            //The client is closed once no other table shares it.
+            CosmosClientRegistry.release(documentClient);
+            documentClient = null;
         }
     }
 
@@ -698,4 +3573,38 @@ public class CosmosDBEventTable extends AbstractRecordTable {
     protected void destroy() {
         this.disconnect();
     }
+
+    /**
+     * The request options of a logical partition of the collection.
+     */
+    private static final class PartitionOptions {
+
+        private final RequestOptions requestOptions;
+        private final RequestOptions readOptions;
+        private final RequestOptions storedProcedureOptions;
+
+        private PartitionOptions(RequestOptions requestOptions) {
+            this.requestOptions = requestOptions;
+            this.readOptions = CosmosTableUtils.getReadOptions(requestOptions);
+            this.storedProcedureOptions = CosmosTableUtils.getStoredProcedureOptions(requestOptions);
+        }
+    }
+
+    /**
+     * The request options of the recently used logical partitions, from which the least recently used ones are
+     * evicted.
+     */
+    private static final class PartitionOptionsCache extends LinkedHashMap<Object, PartitionOptions> {
+
+        private static final long serialVersionUID = 1L;
+
+        private PartitionOptionsCache() {
+            super(16, 0.75f, true);
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Object, PartitionOptions> eldest) {
+            return size() > CosmosTableConstants.PARTITION_OPTIONS_CACHE_SIZE;
+        }
+    }
 }
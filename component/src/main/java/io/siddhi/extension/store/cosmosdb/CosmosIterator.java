@@ -20,65 +20,97 @@
 package io.siddhi.extension.store.cosmosdb;
 
 import com.microsoft.azure.documentdb.Document;
+import com.microsoft.azure.documentdb.DocumentClientException;
+import io.siddhi.core.exception.SiddhiAppRuntimeException;
 import io.siddhi.core.table.record.RecordIterator;
+import io.siddhi.extension.store.cosmosdb.util.CosmosTableUtils;
+import io.siddhi.query.api.definition.Attribute;
 
-import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
-import java.util.ListIterator;
+import java.util.NoSuchElementException;
 
 /**
  * A class representing a RecordIterator which is responsible for processing CosmosDB Event Table find() operations in a
- * streaming fashion.
+ * streaming fashion. Result pages are fetched from the Cosmos DB query only when the documents of the current page
+ * have been consumed.
  */
 public class CosmosIterator implements RecordIterator<Object[]> {
 
-    private boolean preFetched;
-    private Object[] nextDocument;
+    private CosmosRequest<List<Document>> pageRequest;
+    private Iterator<Document> currentPage;
     private List<String> attributes;
-    private ListIterator<Document> document;
+    private Attribute.Type[] types;
+    private String collectionId;
 
-    CosmosIterator(List<Document> documents, List<String> attributes) {
+    /**
+     * Creates an iterator over the results of a query, which converts the values of the results to the given types.
+     *
+     * @param pageRequest  the request fetching the next page of the query, which returns null once the query is done.
+     * @param attributes   the properties of the results to be extracted.
+     * @param types        the types of the extracted values, or null if the values should be extracted as they are.
+     * @param collectionId the id of the collection queried.
+     */
+    CosmosIterator(CosmosRequest<List<Document>> pageRequest, List<String> attributes, Attribute.Type[] types,
+                   String collectionId) {
+        this.pageRequest = pageRequest;
         this.attributes = attributes;
-        this.document = documents.listIterator();
+        this.types = types;
+        this.collectionId = collectionId;
+    }
+
+    CosmosIterator(List<Document> documents, List<String> attributes, Attribute.Type[] types, String collectionId) {
+        this.currentPage = documents.iterator();
+        this.attributes = attributes;
+        this.types = types;
+        this.collectionId = collectionId;
     }
 
     @Override
     public boolean hasNext() {
-        if (!this.preFetched) {
-            this.nextDocument = this.next();
-            this.preFetched = true;
+        while (this.currentPage == null || !this.currentPage.hasNext()) {
+            if (this.pageRequest == null) {
+                return false;
+            }
+            List<Document> page;
+            try {
+                page = this.pageRequest.execute();
+            } catch (DocumentClientException e) {
+                this.close();
+                throw new SiddhiAppRuntimeException("Error retrieving documents from store '" + collectionId +
+                        "'. ", e);
+            }
+            if (page == null) {
+                this.close();
+                return false;
+            }
+            this.currentPage = page.iterator();
         }
-        return this.nextDocument.length != 0;
+        return true;
     }
 
     @Override
     public Object[] next() {
-        if (this.preFetched) {
-            this.preFetched = false;
-            Object[] result = this.nextDocument;
-            this.nextDocument = null;
-            return result;
-        }
-        if (this.document.hasNext()) {
-            return this.extractRecord(this.document.next());
+        if (!this.hasNext()) {
+            throw new NoSuchElementException("No more documents available in store '" + collectionId + "'. ");
         }
-        return new Object[0];
+        return this.extractRecord(this.currentPage.next());
     }
 
     /**
      * Method which is used for extracting record values (in the form of an Object array),
      * according to the table's field type order.
      *
-     * @param document the {@link List} from which the values should be retrieved.
+     * @param document the {@link Document} from which the values should be retrieved.
      * @return an array of extracted values, all cast to {@link Object} type for portability.
      */
     private Object[] extractRecord(Document document) {
-        List<Object> result = new ArrayList<>();
-            for (Object attributeName : attributes) {
-                Object attributeValue = document.get(attributeName.toString());
-                result.add(attributeValue);
-            }
-        return result.toArray();
+        Object[] result = new Object[attributes.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = types == null ? document.get(attributes.get(i)) :
+                    CosmosTableUtils.convertValue(document.get(attributes.get(i)), types[i]);
+        }
+        return result;
     }
 
     @Override
@@ -88,6 +120,9 @@ public class CosmosIterator implements RecordIterator<Object[]> {
 
     @Override
     public void close() {
+        //Queries are continued by the client through continuation tokens, hence releasing the page request and the
+        //buffered page is sufficient to discard the query state.
+        this.pageRequest = null;
+        this.currentPage = null;
     }
 }
-
@@ -0,0 +1,266 @@
+/*
+ * Copyright (c) 2019, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+
+
+package io.siddhi.extension.store.cosmosdb;
+
+import io.siddhi.core.table.record.RecordIterator;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A near cache of the results of the reads of a CosmosDB Event Table, keyed by the query and the values bound to its
+ * parameters. The cache holds up to a maximum number of records, counting a result by the records it holds, and
+ * evicts the least recently used (LRU) or the least frequently used (LFU) results to make room for new ones. Results
+ * expire after a fixed time, which bounds the staleness of the results when the collection is written by others.
+ * <p>
+ * The table invalidates the cache on each of its writes. Every invalidation starts a new generation of the cache, and
+ * a result read from the store is only cached if no invalidation happened since the read started, so that results
+ * read concurrently with a write are not cached.
+ */
+final class CosmosQueryCache {
+
+    private final int maxSize;
+    private final long expiryNanos;
+    private final boolean leastFrequentlyUsed;
+    private final LinkedHashMap<List<Object>, Entry> entries;
+    private final TreeMap<Long, LinkedHashSet<List<Object>>> frequencies = new TreeMap<>();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private int size;
+    private long generation;
+
+    /**
+     * Creates a cache.
+     *
+     * @param maxSize             the maximum number of records held by the cache.
+     * @param expirySeconds       the number of seconds after which a cached result expires.
+     * @param leastFrequentlyUsed whether the least frequently used results are evicted first, instead of the least
+     *                            recently used ones.
+     */
+    CosmosQueryCache(int maxSize, double expirySeconds, boolean leastFrequentlyUsed) {
+        this.maxSize = maxSize;
+        this.expiryNanos = (long) (expirySeconds * 1_000_000_000L);
+        this.leastFrequentlyUsed = leastFrequentlyUsed;
+        //Entries are kept in the order of their use, which breaks the ties of the LFU policy as well.
+        this.entries = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    /**
+     * Method for reading the current generation of the cache, which should be read before reading a result from the
+     * store, and passed on when caching it.
+     *
+     * @return the generation of the cache.
+     */
+    synchronized long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Method for looking up a cached result.
+     *
+     * @param key the key of the result.
+     * @return the result, or null if it is not cached or has expired.
+     */
+    synchronized Object get(List<Object> key) {
+        Entry entry = entries.get(key);
+        if (entry != null && System.nanoTime() - entry.expiryTime >= 0) {
+            remove(key);
+            entry = null;
+        }
+        if (entry == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        if (leastFrequentlyUsed) {
+            removeFrequency(key, entry.frequency);
+            entry.frequency++;
+            frequencies.computeIfAbsent(entry.frequency, frequency -> new LinkedHashSet<>()).add(key);
+        }
+        return entry.value;
+    }
+
+    /**
+     * Method for caching a result read from the store. The result is discarded if the cache was invalidated since the
+     * given generation, or if the result alone exceeds the maximum size of the cache.
+     *
+     * @param key        the key of the result.
+     * @param value      the result.
+     * @param records    the number of records the result holds.
+     * @param generation the generation of the cache when the read of the result started.
+     */
+    synchronized void put(List<Object> key, Object value, int records, long generation) {
+        int entrySize = Math.max(records, 1);
+        if (generation != this.generation || entrySize > maxSize) {
+            return;
+        }
+        remove(key);
+        while (size + entrySize > maxSize) {
+            evict();
+        }
+        entries.put(key, new Entry(value, entrySize, System.nanoTime() + expiryNanos));
+        size += entrySize;
+        if (leastFrequentlyUsed) {
+            frequencies.computeIfAbsent(1L, frequency -> new LinkedHashSet<>()).add(key);
+        }
+    }
+
+    /**
+     * Method for caching the records of a result while they are consumed. The records are streamed from the store,
+     * and the result is only cached once all of its records are consumed. Records are no longer buffered once the
+     * result exceeds the maximum size of the cache, since it cannot be cached anyway.
+     *
+     * @param key        the key of the result.
+     * @param generation the generation of the cache when the read of the result started.
+     * @param records    the records read from the store.
+     * @return the iterator over the records.
+     */
+    RecordIterator<Object[]> caching(List<Object> key, long generation, RecordIterator<Object[]> records) {
+        return new RecordIterator<Object[]>() {
+            private List<Object[]> cachedRecords = new ArrayList<>();
+
+            @Override
+            public boolean hasNext() {
+                boolean hasNext = records.hasNext();
+                if (!hasNext && cachedRecords != null) {
+                    put(key, cachedRecords, cachedRecords.size(), generation);
+                    cachedRecords = null;
+                }
+                return hasNext;
+            }
+
+            @Override
+            public Object[] next() {
+                Object[] record = records.next();
+                if (cachedRecords != null) {
+                    if (cachedRecords.size() < maxSize) {
+                        cachedRecords.add(record.clone());
+                    } else {
+                        cachedRecords = null;
+                    }
+                }
+                return record;
+            }
+
+            @Override
+            public void close() throws IOException {
+                records.close();
+            }
+        };
+    }
+
+    /**
+     * Method for discarding all the cached results, upon a write to the table.
+     */
+    synchronized void invalidate() {
+        generation++;
+        entries.clear();
+        frequencies.clear();
+        size = 0;
+    }
+
+    long getHits() {
+        return hits.get();
+    }
+
+    long getMisses() {
+        return misses.get();
+    }
+
+    private void evict() {
+        List<Object> key;
+        if (leastFrequentlyUsed) {
+            key = frequencies.firstEntry().getValue().iterator().next();
+        } else {
+            key = entries.keySet().iterator().next();
+        }
+        remove(key);
+    }
+
+    private void remove(List<Object> key) {
+        Entry entry = entries.remove(key);
+        if (entry == null) {
+            return;
+        }
+        size -= entry.size;
+        if (leastFrequentlyUsed) {
+            removeFrequency(key, entry.frequency);
+        }
+    }
+
+    private void removeFrequency(List<Object> key, long frequency) {
+        LinkedHashSet<List<Object>> keys = frequencies.get(frequency);
+        keys.remove(key);
+        if (keys.isEmpty()) {
+            frequencies.remove(frequency);
+        }
+    }
+
+    /**
+     * Method for iterating over cached records. Each record is copied, so that the cached records are not modified by
+     * the consumers of the results.
+     *
+     * @param records the cached records.
+     * @return the iterator over the records.
+     */
+    static RecordIterator<Object[]> iterator(List<Object[]> records) {
+        Iterator<Object[]> recordIterator = records.iterator();
+        return new RecordIterator<Object[]>() {
+            @Override
+            public boolean hasNext() {
+                return recordIterator.hasNext();
+            }
+
+            @Override
+            public Object[] next() {
+                return recordIterator.next().clone();
+            }
+
+            @Override
+            public void close() {
+                //Do nothing. The records are held in memory.
+            }
+        };
+    }
+
+    /**
+     * A cached result, along with its size in records, expiry time and the number of times it was used.
+     */
+    private static class Entry {
+
+        private final Object value;
+        private final int size;
+        private final long expiryTime;
+        private long frequency = 1;
+
+        private Entry(Object value, int size, long expiryTime) {
+            this.value = value;
+            this.size = size;
+            this.expiryTime = expiryTime;
+        }
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright (c) 2019, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+
+package io.siddhi.extension.store.cosmosdb;
+
+import io.siddhi.extension.store.cosmosdb.util.CosmosTableUtils;
+
+import java.util.Map;
+
+/**
+ * A condition of the CosmosDB Event Table compiled for the change feed replica of the table, which evaluates the
+ * condition over the records held in memory instead of querying Cosmos DB. When the condition requires a store
+ * attribute to be equal to a stream variable or a constant, the records to be evaluated are looked up through the
+ * hash index of the attribute.
+ */
+final class CosmosReplicaCondition {
+
+    private final Expression predicate;
+    private final int indexAttribute;
+    private final Object indexOperand;
+
+    /**
+     * Creates a condition.
+     *
+     * @param predicate      the expression of the condition.
+     * @param indexAttribute the index of the store attribute which must be equal to the index operand, or -1 if the
+     *                       condition does not require any store attribute to be equal to an operand.
+     * @param indexOperand   the {@link io.siddhi.extension.store.cosmosdb.util.Constant} or the stream variable
+     *                       {@link io.siddhi.query.api.definition.Attribute} the index attribute must be equal to.
+     */
+    CosmosReplicaCondition(Expression predicate, int indexAttribute, Object indexOperand) {
+        this.predicate = predicate;
+        this.indexAttribute = indexAttribute;
+        this.indexOperand = indexOperand;
+    }
+
+    /**
+     * Checks whether a record satisfies the condition.
+     *
+     * @param record       the record.
+     * @param parameterMap the map which contains the runtime value(s) for the condition.
+     * @return true if the record satisfies the condition.
+     */
+    boolean matches(Object[] record, Map<String, Object> parameterMap) {
+        return Boolean.TRUE.equals(predicate.evaluate(record, parameterMap));
+    }
+
+    int getIndexAttribute() {
+        return indexAttribute;
+    }
+
+    /**
+     * Method for resolving the value the index attribute must be equal to, using values from the runtime.
+     *
+     * @param parameterMap the map which contains the runtime value(s) for the condition.
+     * @return the value of the index operand.
+     */
+    Object resolveIndexValue(Map<String, Object> parameterMap) {
+        return CosmosTableUtils.resolveOperand(indexOperand, parameterMap);
+    }
+
+    /**
+     * An expression of a condition, evaluated over a record and the runtime values of the condition.
+     */
+    @FunctionalInterface
+    interface Expression {
+
+        Object evaluate(Object[] record, Map<String, Object> parameterMap);
+    }
+}
@@ -0,0 +1,324 @@
+/*
+ * Copyright (c) 2019, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+
+package io.siddhi.extension.store.cosmosdb;
+
+import io.siddhi.core.table.record.BaseExpressionVisitor;
+import io.siddhi.extension.store.cosmosdb.util.Constant;
+import io.siddhi.query.api.definition.Attribute;
+import io.siddhi.query.api.expression.condition.Compare;
+
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Stack;
+
+/**
+ * Class which is used by the Siddhi runtime for instructions on converting the SiddhiQL condition to a
+ * {@link CosmosReplicaCondition}, which is evaluated over the records of the change feed replica of the table.
+ * Conditions are evaluated as Siddhi evaluates them: comparisons with null are false, and arithmetic is performed on
+ * longs when both operands are integral, or else on doubles. Functions, 'in' checks and null checks of streams are not
+ * supported, in which case no replica condition is built.
+ */
+public class CosmosReplicaConditionVisitor extends BaseExpressionVisitor {
+
+    private final List<String> attributeNames;
+    private final Stack<CosmosReplicaCondition.Expression> expressions = new Stack<>();
+    private final Stack<Integer> isNullDepths = new Stack<>();
+    private final Map<CosmosReplicaCondition.Expression, Integer> storeVariables = new IdentityHashMap<>();
+    private final Map<CosmosReplicaCondition.Expression, Object> operands = new IdentityHashMap<>();
+    private boolean supported = true;
+    private int nonConjunctionDepth;
+    private int indexAttribute = -1;
+    private Object indexOperand;
+
+    /**
+     * Creates a visitor.
+     *
+     * @param attributeNames the names of the attributes of the table, in the order of the records.
+     */
+    CosmosReplicaConditionVisitor(List<String> attributeNames) {
+        this.attributeNames = attributeNames;
+    }
+
+    /**
+     * Returns the condition built by the visitor.
+     *
+     * @return the condition, or null if the condition cannot be evaluated over the records of the replica.
+     */
+    CosmosReplicaCondition getCondition() {
+        if (!supported || expressions.size() != 1) {
+            return null;
+        }
+        return new CosmosReplicaCondition(expressions.peek(), indexAttribute, indexOperand);
+    }
+
+    @Override
+    public void endVisitAnd() {
+        if (supported) {
+            CosmosReplicaCondition.Expression right = expressions.pop();
+            CosmosReplicaCondition.Expression left = expressions.pop();
+            expressions.push((record, parameterMap) -> Boolean.TRUE.equals(left.evaluate(record, parameterMap)) &&
+                    Boolean.TRUE.equals(right.evaluate(record, parameterMap)));
+        }
+    }
+
+    @Override
+    public void beginVisitOr() {
+        nonConjunctionDepth++;
+    }
+
+    @Override
+    public void endVisitOr() {
+        nonConjunctionDepth--;
+        if (supported) {
+            CosmosReplicaCondition.Expression right = expressions.pop();
+            CosmosReplicaCondition.Expression left = expressions.pop();
+            expressions.push((record, parameterMap) -> Boolean.TRUE.equals(left.evaluate(record, parameterMap)) ||
+                    Boolean.TRUE.equals(right.evaluate(record, parameterMap)));
+        }
+    }
+
+    @Override
+    public void beginVisitNot() {
+        nonConjunctionDepth++;
+    }
+
+    @Override
+    public void endVisitNot() {
+        nonConjunctionDepth--;
+        if (supported) {
+            CosmosReplicaCondition.Expression operand = expressions.pop();
+            expressions.push((record, parameterMap) -> !Boolean.TRUE.equals(operand.evaluate(record, parameterMap)));
+        }
+    }
+
+    @Override
+    public void beginVisitCompare(Compare.Operator operator) {
+        nonConjunctionDepth++;
+    }
+
+    @Override
+    public void endVisitCompare(Compare.Operator operator) {
+        nonConjunctionDepth--;
+        if (!supported) {
+            return;
+        }
+        CosmosReplicaCondition.Expression right = expressions.pop();
+        CosmosReplicaCondition.Expression left = expressions.pop();
+        if (operator == Compare.Operator.EQUAL && nonConjunctionDepth == 0 && indexAttribute < 0) {
+            //An equality which the whole condition depends on selects the records to be evaluated.
+            if (storeVariables.containsKey(left) && operands.containsKey(right)) {
+                indexAttribute = storeVariables.get(left);
+                indexOperand = operands.get(right);
+            } else if (storeVariables.containsKey(right) && operands.containsKey(left)) {
+                indexAttribute = storeVariables.get(right);
+                indexOperand = operands.get(left);
+            }
+        }
+        expressions.push((record, parameterMap) -> compare(left.evaluate(record, parameterMap),
+                right.evaluate(record, parameterMap), operator));
+    }
+
+    @Override
+    public void beginVisitIsNull(String streamId) {
+        nonConjunctionDepth++;
+        if (streamId != null) {
+            //Whether an event of a stream exists is not known to the replica.
+            supported = false;
+        }
+        isNullDepths.push(expressions.size());
+    }
+
+    @Override
+    public void endVisitIsNull(String streamId) {
+        nonConjunctionDepth--;
+        int depth = isNullDepths.pop();
+        if (!supported) {
+            return;
+        }
+        if (expressions.size() == depth) {
+            supported = false;
+            return;
+        }
+        CosmosReplicaCondition.Expression operand = expressions.pop();
+        expressions.push((record, parameterMap) -> operand.evaluate(record, parameterMap) == null);
+    }
+
+    @Override
+    public void beginVisitIn(String storeId) {
+        supported = false;
+    }
+
+    @Override
+    public void beginVisitConstant(Object value, Attribute.Type type) {
+        if (supported) {
+            CosmosReplicaCondition.Expression constant = (record, parameterMap) -> value;
+            operands.put(constant, new Constant(value, type));
+            expressions.push(constant);
+        }
+    }
+
+    @Override
+    public void beginVisitMath(MathOperator mathOperator) {
+        nonConjunctionDepth++;
+    }
+
+    @Override
+    public void endVisitMath(MathOperator mathOperator) {
+        nonConjunctionDepth--;
+        if (supported) {
+            CosmosReplicaCondition.Expression right = expressions.pop();
+            CosmosReplicaCondition.Expression left = expressions.pop();
+            expressions.push((record, parameterMap) -> calculate(left.evaluate(record, parameterMap),
+                    right.evaluate(record, parameterMap), mathOperator));
+        }
+    }
+
+    @Override
+    public void beginVisitAttributeFunction(String namespace, String functionName) {
+        supported = false;
+    }
+
+    @Override
+    public void beginVisitStreamVariable(String id, String streamId, String attributeName, Attribute.Type type) {
+        if (supported) {
+            CosmosReplicaCondition.Expression streamVariable = (record, parameterMap) -> parameterMap.get(id);
+            operands.put(streamVariable, new Attribute(id, type));
+            expressions.push(streamVariable);
+        }
+    }
+
+    @Override
+    public void beginVisitStoreVariable(String storeId, String attributeName, Attribute.Type type) {
+        int attributeIndex = attributeNames.indexOf(attributeName);
+        if (attributeIndex < 0) {
+            supported = false;
+        }
+        if (supported) {
+            CosmosReplicaCondition.Expression storeVariable = (record, parameterMap) -> record[attributeIndex];
+            storeVariables.put(storeVariable, attributeIndex);
+            expressions.push(storeVariable);
+        }
+    }
+
+    /**
+     * Util method which compares two values as Siddhi does. Numbers are compared by their values regardless of their
+     * types, while any comparison with null is false.
+     *
+     * @param left     the left operand.
+     * @param right    the right operand.
+     * @param operator the comparison operator.
+     * @return the result of the comparison.
+     */
+    static boolean compare(Object left, Object right, Compare.Operator operator) {
+        if (left == null || right == null) {
+            return false;
+        }
+        int comparison;
+        if (left instanceof Number && right instanceof Number) {
+            comparison = isIntegral(left) && isIntegral(right) ?
+                    Long.compare(((Number) left).longValue(), ((Number) right).longValue()) :
+                    Double.compare(((Number) left).doubleValue(), ((Number) right).doubleValue());
+        } else if (left instanceof String && right instanceof String) {
+            comparison = ((String) left).compareTo((String) right);
+        } else if (operator == Compare.Operator.EQUAL) {
+            return left.equals(right);
+        } else if (operator == Compare.Operator.NOT_EQUAL) {
+            return !left.equals(right);
+        } else {
+            return false;
+        }
+        switch (operator) {
+            case EQUAL:
+                return comparison == 0;
+            case NOT_EQUAL:
+                return comparison != 0;
+            case GREATER_THAN:
+                return comparison > 0;
+            case GREATER_THAN_EQUAL:
+                return comparison >= 0;
+            case LESS_THAN:
+                return comparison < 0;
+            case LESS_THAN_EQUAL:
+                return comparison <= 0;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Util method which performs an arithmetic operation on two values, resulting in null if either of them is not a
+     * number or if an integral division is by zero.
+     *
+     * @param left         the left operand.
+     * @param right        the right operand.
+     * @param mathOperator the arithmetic operator.
+     * @return the result of the operation.
+     */
+    static Object calculate(Object left, Object right, MathOperator mathOperator) {
+        if (!(left instanceof Number) || !(right instanceof Number)) {
+            return null;
+        }
+        if (isIntegral(left) && isIntegral(right)) {
+            long leftValue = ((Number) left).longValue();
+            long rightValue = ((Number) right).longValue();
+            switch (mathOperator) {
+                case ADD:
+                    return leftValue + rightValue;
+                case SUBTRACT:
+                    return leftValue - rightValue;
+                case MULTIPLY:
+                    return leftValue * rightValue;
+                case DIVIDE:
+                    return rightValue == 0 ? null : leftValue / rightValue;
+                case MOD:
+                    return rightValue == 0 ? null : leftValue % rightValue;
+                default:
+                    return null;
+            }
+        }
+        double leftValue = ((Number) left).doubleValue();
+        double rightValue = ((Number) right).doubleValue();
+        switch (mathOperator) {
+            case ADD:
+                return leftValue + rightValue;
+            case SUBTRACT:
+                return leftValue - rightValue;
+            case MULTIPLY:
+                return leftValue * rightValue;
+            case DIVIDE:
+                return leftValue / rightValue;
+            case MOD:
+                return leftValue % rightValue;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Checks whether a value is an integral number, i.e. an int or a long.
+     *
+     * @param value the value.
+     * @return true if the value is integral.
+     */
+    static boolean isIntegral(Object value) {
+        return value instanceof Integer || value instanceof Long;
+    }
+}
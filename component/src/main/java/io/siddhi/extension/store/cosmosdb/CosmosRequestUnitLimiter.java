@@ -0,0 +1,159 @@
+/*
+ * Copyright (c) 2019, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+
+package io.siddhi.extension.store.cosmosdb;
+
+import io.siddhi.core.exception.SiddhiAppRuntimeException;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A token bucket which paces the requests made to Cosmos DB against a budget of request units (RU) per second. Since
+ * the charge of a request is only known from its response, a request is let through while the bucket is not in debt,
+ * and its charge is taken from the bucket once it completes. The bucket holds up to one second of budget.
+ * <p>
+ * A limiter may have a parent, e.g. the limiter of the account a table belongs to, in which case requests are paced
+ * against the budgets of both.
+ */
+final class CosmosRequestUnitLimiter {
+
+    private static final Map<String, CosmosRequestUnitLimiter> accountLimiters = new HashMap<>();
+    private final String name;
+    private final double requestUnitsPerSecond;
+    private final CosmosRequestUnitLimiter parent;
+    private double availableRequestUnits;
+    private long lastRefillTime;
+    private int references;
+
+    /**
+     * Creates a limiter.
+     *
+     * @param name                  the name of the limiter, for error reporting purposes.
+     * @param requestUnitsPerSecond the budget of the limiter, or a non-positive value for no budget of its own.
+     * @param parent                the limiter whose budget is shared with this limiter, or null.
+     */
+    CosmosRequestUnitLimiter(String name, double requestUnitsPerSecond, CosmosRequestUnitLimiter parent) {
+        this.name = name;
+        this.requestUnitsPerSecond = requestUnitsPerSecond;
+        this.parent = parent;
+        this.availableRequestUnits = requestUnitsPerSecond;
+        this.lastRefillTime = System.nanoTime();
+    }
+
+    /**
+     * Method for acquiring a reference to the limiter of an account, which is shared by all the tables of the account.
+     *
+     * @param uri                   the uri of the account.
+     * @param requestUnitsPerSecond the budget of the account, used if the limiter is not created yet.
+     * @return the limiter of the account.
+     */
+    static synchronized CosmosRequestUnitLimiter acquireAccountLimiter(String uri, double requestUnitsPerSecond) {
+        CosmosRequestUnitLimiter accountLimiter = accountLimiters.computeIfAbsent(uri,
+                accountUri -> new CosmosRequestUnitLimiter(accountUri, requestUnitsPerSecond, null));
+        accountLimiter.references++;
+        return accountLimiter;
+    }
+
+    /**
+     * Method for releasing a reference to the limiter of an account. The limiter is discarded once no table holds a
+     * reference to it.
+     *
+     * @param accountLimiter the limiter of the account.
+     */
+    static synchronized void releaseAccountLimiter(CosmosRequestUnitLimiter accountLimiter) {
+        if (--accountLimiter.references == 0) {
+            accountLimiters.remove(accountLimiter.name, accountLimiter);
+        }
+    }
+
+    CosmosRequestUnitLimiter getParent() {
+        return parent;
+    }
+
+    /**
+     * Method for waiting until a request can be made within the budget of the limiter and its parent.
+     */
+    void acquire() {
+        if (parent != null) {
+            parent.acquire();
+        }
+        if (requestUnitsPerSecond <= 0) {
+            return;
+        }
+        long waitTime;
+        while ((waitTime = getWaitTime()) > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(waitTime);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SiddhiAppRuntimeException("Interrupted while waiting for the request unit budget of '" +
+                        name + "'. ", e);
+            }
+        }
+    }
+
+    /**
+     * Method for taking the charge of a completed request from the budget of the limiter and its parent.
+     *
+     * @param requestCharge the request units charged for the request.
+     */
+    void consume(double requestCharge) {
+        if (requestUnitsPerSecond > 0) {
+            synchronized (this) {
+                refill();
+                availableRequestUnits -= requestCharge;
+            }
+        }
+        if (parent != null) {
+            parent.consume(requestCharge);
+        }
+    }
+
+    /**
+     * Method for retrieving the fill level of the bucket.
+     *
+     * @return the fraction of the budget of one second which is available, between 0 and 1. A limiter without a
+     * budget of its own is always full.
+     */
+    synchronized double getFillLevel() {
+        if (requestUnitsPerSecond <= 0) {
+            return 1;
+        }
+        refill();
+        return Math.max(0, availableRequestUnits) / requestUnitsPerSecond;
+    }
+
+    private synchronized long getWaitTime() {
+        refill();
+        if (availableRequestUnits >= 0) {
+            return 0;
+        }
+        //The time it takes to pay off the debt.
+        return (long) Math.ceil(-availableRequestUnits / requestUnitsPerSecond * TimeUnit.SECONDS.toNanos(1));
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        availableRequestUnits = Math.min(requestUnitsPerSecond, availableRequestUnits +
+                (now - lastRefillTime) * requestUnitsPerSecond / TimeUnit.SECONDS.toNanos(1));
+        lastRefillTime = now;
+    }
+}
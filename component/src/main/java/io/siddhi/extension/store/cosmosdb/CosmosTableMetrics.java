@@ -0,0 +1,288 @@
+/*
+ * Copyright (c) 2019, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+
+package io.siddhi.extension.store.cosmosdb;
+
+import io.siddhi.core.config.SiddhiAppContext;
+import io.siddhi.core.util.SiddhiConstants;
+import io.siddhi.core.util.parser.helper.QueryParserHelper;
+import io.siddhi.core.util.statistics.EventBufferHolder;
+import io.siddhi.core.util.statistics.LatencyTracker;
+import io.siddhi.core.util.statistics.ThroughputTracker;
+import io.siddhi.core.util.statistics.metrics.Level;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.DoubleSupplier;
+import java.util.function.LongSupplier;
+
+/**
+ * A class which tracks the requests a CosmosDB Event Table makes to Cosmos DB, through the statistics of the Siddhi
+ * app. For each table operation (insert, find, contains, update, delete and updateOrInsert), the latency of the
+ * requests made for it, the request units (RU) consumed, the documents touched and the throttled requests are
+ * tracked. Requests are attributed to the operation the calling thread is performing, while requests made in the
+ * background are attributed to the operation of the same kind. When the near cache of the table is enabled, its hits
+ * and misses are tracked as well, for the find and contains operations. When the change feed replica of the table is
+ * enabled, its lag behind the change feed is exposed as a gauge. When the requests of the table are paced against
+ * request unit budgets, the fill levels of the budgets of the table and of its account are exposed as gauges as well.
+ */
+final class CosmosTableMetrics {
+
+    private static final String METRIC_PREFIX = "cosmosdb";
+    private static final String[] OPERATIONS = {SiddhiConstants.METRIC_TYPE_INSERT, SiddhiConstants.METRIC_TYPE_FIND,
+            SiddhiConstants.METRIC_TYPE_CONTAINS, SiddhiConstants.METRIC_TYPE_UPDATE,
+            SiddhiConstants.METRIC_TYPE_DELETE, SiddhiConstants.METRIC_TYPE_UPDATE_OR_INSERT};
+    private final SiddhiAppContext siddhiAppContext;
+    private final String tableId;
+    private final Map<String, OperationMetrics> operationMetrics = new HashMap<>();
+    private final ThreadLocal<OperationMetrics> currentOperation = new ThreadLocal<>();
+
+    private CosmosTableMetrics(SiddhiAppContext siddhiAppContext, String tableId, boolean cached) {
+        this.siddhiAppContext = siddhiAppContext;
+        this.tableId = tableId;
+        for (String operation : OPERATIONS) {
+            boolean cachedOperation = cached && (operation.equals(SiddhiConstants.METRIC_TYPE_FIND) ||
+                    operation.equals(SiddhiConstants.METRIC_TYPE_CONTAINS));
+            operationMetrics.put(operation, new OperationMetrics(siddhiAppContext, tableId, operation,
+                    cachedOperation));
+        }
+    }
+
+    /**
+     * Method for creating the metrics of a table.
+     *
+     * @param siddhiAppContext the context of the Siddhi app the table belongs to.
+     * @param tableId          the id of the table.
+     * @param cached           whether the near cache of the table is enabled.
+     * @return the metrics of the table, or null if statistics are not enabled for the Siddhi app.
+     */
+    static CosmosTableMetrics create(SiddhiAppContext siddhiAppContext, String tableId, boolean cached) {
+        if (siddhiAppContext == null || siddhiAppContext.getStatisticsManager() == null) {
+            return null;
+        }
+        return new CosmosTableMetrics(siddhiAppContext, tableId, cached);
+    }
+
+    /**
+     * Method for marking the table operation which the calling thread performs, to which its requests are attributed.
+     *
+     * @param operation the metric type of the table operation, as defined in {@link SiddhiConstants}.
+     */
+    void enterOperation(String operation) {
+        currentOperation.set(operationMetrics.get(operation));
+    }
+
+    /**
+     * Method for binding a task to the table operation which the calling thread performs, so that the requests made
+     * by the task are attributed to the operation, even if it is run by another thread.
+     *
+     * @param task the task.
+     * @return the bound task.
+     */
+    Runnable bindOperation(Runnable task) {
+        return bindOperation(currentOperation.get(), task);
+    }
+
+    /**
+     * Method for binding a task to the given table operation, so that the requests made by the task are attributed
+     * to the operation. This is used for the requests made in the background, e.g. by the write-behind buffer or the
+     * write-ahead log, which no table operation of the calling thread accounts for.
+     *
+     * @param operation the metric type of the table operation, as defined in {@link SiddhiConstants}.
+     * @param task      the task.
+     * @return the bound task.
+     */
+    Runnable bindOperation(String operation, Runnable task) {
+        return bindOperation(operationMetrics.get(operation), task);
+    }
+
+    /**
+     * Checks whether the calling thread performs a table operation, to which its requests are attributed.
+     *
+     * @return true if the thread performs a table operation.
+     */
+    boolean isInOperation() {
+        return currentOperation.get() != null;
+    }
+
+    private Runnable bindOperation(OperationMetrics operation, Runnable task) {
+        return () -> {
+            OperationMetrics previousOperation = currentOperation.get();
+            currentOperation.set(operation);
+            try {
+                task.run();
+            } finally {
+                currentOperation.set(previousOperation);
+            }
+        };
+    }
+
+    /**
+     * Method for marking the start of a request.
+     */
+    void requestStarted() {
+        OperationMetrics operation = currentOperation.get();
+        if (operation != null && operation.latencyTracker != null && isEnabled()) {
+            operation.latencyTracker.markIn();
+        }
+    }
+
+    /**
+     * Method for marking the completion of a request, successful or not.
+     *
+     * @param requestCharge the request units charged for the request.
+     * @param documents     the number of documents the request touched.
+     * @param throttled     whether the request was throttled by Cosmos DB.
+     */
+    void requestCompleted(double requestCharge, int documents, boolean throttled) {
+        OperationMetrics operation = currentOperation.get();
+        if (operation == null) {
+            return;
+        }
+        if (operation.latencyTracker != null) {
+            //Marking out is a no-op if the request was not marked in.
+            operation.latencyTracker.markOut();
+        }
+        if (!isEnabled()) {
+            return;
+        }
+        if (operation.requestUnitTracker != null) {
+            int requestUnits;
+            synchronized (operation) {
+                //Throughput is tracked in whole units, hence fractions are carried over to the following requests.
+                operation.pendingRequestUnits += requestCharge;
+                requestUnits = (int) operation.pendingRequestUnits;
+                operation.pendingRequestUnits -= requestUnits;
+            }
+            if (requestUnits > 0) {
+                operation.requestUnitTracker.eventsIn(requestUnits);
+            }
+        }
+        if (operation.documentTracker != null && documents > 0) {
+            operation.documentTracker.eventsIn(documents);
+        }
+        if (operation.throttleTracker != null && throttled) {
+            operation.throttleTracker.eventIn();
+        }
+    }
+
+    /**
+     * Method for marking a lookup of the near cache, made for the table operation the calling thread performs.
+     *
+     * @param hit whether the result was served from the cache.
+     */
+    void cacheLookedUp(boolean hit) {
+        OperationMetrics operation = currentOperation.get();
+        if (operation == null || !isEnabled()) {
+            return;
+        }
+        ThroughputTracker cacheTracker = hit ? operation.cacheHitTracker : operation.cacheMissTracker;
+        if (cacheTracker != null) {
+            cacheTracker.eventIn();
+        }
+    }
+
+    /**
+     * Method for exposing the lag of the change feed replica of the table as a gauge, if the gauge is included in the
+     * metrics of the Siddhi app.
+     *
+     * @param lag the supplier of the lag, in milliseconds.
+     */
+    void trackReplicaLag(LongSupplier lag) {
+        registerGauge("replica" + SiddhiConstants.METRIC_DELIMITER + "lag", lag);
+    }
+
+    /**
+     * Method for exposing the fill level of a request unit budget as a gauge, if the gauge is included in the metrics
+     * of the Siddhi app.
+     *
+     * @param account   whether the budget is the one of the account, shared by all of its tables, instead of the one
+     *                  of the table.
+     * @param fillLevel the supplier of the fill level, between 0 and 1.
+     */
+    void trackRequestUnitFillLevel(boolean account, DoubleSupplier fillLevel) {
+        //Gauges report whole values, hence the fill level is reported as a percentage.
+        registerGauge((account ? "account" + SiddhiConstants.METRIC_DELIMITER : "") + "requestUnits" +
+                SiddhiConstants.METRIC_DELIMITER + "fillLevel", () -> Math.round(fillLevel.getAsDouble() * 100));
+    }
+
+    private void registerGauge(String name, LongSupplier value) {
+        String metricName = siddhiAppContext.getSiddhiContext().getStatisticsConfiguration().getMetricPrefix() +
+                SiddhiConstants.METRIC_DELIMITER + SiddhiConstants.METRIC_INFIX_SIDDHI_APPS +
+                SiddhiConstants.METRIC_DELIMITER + siddhiAppContext.getName() + SiddhiConstants.METRIC_DELIMITER +
+                SiddhiConstants.METRIC_INFIX_SIDDHI + SiddhiConstants.METRIC_DELIMITER +
+                SiddhiConstants.METRIC_INFIX_TABLES + SiddhiConstants.METRIC_DELIMITER + tableId +
+                SiddhiConstants.METRIC_DELIMITER + METRIC_PREFIX + SiddhiConstants.METRIC_DELIMITER + name;
+        if (siddhiAppContext.getIncludedMetrics().stream().noneMatch(metricName::matches)) {
+            return;
+        }
+        //Gauges are exposed through the tracker of buffered events, which reports any value of a holder.
+        siddhiAppContext.getSiddhiContext().getStatisticsConfiguration().getFactory()
+                .createBufferSizeTracker(siddhiAppContext.getStatisticsManager())
+                .registerEventBufferHolder(new EventBufferHolder() {
+                    @Override
+                    public long getBufferedEvents() {
+                        return value.getAsLong();
+                    }
+
+                    @Override
+                    public boolean containsBufferedEvents() {
+                        return true;
+                    }
+                }, metricName);
+    }
+
+    private boolean isEnabled() {
+        return Level.BASIC.compareTo(siddhiAppContext.getRootMetricsLevel()) <= 0;
+    }
+
+    /**
+     * The trackers of a table operation.
+     */
+    private static class OperationMetrics {
+
+        private final LatencyTracker latencyTracker;
+        private final ThroughputTracker requestUnitTracker;
+        private final ThroughputTracker documentTracker;
+        private final ThroughputTracker throttleTracker;
+        private ThroughputTracker cacheHitTracker;
+        private ThroughputTracker cacheMissTracker;
+        private double pendingRequestUnits;
+
+        private OperationMetrics(SiddhiAppContext siddhiAppContext, String tableId, String operation,
+                                 boolean cached) {
+            String metricType = METRIC_PREFIX + SiddhiConstants.METRIC_DELIMITER + operation +
+                    SiddhiConstants.METRIC_DELIMITER;
+            latencyTracker = QueryParserHelper.createLatencyTracker(siddhiAppContext, tableId,
+                    SiddhiConstants.METRIC_INFIX_TABLES, metricType + "requests");
+            requestUnitTracker = QueryParserHelper.createThroughputTracker(siddhiAppContext, tableId,
+                    SiddhiConstants.METRIC_INFIX_TABLES, metricType + "requestUnits");
+            documentTracker = QueryParserHelper.createThroughputTracker(siddhiAppContext, tableId,
+                    SiddhiConstants.METRIC_INFIX_TABLES, metricType + "documents");
+            throttleTracker = QueryParserHelper.createThroughputTracker(siddhiAppContext, tableId,
+                    SiddhiConstants.METRIC_INFIX_TABLES, metricType + "throttledRequests");
+            if (cached) {
+                cacheHitTracker = QueryParserHelper.createThroughputTracker(siddhiAppContext, tableId,
+                        SiddhiConstants.METRIC_INFIX_TABLES, metricType + "cacheHits");
+                cacheMissTracker = QueryParserHelper.createThroughputTracker(siddhiAppContext, tableId,
+                        SiddhiConstants.METRIC_INFIX_TABLES, metricType + "cacheMisses");
+            }
+        }
+    }
+}
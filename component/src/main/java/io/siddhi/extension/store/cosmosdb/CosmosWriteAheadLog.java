@@ -0,0 +1,491 @@
+/*
+ * Copyright (c) 2019, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+
+package io.siddhi.extension.store.cosmosdb;
+
+import com.microsoft.azure.documentdb.Document;
+import io.siddhi.core.exception.SiddhiAppRuntimeException;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+/**
+ * A write-ahead log of a CosmosDB Event Table, which holds the writes of the table on the local disk until they are
+ * shipped to Cosmos DB. Writes are appended to memory-mapped segment files, and a new segment is started once the
+ * current one is full. A background thread ships the logged writes to Cosmos DB in batches, in the order they were
+ * logged, and checkpoints the offset up to which they are acknowledged. Segments holding only acknowledged writes are
+ * deleted.
+ * <p>
+ * A batch which fails with a transient failure, e.g. when Cosmos DB is unreachable or throttling, is retried after the
+ * retry interval, and the writes which are not acknowledged when the table is disconnected are shipped once the log is
+ * opened again, e.g. after a restart. Writes are therefore shipped at least once.
+ * <p>
+ * Each entry of a segment holds the length and the CRC32 checksum of its payload, followed by the payload, which is
+ * the logged write in JSON. An entry which is not fully written, e.g. due to a crash, ends the segment.
+ */
+final class CosmosWriteAheadLog {
+
+    private static final Log log = LogFactory.getLog(CosmosWriteAheadLog.class);
+    private static final String SEGMENT_SUFFIX = ".wal";
+    private static final String CHECKPOINT_FILE = "checkpoint";
+    private static final int ENTRY_HEADER_SIZE = 8;
+    private final String collectionId;
+    private final Path directory;
+    private final int segmentSize;
+    private final boolean syncOnWrite;
+    private final int batchSize;
+    private final long retryIntervalMillis;
+    private final Shipper shipper;
+    private final TreeMap<Long, Segment> segments = new TreeMap<>();
+    private Segment activeSegment;
+    private long appendOffset;
+    private long shippedOffset;
+    private long recoveredOffset;
+    private boolean running;
+    private boolean shippingFailed;
+    private Thread shipperThread;
+
+    /**
+     * Creates a log.
+     *
+     * @param collectionId         the id of the collection the writes are shipped to.
+     * @param directory            the directory holding the segments and the checkpoint of the log.
+     * @param segmentSize          the size of a segment in bytes.
+     * @param syncOnWrite          whether appended writes are forced to the disk before the append returns.
+     * @param batchSize            the maximum number of writes shipped in a batch.
+     * @param retryIntervalSeconds the number of seconds to wait before retrying a failed batch.
+     * @param shipper              the shipper writing the logged writes to Cosmos DB.
+     */
+    CosmosWriteAheadLog(String collectionId, Path directory, int segmentSize, boolean syncOnWrite, int batchSize,
+                        double retryIntervalSeconds, Shipper shipper) {
+        this.collectionId = collectionId;
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.syncOnWrite = syncOnWrite;
+        this.batchSize = batchSize;
+        this.retryIntervalMillis = Math.max((long) (retryIntervalSeconds * 1000), 1);
+        this.shipper = shipper;
+    }
+
+    /**
+     * Method for opening the log, recovering the writes which were not acknowledged, and starting to ship them.
+     *
+     * @throws IOException if the log could not be read.
+     */
+    synchronized void open() throws IOException {
+        if (running) {
+            return;
+        }
+        Files.createDirectories(directory);
+        try (DirectoryStream<Path> segmentFiles = Files.newDirectoryStream(directory, "*" + SEGMENT_SUFFIX)) {
+            for (Path segmentFile : segmentFiles) {
+                String fileName = segmentFile.getFileName().toString();
+                long baseOffset = Long.parseLong(fileName.substring(0, fileName.length() - SEGMENT_SUFFIX.length()));
+                segments.put(baseOffset, Segment.open(segmentFile, baseOffset));
+            }
+        }
+        Path checkpointFile = directory.resolve(CHECKPOINT_FILE);
+        shippedOffset = Files.exists(checkpointFile) ?
+                Long.parseLong(new String(Files.readAllBytes(checkpointFile), StandardCharsets.UTF_8).trim()) : 0;
+        if (segments.isEmpty()) {
+            activeSegment = Segment.create(segmentFile(shippedOffset), shippedOffset, segmentSize);
+            segments.put(shippedOffset, activeSegment);
+        } else {
+            activeSegment = segments.lastEntry().getValue();
+            //Bytes of a partially written entry are cleared, so that they cannot be read as part of a later entry.
+            activeSegment.clearTail();
+        }
+        appendOffset = activeSegment.getEndOffset();
+        shippedOffset = Math.min(Math.max(shippedOffset, segments.firstKey()), appendOffset);
+        recoveredOffset = appendOffset;
+        if (recoveredOffset > shippedOffset) {
+            log.info("Recovered " + (recoveredOffset - shippedOffset) + " byte(s) of writes of store '" +
+                    collectionId + "' which are not acknowledged by Cosmos DB, from the write-ahead log at '" +
+                    directory + "'. ");
+        }
+        deleteAcknowledgedSegments();
+        running = true;
+        shipperThread = new Thread(this::ship, "CosmosDB-WAL-Shipper-" + collectionId);
+        shipperThread.setDaemon(true);
+        shipperThread.start();
+    }
+
+    /**
+     * Method for stopping the shipping thread, shipping the logged writes while Cosmos DB acknowledges them, and
+     * releasing the segments. Writes which are not acknowledged remain in the log.
+     */
+    void close() {
+        Thread thread;
+        synchronized (this) {
+            if (!running) {
+                return;
+            }
+            running = false;
+            notifyAll();
+            thread = shipperThread;
+            shipperThread = null;
+        }
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        while (true) {
+            Batch batch;
+            synchronized (this) {
+                if (shippedOffset == appendOffset) {
+                    break;
+                }
+                batch = read(shippedOffset);
+            }
+            if (!shipBatch(batch, false)) {
+                break;
+            }
+        }
+        synchronized (this) {
+            if (shippedOffset < appendOffset) {
+                log.warn((appendOffset - shippedOffset) + " byte(s) of writes of store '" + collectionId + "' " +
+                        "remain in the write-ahead log at '" + directory + "', and are shipped once the store is " +
+                        "connected again. ");
+            }
+            segments.clear();
+            activeSegment = null;
+            notifyAll();
+        }
+    }
+
+    /**
+     * Method for appending writes to the log. The writes are shipped to Cosmos DB in the order they are appended.
+     *
+     * @param entries the writes to be appended.
+     */
+    synchronized void append(List<Document> entries) {
+        if (activeSegment == null) {
+            throw new SiddhiAppRuntimeException("Write-ahead log of store '" + collectionId + "' is not open. ");
+        }
+        try {
+            for (Document entry : entries) {
+                byte[] payload = entry.toJson().getBytes(StandardCharsets.UTF_8);
+                if (!activeSegment.hasCapacity(payload.length)) {
+                    if (syncOnWrite) {
+                        activeSegment.force();
+                    }
+                    activeSegment = Segment.create(segmentFile(appendOffset), appendOffset,
+                            Math.max(segmentSize, ENTRY_HEADER_SIZE + payload.length));
+                    segments.put(appendOffset, activeSegment);
+                }
+                activeSegment.write(payload);
+                appendOffset = activeSegment.getEndOffset();
+            }
+        } catch (IOException e) {
+            throw new SiddhiAppRuntimeException("Failed to append writes to the write-ahead log of store '" +
+                    collectionId + "' at '" + directory + "'. ", e);
+        }
+        if (syncOnWrite) {
+            activeSegment.force();
+        }
+        notifyAll();
+    }
+
+    /**
+     * Method for waiting until the writes appended so far are shipped, so that a read which is not served from the
+     * log is performed after them. The wait is bounded, and fails right away while shipping the logged writes fails,
+     * e.g. when Cosmos DB is unreachable or throttling, so that the caller is not blocked for the length of an outage.
+     *
+     * @param timeoutMillis the maximum number of milliseconds to wait.
+     * @throws SiddhiAppRuntimeException if the writes are not shipped within the timeout, if shipping them fails, or
+     *                                   if the log is closed before they are shipped.
+     */
+    synchronized void awaitShipped(long timeoutMillis) {
+        long targetOffset = appendOffset;
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        try {
+            //The writes shipped while the log is closed are awaited as well.
+            while (activeSegment != null && shippedOffset < targetOffset) {
+                if (shippingFailed) {
+                    throw new SiddhiAppRuntimeException("Logged writes of store '" + collectionId + "' are not " +
+                            "shipped, since Cosmos DB failed to acknowledge them, and are retried. The operation " +
+                            "which should follow them is not performed. ");
+                }
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    throw new SiddhiAppRuntimeException("Logged writes of store '" + collectionId + "' are not " +
+                            "shipped within " + timeoutMillis + " milliseconds. The operation which should follow " +
+                            "them is not performed. ");
+                }
+                wait(remaining);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SiddhiAppRuntimeException("Interrupted while waiting for logged writes of store: '" +
+                    collectionId + "'. ", e);
+        }
+        if (shippedOffset < targetOffset) {
+            throw new SiddhiAppRuntimeException("Write-ahead log of store '" + collectionId + "' is closed before " +
+                    "its writes are shipped. ");
+        }
+    }
+
+    /**
+     * Method for shipping the logged writes in batches, until the log is closed. A batch which is not fully
+     * acknowledged is retried from the first write which is not acknowledged, after the retry interval.
+     */
+    private void ship() {
+        boolean retrying = false;
+        while (true) {
+            Batch batch;
+            synchronized (this) {
+                try {
+                    long retryDeadline = retrying ? System.currentTimeMillis() + retryIntervalMillis : 0;
+                    while (running) {
+                        long remaining = retryDeadline - System.currentTimeMillis();
+                        if (shippedOffset == appendOffset) {
+                            wait();
+                        } else if (remaining > 0) {
+                            wait(remaining);
+                        } else {
+                            break;
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                if (!running) {
+                    return;
+                }
+                batch = read(shippedOffset);
+            }
+            retrying = !shipBatch(batch, retrying);
+        }
+    }
+
+    /**
+     * Method for shipping a batch of logged writes and acknowledging the writes which are shipped.
+     *
+     * @param batch    the batch.
+     * @param retrying whether the batch is retried after a failure, in which case its writes may have been applied.
+     * @return true if all the writes of the batch are shipped.
+     */
+    private boolean shipBatch(Batch batch, boolean retrying) {
+        int shipped;
+        try {
+            shipped = shipper.ship(batch.entries, retrying || batch.startOffset < recoveredOffset);
+        } catch (RuntimeException e) {
+            log.error("Failed to ship the logged writes of store: '" + collectionId + "'. ", e);
+            shipped = 0;
+        }
+        synchronized (this) {
+            if (shipped > 0) {
+                acknowledge(batch.endOffsets.get(shipped - 1));
+            }
+            shippingFailed = shipped < batch.entries.size();
+            notifyAll();
+        }
+        return shipped == batch.entries.size();
+    }
+
+    /**
+     * Method for reading the next batch of logged writes, starting from the given offset.
+     */
+    private Batch read(long offset) {
+        Batch batch = new Batch(offset);
+        long nextOffset = offset;
+        while (batch.entries.size() < batchSize && nextOffset < appendOffset) {
+            Segment segment = segments.floorEntry(nextOffset).getValue();
+            if (nextOffset == segment.getEndOffset()) {
+                segment = segments.higherEntry(nextOffset).getValue();
+            }
+            byte[] payload = segment.read(nextOffset);
+            batch.entries.add(new Document(new String(payload, StandardCharsets.UTF_8)));
+            nextOffset += ENTRY_HEADER_SIZE + payload.length;
+            batch.endOffsets.add(nextOffset);
+        }
+        return batch;
+    }
+
+    /**
+     * Method for checkpointing the offset up to which the logged writes are acknowledged, and deleting the segments
+     * holding only acknowledged writes. A checkpoint which cannot be written only causes writes to be shipped again.
+     */
+    private void acknowledge(long offset) {
+        shippedOffset = offset;
+        Path checkpointFile = directory.resolve(CHECKPOINT_FILE);
+        Path temporaryFile = directory.resolve(CHECKPOINT_FILE + ".tmp");
+        try {
+            Files.write(temporaryFile, Long.toString(offset).getBytes(StandardCharsets.UTF_8));
+            Files.move(temporaryFile, checkpointFile, StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.warn("Failed to checkpoint the write-ahead log of store '" + collectionId + "' at '" + directory +
+                    "'. ", e);
+        }
+        deleteAcknowledgedSegments();
+    }
+
+    private void deleteAcknowledgedSegments() {
+        while (segments.size() > 1 && segments.higherKey(segments.firstKey()) <= shippedOffset) {
+            Map.Entry<Long, Segment> acknowledgedSegment = segments.pollFirstEntry();
+            try {
+                Files.deleteIfExists(segmentFile(acknowledgedSegment.getKey()));
+            } catch (IOException e) {
+                log.warn("Failed to delete the acknowledged segment '" + acknowledgedSegment.getKey() + "' of the " +
+                        "write-ahead log of store '" + collectionId + "'. ", e);
+            }
+        }
+    }
+
+    private Path segmentFile(long baseOffset) {
+        return directory.resolve(String.format("%020d", baseOffset) + SEGMENT_SUFFIX);
+    }
+
+    /**
+     * A shipper of logged writes to Cosmos DB.
+     */
+    @FunctionalInterface
+    interface Shipper {
+
+        /**
+         * Method for shipping logged writes in order, stopping at the first write which fails transiently.
+         *
+         * @param entries  the logged writes.
+         * @param replayed whether the writes may have been applied already, e.g. before a restart.
+         * @return the number of writes which are shipped, including the writes which failed permanently.
+         */
+        int ship(List<Document> entries, boolean replayed);
+    }
+
+    /**
+     * A batch of logged writes, along with the offsets at which each of them ends.
+     */
+    private static final class Batch {
+
+        private final long startOffset;
+        private final List<Document> entries = new ArrayList<>();
+        private final List<Long> endOffsets = new ArrayList<>();
+
+        private Batch(long startOffset) {
+            this.startOffset = startOffset;
+        }
+    }
+
+    /**
+     * A memory-mapped segment file of the log, holding the entries from its base offset.
+     */
+    private static final class Segment {
+
+        private final long baseOffset;
+        private final MappedByteBuffer buffer;
+        private int limit;
+
+        private Segment(long baseOffset, MappedByteBuffer buffer) {
+            this.baseOffset = baseOffset;
+            this.buffer = buffer;
+        }
+
+        private static Segment create(Path file, long baseOffset, int size) throws IOException {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                //The mapping remains valid after the channel is closed.
+                return new Segment(baseOffset, channel.map(FileChannel.MapMode.READ_WRITE, 0, size));
+            }
+        }
+
+        private static Segment open(Path file, long baseOffset) throws IOException {
+            Segment segment;
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                segment = new Segment(baseOffset, channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size()));
+            }
+            //The segment ends at the first entry which is not fully written.
+            while (segment.limit + ENTRY_HEADER_SIZE <= segment.buffer.capacity()) {
+                int length = segment.buffer.getInt(segment.limit);
+                if (length <= 0 || length > segment.buffer.capacity() - segment.limit - ENTRY_HEADER_SIZE ||
+                        segment.buffer.getInt(segment.limit + 4) != checksum(segment.readPayload(segment.limit))) {
+                    break;
+                }
+                segment.limit += ENTRY_HEADER_SIZE + length;
+            }
+            return segment;
+        }
+
+        private static int checksum(byte[] payload) {
+            CRC32 crc = new CRC32();
+            crc.update(payload);
+            return (int) crc.getValue();
+        }
+
+        private long getEndOffset() {
+            return baseOffset + limit;
+        }
+
+        private boolean hasCapacity(int payloadLength) {
+            return buffer.capacity() - limit >= ENTRY_HEADER_SIZE + payloadLength;
+        }
+
+        private void write(byte[] payload) {
+            //The length is written last, so that a partially written entry is never read as a complete one.
+            buffer.putInt(limit + 4, checksum(payload));
+            ByteBuffer view = buffer.duplicate();
+            view.position(limit + ENTRY_HEADER_SIZE);
+            view.put(payload);
+            buffer.putInt(limit, payload.length);
+            limit += ENTRY_HEADER_SIZE + payload.length;
+        }
+
+        private byte[] read(long offset) {
+            return readPayload((int) (offset - baseOffset));
+        }
+
+        private byte[] readPayload(int position) {
+            byte[] payload = new byte[buffer.getInt(position)];
+            ByteBuffer view = buffer.duplicate();
+            view.position(position + ENTRY_HEADER_SIZE);
+            view.get(payload);
+            return payload;
+        }
+
+        private void clearTail() {
+            ByteBuffer view = buffer.duplicate();
+            view.position(limit);
+            byte[] zeros = new byte[Math.min(view.remaining(), 8192)];
+            while (view.hasRemaining()) {
+                view.put(zeros, 0, Math.min(view.remaining(), zeros.length));
+            }
+        }
+
+        private void force() {
+            buffer.force();
+        }
+    }
+}
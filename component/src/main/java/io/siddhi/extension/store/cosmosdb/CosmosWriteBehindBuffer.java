@@ -0,0 +1,425 @@
+/*
+ * Copyright (c) 2019, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+
+package io.siddhi.extension.store.cosmosdb;
+
+import com.microsoft.azure.documentdb.Document;
+import io.siddhi.core.exception.SiddhiAppRuntimeException;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * A write-behind buffer of a CosmosDB Event Table, which holds the writes addressed to a document id for a while
+ * before they are performed, and coalesces the successive writes to a document into a single write. Set clauses of
+ * successive updates are merged keeping the last value of each attribute, and updates of a document which is created
+ * or replaced in the buffer are applied to the buffered document. The buffered writes are flushed together, once the
+ * buffer holds the maximum number of documents and on a timer. Operations of the table which cannot be buffered, or
+ * which are performed by Cosmos DB, only flush the writes of the documents they may touch.
+ * <p>
+ * Writes to a document are flushed in the order they were buffered, since only a single flush is performed at a time.
+ * Reads of the table consult the buffer, along with the writes of the flush in progress, so that the table reads its
+ * own writes without waiting for the flush.
+ */
+final class CosmosWriteBehindBuffer {
+
+    private static final Log log = LogFactory.getLog(CosmosWriteBehindBuffer.class);
+    private final String collectionId;
+    private final int maxBufferedDocuments;
+    private final long flushIntervalMillis;
+    private final Consumer<List<PendingWrite>> writer;
+    private final Object flushLock = new Object();
+    private final AtomicLong bufferedWrites = new AtomicLong();
+    private final AtomicLong flushedWrites = new AtomicLong();
+    private LinkedHashMap<String, PendingWrite> pendingWrites = new LinkedHashMap<>();
+    private Map<String, PendingWrite> inFlightWrites = Collections.emptyMap();
+    private ScheduledExecutorService executorService;
+
+    /**
+     * Creates a buffer.
+     *
+     * @param collectionId         the id of the collection the writes are performed on.
+     * @param maxBufferedDocuments the number of documents with buffered writes, at which the buffer is flushed.
+     * @param flushIntervalSeconds the number of seconds between two flushes on the timer.
+     * @param writer               the consumer performing the flushed writes, which are addressed to distinct
+     *                             documents.
+     */
+    CosmosWriteBehindBuffer(String collectionId, int maxBufferedDocuments, double flushIntervalSeconds,
+                            Consumer<List<PendingWrite>> writer) {
+        this.collectionId = collectionId;
+        this.maxBufferedDocuments = maxBufferedDocuments;
+        this.flushIntervalMillis = Math.max((long) (flushIntervalSeconds * 1000), 1);
+        this.writer = writer;
+    }
+
+    /**
+     * Method for starting to flush the buffer on the timer.
+     */
+    void start() {
+        if (executorService != null) {
+            return;
+        }
+        executorService = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "CosmosDB-WriteBehind-" + collectionId);
+            thread.setDaemon(true);
+            return thread;
+        });
+        executorService.scheduleWithFixedDelay(() -> {
+            try {
+                flush();
+            } catch (RuntimeException e) {
+                log.error("Failed to flush the buffered writes of store: '" + collectionId + "'. ", e);
+            }
+        }, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Method for flushing the buffer and stopping the timer.
+     */
+    void stop() {
+        if (executorService != null) {
+            executorService.shutdown();
+            executorService = null;
+        }
+        flush();
+        if (log.isDebugEnabled()) {
+            log.debug("Write-behind buffer of store '" + collectionId + "' coalesced " + bufferedWrites.get() +
+                    " write(s) into " + flushedWrites.get() + " write(s). ");
+        }
+    }
+
+    /**
+     * Method for buffering the creation of a document.
+     *
+     * @param documentId the id of the document.
+     * @param document   the document to be created.
+     */
+    void create(String documentId, Document document) {
+        buffer(documentId, new PendingWrite(WriteType.CREATE, documentId, document, null, null, null));
+    }
+
+    /**
+     * Method for buffering the upsert of a document.
+     *
+     * @param documentId the id of the document.
+     * @param document   the document to be upserted.
+     */
+    void upsert(String documentId, Document document) {
+        buffer(documentId, new PendingWrite(WriteType.UPSERT, documentId, document, null, null, null));
+    }
+
+    /**
+     * Method for buffering the replacement of a document, if it exists.
+     *
+     * @param documentId the id of the document.
+     * @param document   the document to replace the stored document with.
+     */
+    void replace(String documentId, Document document) {
+        buffer(documentId, new PendingWrite(WriteType.REPLACE, documentId, document, null, null, null));
+    }
+
+    /**
+     * Method for buffering the update of some attributes of a document, if it exists.
+     *
+     * @param documentId            the id of the document.
+     * @param updateSet             the values to be set, keyed by the table attribute they are assigned to.
+     * @param compiledCondition     the compiled condition which identifies the document.
+     * @param conditionParameterMap the map which contains the runtime value(s) for the condition.
+     */
+    void update(String documentId, Map<String, Object> updateSet, CosmosCompiledCondition compiledCondition,
+                Map<String, Object> conditionParameterMap) {
+        buffer(documentId, new PendingWrite(WriteType.UPDATE, documentId, null, updateSet, compiledCondition,
+                conditionParameterMap));
+    }
+
+    /**
+     * Method for buffering the deletion of a document.
+     *
+     * @param documentId the id of the document.
+     */
+    void delete(String documentId) {
+        buffer(documentId, new PendingWrite(WriteType.DELETE, documentId, null, null, null, null));
+    }
+
+    /**
+     * Method for looking up the buffered write of a document. The write of the document in the flush in progress, if
+     * any, is merged with the buffered write, so that the write returned, or the absence of one, reflects all the
+     * writes which may not be performed yet.
+     *
+     * @param documentId the id of the document.
+     * @return the buffered write, or null if no write of the document is buffered or being flushed.
+     */
+    synchronized PendingWrite get(String documentId) {
+        PendingWrite pendingWrite = pendingWrites.get(documentId);
+        PendingWrite inFlightWrite = inFlightWrites.get(documentId);
+        if (pendingWrite == null || inFlightWrite == null) {
+            return pendingWrite == null ? inFlightWrite : pendingWrite;
+        }
+        if (pendingWrite.type == WriteType.CREATE &&
+                (inFlightWrite.type == WriteType.CREATE || inFlightWrite.type == WriteType.UPSERT)) {
+            //The buffered creation fails, since the document is created by the flush in progress.
+            return inFlightWrite;
+        }
+        PendingWrite mergedWrite = merge(inFlightWrite, pendingWrite);
+        return mergedWrite == null ? pendingWrite : mergedWrite;
+    }
+
+    /**
+     * Method for looking up the buffered writes of all the documents, each merged with the write of the document in
+     * the flush in progress, as by {@link #get(String)}.
+     *
+     * @return the buffered writes, keyed by the ids of the documents.
+     */
+    synchronized Map<String, PendingWrite> getAll() {
+        Map<String, PendingWrite> writes = new LinkedHashMap<>();
+        for (String documentId : inFlightWrites.keySet()) {
+            writes.put(documentId, get(documentId));
+        }
+        for (String documentId : pendingWrites.keySet()) {
+            writes.put(documentId, get(documentId));
+        }
+        return writes;
+    }
+
+    /**
+     * Method for performing all the buffered writes.
+     */
+    void flush() {
+        flushWrites(null);
+    }
+
+    /**
+     * Method for performing the buffered writes of the given documents, leaving the writes of other documents
+     * buffered.
+     *
+     * @param documentIds the ids of the documents.
+     */
+    void flush(Collection<String> documentIds) {
+        flushWrites(documentIds);
+    }
+
+    private void flushWrites(Collection<String> documentIds) {
+        synchronized (flushLock) {
+            Map<String, PendingWrite> writes;
+            synchronized (this) {
+                if (documentIds == null) {
+                    writes = pendingWrites;
+                    pendingWrites = new LinkedHashMap<>();
+                } else {
+                    writes = new LinkedHashMap<>();
+                    for (String documentId : documentIds) {
+                        PendingWrite write = pendingWrites.remove(documentId);
+                        if (write != null) {
+                            writes.put(documentId, write);
+                        }
+                    }
+                }
+                if (writes.isEmpty()) {
+                    return;
+                }
+                inFlightWrites = writes;
+            }
+            flushedWrites.addAndGet(writes.size());
+            try {
+                writer.accept(new ArrayList<>(writes.values()));
+            } finally {
+                synchronized (this) {
+                    inFlightWrites = Collections.emptyMap();
+                }
+            }
+        }
+    }
+
+    private void buffer(String documentId, PendingWrite write) {
+        PendingWrite mergedWrite;
+        boolean full;
+        synchronized (this) {
+            PendingWrite previousWrite = pendingWrites.get(documentId);
+            mergedWrite = previousWrite == null ? write : merge(previousWrite, write);
+            if (mergedWrite != null) {
+                pendingWrites.put(documentId, mergedWrite);
+            }
+            full = pendingWrites.size() >= maxBufferedDocuments;
+        }
+        if (mergedWrite == null) {
+            //The buffered write of the document is performed first, after which the write is buffered on its own.
+            flush();
+            buffer(documentId, write);
+            return;
+        }
+        bufferedWrites.incrementAndGet();
+        if (full) {
+            flush();
+        }
+    }
+
+    /**
+     * Method for merging a write into the previously buffered write of the same document.
+     *
+     * @param previousWrite the buffered write.
+     * @param write         the following write.
+     * @return the merged write, or null if the writes cannot be merged, in which case the buffered write should be
+     * performed first.
+     */
+    private PendingWrite merge(PendingWrite previousWrite, PendingWrite write) {
+        switch (write.type) {
+            case DELETE:
+            case UPSERT:
+                return write;
+            case CREATE:
+                if (previousWrite.type == WriteType.DELETE) {
+                    return new PendingWrite(WriteType.UPSERT, write.documentId, write.document, null, null, null);
+                }
+                if (previousWrite.type == WriteType.CREATE || previousWrite.type == WriteType.UPSERT) {
+                    throw new SiddhiAppRuntimeException("A document with id '" + write.documentId + "' already " +
+                            "exists in store: '" + collectionId + "'");
+                }
+                //Whether the document exists is only known once the buffered write is performed.
+                return null;
+            case REPLACE:
+                if (previousWrite.type == WriteType.DELETE) {
+                    return previousWrite;
+                }
+                return previousWrite.type == WriteType.CREATE || previousWrite.type == WriteType.UPSERT ?
+                        new PendingWrite(previousWrite.type, write.documentId, write.document, null, null, null) :
+                        write;
+            case UPDATE:
+                if (previousWrite.type == WriteType.DELETE) {
+                    return previousWrite;
+                }
+                if (previousWrite.type == WriteType.UPDATE) {
+                    Map<String, Object> updateSet = new LinkedHashMap<>(previousWrite.updateSet);
+                    updateSet.putAll(write.updateSet);
+                    return new PendingWrite(WriteType.UPDATE, write.documentId, null, updateSet,
+                            previousWrite.compiledCondition, previousWrite.conditionParameterMap);
+                }
+                return new PendingWrite(previousWrite.type, write.documentId,
+                        applyUpdateSet(previousWrite.document, write.updateSet), null, null, null);
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Util method which applies the values of a set clause to a copy of a document.
+     *
+     * @param document  the document.
+     * @param updateSet the values to be set, keyed by the table attribute they are assigned to.
+     * @return the updated copy of the document.
+     */
+    static Document applyUpdateSet(Document document, Map<String, Object> updateSet) {
+        Document updatedDocument = new Document(document.toJson());
+        for (Map.Entry<String, Object> entry : updateSet.entrySet()) {
+            updatedDocument.set(entry.getKey(), entry.getValue());
+        }
+        return updatedDocument;
+    }
+
+    /**
+     * The types of the buffered writes.
+     */
+    enum WriteType {
+        CREATE, UPSERT, REPLACE, UPDATE, DELETE
+    }
+
+    /**
+     * A buffered write of a document.
+     */
+    static final class PendingWrite {
+
+        private final WriteType type;
+        private final String documentId;
+        private final Document document;
+        private final Map<String, Object> updateSet;
+        private final CosmosCompiledCondition compiledCondition;
+        private final Map<String, Object> conditionParameterMap;
+
+        private PendingWrite(WriteType type, String documentId, Document document, Map<String, Object> updateSet,
+                             CosmosCompiledCondition compiledCondition, Map<String, Object> conditionParameterMap) {
+            this.type = type;
+            this.documentId = documentId;
+            this.document = document;
+            this.updateSet = updateSet;
+            this.compiledCondition = compiledCondition;
+            this.conditionParameterMap = conditionParameterMap;
+        }
+
+        WriteType getType() {
+            return type;
+        }
+
+        String getDocumentId() {
+            return documentId;
+        }
+
+        /**
+         * Returns the document to be created, upserted or replaced.
+         *
+         * @return the document, or null for updates and deletes.
+         */
+        Document getDocument() {
+            return document;
+        }
+
+        Map<String, Object> getUpdateSet() {
+            return updateSet;
+        }
+
+        CosmosCompiledCondition getCompiledCondition() {
+            return compiledCondition;
+        }
+
+        Map<String, Object> getConditionParameterMap() {
+            return conditionParameterMap;
+        }
+
+        /**
+         * Method for applying the write to the stored version of the document.
+         *
+         * @param storedDocument the stored document, or null if it does not exist.
+         * @return the document resulting from the write, or null if the document does not exist after the write.
+         */
+        Document applyTo(Document storedDocument) {
+            switch (type) {
+                case CREATE:
+                case UPSERT:
+                    return document;
+                case DELETE:
+                    return null;
+                default:
+                    //Replaces and updates only take effect if the document exists.
+                    if (storedDocument == null) {
+                        return null;
+                    }
+                    return type == WriteType.REPLACE ? document : applyUpdateSet(storedDocument, updateSet);
+            }
+        }
+    }
+}
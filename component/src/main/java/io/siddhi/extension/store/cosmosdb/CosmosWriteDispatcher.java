@@ -0,0 +1,217 @@
+/*
+ * Copyright (c) 2019, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+
+package io.siddhi.extension.store.cosmosdb;
+
+import io.siddhi.core.exception.SiddhiAppRuntimeException;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A class which performs the writes of a CosmosDB Event Table asynchronously, with a bounded number of writes in
+ * flight. Callers are blocked when the window of in-flight writes is full. Writes sharing a document key are performed
+ * in the order they were dispatched, while writes on different keys may be performed concurrently. The writes are
+ * performed either by threads dedicated to the table, or by a pool of threads shared by all the tables. The first
+ * failure of a write is rethrown to the caller of the next dispatch or flush.
+ */
+class CosmosWriteDispatcher {
+
+    private static final Log log = LogFactory.getLog(CosmosWriteDispatcher.class);
+    private static ExecutorService sharedExecutorService;
+    private static int sharedExecutorReferences;
+    private final String collectionId;
+    private final int maxInflightWrites;
+    private final Semaphore inflightWrites;
+    private final ExecutorService executorService;
+    private final boolean sharedExecutor;
+    private final Map<String, CompletableFuture<Void>> pendingWrites = new HashMap<>();
+    private final AtomicReference<SiddhiAppRuntimeException> failure = new AtomicReference<>();
+
+    /**
+     * Creates a dispatcher which performs the writes on threads dedicated to the table.
+     *
+     * @param collectionId      the id of the collection the writes are performed on.
+     * @param maxInflightWrites the maximum number of writes in flight.
+     */
+    CosmosWriteDispatcher(String collectionId, int maxInflightWrites) {
+        this(collectionId, maxInflightWrites, createExecutorService(collectionId, maxInflightWrites), false);
+    }
+
+    /**
+     * Creates a dispatcher which performs the writes on the pool of threads shared by all the tables. The pool is
+     * created by the first dispatcher using it and stopped when the last of them is shut down.
+     *
+     * @param collectionId      the id of the collection the writes are performed on.
+     * @param maxInflightWrites the maximum number of writes in flight for the table.
+     * @param sharedThreads     the number of threads of the shared pool, used if the pool is not created yet.
+     */
+    CosmosWriteDispatcher(String collectionId, int maxInflightWrites, int sharedThreads) {
+        this(collectionId, maxInflightWrites, acquireSharedExecutorService(sharedThreads), true);
+    }
+
+    private CosmosWriteDispatcher(String collectionId, int maxInflightWrites, ExecutorService executorService,
+                                  boolean sharedExecutor) {
+        this.collectionId = collectionId;
+        this.maxInflightWrites = maxInflightWrites;
+        this.inflightWrites = new Semaphore(maxInflightWrites, true);
+        this.executorService = executorService;
+        this.sharedExecutor = sharedExecutor;
+    }
+
+    /**
+     * Method for creating a pool of daemon threads performing writes.
+     *
+     * @param name    the name distinguishing the threads of the pool.
+     * @param threads the number of threads.
+     * @return the pool.
+     */
+    static ExecutorService createExecutorService(String name, int threads) {
+        AtomicInteger threadCount = new AtomicInteger();
+        return Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "CosmosDB-Writer-" + name + "-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    private static synchronized ExecutorService acquireSharedExecutorService(int threads) {
+        if (sharedExecutorService == null) {
+            sharedExecutorService = createExecutorService("Shared", threads);
+        }
+        sharedExecutorReferences++;
+        return sharedExecutorService;
+    }
+
+    private static synchronized void releaseSharedExecutorService() {
+        if (--sharedExecutorReferences == 0) {
+            sharedExecutorService.shutdown();
+            sharedExecutorService = null;
+        }
+    }
+
+    /**
+     * Method for dispatching a write. The write is performed after the previously dispatched writes on any of the
+     * given document keys. A failure of the write is rethrown from the next dispatch or flush, since the caller has
+     * already moved on.
+     *
+     * @param documentKeys the ids of the documents the write affects, which may be empty if the ids are unknown to
+     *                     the client, e.g. ids generated by Cosmos DB.
+     * @param operation    the name of the write operation, for logging purposes.
+     * @param write        the write to be performed.
+     */
+    void dispatch(Collection<String> documentKeys, String operation, Runnable write) {
+        throwFailure();
+        acquire(1);
+        CompletableFuture<Void> dispatchedWrite;
+        synchronized (pendingWrites) {
+            List<CompletableFuture<Void>> precedingWrites = new ArrayList<>(documentKeys.size());
+            for (String documentKey : documentKeys) {
+                CompletableFuture<Void> precedingWrite = pendingWrites.get(documentKey);
+                if (precedingWrite != null) {
+                    precedingWrites.add(precedingWrite);
+                }
+            }
+            dispatchedWrite = CompletableFuture.allOf(precedingWrites.toArray(new CompletableFuture<?>[0]))
+                    .thenRunAsync(() -> {
+                        try {
+                            write.run();
+                        } catch (RuntimeException e) {
+                            log.error("Failed to " + operation + " documents asynchronously in store: '" +
+                                    collectionId + "'. ", e);
+                            failure.compareAndSet(null, new SiddhiAppRuntimeException("Failed to " + operation +
+                                    " documents asynchronously in store: '" + collectionId + "'. ", e));
+                        }
+                    }, executorService);
+            for (String documentKey : documentKeys) {
+                pendingWrites.put(documentKey, dispatchedWrite);
+            }
+        }
+        CompletableFuture<Void> completedWrite = dispatchedWrite;
+        completedWrite.whenComplete((result, throwable) -> {
+            synchronized (pendingWrites) {
+                for (String documentKey : documentKeys) {
+                    pendingWrites.remove(documentKey, completedWrite);
+                }
+            }
+            inflightWrites.release();
+        });
+    }
+
+    /**
+     * Method for waiting until all the dispatched writes are performed. This is used before operations which cannot
+     * be ordered by a document key, such as reads and writes based on queries.
+     *
+     * @throws SiddhiAppRuntimeException if a dispatched write failed since the last dispatch or flush.
+     */
+    void flush() {
+        awaitWrites();
+        throwFailure();
+    }
+
+    private void awaitWrites() {
+        //Holding all the permits means that no write is in flight.
+        acquire(maxInflightWrites);
+        inflightWrites.release(maxInflightWrites);
+    }
+
+    private void throwFailure() {
+        SiddhiAppRuntimeException dispatchedWriteFailure = failure.getAndSet(null);
+        if (dispatchedWriteFailure != null) {
+            throw dispatchedWriteFailure;
+        }
+    }
+
+    /**
+     * Method for performing the dispatched writes and releasing the threads of the dispatcher.
+     */
+    void shutdown() {
+        try {
+            //Failures of the writes are already logged, and there is no later operation to report them to.
+            awaitWrites();
+        } finally {
+            if (sharedExecutor) {
+                releaseSharedExecutorService();
+            } else {
+                executorService.shutdown();
+            }
+        }
+    }
+
+    private void acquire(int permits) {
+        try {
+            inflightWrites.acquire(permits);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SiddhiAppRuntimeException("Interrupted while waiting for in-flight writes of store: '" +
+                    collectionId + "'. ", e);
+        }
+    }
+}
@@ -34,7 +34,7 @@ public class Constant {
         this.type = type;
     }
 
-    Object getValue() {
+    public Object getValue() {
         return value;
     }
 
@@ -35,6 +35,11 @@ public class CosmosTableConstants {
     public static final String ANNOTATION_ELEMENT_RU_PER_MINUTE =  "is.disable.ru.per.minute.usage";
     public static final String ANNOTATION_ELEMENT_ENABLE_RU_THROUGHPUT = "offer.enable.ru.per.minute.throughput";
     public static final String ANNOTATION_ELEMENT_PARTITION_KEY = "partition.key";
+    public static final String ANNOTATION_ELEMENT_PARTITION_KEY_ATTRIBUTE = "partition.key.attribute";
+    public static final String ANNOTATION_ELEMENT_MAX_PARALLEL_PARTITION_WRITES = "max.parallel.partition.writes";
+    public static final int DEFAULT_MAX_PARALLEL_PARTITION_WRITES = 4;
+    public static final int PARTITION_OPTIONS_CACHE_SIZE = 1024;
+    public static final String PARTITION_KEY_PATH_PREFIX = "/";
     public static final String ANNOTATION_ELEMENT_OFFER_THROUGHPUT = "offer.throughput";
     public static final String ANNOTATION_ELEMENT_OFFER_TYPE = "offer.type";
     public static final String ANNOTATION_ELEMENT_RESOURCE_TOKEN_EXPIRY = "resource.token.expiry.seconds";
@@ -46,6 +51,61 @@ public class CosmosTableConstants {
     public static final String ANNOTATION_ELEMENT_POST_TRIGGER_INCLUDE = "post.trigger.include";
     public static final String ANNOTATION_ELEMENT_ID_GENERATION = "disable.automatic.id.generation";
 
+    //Configurable parameters associated with bulk writes
+    public static final String ANNOTATION_ELEMENT_ENABLE_BULK_INSERT = "is.enable.bulk.insert";
+    public static final String ANNOTATION_ELEMENT_BULK_INSERT_BATCH_SIZE = "bulk.insert.batch.size";
+    public static final int DEFAULT_BULK_INSERT_BATCH_SIZE = 100;
+    public static final String ANNOTATION_ELEMENT_ENABLE_PARTIAL_UPDATE = "is.enable.partial.update";
+    public static final String ANNOTATION_ELEMENT_ENABLE_BULK_DELETE = "is.enable.bulk.delete";
+    public static final String ANNOTATION_ELEMENT_MAX_INFLIGHT_WRITES = "max.inflight.writes";
+    public static final int DEFAULT_MAX_INFLIGHT_WRITES = 1;
+    public static final String ANNOTATION_ELEMENT_EXECUTION_MODE = "execution.mode";
+    public static final String EXECUTION_MODE_DEDICATED = "dedicated";
+    public static final String EXECUTION_MODE_SHARED = "shared";
+    public static final String ANNOTATION_ELEMENT_REQUEST_UNIT_BUDGET = "request.unit.budget";
+
+    //Configurable parameters associated with the near cache of reads
+    public static final String ANNOTATION_ELEMENT_CACHE_MAX_SIZE = "cache.max.size";
+    public static final String ANNOTATION_ELEMENT_CACHE_EXPIRY_SECONDS = "cache.expiry.seconds";
+    public static final double DEFAULT_CACHE_EXPIRY_SECONDS = 60;
+    public static final String ANNOTATION_ELEMENT_CACHE_EVICTION_POLICY = "cache.eviction.policy";
+    public static final String CACHE_EVICTION_POLICY_LRU = "LRU";
+    public static final String CACHE_EVICTION_POLICY_LFU = "LFU";
+
+    //Configurable parameters associated with the change feed replica
+    public static final String ANNOTATION_ELEMENT_ENABLE_CHANGE_FEED_REPLICA = "is.enable.change.feed.replica";
+    public static final String ANNOTATION_ELEMENT_REPLICA_POLL_INTERVAL_SECONDS = "replica.poll.interval.seconds";
+    public static final double DEFAULT_REPLICA_POLL_INTERVAL_SECONDS = 1;
+    public static final String ANNOTATION_ELEMENT_REPLICA_RELOAD_INTERVAL_SECONDS = "replica.reload.interval.seconds";
+    public static final String DOCUMENT_RESOURCE_ID = "_rid";
+
+    //Configurable parameters associated with the write-behind buffer
+    public static final String ANNOTATION_ELEMENT_ENABLE_WRITE_BEHIND = "is.enable.write.behind";
+    public static final String ANNOTATION_ELEMENT_WRITE_BEHIND_FLUSH_INTERVAL_SECONDS =
+            "write.behind.flush.interval.seconds";
+    public static final double DEFAULT_WRITE_BEHIND_FLUSH_INTERVAL_SECONDS = 1;
+    public static final String ANNOTATION_ELEMENT_WRITE_BEHIND_MAX_BUFFERED_DOCUMENTS =
+            "write.behind.max.buffered.documents";
+    public static final int DEFAULT_WRITE_BEHIND_MAX_BUFFERED_DOCUMENTS = 1000;
+
+    //Configurable parameters associated with the write-ahead log
+    public static final String ANNOTATION_ELEMENT_WRITE_AHEAD_LOG_DIRECTORY = "write.ahead.log.directory";
+    public static final String ANNOTATION_ELEMENT_WRITE_AHEAD_LOG_SEGMENT_SIZE = "write.ahead.log.segment.size";
+    public static final int DEFAULT_WRITE_AHEAD_LOG_SEGMENT_SIZE = 16 * 1024 * 1024;
+    public static final String ANNOTATION_ELEMENT_WRITE_AHEAD_LOG_SYNC = "write.ahead.log.sync";
+    public static final String ANNOTATION_ELEMENT_WRITE_AHEAD_LOG_RETRY_INTERVAL_SECONDS =
+            "write.ahead.log.retry.interval.seconds";
+    public static final double DEFAULT_WRITE_AHEAD_LOG_RETRY_INTERVAL_SECONDS = 5;
+    public static final String ANNOTATION_ELEMENT_WRITE_AHEAD_LOG_READ_TIMEOUT_SECONDS =
+            "write.ahead.log.read.timeout.seconds";
+    public static final double DEFAULT_WRITE_AHEAD_LOG_READ_TIMEOUT_SECONDS = 10;
+    public static final String WRITE_AHEAD_LOG_ENTRY_TYPE = "type";
+    public static final String WRITE_AHEAD_LOG_ENTRY_DOCUMENT_ID = "documentId";
+    public static final String WRITE_AHEAD_LOG_ENTRY_DOCUMENT = "document";
+    public static final String WRITE_AHEAD_LOG_ENTRY_UPDATE_SET = "updateSet";
+    public static final String WRITE_AHEAD_LOG_ENTRY_CONDITION = "condition";
+    public static final String WRITE_AHEAD_LOG_ENTRY_PARAMETERS = "parameters";
+
     //Configurable parameters associated with feed options in queries
     public static final String ANNOTATION_ELEMENT_PARTITION_KEY_RANGE_ID = "partition.key.range.id";
     public static final String ANNOTATION_ELEMENT_ENABLE_SCAN_IN_QUERY = "is.enable.scan.in.query";
@@ -54,6 +114,7 @@ public class CosmosTableConstants {
     public static final String ANNOTATION_ELEMENT_MAX_DEGREE_OF_PARALLELISM = "max.degree.of.parallelism";
     public static final String ANNOTATION_ELEMENT_MAX_BUFFERED_ITEM_COUNT = "max.buffered.item.count";
     public static final String ANNOTATION_ELEMENT_RESPONSE_TOKEN_LIMIT = "response.continuation.token.limit.in.kb";
+    public static final String ANNOTATION_ELEMENT_PAGE_SIZE = "page.size";
 
     //Miscellaneous SQL constants
     public static final String SQL_MATH_ADD = "+";
@@ -83,7 +144,192 @@ public class CosmosTableConstants {
     //SQL queries
     public static final String SQL_SELECT_FROM_ROOT = "SELECT * FROM root r WHERE r.id=?";
     public static final String SQL_SELECT = "SELECT * FROM ? WHERE ?";
+    public static final String SQL_SELECT_ATTRIBUTES = "SELECT ? FROM ? WHERE ?";
+    public static final String SQL_ATTRIBUTE_SEPARATOR = ", ";
+    public static final String SQL_SELECT_TOP_ONE_ID = "SELECT TOP 1 ?.id FROM ? WHERE ?";
+    public static final String SQL_BUFFERED_DOCUMENT_IDS_PARAMETER = "@b";
+    public static final String SQL_SELECT_BUFFERED = "SELECT * FROM ? WHERE ARRAY_CONTAINS(" +
+            SQL_BUFFERED_DOCUMENT_IDS_PARAMETER + ", ?.id)";
+    public static final String SQL_SELECT_MATCHING_OR_BUFFERED = SQL_SELECT_BUFFERED + " OR (?)";
     public static final String SQL_QUESTION_MARK = "\\?";
+    public static final String SQL_PARAMETER_PREFIX = "@p";
+    public static final String SQL_SELECTION_PARAMETER_PREFIX = "@s";
+    public static final String SQL_SELECTION_ALIAS_PREFIX = "_a";
+    public static final String SQL_SELECT_PROJECTION = "SELECT ? FROM ? WHERE ??";
+    public static final String SQL_TOP = "TOP ? ";
+    public static final String SQL_GROUP_BY = " GROUP BY ";
+    public static final String SQL_ORDER_BY = " ORDER BY ";
+    public static final String SQL_ASCENDING = " ASC";
+    public static final String SQL_DESCENDING = " DESC";
+    public static final String SQL_OFFSET_LIMIT = " OFFSET ? LIMIT ?";
+    public static final String SQL_PARAMETER_SEPARATOR = ",";
+
+    //Document addressing
+    public static final String DOCUMENT_ID = "id";
+    public static final String DOCUMENT_LINK_PREFIX = "dbs/%s/colls/%s/docs/";
+    public static final String DOCUMENT_ID_INVALID_CHARACTERS = "/\\?#";
+    public static final String DOCUMENT_ID_SEPARATOR = ":";
+    public static final String DOCUMENT_ID_ESCAPED_CHARACTERS = "%/\\?#:";
+    public static final String DOCUMENT_ID_ESCAPE_FORMAT = "%%%02X";
+    public static final int HTTP_STATUS_NOT_FOUND = 404;
+    public static final int HTTP_STATUS_CONFLICT = 409;
+    public static final int HTTP_STATUS_GONE = 410;
+    public static final int HTTP_STATUS_TOO_MANY_REQUESTS = 429;
+    public static final int HTTP_STATUS_REQUEST_TIMEOUT = 408;
+    public static final int HTTP_STATUS_RETRY_WITH = 449;
+    public static final int HTTP_STATUS_INTERNAL_SERVER_ERROR = 500;
+    public static final String HEADER_REQUEST_CHARGE = "x-ms-request-charge";
+    public static final String HEADER_ETAG = "etag";
+
+    //Stored procedures
+    public static final String BULK_IMPORT_PROCEDURE_ID = "siddhiBulkImport";
+    public static final String BULK_IMPORT_DOCUMENTS = "documents";
+    public static final String BULK_IMPORT_DISABLE_ID_GENERATION = "disableAutomaticIdGeneration";
+    public static final String BULK_IMPORT_UPSERT = "upsert";
+    public static final String BULK_IMPORT_PROCESSED = "processed";
+    public static final String BULK_IMPORT_FAILURES = "failures";
+    public static final String BULK_IMPORT_FAILURE_INDEX = "index";
+    public static final String BULK_IMPORT_FAILURE_MESSAGE = "message";
+    public static final String BULK_IMPORT_PROCEDURE_BODY = "" +
+            "function siddhiBulkImport(batch) {\n" +
+            "    var collection = getContext().getCollection();\n" +
+            "    var collectionLink = collection.getSelfLink();\n" +
+            "    var response = getContext().getResponse();\n" +
+            "    var documents = batch.documents;\n" +
+            "    var options = {disableAutomaticIdGeneration: batch.disableAutomaticIdGeneration};\n" +
+            "    var result = {processed: 0, failures: []};\n" +
+            "    if (!documents || documents.length === 0) {\n" +
+            "        response.setBody(result);\n" +
+            "        return;\n" +
+            "    }\n" +
+            "    tryWrite(0);\n" +
+            "    function tryWrite(index) {\n" +
+            "        if (index >= documents.length) {\n" +
+            "            response.setBody(result);\n" +
+            "            return;\n" +
+            "        }\n" +
+            "        var callback = function (error) {\n" +
+            "            if (error) {\n" +
+            "                result.failures.push({index: index, message: error.message});\n" +
+            "            }\n" +
+            "            result.processed++;\n" +
+            "            tryWrite(index + 1);\n" +
+            "        };\n" +
+            "        var accepted = batch.upsert ?\n" +
+            "            collection.upsertDocument(collectionLink, documents[index], options, callback) :\n" +
+            "            collection.createDocument(collectionLink, documents[index], options, callback);\n" +
+            "        if (!accepted) {\n" +
+            "            response.setBody(result);\n" +
+            "        }\n" +
+            "    }\n" +
+            "}";
+
+    public static final String PROCEDURE_QUERY = "query";
+    public static final String PROCEDURE_PAGE_SIZE = "pageSize";
+    public static final String PROCEDURE_PROCESSED = "processed";
+    public static final String PROCEDURE_CONTINUATION = "continuation";
+    public static final int DEFAULT_PROCEDURE_PAGE_SIZE = 100;
+    public static final String PATCH_UPDATE_PROCEDURE_ID = "siddhiPatchUpdate";
+    public static final String PATCH_UPDATE_SET = "set";
+    public static final String PATCH_UPDATE_PROCEDURE_BODY = "" +
+            "function siddhiPatchUpdate(request) {\n" +
+            "    var collection = getContext().getCollection();\n" +
+            "    var response = getContext().getResponse();\n" +
+            "    var result = {processed: 0, continuation: null};\n" +
+            "    var pageToken = request.continuation ? request.continuation.token : undefined;\n" +
+            "    var skip = request.continuation ? request.continuation.skip : 0;\n" +
+            "    queryPage();\n" +
+            "    function queryPage() {\n" +
+            "        var accepted = collection.queryDocuments(collection.getSelfLink(), request.query,\n" +
+            "            {continuation: pageToken, pageSize: request.pageSize},\n" +
+            "            function (error, documents, options) {\n" +
+            "                if (error) {\n" +
+            "                    throw error;\n" +
+            "                }\n" +
+            "                tryUpdate(documents, skip, options.continuation);\n" +
+            "            });\n" +
+            "        if (!accepted) {\n" +
+            "            result.continuation = {token: pageToken, skip: skip};\n" +
+            "            response.setBody(result);\n" +
+            "        }\n" +
+            "    }\n" +
+            "    function tryUpdate(documents, index, nextPageToken) {\n" +
+            "        if (index >= documents.length) {\n" +
+            "            if (nextPageToken) {\n" +
+            "                pageToken = nextPageToken;\n" +
+            "                skip = 0;\n" +
+            "                queryPage();\n" +
+            "            } else {\n" +
+            "                response.setBody(result);\n" +
+            "            }\n" +
+            "            return;\n" +
+            "        }\n" +
+            "        var document = documents[index];\n" +
+            "        for (var field in request.set) {\n" +
+            "            if (request.set.hasOwnProperty(field)) {\n" +
+            "                document[field] = request.set[field];\n" +
+            "            }\n" +
+            "        }\n" +
+            "        var accepted = collection.replaceDocument(document._self, document, function (error) {\n" +
+            "            if (error) {\n" +
+            "                throw error;\n" +
+            "            }\n" +
+            "            result.processed++;\n" +
+            "            tryUpdate(documents, index + 1, nextPageToken);\n" +
+            "        });\n" +
+            "        if (!accepted) {\n" +
+            "            result.continuation = {token: pageToken, skip: index};\n" +
+            "            response.setBody(result);\n" +
+            "        }\n" +
+            "    }\n" +
+            "}";
+
+    public static final String BULK_DELETE_PROCEDURE_ID = "siddhiBulkDelete";
+    public static final String BULK_DELETE_PROCEDURE_BODY = "" +
+            "function siddhiBulkDelete(request) {\n" +
+            "    var collection = getContext().getCollection();\n" +
+            "    var response = getContext().getResponse();\n" +
+            "    var result = {processed: 0, continuation: null};\n" +
+            "    queryPage(undefined);\n" +
+            "    function queryPage(pageToken) {\n" +
+            "        var accepted = collection.queryDocuments(collection.getSelfLink(), request.query,\n" +
+            "            {continuation: pageToken, pageSize: request.pageSize},\n" +
+            "            function (error, documents, options) {\n" +
+            "                if (error) {\n" +
+            "                    throw error;\n" +
+            "                }\n" +
+            "                if (documents.length > 0) {\n" +
+            "                    tryDelete(documents, 0);\n" +
+            "                } else if (options.continuation) {\n" +
+            "                    queryPage(options.continuation);\n" +
+            "                } else {\n" +
+            "                    response.setBody(result);\n" +
+            "                }\n" +
+            "            });\n" +
+            "        if (!accepted) {\n" +
+            "            result.continuation = true;\n" +
+            "            response.setBody(result);\n" +
+            "        }\n" +
+            "    }\n" +
+            "    function tryDelete(documents, index) {\n" +
+            "        if (index >= documents.length) {\n" +
+            "            //Deleted documents no longer match the query, hence it is started over.\n" +
+            "            queryPage(undefined);\n" +
+            "            return;\n" +
+            "        }\n" +
+            "        var accepted = collection.deleteDocument(documents[index]._self, {}, function (error) {\n" +
+            "            if (error && error.number !== 404) {\n" +
+            "                throw error;\n" +
+            "            }\n" +
+            "            result.processed++;\n" +
+            "            tryDelete(documents, index + 1);\n" +
+            "        });\n" +
+            "        if (!accepted) {\n" +
+            "            result.continuation = true;\n" +
+            "            response.setBody(result);\n" +
+            "        }\n" +
+            "    }\n" +
+            "}";
 
     //Configurable System Parameters associated with Connection Policy
     public static final String CONNECTION_MODE = "connectionMode";
@@ -102,6 +348,9 @@ public class CosmosTableConstants {
     public static final String REQUEST_TIMEOUT = "requestTimeout";
 
     public static final String CONSISTENCY_LEVEL = "consistencyLevel";
+    public static final String SHARED_WRITER_THREADS = "sharedWriterThreads";
+    public static final String DEFAULT_SHARED_WRITER_THREADS = "32";
+    public static final String ACCOUNT_REQUEST_UNITS_PER_SECOND = "accountRequestUnitsPerSecond";
 
     private CosmosTableConstants() {
     }
@@ -23,11 +23,16 @@ import com.microsoft.azure.documentdb.AccessCondition;
 import com.microsoft.azure.documentdb.AccessConditionType;
 import com.microsoft.azure.documentdb.ConnectionMode;
 import com.microsoft.azure.documentdb.ConnectionPolicy;
+import com.microsoft.azure.documentdb.Document;
 import com.microsoft.azure.documentdb.FeedOptions;
 import com.microsoft.azure.documentdb.IndexingDirective;
 import com.microsoft.azure.documentdb.MediaReadMode;
 import com.microsoft.azure.documentdb.PartitionKey;
 import com.microsoft.azure.documentdb.RequestOptions;
+import com.microsoft.azure.documentdb.SqlParameter;
+import com.microsoft.azure.documentdb.SqlParameterCollection;
+import com.microsoft.azure.documentdb.SqlQuerySpec;
+import io.siddhi.core.util.collection.operator.CompiledExpression;
 import io.siddhi.core.util.config.ConfigReader;
 import io.siddhi.extension.store.cosmosdb.CosmosCompiledCondition;
 import io.siddhi.query.api.annotation.Annotation;
@@ -36,11 +41,10 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
 import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.SortedMap;
-
-import static io.siddhi.query.api.definition.Attribute.Type;
-import static io.siddhi.query.api.definition.Attribute.Type.STRING;
+import java.util.regex.Matcher;
 
 /**
  * Class which holds the utility methods which are used by various units in the CosmosDB Event Table implementation.
@@ -52,6 +56,25 @@ public class CosmosTableUtils {
         //Prevent Initialization.
     }
 
+    /**
+     * Utility method for reading the request charge of a response from its headers.
+     *
+     * @param responseHeaders the headers of the response, which may be null.
+     * @return the request units charged, or 0 if the charge is not available.
+     */
+    public static double getRequestCharge(Map<String, String> responseHeaders) {
+        String requestCharge = responseHeaders == null ? null :
+                responseHeaders.get(CosmosTableConstants.HEADER_REQUEST_CHARGE);
+        if (isEmpty(requestCharge)) {
+            return 0;
+        }
+        try {
+            return Double.parseDouble(requestCharge);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
     /**
      * Utility method which can be used to check if a given string instance is null or empty.
      *
@@ -64,46 +87,231 @@ public class CosmosTableUtils {
 
     /**
      * Util method used throughout the CosmosDB Event Table implementation which accepts a compiled condition (from
-     * compile-time) and uses values from the runtime to populate the given condition.
+     * compile-time) and uses values from the runtime to bind the named parameters of the given condition.
      *
      * @param compiledCondition     the compiled condition which was built during compile time and now is being provided
      *                              by the Siddhi runtime.
      * @param conditionParameterMap the map which contains the runtime value(s) for the condition.
+     * @return the parameters to be sent along with the query of the compiled condition.
      */
-    public static String resolveCondition(CosmosCompiledCondition compiledCondition,
-                                          Map<String, Object> conditionParameterMap) {
-
-        String condition = compiledCondition.getCompiledQuery();
+    public static SqlParameterCollection resolveParameters(CosmosCompiledCondition compiledCondition,
+                                                           Map<String, Object> conditionParameterMap) {
+        SqlParameterCollection sqlParameterCollection = resolveParameters(compiledCondition.getParameterNames(),
+                compiledCondition.getParameterBindings(), conditionParameterMap);
         if (log.isDebugEnabled()) {
-            log.debug("compiled condition for collection : " + condition);
+            log.debug("Resolved parameters for condition '" + compiledCondition.getCompiledQuery() + "' : " +
+                    new SqlQuerySpec(compiledCondition.getCompiledQuery(), sqlParameterCollection).toJson());
         }
-        SortedMap<Integer, Object> parameters = compiledCondition.getParameters();
-        for (Map.Entry<Integer, Object> entry : parameters.entrySet()) {
-            if (entry.getValue() instanceof Constant) {
-                Constant value = (Constant) entry.getValue();
-                if (value.getType() == STRING) {
-                    condition = condition.replaceFirst(CosmosTableConstants.SQL_QUESTION_MARK,
-                            "'" + value.getValue().toString() + "'");
+        return sqlParameterCollection;
+    }
+
+    /**
+     * Util method which binds named parameters using values from the runtime.
+     *
+     * @param parameterNames    the names of the parameters.
+     * @param parameterBindings the bindings of the parameters, each being either a {@link SqlParameter} resolved at
+     *                          compile time or the stream variable {@link Attribute} whose value should be bound.
+     * @param parameterMap      the map which contains the runtime value(s) of the stream variables.
+     * @return the bound parameters.
+     */
+    public static SqlParameterCollection resolveParameters(List<String> parameterNames,
+                                                           List<Object> parameterBindings,
+                                                           Map<String, Object> parameterMap) {
+        SqlParameter[] sqlParameters = new SqlParameter[parameterBindings.size()];
+        for (int i = 0; i < sqlParameters.length; i++) {
+            Object parameterBinding = parameterBindings.get(i);
+            if (parameterBinding instanceof SqlParameter) {
+                sqlParameters[i] = (SqlParameter) parameterBinding;
+            } else {
+                sqlParameters[i] = new SqlParameter(parameterNames.get(i),
+                        parameterMap.get(((Attribute) parameterBinding).getName()));
+            }
+        }
+        return new SqlParameterCollection(sqlParameters);
+    }
+
+    /**
+     * Util method which converts a value read from a document to the type of the attribute it is assigned to, since
+     * JSON numbers are read back as the narrowest fitting type, e.g. the sum of 'long' values as an Integer.
+     *
+     * @param value the value read from a document.
+     * @param type  the type of the attribute.
+     * @return the converted value.
+     */
+    public static Object convertValue(Object value, Attribute.Type type) {
+        if (!(value instanceof Number)) {
+            return value;
+        }
+        Number number = (Number) value;
+        switch (type) {
+            case INT:
+                return number.intValue();
+            case LONG:
+                return number.longValue();
+            case FLOAT:
+                return number.floatValue();
+            case DOUBLE:
+                return number.doubleValue();
+            default:
+                return value;
+        }
+    }
+
+    /**
+     * Util method which resolves the value of an operand of a compiled condition, using values from the runtime.
+     *
+     * @param operand               the {@link Constant} or the stream variable {@link Attribute} to be resolved.
+     * @param conditionParameterMap the map which contains the runtime value(s) for the condition.
+     * @return the value of the operand.
+     */
+    public static Object resolveOperand(Object operand, Map<String, Object> conditionParameterMap) {
+        if (operand instanceof Constant) {
+            return ((Constant) operand).getValue();
+        }
+        return conditionParameterMap.get(((Attribute) operand).getName());
+    }
+
+    /**
+     * Util method which resolves the values of the set clause of an update, using values from the runtime.
+     *
+     * @param updateSetExpressions  the compiled set expressions, keyed by the table attribute they are assigned to.
+     * @param updateSetParameterMap the map which contains the runtime value(s) for the set clause.
+     * @return the values to be set, keyed by the table attribute they are assigned to.
+     */
+    public static Map<String, Object> resolveUpdateSet(Map<String, CompiledExpression> updateSetExpressions,
+                                                       Map<String, Object> updateSetParameterMap) {
+        Map<String, Object> updateSet = new LinkedHashMap<>();
+        for (Map.Entry<String, CompiledExpression> entry : updateSetExpressions.entrySet()) {
+            CosmosCompiledCondition setExpression = (CosmosCompiledCondition) entry.getValue();
+            updateSet.put(entry.getKey(), resolveOperand(setExpression.getParameters().get(
+                    setExpression.getParameters().firstKey()), updateSetParameterMap));
+        }
+        return updateSet;
+    }
+
+    /**
+     * Util method which derives a document id from the values of the primary key attributes of a record. The values
+     * are joined with ':', after percent-escaping '%', ':' and the characters which are not allowed in document ids
+     * ('/', '\\', '?' and '#'), so that distinct keys always map to distinct ids.
+     *
+     * @param keyValues the values of the primary key attributes, in the order of the primary key.
+     * @return the document id, or null if any of the values is null.
+     */
+    public static String encodeDocumentId(Object[] keyValues) {
+        StringBuilder documentId = new StringBuilder();
+        for (int i = 0; i < keyValues.length; i++) {
+            if (keyValues[i] == null) {
+                return null;
+            }
+            if (i > 0) {
+                documentId.append(CosmosTableConstants.DOCUMENT_ID_SEPARATOR);
+            }
+            for (char character : String.valueOf(keyValues[i]).toCharArray()) {
+                if (CosmosTableConstants.DOCUMENT_ID_ESCAPED_CHARACTERS.indexOf(character) >= 0) {
+                    documentId.append(String.format(CosmosTableConstants.DOCUMENT_ID_ESCAPE_FORMAT, (int) character));
                 } else {
-                    condition = condition.replaceFirst(CosmosTableConstants.SQL_QUESTION_MARK,
-                            value.getValue().toString());
+                    documentId.append(character);
                 }
-            } else {
-                Attribute replacingAttribute = (Attribute) entry.getValue();
-                Type type = replacingAttribute.getType();
-                if (type == STRING) {
-                    condition = condition.replaceFirst(CosmosTableConstants.SQL_QUESTION_MARK,
-                            "'" + conditionParameterMap.get(replacingAttribute.getName()).toString() + "'");
+            }
+        }
+        return documentId.toString();
+    }
+
+    /**
+     * Util method which splits a document id derived by {@link #encodeDocumentId(Object[])} back into the string
+     * values of the primary key attributes.
+     *
+     * @param documentId the document id.
+     * @return the string values of the primary key attributes, in the order of the primary key.
+     */
+    public static String[] decodeDocumentId(String documentId) {
+        String[] keyValues = documentId.split(CosmosTableConstants.DOCUMENT_ID_SEPARATOR, -1);
+        for (int i = 0; i < keyValues.length; i++) {
+            if (keyValues[i].indexOf('%') < 0) {
+                continue;
+            }
+            StringBuilder keyValue = new StringBuilder();
+            for (int position = 0; position < keyValues[i].length(); position++) {
+                char character = keyValues[i].charAt(position);
+                if (character == '%') {
+                    keyValue.append((char) Integer.parseInt(keyValues[i].substring(position + 1, position + 3), 16));
+                    position += 2;
                 } else {
-                    condition = condition.replaceFirst(CosmosTableConstants.SQL_QUESTION_MARK,
-                            String.valueOf(conditionParameterMap.get(replacingAttribute.getName())));
+                    keyValue.append(character);
                 }
             }
+            keyValues[i] = keyValue.toString();
         }
-        if (log.isDebugEnabled()) {
-            log.debug("Resolved condition for collection : " + condition);
+        return keyValues;
+    }
+
+    /**
+     * Util method which converts the string value of an attribute to the value it holds in a document, e.g. to
+     * address the logical partition of a document by its partition key. Floating point values are held as doubles,
+     * since JSON does not distinguish them.
+     *
+     * @param value the string value of the attribute.
+     * @param type  the type of the attribute.
+     * @return the value held in a document.
+     */
+    public static Object parseValue(String value, Attribute.Type type) {
+        switch (type) {
+            case INT:
+                return Integer.valueOf(value);
+            case LONG:
+                return Long.valueOf(value);
+            case FLOAT:
+            case DOUBLE:
+                return Double.valueOf(value);
+            case BOOL:
+                return Boolean.valueOf(value);
+            default:
+                return value;
+        }
+    }
+
+    /**
+     * Util method which converts a record to a document, according to the given attribute order.
+     *
+     * @param attributeNames the names of the attributes, in the order of the values of the record.
+     * @param record         the record to be converted.
+     * @return the document holding the values of the record.
+     */
+    public static Document toDocument(List<String> attributeNames, Object[] record) {
+        Document document = new Document();
+        for (int i = 0; i < attributeNames.size(); i++) {
+            document.set(attributeNames.get(i), record[i]);
+        }
+        return document;
+    }
+
+    /**
+     * Builds the request options used when reading documents. Only the options which are meaningful for a read are
+     * carried over from the document request options.
+     *
+     * @param requestOptions the request options configured for document requests.
+     * @return request options for document reads.
+     */
+    public static RequestOptions getReadOptions(RequestOptions requestOptions) {
+        RequestOptions readOptions = new RequestOptions();
+        readOptions.setPartitionKey(requestOptions.getPartitionKey());
+        readOptions.setSessionToken(requestOptions.getSessionToken());
+        return readOptions;
+    }
+
+    /**
+     * Util method which fills the placeholders of a query template in order, with the given values.
+     *
+     * @param template the query template containing placeholders.
+     * @param values   the values to be placed, in the order of the placeholders.
+     * @return the populated query.
+     */
+    public static String buildQuery(String template, String... values) {
+        String query = template;
+        for (String value : values) {
+            query = query.replaceFirst(CosmosTableConstants.SQL_QUESTION_MARK, Matcher.quoteReplacement(value));
         }
-        return condition;
+        return query;
     }
 
     public static ConnectionPolicy generateConnectionPolicy(ConfigReader configReader) {
@@ -207,6 +415,21 @@ public class CosmosTableUtils {
         return requestOptions;
     }
 
+    /**
+     * Builds the request options used when executing stored procedures. Only the options which are meaningful for a
+     * stored procedure execution are carried over from the document request options.
+     *
+     * @param requestOptions the request options configured for document requests.
+     * @return request options for stored procedure executions.
+     */
+    public static RequestOptions getStoredProcedureOptions(RequestOptions requestOptions) {
+        RequestOptions storedProcedureOptions = new RequestOptions();
+        storedProcedureOptions.setPartitionKey(requestOptions.getPartitionKey());
+        storedProcedureOptions.setSessionToken(requestOptions.getSessionToken());
+        storedProcedureOptions.setScriptLoggingEnabled(requestOptions.isScriptLoggingEnabled());
+        return storedProcedureOptions;
+    }
+
     public static FeedOptions getFeedOptions(Annotation storeAnnotation) {
         FeedOptions feedOptions = new FeedOptions();
 
@@ -237,6 +460,9 @@ public class CosmosTableUtils {
         feedOptions.setResponseContinuationTokenLimitInKb(isEmpty(storeAnnotation.getElement(
                 CosmosTableConstants.ANNOTATION_ELEMENT_RESPONSE_TOKEN_LIMIT)) ? 0 : Integer.parseInt(
                         storeAnnotation.getElement(CosmosTableConstants.ANNOTATION_ELEMENT_RESPONSE_TOKEN_LIMIT)));
+        feedOptions.setPageSize(isEmpty(storeAnnotation.getElement(
+                CosmosTableConstants.ANNOTATION_ELEMENT_PAGE_SIZE)) ? null : Integer.valueOf(
+                        storeAnnotation.getElement(CosmosTableConstants.ANNOTATION_ELEMENT_PAGE_SIZE)));
 
         return feedOptions;
     }
@@ -28,6 +28,7 @@ import io.siddhi.core.util.SiddhiTestHelper;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.testng.Assert;
+import org.testng.SkipException;
 import org.testng.annotations.AfterClass;
 import org.testng.annotations.BeforeClass;
 import org.testng.annotations.BeforeMethod;
@@ -257,4 +258,134 @@ public class ContainsCosmosTableTest {
 
         Assert.assertEquals(eventCount.intValue(), 2, "Number of success events");
     }
+
+    @Test
+    public void containsCosmosTableTest4() throws InterruptedException {
+        log.info("containsCosmosTableTest4 - " +
+                "Configure siddhi to check whether records with particular document ids exist in a CosmosDB " +
+                "Collection");
+
+        String collectionLink = String.format("/dbs/%s/colls/%s", database, "FooTable");
+        CosmosTableTestUtils.dropCollection(uri, key, collectionLink);
+
+        SiddhiManager siddhiManager = new SiddhiManager();
+        String streams = "" +
+                "define stream StockStream (id string, symbol string, price float, volume long); " +
+                "    " +
+                "define stream FooStream (id string, volume long);" +
+                "@store(type = 'cosmosdb' , uri='" + uri + "', access.key='" + key + "', " +
+                "database.name='" + database + "')" +
+                "define table FooTable (id string, symbol string, price float, volume long);";
+        String query = "" +
+                "@info(name = 'query1') " +
+                "from StockStream   " +
+                "insert into FooTable ;" +
+
+                "@info(name='query2')" +
+                "from FooStream[(FooTable.id == id) in FooTable]" +
+                "insert into OutputStream ;";
+        SiddhiAppRuntime siddhiAppRuntime = siddhiManager.createSiddhiAppRuntime(streams + query);
+
+        InputHandler stockStream = siddhiAppRuntime.getInputHandler("StockStream");
+        InputHandler fooStream = siddhiAppRuntime.getInputHandler("FooStream");
+        siddhiAppRuntime.addCallback("OutputStream", new StreamCallback() {
+            @Override
+            public void receive(Event[] events) {
+                if (events != null) {
+                    for (Event event : events) {
+                        eventCount.incrementAndGet();
+                        switch (eventCount.intValue()) {
+                            case 1:
+                                Assert.assertEquals(new Object[]{"1", 200L}, event.getData());
+                                break;
+                            case 2:
+                                Assert.assertEquals(new Object[]{"2", 200L}, event.getData());
+                                break;
+                            default:
+                                break;
+                        }
+                    }
+                }
+            }
+        });
+        siddhiAppRuntime.start();
+
+        stockStream.send(new Object[]{"1", "WSO2", 55.6F, 100L});
+        stockStream.send(new Object[]{"2", "IBM", 75.6F, 100L});
+        fooStream.send(new Object[]{"1", 200L});
+        fooStream.send(new Object[]{"2", 200L});
+        fooStream.send(new Object[]{"3", 200L});
+        SiddhiTestHelper.waitForEvents(waitTime, 2, eventCount, timeout);
+
+        siddhiAppRuntime.shutdown();
+
+        Assert.assertEquals(eventCount.intValue(), 2, "Number of success events");
+    }
+
+    @Test
+    public void containsCosmosTableTest5() throws InterruptedException {
+        log.info("containsCosmosTableTest5 - Check whether documents exist in a CosmosDB table while its " +
+                "write-behind buffer is flushed");
+
+        CosmosEmulator emulator = CosmosTableTestUtils.getEmulator();
+        if (emulator == null) {
+            throw new SkipException("Latency can only be injected when running against the emulator.");
+        }
+        String collectionLink = String.format("/dbs/%s/colls/%s", database, "FooTable");
+        CosmosTableTestUtils.dropCollection(uri, key, collectionLink);
+
+        SiddhiManager siddhiManager = new SiddhiManager();
+        String streams = "" +
+                "define stream StockStream (symbol string, price float, volume long); " +
+                "define stream FooStream (symbol string, price double, volume long);" +
+                "@store(type = 'cosmosdb' , uri='" + uri + "', access.key='" + key + "', " +
+                "database.name='" + database + "', is.enable.write.behind='true', " +
+                "write.behind.flush.interval.seconds='0.1')" +
+                "@PrimaryKey('symbol')" +
+                "define table FooTable (symbol string, price float, volume long);";
+        String query = "" +
+                "@info(name = 'query1') " +
+                "from StockStream " +
+                "insert into FooTable ;" +
+
+                "@info(name='query2')" +
+                "from FooStream[(FooTable.symbol == symbol) in FooTable]" +
+                "insert into OutputStream ;";
+        SiddhiAppRuntime siddhiAppRuntime = siddhiManager.createSiddhiAppRuntime(streams + query);
+
+        InputHandler stockStream = siddhiAppRuntime.getInputHandler("StockStream");
+        InputHandler fooStream = siddhiAppRuntime.getInputHandler("FooStream");
+        siddhiAppRuntime.addCallback("OutputStream", new StreamCallback() {
+            @Override
+            public void receive(Event[] events) {
+                if (events != null) {
+                    eventCount.addAndGet(events.length);
+                }
+            }
+        });
+        siddhiAppRuntime.start();
+
+        long duration;
+        emulator.setLatency(300);
+        try {
+            for (int i = 0; i < 10; i++) {
+                stockStream.send(new Object[]{"SYMBOL" + i, 55.6F, 100L});
+            }
+            //The flush on the timer takes several seconds, during which the documents are read from the buffer.
+            Thread.sleep(500);
+            long startTime = System.currentTimeMillis();
+            fooStream.send(new Object[]{"SYMBOL9", 50.56, 200L});
+            fooStream.send(new Object[]{"SYMBOL10", 50.56, 200L});
+            duration = System.currentTimeMillis() - startTime;
+        } finally {
+            emulator.setLatency(0);
+        }
+        SiddhiTestHelper.waitForEvents(waitTime, 1, eventCount, timeout);
+
+        siddhiAppRuntime.shutdown();
+
+        Assert.assertEquals(eventCount.intValue(), 1, "Number of success events");
+        //Only the check of the document which is not buffered is read from the store.
+        Assert.assertTrue(duration < 1500, "Contains check waited for the flush of the write-behind buffer");
+    }
 }
@@ -0,0 +1,1343 @@
+/*
+ * Copyright (c) 2019, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+
+
+package io.siddhi.extension.store.cosmosdb;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.stream.Collectors;
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLServerSocket;
+import javax.script.ScriptException;
+
+/**
+ * An in-process stand-in for a Cosmos DB account, which lets the CosmosDB Event Table be tested and benchmarked
+ * without a network. It serves the subset of the Cosmos DB REST API used by the DocumentClient: databases,
+ * collections, document CRUD, queries of the SQL subset emitted by the table (see {@link CosmosEmulatorQuery}), the
+ * change feed of documents and stored procedures, which are run by the JavaScript engine of the JVM. Responses carry
+ * request charges, and throttling (429) and latency can be injected.
+ * <p>
+ * The DocumentClient only connects over TLS, hence the emulator serves a self-signed certificate, which it sets as
+ * the trust store of the JVM when started. The emulator has its own minimal HTTP/1.1 server, since the DocumentClient
+ * reads response headers such as 'etag' and 'x-ms-continuation' by their exact names, which the HTTP server of the
+ * JDK does not preserve. Partitioning is not emulated: documents are keyed by their id alone. Requests addressing a
+ * document or executing a stored procedure of a partitioned collection should carry a partition key though, and the
+ * partition keys of stored procedure executions are recorded.
+ */
+public class CosmosEmulator {
+
+    /**
+     * The well known master key of the Azure Cosmos DB Emulator. The emulator does not verify request signatures.
+     */
+    public static final String MASTER_KEY =
+            "C2y6yDjf5/R+ob0N8A7Cgv30VRDJIWEHLM+4QDU5DE2nQ9nDuVTqobD4b8mGGyPMbIZnqyMsEcaGQy67XIw/Jw==";
+    private static final Log log = LogFactory.getLog(CosmosEmulator.class);
+    private static final String KEY_STORE = "cosmosdb-emulator.jks";
+    private static final String KEY_STORE_PASSWORD = "cosmosdb";
+    private static final int DEFAULT_PAGE_SIZE = 100;
+    private static final int MAX_PAGE_SIZE = 1000;
+    private static final double READ_CHARGE_PER_KB = 1;
+    private static final double WRITE_CHARGE_PER_KB = 5.71;
+    private static final double QUERY_CHARGE = 2.31;
+    private static final double METADATA_CHARGE = 1;
+
+    private final Map<String, Database> databases = new LinkedHashMap<>();
+    private final AtomicInteger databaseSequence = new AtomicInteger();
+    private final CosmosEmulatorProcedures procedures = new CosmosEmulatorProcedures();
+    private final Map<String, CosmosEmulatorQuery> parsedQueries = new ConcurrentHashMap<>();
+    private final AtomicLong requestCount = new AtomicLong();
+    private final AtomicLong documentWriteCount = new AtomicLong();
+    private final List<String> procedurePartitionKeys = Collections.synchronizedList(new ArrayList<>());
+    private final AtomicLong throttledRequestCount = new AtomicLong();
+    private final DoubleAdder requestCharge = new DoubleAdder();
+    private final AtomicInteger pendingThrottles = new AtomicInteger();
+    private volatile double throttleProbability;
+    private volatile boolean unavailable;
+    private volatile long latency;
+    private volatile int procedureOperationLimit = 1000;
+    private ServerSocket serverSocket;
+    private ExecutorService executorService;
+    private String uri;
+
+    /**
+     * Starts serving requests on an ephemeral port of the loopback interface.
+     *
+     * @return this emulator.
+     * @throws IOException if the server could not be started.
+     */
+    public synchronized CosmosEmulator start() throws IOException {
+        if (serverSocket != null) {
+            return this;
+        }
+        File keyStoreFile = File.createTempFile("cosmosdb-emulator", ".jks");
+        keyStoreFile.deleteOnExit();
+        try (InputStream keyStore = CosmosEmulator.class.getClassLoader().getResourceAsStream(KEY_STORE)) {
+            if (keyStore == null) {
+                throw new IOException("Key store '" + KEY_STORE + "' of the emulator is not in the class path. ");
+            }
+            Files.copy(keyStore, keyStoreFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        serverSocket = createSslContext(keyStoreFile).getServerSocketFactory()
+                .createServerSocket(0, 128, InetAddress.getLoopbackAddress());
+        ((SSLServerSocket) serverSocket).setNeedClientAuth(false);
+        AtomicInteger threadCount = new AtomicInteger();
+        executorService = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "CosmosDB-Emulator-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        ServerSocket acceptingSocket = serverSocket;
+        executorService.execute(() -> accept(acceptingSocket));
+        uri = "https://" + serverSocket.getInetAddress().getHostAddress() + ":" + serverSocket.getLocalPort() + "/";
+        //The DocumentClient trusts the default trust store of the JVM only.
+        System.setProperty("javax.net.ssl.trustStore", keyStoreFile.getAbsolutePath());
+        System.setProperty("javax.net.ssl.trustStorePassword", KEY_STORE_PASSWORD);
+        log.info("Started the Cosmos DB emulator at '" + uri + "'. ");
+        return this;
+    }
+
+    private static SSLContext createSslContext(File keyStoreFile) throws IOException {
+        try (InputStream keyStoreStream = Files.newInputStream(keyStoreFile.toPath())) {
+            KeyStore keyStore = KeyStore.getInstance("JKS");
+            keyStore.load(keyStoreStream, KEY_STORE_PASSWORD.toCharArray());
+            KeyManagerFactory keyManagerFactory =
+                    KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+            keyManagerFactory.init(keyStore, KEY_STORE_PASSWORD.toCharArray());
+            SSLContext sslContext = SSLContext.getInstance("TLS");
+            sslContext.init(keyManagerFactory.getKeyManagers(), null, null);
+            return sslContext;
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Failed to load the key store of the emulator. ", e);
+        }
+    }
+
+    /**
+     * Stops serving requests.
+     */
+    public synchronized void stop() {
+        if (serverSocket != null) {
+            try {
+                serverSocket.close();
+            } catch (IOException e) {
+                log.debug("Failed to close the server socket of the emulator. ", e);
+            }
+            executorService.shutdownNow();
+            serverSocket = null;
+        }
+    }
+
+    public String getUri() {
+        return uri;
+    }
+
+    /**
+     * Creates a database, if it does not exist.
+     *
+     * @param databaseId the id of the database.
+     */
+    public void createDatabase(String databaseId) {
+        synchronized (databases) {
+            if (!databases.containsKey(databaseId)) {
+                Database database = new Database(databaseId, databaseSequence.incrementAndGet());
+                databases.put(databaseId, database);
+            }
+        }
+    }
+
+    /**
+     * Sets the latency added to every request.
+     *
+     * @param latency the latency in milliseconds.
+     */
+    public void setLatency(long latency) {
+        this.latency = latency;
+    }
+
+    /**
+     * Throttles the given number of upcoming document and stored procedure requests.
+     *
+     * @param requests the number of requests to be throttled.
+     */
+    public void throttleNextRequests(int requests) {
+        pendingThrottles.addAndGet(requests);
+    }
+
+    /**
+     * Sets the probability of throttling a document or stored procedure request.
+     *
+     * @param throttleProbability the probability, between 0 and 1.
+     */
+    public void setThrottleProbability(double throttleProbability) {
+        this.throttleProbability = throttleProbability;
+    }
+
+    /**
+     * Sets the number of requests a stored procedure execution can make before its requests are no longer accepted,
+     * emulating the bounded execution of stored procedures in Cosmos DB.
+     *
+     * @param procedureOperationLimit the number of requests.
+     */
+    public void setProcedureOperationLimit(int procedureOperationLimit) {
+        this.procedureOperationLimit = procedureOperationLimit;
+    }
+
+    /**
+     * Sets whether document and stored procedure requests fail as if the service is unavailable (503).
+     *
+     * @param unavailable whether the service is unavailable.
+     */
+    public void setUnavailable(boolean unavailable) {
+        this.unavailable = unavailable;
+    }
+
+    /**
+     * Returns whether stored procedures can be run by the emulator, which requires the JVM to provide a JavaScript
+     * engine, e.g. Nashorn up to JDK 14. Tables fall back to the operations without stored procedures otherwise.
+     *
+     * @return whether stored procedures are available.
+     */
+    public boolean areProceduresAvailable() {
+        return procedures.isAvailable();
+    }
+
+    /**
+     * Returns the partition keys of the stored procedure executions on partitioned collections, in the order they
+     * were served.
+     *
+     * @return the partition keys, in their JSON form.
+     */
+    public List<String> getProcedurePartitionKeys() {
+        synchronized (procedurePartitionKeys) {
+            return new ArrayList<>(procedurePartitionKeys);
+        }
+    }
+
+    public long getRequestCount() {
+        return requestCount.get();
+    }
+
+    /**
+     * Returns the number of requests creating, replacing, upserting or deleting a single document, including the
+     * failed ones.
+     *
+     * @return the number of document writes.
+     */
+    public long getDocumentWriteCount() {
+        return documentWriteCount.get();
+    }
+
+    public long getThrottledRequestCount() {
+        return throttledRequestCount.get();
+    }
+
+    public double getRequestCharge() {
+        return requestCharge.sum();
+    }
+
+    private void accept(ServerSocket acceptingSocket) {
+        while (!acceptingSocket.isClosed()) {
+            try {
+                Socket socket = acceptingSocket.accept();
+                executorService.execute(() -> serve(socket));
+            } catch (IOException e) {
+                if (!acceptingSocket.isClosed()) {
+                    log.error("Failed to accept a connection to the emulator. ", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Serves the requests of a persistent connection until the client closes it.
+     */
+    private void serve(Socket socket) {
+        try (Socket connection = socket;
+             InputStream inputStream = new BufferedInputStream(connection.getInputStream());
+             OutputStream outputStream = new BufferedOutputStream(connection.getOutputStream())) {
+            while (true) {
+                String requestLine = readLine(inputStream);
+                if (requestLine == null) {
+                    return;
+                }
+                if (requestLine.isEmpty()) {
+                    continue;
+                }
+                String[] request = requestLine.split(" ");
+                Map<String, String> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+                String line;
+                while ((line = readLine(inputStream)) != null && !line.isEmpty()) {
+                    int separator = line.indexOf(':');
+                    headers.put(line.substring(0, separator).trim(), line.substring(separator + 1).trim());
+                }
+                String body = readBody(inputStream, headers);
+                Response response = handle(request[0], request[1], headers, body);
+                write(outputStream, response);
+                if ("close".equalsIgnoreCase(headers.get("Connection"))) {
+                    return;
+                }
+            }
+        } catch (SocketException | EOFException e) {
+            log.debug("Connection to the emulator was closed. ", e);
+        } catch (IOException e) {
+            log.error("Failed to serve a connection to the emulator. ", e);
+        }
+    }
+
+    private Response handle(String method, String requestUri, Map<String, String> headers, String body) {
+        Response response;
+        try {
+            requestCount.incrementAndGet();
+            if (latency > 0) {
+                Thread.sleep(latency);
+            }
+            int query = requestUri.indexOf('?');
+            List<String> path = parsePath(query < 0 ? requestUri : requestUri.substring(0, query));
+            if (path.size() > 4 && path.get(4).equals("docs") && !method.equals("GET") && !isQuery(headers)) {
+                documentWriteCount.incrementAndGet();
+            }
+            if (path.size() > 4 && unavailable) {
+                response = error(503, "ServiceUnavailable", "The service is unavailable.");
+            } else if (path.size() > 4 && isThrottled()) {
+                throttledRequestCount.incrementAndGet();
+                response = error(429, "TooManyRequests", "Request rate is large.");
+                response.headers.put("x-ms-retry-after-ms", "1");
+            } else {
+                response = route(method, path, headers, body);
+            }
+        } catch (RequestException e) {
+            response = error(e.status, e.code, e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            response = error(503, "ServiceUnavailable", "The emulator is stopping.");
+        } catch (RuntimeException e) {
+            log.error("Failed to serve request '" + method + " " + requestUri + "'. ", e);
+            response = error(500, "InternalServerError", String.valueOf(e.getMessage()));
+        }
+        requestCharge.add(response.charge);
+        return response;
+    }
+
+    private boolean isThrottled() {
+        int pending = pendingThrottles.get();
+        while (pending > 0) {
+            if (pendingThrottles.compareAndSet(pending, pending - 1)) {
+                return true;
+            }
+            pending = pendingThrottles.get();
+        }
+        return throttleProbability > 0 && ThreadLocalRandom.current().nextDouble() < throttleProbability;
+    }
+
+    private Response route(String method, List<String> path, Map<String, String> headers, String body) {
+        if (path.isEmpty()) {
+            return ok(200, getDatabaseAccount(), METADATA_CHARGE);
+        }
+        expectSegment(path, 0, "dbs");
+        if (path.size() == 1) {
+            if (method.equals("POST") && isQuery(headers)) {
+                synchronized (databases) {
+                    return queryResources(new ArrayList<>(getResources(databases)), parseJson(body), "Databases",
+                            "");
+                }
+            } else if (method.equals("POST")) {
+                String id = parseJson(body).optString("id");
+                synchronized (databases) {
+                    if (databases.containsKey(id)) {
+                        throw conflict();
+                    }
+                    createDatabase(validateId(id));
+                    return ok(201, databases.get(id).resource, METADATA_CHARGE);
+                }
+            }
+            throw methodNotAllowed(method);
+        }
+        Database database = getDatabase(path.get(1));
+        if (path.size() == 2) {
+            if (method.equals("GET")) {
+                return ok(200, database.resource, METADATA_CHARGE);
+            } else if (method.equals("DELETE")) {
+                synchronized (databases) {
+                    databases.remove(database.id);
+                }
+                return ok(204, null, METADATA_CHARGE);
+            }
+            throw methodNotAllowed(method);
+        }
+        expectSegment(path, 2, "colls");
+        if (path.size() == 3) {
+            synchronized (database) {
+                if (method.equals("POST") && isQuery(headers)) {
+                    return queryResources(getResources(database.collections), parseJson(body),
+                            "DocumentCollections", database.rid);
+                } else if (method.equals("POST")) {
+                    JSONObject definition = parseJson(body);
+                    String id = validateId(definition.optString("id"));
+                    if (database.collections.containsKey(id)) {
+                        throw conflict();
+                    }
+                    Collection collection = new Collection(database, definition,
+                            database.collectionSequence.incrementAndGet());
+                    database.collections.put(id, collection);
+                    return ok(201, collection.resource, METADATA_CHARGE);
+                }
+            }
+            throw methodNotAllowed(method);
+        }
+        Collection collection = getCollection(database, path.get(3));
+        if (path.size() == 4) {
+            if (method.equals("GET")) {
+                return ok(200, collection.resource, METADATA_CHARGE);
+            } else if (method.equals("DELETE")) {
+                synchronized (database) {
+                    database.collections.remove(collection.id);
+                }
+                return ok(204, null, METADATA_CHARGE);
+            }
+            throw methodNotAllowed(method);
+        }
+        synchronized (collection) {
+            switch (path.get(4)) {
+                case "docs":
+                    return routeDocuments(method, path, headers, body, collection);
+                case "sprocs":
+                    return routeStoredProcedures(method, path, headers, body, collection);
+                case "pkranges":
+                    return getPartitionKeyRanges(headers, collection);
+                default:
+                    throw new RequestException(404, "NotFound", "Resource '" + path.get(4) + "' is not supported.");
+            }
+        }
+    }
+
+    private Response routeDocuments(String method, List<String> path, Map<String, String> headers, String body,
+                                    Collection collection) {
+        if (path.size() == 5) {
+            if (method.equals("POST") && isQuery(headers)) {
+                JSONObject page = queryDocuments(collection, parseJson(body), headers.get("x-ms-continuation"),
+                        getPageSize(headers));
+                Response response = ok(200, new JSONObject().put("_rid", collection.rid)
+                        .put("Documents", page.get("documents"))
+                        .put("_count", page.getJSONArray("documents").length()), page.getDouble("charge"));
+                response.headers.put("x-ms-item-count", String.valueOf(page.getJSONArray("documents").length()));
+                if (!page.isNull("continuation")) {
+                    response.headers.put("x-ms-continuation", page.getString("continuation"));
+                }
+                return response;
+            } else if (method.equals("POST")) {
+                boolean upsert = "true".equalsIgnoreCase(headers.get("x-ms-documentdb-is-upsert"));
+                boolean existed = upsert && collection.documents.containsKey(parseJson(body).optString("id"));
+                JSONObject document = createDocument(collection, parseJson(body), upsert);
+                return withEtag(ok(existed ? 200 : 201, document, getWriteCharge(document)), document);
+            } else if (method.equals("GET") && "Incremental feed".equals(headers.get("A-IM"))) {
+                return readChangeFeed(collection, headers.get("If-None-Match"), getPageSize(headers));
+            } else if (method.equals("GET")) {
+                JSONObject page = queryDocuments(collection, new JSONObject().put("query", "SELECT * FROM root"),
+                        headers.get("x-ms-continuation"), getPageSize(headers));
+                return ok(200, new JSONObject().put("_rid", collection.rid).put("Documents", page.get("documents"))
+                        .put("_count", page.getJSONArray("documents").length()), page.getDouble("charge"));
+            }
+            throw methodNotAllowed(method);
+        }
+        Document document = getDocument(collection, path.get(5));
+        getPartitionKey(collection, headers);
+        switch (method) {
+            case "GET":
+                return withEtag(ok(200, document.body, getReadCharge(document.body)), document.body);
+            case "PUT":
+                String ifMatch = headers.get("If-Match");
+                if (ifMatch != null && !ifMatch.equals(document.body.optString("_etag"))) {
+                    throw new RequestException(412, "PreconditionFailed",
+                            "Operation cannot be performed because one of the specified precondition is not met.");
+                }
+                JSONObject replaced = replaceDocument(collection, document, parseJson(body));
+                return withEtag(ok(200, replaced, getWriteCharge(replaced)), replaced);
+            case "DELETE":
+                deleteDocument(collection, document);
+                return ok(204, null, getWriteCharge(document.body));
+            default:
+                throw methodNotAllowed(method);
+        }
+    }
+
+    private Response routeStoredProcedures(String method, List<String> path, Map<String, String> headers, String body,
+                                           Collection collection) {
+        if (path.size() == 5) {
+            if (method.equals("POST") && !isQuery(headers)) {
+                JSONObject definition = parseJson(body);
+                String id = validateId(definition.optString("id"));
+                boolean upsert = "true".equalsIgnoreCase(headers.get("x-ms-documentdb-is-upsert"));
+                JSONObject existing = findStoredProcedure(collection, id);
+                if (existing != null && !upsert) {
+                    throw conflict();
+                }
+                return ok(existing == null ? 201 : 200, putStoredProcedure(collection, existing, definition),
+                        METADATA_CHARGE);
+            }
+            throw methodNotAllowed(method);
+        }
+        JSONObject procedure = findStoredProcedure(collection, path.get(5));
+        if (procedure == null) {
+            throw notFound();
+        }
+        switch (method) {
+            case "GET":
+                return ok(200, procedure, METADATA_CHARGE);
+            case "PUT":
+                return ok(200, putStoredProcedure(collection, procedure, parseJson(body)), METADATA_CHARGE);
+            case "DELETE":
+                collection.procedures.remove(procedure.getString("id"));
+                return ok(204, null, METADATA_CHARGE);
+            case "POST":
+                String partitionKey = getPartitionKey(collection, headers);
+                if (partitionKey != null) {
+                    procedurePartitionKeys.add(partitionKey);
+                }
+                return executeStoredProcedure(collection, procedure, body.isEmpty() ? "[]" : body, partitionKey);
+            default:
+                throw methodNotAllowed(method);
+        }
+    }
+
+    /**
+     * Returns the partition key of a request, which is required for the requests addressing a single partition of a
+     * partitioned collection.
+     */
+    private static String getPartitionKey(Collection collection, Map<String, String> headers) {
+        JSONObject partitionKeyDefinition = collection.resource.optJSONObject("partitionKey");
+        if (partitionKeyDefinition == null || partitionKeyDefinition.optJSONArray("paths") == null ||
+                partitionKeyDefinition.getJSONArray("paths").length() == 0) {
+            return null;
+        }
+        String partitionKey = headers.get("x-ms-documentdb-partitionkey");
+        if (partitionKey == null) {
+            throw new RequestException(400, "BadRequest", "PartitionKey value must be supplied for this operation.");
+        }
+        return partitionKey;
+    }
+
+    private JSONObject putStoredProcedure(Collection collection, JSONObject existing, JSONObject definition) {
+        if (!procedures.isAvailable()) {
+            throw new RequestException(400, "BadRequest", "Stored procedures are not supported by the emulator " +
+                    "since the JVM has no JavaScript engine.");
+        }
+        String rid;
+        if (existing == null) {
+            long sequence = ++collection.procedureSequence;
+            rid = collection.childRid((sequence << 8) | 0x80);
+        } else {
+            rid = existing.getString("_rid");
+        }
+        JSONObject procedure = new JSONObject().put("id", definition.getString("id"))
+                .put("body", definition.getString("body"));
+        addSystemProperties(procedure, rid, collection.resource.getString("_self") + "sprocs/" + rid + "/");
+        collection.procedures.put(procedure.getString("id"), procedure);
+        return procedure;
+    }
+
+    private JSONObject findStoredProcedure(Collection collection, String idOrRid) {
+        JSONObject procedure = collection.procedures.get(idOrRid);
+        if (procedure == null) {
+            for (JSONObject candidate : collection.procedures.values()) {
+                if (candidate.getString("_rid").equals(idOrRid)) {
+                    return candidate;
+                }
+            }
+        }
+        return procedure;
+    }
+
+    private Response executeStoredProcedure(Collection collection, JSONObject procedure, String parameters,
+                                            String partitionKey) {
+        //Stored procedures are transactional, hence the documents are restored if the procedure fails.
+        LinkedHashMap<String, Document> documents = new LinkedHashMap<>(collection.documents);
+        Map<String, String> documentIds = new HashMap<>(collection.documentIds);
+        ProcedureHost host = new ProcedureHost(collection, partitionKey);
+        String result;
+        try {
+            result = procedures.execute(procedure.getString("body"), parameters, host);
+        } catch (ScriptException | RuntimeException e) {
+            collection.documents.clear();
+            collection.documents.putAll(documents);
+            collection.documentIds.clear();
+            collection.documentIds.putAll(documentIds);
+            throw new RequestException(400, "BadRequest", "Exception = " + e.getMessage());
+        }
+        Response response = ok(200, null, METADATA_CHARGE + host.charge);
+        response.body = result == null ? "" : result;
+        return response;
+    }
+
+    private Response getPartitionKeyRanges(Map<String, String> headers, Collection collection) {
+        String etag = "\"" + collection.rid + "\"";
+        if (headers.get("If-None-Match") != null && headers.get("If-None-Match").equals(etag)) {
+            return ok(304, null, METADATA_CHARGE);
+        }
+        JSONObject range = new JSONObject().put("id", "0").put("minInclusive", "").put("maxExclusive", "FF")
+                .put("ridPrefix", 0).put("throughputFraction", 1).put("status", "online")
+                .put("parents", new JSONArray());
+        addSystemProperties(range, collection.childRid(0x50), collection.resource.getString("_self") + "pkranges/");
+        Response response = ok(200, new JSONObject().put("_rid", collection.rid)
+                .put("PartitionKeyRanges", new JSONArray().put(range)).put("_count", 1), METADATA_CHARGE);
+        response.headers.put("etag", etag);
+        return response;
+    }
+
+    private JSONObject createDocument(Collection collection, JSONObject body, boolean upsert) {
+        String id = validateId(body.optString("id"));
+        Document existing = collection.documents.get(id);
+        if (existing != null) {
+            if (!upsert) {
+                throw conflict();
+            }
+            return replaceDocument(collection, existing, body);
+        }
+        long sequence = ++collection.documentSequence;
+        String rid = collection.childRid(sequence << 8);
+        addSystemProperties(body, rid, collection.resource.getString("_self") + "docs/" + rid + "/");
+        body.put("_attachments", "attachments/").put("_lsn", ++collection.lsn);
+        collection.documents.put(id, new Document(sequence, body));
+        collection.documentIds.put(rid, id);
+        return body;
+    }
+
+    private JSONObject replaceDocument(Collection collection, Document document, JSONObject body) {
+        String id = validateId(body.optString("id"));
+        if (!id.equals(document.body.getString("id"))) {
+            if (collection.documents.containsKey(id)) {
+                throw conflict();
+            }
+            collection.documents.remove(document.body.getString("id"));
+        }
+        addSystemProperties(body, document.body.getString("_rid"), document.body.getString("_self"));
+        body.put("_attachments", "attachments/").put("_lsn", ++collection.lsn);
+        Document replaced = new Document(document.sequence, body);
+        collection.documents.put(id, replaced);
+        collection.documentIds.put(body.getString("_rid"), id);
+        return body;
+    }
+
+    /**
+     * Reads a page of the change feed of a collection, i.e. the current versions of the documents created or replaced
+     * after the given position, in the order of their last change. As in Cosmos DB, deletes are not part of the feed.
+     * The position is the log sequence number (LSN) of the last change read, passed as the etag of the feed, while
+     * '*' starts the feed from the current position and no etag from the beginning.
+     */
+    private Response readChangeFeed(Collection collection, String ifNoneMatch, int pageSize) {
+        long lastLsn;
+        if (ifNoneMatch == null) {
+            lastLsn = 0;
+        } else if (ifNoneMatch.equals("*")) {
+            lastLsn = collection.lsn;
+        } else {
+            try {
+                lastLsn = Long.parseLong(ifNoneMatch.replace("\"", ""));
+            } catch (NumberFormatException e) {
+                throw new RequestException(400, "BadRequest", "Invalid change feed continuation '" + ifNoneMatch +
+                        "'.");
+            }
+        }
+        long from = lastLsn;
+        List<JSONObject> changes = collection.documents.values().stream().map(document -> document.body)
+                .filter(body -> body.getLong("_lsn") > from)
+                .sorted(Comparator.comparingLong(body -> body.getLong("_lsn")))
+                .limit(pageSize).collect(Collectors.toList());
+        if (changes.isEmpty()) {
+            Response response = ok(304, null, METADATA_CHARGE);
+            response.headers.put("etag", "\"" + lastLsn + "\"");
+            return response;
+        }
+        double charge = METADATA_CHARGE;
+        for (JSONObject change : changes) {
+            charge += getReadCharge(change);
+        }
+        Response response = ok(200, new JSONObject().put("_rid", collection.rid).put("Documents", changes)
+                .put("_count", changes.size()), charge);
+        response.headers.put("etag", "\"" + changes.get(changes.size() - 1).getLong("_lsn") + "\"");
+        response.headers.put("x-ms-item-count", String.valueOf(changes.size()));
+        return response;
+    }
+
+    private void deleteDocument(Collection collection, Document document) {
+        collection.documents.remove(document.body.getString("id"));
+        collection.documentIds.remove(document.body.getString("_rid"));
+    }
+
+    /**
+     * Runs a page of a query over the documents of a collection. Documents are returned in the order they were
+     * created, and continuation tokens hold the position of the last returned document, hence a query can be
+     * continued while the collection is modified.
+     */
+    private JSONObject queryDocuments(Collection collection, JSONObject querySpec, String continuation,
+                                      int pageSize) {
+        return queryDocuments(collection, querySpec, continuation, pageSize, null);
+    }
+
+    private JSONObject queryDocuments(Collection collection, JSONObject querySpec, String continuation,
+                                      int pageSize, String partitionKey) {
+        CosmosEmulatorQuery query = parseQuery(querySpec.optString("query"));
+        Map<String, Object> parameters = getParameters(querySpec);
+        long lastSequence = 0;
+        int returned = 0;
+        if (continuation != null) {
+            String[] position = continuation.split(":");
+            try {
+                lastSequence = Long.parseLong(position[0]);
+                returned = Integer.parseInt(position[1]);
+            } catch (RuntimeException e) {
+                throw new RequestException(400, "BadRequest", "Invalid continuation token '" + continuation + "'.");
+            }
+        }
+        JSONArray results = new JSONArray();
+        double charge = QUERY_CHARGE;
+        String nextContinuation = null;
+        if (!query.isStreamable()) {
+            //Such queries are evaluated as a whole, for each page, and continued by the position of their results.
+            List<JSONObject> documents = new ArrayList<>(collection.documents.size());
+            for (Document document : collection.documents.values()) {
+                if (isInPartition(collection, document.body, partitionKey)) {
+                    documents.add(document.body);
+                }
+            }
+            List<JSONObject> rows = query.evaluate(documents, parameters);
+            int end = Math.min(returned + pageSize, rows.size());
+            for (JSONObject row : rows.subList(Math.min(returned, end), end)) {
+                results.put(row);
+                charge += getReadCharge(row) - READ_CHARGE_PER_KB + 0.1;
+            }
+            charge += 0.01 * documents.size();
+            if (end < rows.size()) {
+                nextContinuation = "0:" + end;
+            }
+            return new JSONObject().put("documents", results).put("continuation",
+                    nextContinuation == null ? JSONObject.NULL : nextContinuation).put("charge", charge);
+        }
+        int limit = query.getTop() < 0 ? pageSize : Math.min(pageSize, query.getTop() - returned);
+        for (Document document : collection.documents.values()) {
+            if (document.sequence <= lastSequence) {
+                continue;
+            }
+            if (results.length() >= limit) {
+                if (query.getTop() < 0 || returned + results.length() < query.getTop()) {
+                    nextContinuation = lastSequence + ":" + (returned + results.length());
+                }
+                break;
+            }
+            charge += 0.01;
+            if (isInPartition(collection, document.body, partitionKey) && query.matches(document.body, parameters)) {
+                JSONObject result = query.project(document.body, parameters);
+                results.put(result);
+                charge += getReadCharge(result) - READ_CHARGE_PER_KB + 0.1;
+            }
+            lastSequence = document.sequence;
+        }
+        return new JSONObject().put("documents", results).put("continuation",
+                nextContinuation == null ? JSONObject.NULL : nextContinuation).put("charge", charge);
+    }
+
+    /**
+     * Checks whether a document belongs to the given partition of a partitioned collection.
+     *
+     * @param partitionKey the partition key in the JSON form of the partition key header, or null for all partitions.
+     */
+    private static boolean isInPartition(Collection collection, JSONObject document, String partitionKey) {
+        if (partitionKey == null) {
+            return true;
+        }
+        String path = collection.resource.getJSONObject("partitionKey").getJSONArray("paths").getString(0);
+        return new JSONArray().put(document.opt(path.substring(1))).toString().equals(partitionKey);
+    }
+
+    private Response queryResources(List<JSONObject> resources, JSONObject querySpec, String feedName,
+                                    String parentRid) {
+        CosmosEmulatorQuery query = parseQuery(querySpec.optString("query"));
+        Map<String, Object> parameters = getParameters(querySpec);
+        JSONArray results = new JSONArray();
+        for (JSONObject resource : resources) {
+            if (query.matches(resource, parameters)) {
+                results.put(query.project(resource, parameters));
+            }
+        }
+        Response response = ok(200, new JSONObject().put("_rid", parentRid).put(feedName, results)
+                .put("_count", results.length()), QUERY_CHARGE);
+        response.headers.put("x-ms-item-count", String.valueOf(results.length()));
+        return response;
+    }
+
+    private CosmosEmulatorQuery parseQuery(String query) {
+        try {
+            return parsedQueries.computeIfAbsent(query, CosmosEmulatorQuery::parse);
+        } catch (IllegalArgumentException e) {
+            throw new RequestException(400, "BadRequest", "Syntax error, " + e.getMessage());
+        }
+    }
+
+    private static Map<String, Object> getParameters(JSONObject querySpec) {
+        Map<String, Object> parameters = new HashMap<>();
+        JSONArray parameterArray = querySpec.optJSONArray("parameters");
+        if (parameterArray != null) {
+            for (int i = 0; i < parameterArray.length(); i++) {
+                JSONObject parameter = parameterArray.getJSONObject(i);
+                parameters.put(parameter.getString("name"), parameter.opt("value") == null ? JSONObject.NULL :
+                        parameter.get("value"));
+            }
+        }
+        return parameters;
+    }
+
+    private static int getPageSize(Map<String, String> headers) {
+        String maxItemCount = headers.get("x-ms-max-item-count");
+        if (maxItemCount == null) {
+            return DEFAULT_PAGE_SIZE;
+        }
+        int pageSize = Integer.parseInt(maxItemCount);
+        return pageSize <= 0 ? MAX_PAGE_SIZE : Math.min(pageSize, MAX_PAGE_SIZE);
+    }
+
+    private Database getDatabase(String idOrRid) {
+        synchronized (databases) {
+            Database database = databases.get(idOrRid);
+            if (database == null) {
+                for (Database candidate : databases.values()) {
+                    if (candidate.rid.equals(idOrRid)) {
+                        return candidate;
+                    }
+                }
+                throw notFound();
+            }
+            return database;
+        }
+    }
+
+    private static Collection getCollection(Database database, String idOrRid) {
+        synchronized (database) {
+            Collection collection = database.collections.get(idOrRid);
+            if (collection == null) {
+                for (Collection candidate : database.collections.values()) {
+                    if (candidate.rid.equals(idOrRid)) {
+                        return candidate;
+                    }
+                }
+                throw notFound();
+            }
+            return collection;
+        }
+    }
+
+    private static Document getDocument(Collection collection, String idOrRid) {
+        Document document = collection.documents.get(idOrRid);
+        if (document == null) {
+            String id = collection.documentIds.get(idOrRid);
+            document = id == null ? null : collection.documents.get(id);
+            if (document == null) {
+                throw notFound();
+            }
+        }
+        return document;
+    }
+
+    private JSONObject getDatabaseAccount() {
+        JSONObject location = new JSONObject().put("name", "local").put("databaseAccountEndpoint", uri);
+        JSONObject replicationPolicy = new JSONObject().put("minReplicaSetSize", 1).put("maxReplicasetSize", 1);
+        return new JSONObject().put("id", "localhost").put("_rid", "localhost").put("_self", "")
+                .put("media", "//media/").put("addresses", "//addresses/").put("_dbs", "//dbs/")
+                .put("writableLocations", new JSONArray().put(location))
+                .put("readableLocations", new JSONArray().put(location))
+                .put("enableMultipleWriteLocations", false)
+                .put("userReplicationPolicy", replicationPolicy).put("systemReplicationPolicy", replicationPolicy)
+                .put("userConsistencyPolicy", new JSONObject().put("defaultConsistencyLevel", "Session"))
+                .put("readPolicy", new JSONObject().put("primaryReadCoefficient", 1)
+                        .put("secondaryReadCoefficient", 1));
+    }
+
+    private static List<JSONObject> getResources(Map<String, ?> resources) {
+        List<JSONObject> result = new ArrayList<>();
+        for (Object resource : resources.values()) {
+            result.add(resource instanceof Database ? ((Database) resource).resource :
+                    ((Collection) resource).resource);
+        }
+        return result;
+    }
+
+    private static void addSystemProperties(JSONObject resource, String rid, String selfLink) {
+        resource.put("_rid", rid).put("_self", selfLink).put("_etag", "\"" + UUID.randomUUID() + "\"")
+                .put("_ts", System.currentTimeMillis() / 1000);
+    }
+
+    private static String toRid(ByteBuffer buffer) {
+        return Base64.getEncoder().encodeToString(buffer.array()).replace('/', '-');
+    }
+
+    private static boolean isQuery(Map<String, String> headers) {
+        return "true".equalsIgnoreCase(headers.get("x-ms-documentdb-isquery")) ||
+                String.valueOf(headers.get("Content-Type")).startsWith("application/query+json");
+    }
+
+    private static String validateId(String id) {
+        if (id == null || id.isEmpty() || id.matches(".*[/\\\\?#].*")) {
+            throw new RequestException(400, "BadRequest", "The id '" + id + "' is invalid.");
+        }
+        return id;
+    }
+
+    private static void expectSegment(List<String> path, int index, String segment) {
+        if (!path.get(index).equals(segment)) {
+            throw new RequestException(404, "NotFound", "Resource '" + path.get(index) + "' is not supported.");
+        }
+    }
+
+    private static JSONObject parseJson(String body) {
+        try {
+            return new JSONObject(body);
+        } catch (JSONException e) {
+            throw new RequestException(400, "BadRequest", "Invalid JSON: " + e.getMessage());
+        }
+    }
+
+    private static double getReadCharge(JSONObject resource) {
+        return READ_CHARGE_PER_KB * Math.max(1, Math.ceil(resource.toString().length() / 1024.0));
+    }
+
+    private static double getWriteCharge(JSONObject resource) {
+        return WRITE_CHARGE_PER_KB * Math.max(1, Math.ceil(resource.toString().length() / 1024.0));
+    }
+
+    private static List<String> parsePath(String rawPath) {
+        List<String> path = new ArrayList<>();
+        for (String segment : rawPath.split("/")) {
+            if (!segment.isEmpty()) {
+                try {
+                    path.add(URLDecoder.decode(segment.replace("+", "%2B"), "UTF-8"));
+                } catch (IOException e) {
+                    throw new RequestException(400, "BadRequest", "Invalid path '" + rawPath + "'.");
+                }
+            }
+        }
+        return path;
+    }
+
+    private static String readLine(InputStream inputStream) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int character;
+        while ((character = inputStream.read()) != '\n') {
+            if (character < 0) {
+                if (line.size() == 0) {
+                    return null;
+                }
+                throw new EOFException("Connection closed in the middle of a line. ");
+            }
+            line.write(character);
+        }
+        String result = new String(line.toByteArray(), StandardCharsets.UTF_8);
+        return result.endsWith("\r") ? result.substring(0, result.length() - 1) : result;
+    }
+
+    private static String readBody(InputStream inputStream, Map<String, String> headers) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        if ("chunked".equalsIgnoreCase(headers.get("Transfer-Encoding"))) {
+            int chunkSize;
+            while ((chunkSize = Integer.parseInt(readLine(inputStream).split(";")[0].trim(), 16)) > 0) {
+                readFully(inputStream, body, chunkSize);
+                readLine(inputStream);
+            }
+            String trailer;
+            while ((trailer = readLine(inputStream)) != null && !trailer.isEmpty()) {
+                log.debug("Ignoring trailer '" + trailer + "'. ");
+            }
+        } else if (headers.containsKey("Content-Length")) {
+            readFully(inputStream, body, Integer.parseInt(headers.get("Content-Length")));
+        }
+        return new String(body.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private static void readFully(InputStream inputStream, ByteArrayOutputStream outputStream, int length)
+            throws IOException {
+        byte[] buffer = new byte[8192];
+        int remaining = length;
+        while (remaining > 0) {
+            int read = inputStream.read(buffer, 0, Math.min(buffer.length, remaining));
+            if (read < 0) {
+                throw new EOFException("Connection closed in the middle of a request body. ");
+            }
+            outputStream.write(buffer, 0, read);
+            remaining -= read;
+        }
+    }
+
+    /**
+     * Writes a response, keeping the header names as they are, as the DocumentClient reads headers by their exact
+     * names.
+     */
+    private static void write(OutputStream outputStream, Response response) throws IOException {
+        byte[] body = response.body == null || response.status == 204 || response.status == 304 ? new byte[0] :
+                response.body.getBytes(StandardCharsets.UTF_8);
+        StringBuilder head = new StringBuilder("HTTP/1.1 ").append(response.status).append(" ")
+                .append(getReasonPhrase(response.status)).append("\r\n");
+        head.append("Content-Type: application/json\r\n");
+        head.append("x-ms-request-charge: ").append(response.charge).append("\r\n");
+        head.append("x-ms-activity-id: ").append(UUID.randomUUID()).append("\r\n");
+        for (Map.Entry<String, String> header : response.headers.entrySet()) {
+            head.append(header.getKey()).append(": ").append(header.getValue()).append("\r\n");
+        }
+        if (response.status != 204 && response.status != 304) {
+            head.append("Content-Length: ").append(body.length).append("\r\n");
+        }
+        head.append("\r\n");
+        outputStream.write(head.toString().getBytes(StandardCharsets.UTF_8));
+        outputStream.write(body);
+        outputStream.flush();
+    }
+
+    private static String getReasonPhrase(int status) {
+        switch (status) {
+            case 200:
+                return "OK";
+            case 201:
+                return "Created";
+            case 204:
+                return "No Content";
+            case 304:
+                return "Not Modified";
+            case 400:
+                return "Bad Request";
+            case 404:
+                return "Not Found";
+            case 405:
+                return "Method Not Allowed";
+            case 409:
+                return "Conflict";
+            case 412:
+                return "Precondition Failed";
+            case 429:
+                return "Too Many Requests";
+            case 503:
+                return "Service Unavailable";
+            default:
+                return "Internal Server Error";
+        }
+    }
+
+    private static Response ok(int status, JSONObject body, double charge) {
+        return new Response(status, body == null ? null : toJson(body), charge);
+    }
+
+    /**
+     * Serializes a resource as Cosmos DB would. JSONObject writes doubles with integral values without their
+     * fraction, e.g. 109.0 as 109, which the DocumentClient would read back as an integer.
+     */
+    private static String toJson(Object value) {
+        if (value instanceof JSONObject) {
+            JSONObject object = (JSONObject) value;
+            StringBuilder json = new StringBuilder("{");
+            for (String key : JSONObject.getNames(object) == null ? new String[0] : JSONObject.getNames(object)) {
+                if (json.length() > 1) {
+                    json.append(',');
+                }
+                json.append(JSONObject.quote(key)).append(':').append(toJson(object.get(key)));
+            }
+            return json.append('}').toString();
+        } else if (value instanceof JSONArray) {
+            JSONArray array = (JSONArray) value;
+            StringBuilder json = new StringBuilder("[");
+            for (int i = 0; i < array.length(); i++) {
+                if (i > 0) {
+                    json.append(',');
+                }
+                json.append(toJson(array.get(i)));
+            }
+            return json.append(']').toString();
+        } else if (value instanceof String) {
+            return JSONObject.quote((String) value);
+        } else if (value instanceof Double || value instanceof Float) {
+            return Double.toString(((Number) value).doubleValue());
+        }
+        return String.valueOf(value);
+    }
+
+    private static Response withEtag(Response response, JSONObject resource) {
+        response.headers.put("etag", resource.getString("_etag"));
+        return response;
+    }
+
+    private static Response error(int status, String code, String message) {
+        return new Response(status, new JSONObject().put("code", code).put("message", message).toString(),
+                status == 429 ? 0 : METADATA_CHARGE);
+    }
+
+    private static RequestException notFound() {
+        return new RequestException(404, "NotFound", "Resource Not Found");
+    }
+
+    private static RequestException conflict() {
+        return new RequestException(409, "Conflict", "Resource with specified id or name already exists.");
+    }
+
+    private static RequestException methodNotAllowed(String method) {
+        return new RequestException(405, "MethodNotAllowed", "Method '" + method + "' is not allowed.");
+    }
+
+    /**
+     * The requests made by a stored procedure, performed on the collection it runs in, while holding the lock of the
+     * collection.
+     */
+    private class ProcedureHost implements CosmosEmulatorProcedures.Host {
+
+        private final Collection collection;
+        private final String partitionKey;
+        private int remainingOperations = procedureOperationLimit;
+        private double charge;
+
+        private ProcedureHost(Collection collection, String partitionKey) {
+            this.collection = collection;
+            this.partitionKey = partitionKey;
+        }
+
+        @Override
+        public String getSelfLink() {
+            return collection.resource.getString("_self");
+        }
+
+        @Override
+        public String query(String collectionLink, String querySpec, String continuation, int pageSize) {
+            return perform(() -> {
+                //Queries of a stored procedure are scoped to the partition it is executed in.
+                JSONObject page = queryDocuments(collection, new JSONObject(querySpec), continuation, pageSize,
+                        partitionKey);
+                charge += page.getDouble("charge");
+                page.remove("charge");
+                return page;
+            });
+        }
+
+        @Override
+        public String read(String documentLink) {
+            return perform(() -> {
+                JSONObject document = getDocument(collection, getLastSegment(documentLink)).body;
+                charge += getReadCharge(document);
+                return new JSONObject().put("resource", document);
+            });
+        }
+
+        @Override
+        public String create(String collectionLink, String document, boolean upsert) {
+            return perform(() -> {
+                JSONObject body = new JSONObject(document);
+                //Stored procedures generate the ids of documents created without one.
+                if (body.optString("id").isEmpty()) {
+                    body.put("id", UUID.randomUUID().toString());
+                }
+                JSONObject created = createDocument(collection, body, upsert);
+                charge += getWriteCharge(created);
+                return new JSONObject().put("resource", created);
+            });
+        }
+
+        @Override
+        public String replace(String documentLink, String document) {
+            return perform(() -> {
+                JSONObject replaced = replaceDocument(collection,
+                        getDocument(collection, getLastSegment(documentLink)), new JSONObject(document));
+                charge += getWriteCharge(replaced);
+                return new JSONObject().put("resource", replaced);
+            });
+        }
+
+        @Override
+        public String remove(String documentLink) {
+            return perform(() -> {
+                Document document = getDocument(collection, getLastSegment(documentLink));
+                deleteDocument(collection, document);
+                charge += getWriteCharge(document.body);
+                return new JSONObject();
+            });
+        }
+
+        private String perform(Operation operation) {
+            if (remainingOperations-- <= 0) {
+                return null;
+            }
+            try {
+                return operation.perform().toString();
+            } catch (RequestException e) {
+                return new JSONObject().put("error", new JSONObject().put("number", e.status)
+                        .put("message", e.getMessage())).toString();
+            }
+        }
+
+        private String getLastSegment(String link) {
+            List<String> path = parsePath(link);
+            return path.get(path.size() - 1);
+        }
+    }
+
+    /**
+     * A request performed by a stored procedure.
+     */
+    private interface Operation {
+
+        JSONObject perform();
+    }
+
+    /**
+     * An emulated database.
+     */
+    private static class Database {
+
+        private final String id;
+        private final String rid;
+        private final JSONObject resource;
+        private final Map<String, Collection> collections = new LinkedHashMap<>();
+        private final AtomicInteger collectionSequence = new AtomicInteger();
+
+        private Database(String id, int sequence) {
+            this.id = id;
+            this.rid = toRid(ByteBuffer.allocate(4).putInt(sequence));
+            this.resource = new JSONObject().put("id", id).put("_colls", "colls/").put("_users", "users/");
+            addSystemProperties(resource, rid, "dbs/" + rid + "/");
+        }
+    }
+
+    /**
+     * An emulated collection, holding its documents in the order they were created.
+     */
+    private static class Collection {
+
+        private final String id;
+        private final String rid;
+        private final int databaseSequence;
+        private final int collectionSequence;
+        private final JSONObject resource;
+        private final LinkedHashMap<String, Document> documents = new LinkedHashMap<>();
+        private final Map<String, String> documentIds = new HashMap<>();
+        private final Map<String, JSONObject> procedures = new LinkedHashMap<>();
+        private long documentSequence;
+        private long procedureSequence;
+        private long lsn;
+
+        private Collection(Database database, JSONObject definition, int sequence) {
+            this.id = definition.getString("id");
+            this.databaseSequence = ByteBuffer.wrap(Base64.getDecoder().decode(database.rid.replace('-', '/')))
+                    .getInt();
+            //Collection ids are distinguished from user ids by their most significant bit.
+            this.collectionSequence = sequence | 0x80000000;
+            this.rid = toRid(ByteBuffer.allocate(8).putInt(databaseSequence).putInt(collectionSequence));
+            this.resource = definition;
+            if (!resource.has("indexingPolicy")) {
+                resource.put("indexingPolicy", new JSONObject().put("automatic", true)
+                        .put("indexingMode", "Consistent"));
+            }
+            resource.put("_docs", "docs/").put("_sprocs", "sprocs/").put("_triggers", "triggers/")
+                    .put("_udfs", "udfs/").put("_conflicts", "conflicts/");
+            addSystemProperties(resource, rid, database.resource.getString("_self") + "colls/" + rid + "/");
+        }
+
+        private String childRid(long child) {
+            return toRid(ByteBuffer.allocate(16).putInt(databaseSequence).putInt(collectionSequence)
+                    .putLong(child));
+        }
+    }
+
+    /**
+     * An emulated document, along with its position in the collection.
+     */
+    private static class Document {
+
+        private final long sequence;
+        private final JSONObject body;
+
+        private Document(long sequence, JSONObject body) {
+            this.sequence = sequence;
+            this.body = body;
+        }
+    }
+
+    /**
+     * A response to a request.
+     */
+    private static class Response {
+
+        private final int status;
+        private final double charge;
+        private final Map<String, String> headers = new HashMap<>();
+        private String body;
+
+        private Response(int status, String body, double charge) {
+            this.status = status;
+            this.body = body;
+            this.charge = charge;
+        }
+    }
+
+    /**
+     * An error response to a request.
+     */
+    private static class RequestException extends RuntimeException {
+
+        private static final long serialVersionUID = 1L;
+        private final int status;
+        private final String code;
+
+        private RequestException(int status, String code, String message) {
+            super(message);
+            this.status = status;
+            this.code = code;
+        }
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright (c) 2019, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+
+
+package io.siddhi.extension.store.cosmosdb;
+
+import javax.script.Bindings;
+import javax.script.Compilable;
+import javax.script.CompiledScript;
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineManager;
+import javax.script.ScriptException;
+
+/**
+ * Runs the stored procedures registered in {@link CosmosEmulator}, with the JavaScript engine of the JVM. The server
+ * side API of Cosmos DB used by the procedures (getContext(), the collection functions and their callbacks) is shimmed
+ * on top of a {@link Host}, which performs the requests against the emulated collection. As in Cosmos DB, callbacks
+ * run after the function issuing the request returns, and requests are not accepted once the budget of the execution
+ * is spent.
+ */
+final class CosmosEmulatorProcedures {
+
+    private static final String CONTEXT_SCRIPT = "" +
+            "var __callbacks = [];\n" +
+            "var __response = {\n" +
+            "    body: undefined,\n" +
+            "    setBody: function (body) { this.body = body; },\n" +
+            "    getBody: function () { return this.body; }\n" +
+            "};\n" +
+            "function __request(result, options, callback, invoke) {\n" +
+            "    if (typeof options === 'function') {\n" +
+            "        callback = options;\n" +
+            "    }\n" +
+            "    if (result === null) {\n" +
+            "        return false;\n" +
+            "    }\n" +
+            "    var response = JSON.parse(result);\n" +
+            "    __callbacks.push(function () {\n" +
+            "        if (typeof callback === 'function') {\n" +
+            "            invoke(callback, response);\n" +
+            "        } else if (response.error) {\n" +
+            "            throw new Error(response.error.message);\n" +
+            "        }\n" +
+            "    });\n" +
+            "    return true;\n" +
+            "}\n" +
+            "function __continuation(options) {\n" +
+            "    return options && typeof options === 'object' && options.continuation ?\n" +
+            "        String(options.continuation) : null;\n" +
+            "}\n" +
+            "function __pageSize(options) {\n" +
+            "    return options && typeof options === 'object' && options.pageSize > 0 ? options.pageSize : 100;\n" +
+            "}\n" +
+            "var __collection = {\n" +
+            "    getSelfLink: function () { return String(__host.getSelfLink()); },\n" +
+            "    queryDocuments: function (link, query, options, callback) {\n" +
+            "        var spec = typeof query === 'string' ? {query: query} : query;\n" +
+            "        return __request(__host.query(link, JSON.stringify(spec), __continuation(options),\n" +
+            "                __pageSize(options)), options, callback, function (callback, response) {\n" +
+            "            callback(response.error, response.documents,\n" +
+            "                {continuation: response.continuation === null ? undefined : response.continuation});\n" +
+            "        });\n" +
+            "    },\n" +
+            "    readDocument: function (link, options, callback) {\n" +
+            "        return __request(__host.read(link), options, callback, function (callback, response) {\n" +
+            "            callback(response.error, response.resource, {});\n" +
+            "        });\n" +
+            "    },\n" +
+            "    createDocument: function (link, document, options, callback) {\n" +
+            "        return __request(__host.create(link, JSON.stringify(document), false), options, callback,\n" +
+            "            function (callback, response) { callback(response.error, response.resource, {}); });\n" +
+            "    },\n" +
+            "    upsertDocument: function (link, document, options, callback) {\n" +
+            "        return __request(__host.create(link, JSON.stringify(document), true), options, callback,\n" +
+            "            function (callback, response) { callback(response.error, response.resource, {}); });\n" +
+            "    },\n" +
+            "    replaceDocument: function (link, document, options, callback) {\n" +
+            "        return __request(__host.replace(link, JSON.stringify(document)), options, callback,\n" +
+            "            function (callback, response) { callback(response.error, response.resource, {}); });\n" +
+            "    },\n" +
+            "    deleteDocument: function (link, options, callback) {\n" +
+            "        return __request(__host.remove(link), options, callback, function (callback, response) {\n" +
+            "            callback(response.error, {});\n" +
+            "        });\n" +
+            "    }\n" +
+            "};\n" +
+            "var __context = {\n" +
+            "    getCollection: function () { return __collection; },\n" +
+            "    getResponse: function () { return __response; }\n" +
+            "};\n" +
+            "function getContext() {\n" +
+            "    return __context;\n" +
+            "}\n" +
+            "function __execute(procedure, parameters) {\n" +
+            "    procedure.apply(null, JSON.parse(parameters));\n" +
+            "    while (__callbacks.length > 0) {\n" +
+            "        __callbacks.shift()();\n" +
+            "    }\n" +
+            "    return __response.body === undefined ? null : JSON.stringify(__response.body);\n" +
+            "}\n" +
+            "__execute(eval('(' + __body + ')'), __parameters);";
+
+    private final ScriptEngine engine;
+    private final CompiledScript contextScript;
+
+    CosmosEmulatorProcedures() {
+        ScriptEngine scriptEngine = new ScriptEngineManager().getEngineByName("javascript");
+        CompiledScript script = null;
+        if (scriptEngine instanceof Compilable) {
+            try {
+                script = ((Compilable) scriptEngine).compile(CONTEXT_SCRIPT);
+            } catch (ScriptException e) {
+                throw new IllegalStateException("Failed to compile the stored procedure context. ", e);
+            }
+        }
+        this.engine = script == null ? null : scriptEngine;
+        this.contextScript = script;
+    }
+
+    /**
+     * @return whether stored procedures can be run, i.e. whether the JVM provides a JavaScript engine.
+     */
+    boolean isAvailable() {
+        return contextScript != null;
+    }
+
+    /**
+     * Runs a stored procedure.
+     *
+     * @param body       the JavaScript body of the procedure.
+     * @param parameters the JSON array of the parameters of the procedure.
+     * @param host       the host performing the requests of the procedure.
+     * @return the JSON body of the response of the procedure, or null if the procedure did not set it.
+     * @throws ScriptException if the procedure failed.
+     */
+    String execute(String body, String parameters, Host host) throws ScriptException {
+        Bindings bindings = engine.createBindings();
+        bindings.put("__host", host);
+        bindings.put("__body", body);
+        bindings.put("__parameters", parameters);
+        Object result = contextScript.eval(bindings);
+        return result == null ? null : result.toString();
+    }
+
+    /**
+     * The requests a stored procedure can perform. Each request returns the JSON of its response, i.e. an object
+     * holding either the 'error' ({number, message}) or the 'resource' (or the 'documents' and 'continuation' of a
+     * query), or null if the request is not accepted since the budget of the execution is spent.
+     */
+    public interface Host {
+
+        String getSelfLink();
+
+        String query(String collectionLink, String querySpec, String continuation, int pageSize);
+
+        String read(String documentLink);
+
+        String create(String collectionLink, String document, boolean upsert);
+
+        String replace(String documentLink, String document);
+
+        String remove(String documentLink);
+    }
+}
@@ -0,0 +1,755 @@
+/*
+ * Copyright (c) 2019, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+
+
+package io.siddhi.extension.store.cosmosdb;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * A query of the Cosmos DB SQL subset served by {@link CosmosEmulator}, i.e. the queries emitted by the CosmosDB Event
+ * Table and its tests: 'SELECT [TOP n] * | expression [AS name], ... FROM source [alias] [WHERE condition]
+ * [GROUP BY expression, ...] [ORDER BY path [ASC|DESC]] [OFFSET n LIMIT m]', where expressions are built of paths,
+ * parameters, literals, comparisons, arithmetic, AND/OR/NOT, IN, a few string functions, ARRAY_CONTAINS and the
+ * aggregate functions SUM, AVG, MIN, MAX and COUNT. Values are compared with the semantics of Cosmos DB, e.g. ordering
+ * values of different types yields undefined, which does not match, while such values are never equal.
+ */
+final class CosmosEmulatorQuery {
+
+    static final Object UNDEFINED = new Object();
+
+    private final int top;
+    private final List<SelectItem> selection;
+    private final Expression condition;
+    private final List<Expression> groupBy;
+    private final Expression orderBy;
+    private final boolean descending;
+    private final int offset;
+    private final int limit;
+    private final List<Aggregate> aggregates;
+
+    private CosmosEmulatorQuery(Parser parser) {
+        this.top = parser.top;
+        this.selection = parser.selection;
+        this.condition = parser.condition;
+        this.groupBy = parser.groupBy;
+        this.orderBy = parser.orderBy;
+        this.descending = parser.descending;
+        this.offset = parser.offset;
+        this.limit = parser.limit;
+        this.aggregates = parser.aggregates;
+    }
+
+    /**
+     * Parses a query.
+     *
+     * @param query the query text.
+     * @return the parsed query.
+     * @throws IllegalArgumentException if the query is not part of the supported subset.
+     */
+    static CosmosEmulatorQuery parse(String query) {
+        return new Parser(query).parseQuery();
+    }
+
+    /**
+     * @return the maximum number of results of the query, or -1 if the query has no TOP clause.
+     */
+    int getTop() {
+        return top;
+    }
+
+    /**
+     * Checks whether the results of the query can be produced one document at a time, i.e. whether the query neither
+     * aggregates, groups, orders nor skips documents.
+     *
+     * @return true if the query can be streamed.
+     */
+    boolean isStreamable() {
+        return aggregates.isEmpty() && groupBy == null && orderBy == null && offset < 0;
+    }
+
+    boolean matches(JSONObject document, Map<String, Object> parameters) {
+        return condition == null || Boolean.TRUE.equals(condition.evaluate(document, parameters));
+    }
+
+    JSONObject project(JSONObject document, Map<String, Object> parameters) {
+        if (selection == null) {
+            return document;
+        }
+        JSONObject result = new JSONObject();
+        for (SelectItem item : selection) {
+            Object value = item.expression.evaluate(document, parameters);
+            if (value != UNDEFINED) {
+                result.put(item.name, value);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Evaluates the query over the given documents, as a whole.
+     *
+     * @param documents  the documents queried.
+     * @param parameters the values of the parameters of the query.
+     * @return the results of the query, including TOP and OFFSET/LIMIT.
+     */
+    List<JSONObject> evaluate(List<JSONObject> documents, Map<String, Object> parameters) {
+        List<JSONObject> matched = documents.stream().filter(document -> matches(document, parameters))
+                .collect(Collectors.toList());
+        List<JSONObject> results = new ArrayList<>();
+        if (!aggregates.isEmpty() || groupBy != null) {
+            Map<String, List<JSONObject>> groups = new LinkedHashMap<>();
+            if (groupBy == null) {
+                groups.put("", matched);
+            }
+            for (JSONObject document : groupBy == null ? new ArrayList<JSONObject>() : matched) {
+                String key = groupBy.stream().map(expression -> toKey(expression.evaluate(document, parameters)))
+                        .collect(Collectors.joining(","));
+                groups.computeIfAbsent(key, k -> new ArrayList<>()).add(document);
+            }
+            for (List<JSONObject> group : groups.values()) {
+                //Aggregates are looked up by the expressions referring to them, as parameters of the group.
+                Map<String, Object> groupParameters = new HashMap<>(parameters);
+                for (Aggregate aggregate : aggregates) {
+                    groupParameters.put(aggregate.key, aggregate.evaluate(group, parameters));
+                }
+                results.add(project(group.isEmpty() ? new JSONObject() : group.get(0), groupParameters));
+            }
+        } else {
+            if (orderBy != null) {
+                //Cosmos DB leaves out the documents which do not define the ordering property.
+                matched.removeIf(document -> orderBy.evaluate(document, parameters) == UNDEFINED);
+                Comparator<JSONObject> comparator = (left, right) -> {
+                    Integer comparison = compare(orderBy.evaluate(left, parameters),
+                            orderBy.evaluate(right, parameters));
+                    return comparison == null ? 0 : comparison;
+                };
+                matched.sort(descending ? comparator.reversed() : comparator);
+            }
+            for (JSONObject document : matched) {
+                results.add(project(document, parameters));
+            }
+        }
+        if (offset >= 0) {
+            results = results.subList(Math.min(offset, results.size()),
+                    (int) Math.min((long) offset + limit, results.size()));
+        }
+        if (top >= 0 && results.size() > top) {
+            results = results.subList(0, top);
+        }
+        return results;
+    }
+
+    private static String toKey(Object value) {
+        return value == UNDEFINED ? "undefined" : JSONObject.valueToString(value);
+    }
+
+    private static Object resolvePath(JSONObject document, String[] path) {
+        Object value = document;
+        for (String property : path) {
+            if (!(value instanceof JSONObject) || !((JSONObject) value).has(property)) {
+                return UNDEFINED;
+            }
+            value = ((JSONObject) value).get(property);
+        }
+        return value;
+    }
+
+    private static Integer compare(Object left, Object right) {
+        if (left instanceof Number && right instanceof Number) {
+            return Double.compare(((Number) left).doubleValue(), ((Number) right).doubleValue());
+        } else if (left instanceof String && right instanceof String) {
+            return ((String) left).compareTo((String) right);
+        } else if (left instanceof Boolean && right instanceof Boolean) {
+            return Boolean.compare((Boolean) left, (Boolean) right);
+        } else if (left == JSONObject.NULL && right == JSONObject.NULL) {
+            return 0;
+        } else if ((left instanceof JSONObject && right instanceof JSONObject) ||
+                (left instanceof JSONArray && right instanceof JSONArray)) {
+            return left.toString().equals(right.toString()) ? 0 : null;
+        }
+        return null;
+    }
+
+    private static Object and(Object left, Object right) {
+        if (Boolean.FALSE.equals(left) || Boolean.FALSE.equals(right)) {
+            return false;
+        }
+        return Boolean.TRUE.equals(left) && Boolean.TRUE.equals(right) ? true : UNDEFINED;
+    }
+
+    private static Object or(Object left, Object right) {
+        if (Boolean.TRUE.equals(left) || Boolean.TRUE.equals(right)) {
+            return true;
+        }
+        return Boolean.FALSE.equals(left) && Boolean.FALSE.equals(right) ? false : UNDEFINED;
+    }
+
+    private static Object arithmetic(String operator, Object left, Object right) {
+        if (!(left instanceof Number) || !(right instanceof Number)) {
+            return UNDEFINED;
+        }
+        double leftValue = ((Number) left).doubleValue();
+        double rightValue = ((Number) right).doubleValue();
+        switch (operator) {
+            case "+":
+                return leftValue + rightValue;
+            case "-":
+                return leftValue - rightValue;
+            case "*":
+                return leftValue * rightValue;
+            case "/":
+                return rightValue == 0 ? UNDEFINED : leftValue / rightValue;
+            default:
+                return rightValue == 0 ? UNDEFINED : leftValue % rightValue;
+        }
+    }
+
+    private static Object aggregate(String name, List<Object> values) {
+        if (name.equals("COUNT")) {
+            return (long) values.size();
+        }
+        if (values.isEmpty()) {
+            return name.equals("SUM") ? (Object) 0L : UNDEFINED;
+        }
+        if (name.equals("MIN") || name.equals("MAX")) {
+            Object result = values.get(0);
+            for (Object value : values) {
+                Integer comparison = compare(value, result);
+                if (comparison == null) {
+                    return UNDEFINED;
+                } else if (name.equals("MIN") ? comparison < 0 : comparison > 0) {
+                    result = value;
+                }
+            }
+            return result;
+        }
+        boolean integral = true;
+        double sum = 0;
+        for (Object value : values) {
+            if (!(value instanceof Number)) {
+                return UNDEFINED;
+            }
+            integral &= value instanceof Integer || value instanceof Long;
+            sum += ((Number) value).doubleValue();
+        }
+        if (name.equals("AVG")) {
+            return sum / values.size();
+        }
+        return integral ? (Object) (long) sum : sum;
+    }
+
+    private static Object function(String name, List<Object> arguments) {
+        switch (name) {
+            case "IS_DEFINED":
+                return arguments.get(0) != UNDEFINED;
+            case "IS_NULL":
+                return arguments.get(0) == JSONObject.NULL;
+            case "ARRAY_CONTAINS":
+                if (!(arguments.get(0) instanceof JSONArray)) {
+                    return UNDEFINED;
+                }
+                JSONArray elements = (JSONArray) arguments.get(0);
+                for (int i = 0; i < elements.length(); i++) {
+                    Integer comparison = compare(elements.get(i), arguments.get(1));
+                    if (comparison != null && comparison == 0) {
+                        return true;
+                    }
+                }
+                return false;
+            default:
+                break;
+        }
+        for (Object argument : arguments) {
+            if (!(argument instanceof String)) {
+                return UNDEFINED;
+            }
+        }
+        String value = (String) arguments.get(0);
+        switch (name) {
+            case "CONTAINS":
+                return value.contains((String) arguments.get(1));
+            case "STARTSWITH":
+                return value.startsWith((String) arguments.get(1));
+            case "ENDSWITH":
+                return value.endsWith((String) arguments.get(1));
+            case "LOWER":
+                return value.toLowerCase(Locale.ENGLISH);
+            default:
+                return value.toUpperCase(Locale.ENGLISH);
+        }
+    }
+
+    /**
+     * An expression of a condition, evaluated against a document.
+     */
+    private interface Expression {
+
+        Object evaluate(JSONObject document, Map<String, Object> parameters);
+    }
+
+    /**
+     * An expression of the select clause, along with the name of the property it is projected to.
+     */
+    private static class SelectItem {
+
+        private final Expression expression;
+        private final String name;
+
+        private SelectItem(Expression expression, String name) {
+            this.expression = expression;
+            this.name = name;
+        }
+    }
+
+    /**
+     * An aggregate function of the select clause, evaluated over the documents of a group.
+     */
+    private static class Aggregate {
+
+        private final String function;
+        private final Expression argument;
+        private final String key;
+
+        private Aggregate(String function, Expression argument, String key) {
+            this.function = function;
+            this.argument = argument;
+            this.key = key;
+        }
+
+        private Object evaluate(List<JSONObject> documents, Map<String, Object> parameters) {
+            List<Object> values = new ArrayList<>(documents.size());
+            for (JSONObject document : documents) {
+                Object value = argument.evaluate(document, parameters);
+                if (value != UNDEFINED) {
+                    values.add(value);
+                }
+            }
+            return aggregate(function, values);
+        }
+    }
+
+    /**
+     * A recursive descent parser of queries.
+     */
+    private static class Parser {
+
+        private static final String[] FUNCTIONS = {"CONTAINS", "STARTSWITH", "ENDSWITH", "LOWER", "UPPER",
+                "IS_DEFINED", "IS_NULL", "ARRAY_CONTAINS"};
+        private static final String[] AGGREGATES = {"SUM", "AVG", "MIN", "MAX", "COUNT"};
+        private static final String[] CLAUSES = {"WHERE", "GROUP", "ORDER", "OFFSET"};
+        private final String query;
+        private final List<String> tokens = new ArrayList<>();
+        private int position;
+        private String alias;
+        private int top = -1;
+        private List<SelectItem> selection;
+        private Expression condition;
+        private List<Expression> groupBy;
+        private Expression orderBy;
+        private boolean descending;
+        private int offset = -1;
+        private int limit = -1;
+        private final List<Aggregate> aggregates = new ArrayList<>();
+
+        private Parser(String query) {
+            this.query = query;
+            tokenize();
+        }
+
+        private void tokenize() {
+            int index = 0;
+            while (index < query.length()) {
+                char character = query.charAt(index);
+                if (Character.isWhitespace(character)) {
+                    index++;
+                    continue;
+                }
+                int start = index;
+                if (character == '\'' || character == '"') {
+                    StringBuilder literal = new StringBuilder().append('\'');
+                    index++;
+                    while (index < query.length() && query.charAt(index) != character) {
+                        if (query.charAt(index) == '\\' && index + 1 < query.length()) {
+                            index++;
+                        }
+                        literal.append(query.charAt(index++));
+                    }
+                    if (index++ >= query.length()) {
+                        throw error("Unterminated string literal");
+                    }
+                    tokens.add(literal.toString());
+                    continue;
+                } else if (Character.isLetter(character) || character == '_' || character == '@') {
+                    index++;
+                    while (index < query.length() &&
+                            (Character.isLetterOrDigit(query.charAt(index)) || query.charAt(index) == '_')) {
+                        index++;
+                    }
+                } else if (Character.isDigit(character)) {
+                    while (index < query.length() &&
+                            (Character.isDigit(query.charAt(index)) || query.charAt(index) == '.')) {
+                        index++;
+                    }
+                } else if (query.startsWith("<=", index) || query.startsWith(">=", index) ||
+                        query.startsWith("!=", index) || query.startsWith("<>", index)) {
+                    index += 2;
+                } else if ("=<>+-*/%(),.".indexOf(character) >= 0) {
+                    index++;
+                } else {
+                    throw error("Unexpected character '" + character + "'");
+                }
+                tokens.add(query.substring(start, index));
+            }
+        }
+
+        private CosmosEmulatorQuery parseQuery() {
+            resolveAlias();
+            expect("SELECT");
+            if (accept("TOP")) {
+                top = Integer.parseInt(next());
+            }
+            if (!accept("*")) {
+                selection = new ArrayList<>();
+                do {
+                    selection.add(parseSelectItem());
+                } while (accept(","));
+            }
+            expect("FROM");
+            next();
+            if (position < tokens.size() && !isClause(tokens.get(position))) {
+                accept("AS");
+                next();
+            }
+            if (accept("WHERE")) {
+                condition = parseOr();
+            }
+            if (accept("GROUP")) {
+                expect("BY");
+                groupBy = new ArrayList<>();
+                do {
+                    groupBy.add(parseOr());
+                } while (accept(","));
+            }
+            if (accept("ORDER")) {
+                expect("BY");
+                orderBy = parsePrimary();
+                descending = accept("DESC");
+                if (!descending) {
+                    accept("ASC");
+                }
+            }
+            if (accept("OFFSET")) {
+                offset = Integer.parseInt(next());
+                expect("LIMIT");
+                limit = Integer.parseInt(next());
+            }
+            if (position < tokens.size()) {
+                throw error("Unexpected token '" + tokens.get(position) + "'");
+            }
+            return new CosmosEmulatorQuery(this);
+        }
+
+        /**
+         * Finds the alias of the source ahead of parsing, since the select clause refers to it before it is defined.
+         */
+        private void resolveAlias() {
+            int depth = 0;
+            for (int index = 0; index < tokens.size() - 1; index++) {
+                String token = tokens.get(index);
+                if (token.equals("(")) {
+                    depth++;
+                } else if (token.equals(")")) {
+                    depth--;
+                } else if (depth == 0 && token.equalsIgnoreCase("FROM")) {
+                    alias = tokens.get(index + 1);
+                    if (index + 2 < tokens.size() && !isClause(tokens.get(index + 2))) {
+                        alias = tokens.get(tokens.get(index + 2).equalsIgnoreCase("AS") ? index + 3 : index + 2);
+                    }
+                    return;
+                }
+            }
+            throw error("Expected 'FROM'");
+        }
+
+        private static boolean isClause(String token) {
+            for (String clause : CLAUSES) {
+                if (clause.equalsIgnoreCase(token)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private SelectItem parseSelectItem() {
+            int start = position;
+            Expression expression = parseOr();
+            String name;
+            if (accept("AS")) {
+                name = next();
+            } else if (position - start >= 3 && tokens.get(start).equals(alias) &&
+                    tokens.get(position - 2).equals(".")) {
+                //A path is projected to its last property.
+                name = tokens.get(position - 1);
+            } else {
+                name = "$" + (selection.size() + 1);
+            }
+            return new SelectItem(expression, name);
+        }
+
+        private Expression parseOr() {
+            Expression left = parseAnd();
+            while (accept("OR")) {
+                Expression leftOperand = left;
+                Expression rightOperand = parseAnd();
+                left = (document, parameters) -> or(leftOperand.evaluate(document, parameters),
+                        rightOperand.evaluate(document, parameters));
+            }
+            return left;
+        }
+
+        private Expression parseAnd() {
+            Expression left = parseNot();
+            while (accept("AND")) {
+                Expression leftOperand = left;
+                Expression rightOperand = parseNot();
+                left = (document, parameters) -> and(leftOperand.evaluate(document, parameters),
+                        rightOperand.evaluate(document, parameters));
+            }
+            return left;
+        }
+
+        private Expression parseNot() {
+            if (accept("NOT")) {
+                Expression operand = parseNot();
+                return (document, parameters) -> {
+                    Object value = operand.evaluate(document, parameters);
+                    return value instanceof Boolean ? !(Boolean) value : UNDEFINED;
+                };
+            }
+            return parseComparison();
+        }
+
+        private Expression parseComparison() {
+            Expression left = parseAdditive();
+            if (accept("IN")) {
+                List<Expression> values = parseArguments();
+                return (document, parameters) -> {
+                    Object value = left.evaluate(document, parameters);
+                    for (Expression candidate : values) {
+                        Integer comparison = compare(value, candidate.evaluate(document, parameters));
+                        if (comparison != null && comparison == 0) {
+                            return true;
+                        }
+                    }
+                    return value == UNDEFINED ? UNDEFINED : false;
+                };
+            }
+            if (position >= tokens.size() || !isComparisonOperator(tokens.get(position))) {
+                return left;
+            }
+            String operator = next();
+            Expression right = parseAdditive();
+            return (document, parameters) -> {
+                Object leftValue = left.evaluate(document, parameters);
+                Object rightValue = right.evaluate(document, parameters);
+                Integer comparison = compare(leftValue, rightValue);
+                if (comparison == null) {
+                    //Defined values of different types are unequal, which the table relies on for 'is null'.
+                    boolean defined = leftValue != UNDEFINED && rightValue != UNDEFINED;
+                    if (defined && operator.equals("=")) {
+                        return false;
+                    } else if (defined && (operator.equals("!=") || operator.equals("<>"))) {
+                        return true;
+                    }
+                    return UNDEFINED;
+                }
+                switch (operator) {
+                    case "=":
+                        return comparison == 0;
+                    case "!=":
+                    case "<>":
+                        return comparison != 0;
+                    case "<":
+                        return comparison < 0;
+                    case "<=":
+                        return comparison <= 0;
+                    case ">":
+                        return comparison > 0;
+                    default:
+                        return comparison >= 0;
+                }
+            };
+        }
+
+        private static boolean isComparisonOperator(String token) {
+            return token.equals("=") || token.equals("!=") || token.equals("<>") || token.equals("<") ||
+                    token.equals("<=") || token.equals(">") || token.equals(">=");
+        }
+
+        private Expression parseAdditive() {
+            Expression left = parseMultiplicative();
+            while (peek("+") || peek("-")) {
+                String operator = next();
+                Expression leftOperand = left;
+                Expression rightOperand = parseMultiplicative();
+                left = (document, parameters) -> arithmetic(operator, leftOperand.evaluate(document, parameters),
+                        rightOperand.evaluate(document, parameters));
+            }
+            return left;
+        }
+
+        private Expression parseMultiplicative() {
+            Expression left = parseUnary();
+            while (peek("*") || peek("/") || peek("%")) {
+                String operator = next();
+                Expression leftOperand = left;
+                Expression rightOperand = parseUnary();
+                left = (document, parameters) -> arithmetic(operator, leftOperand.evaluate(document, parameters),
+                        rightOperand.evaluate(document, parameters));
+            }
+            return left;
+        }
+
+        private Expression parseUnary() {
+            if (accept("-")) {
+                Expression operand = parseUnary();
+                return (document, parameters) -> arithmetic("-", 0, operand.evaluate(document, parameters));
+            }
+            return parsePrimary();
+        }
+
+        private Expression parsePrimary() {
+            String token = next();
+            if (token.equals("(")) {
+                Expression expression = parseOr();
+                expect(")");
+                return expression;
+            } else if (token.startsWith("'")) {
+                String value = token.substring(1);
+                return (document, parameters) -> value;
+            } else if (Character.isDigit(token.charAt(0))) {
+                Object value = token.contains(".") ? (Object) Double.parseDouble(token) : Long.parseLong(token);
+                return (document, parameters) -> value;
+            } else if (token.startsWith("@")) {
+                return (document, parameters) -> parameters.containsKey(token) ? parameters.get(token) : UNDEFINED;
+            }
+            String keyword = token.toUpperCase(Locale.ENGLISH);
+            switch (keyword) {
+                case "TRUE":
+                    return (document, parameters) -> true;
+                case "FALSE":
+                    return (document, parameters) -> false;
+                case "NULL":
+                    return (document, parameters) -> JSONObject.NULL;
+                case "UNDEFINED":
+                    return (document, parameters) -> UNDEFINED;
+                default:
+                    break;
+            }
+            if (peek("(")) {
+                for (String function : AGGREGATES) {
+                    if (function.equals(keyword)) {
+                        List<Expression> arguments = parseArguments();
+                        if (arguments.size() != 1) {
+                            throw error("Function '" + token + "' expects a single argument");
+                        }
+                        String key = "$aggregate" + aggregates.size();
+                        aggregates.add(new Aggregate(function, arguments.get(0), key));
+                        return (document, parameters) -> parameters.containsKey(key) ? parameters.get(key) :
+                                UNDEFINED;
+                    }
+                }
+                for (String function : FUNCTIONS) {
+                    if (function.equals(keyword)) {
+                        List<Expression> arguments = parseArguments();
+                        return (document, parameters) -> {
+                            List<Object> values = new ArrayList<>(arguments.size());
+                            for (Expression argument : arguments) {
+                                values.add(argument.evaluate(document, parameters));
+                            }
+                            return function(function, values);
+                        };
+                    }
+                }
+                throw error("Unsupported function '" + token + "'");
+            }
+            if (!token.equals(alias) && !token.equals("root")) {
+                throw error("Identifier '" + token + "' could not be resolved");
+            }
+            List<String> path = new ArrayList<>();
+            while (accept(".")) {
+                path.add(next());
+            }
+            String[] properties = path.toArray(new String[0]);
+            return (document, parameters) -> resolvePath(document, properties);
+        }
+
+        private List<Expression> parseArguments() {
+            expect("(");
+            List<Expression> arguments = new ArrayList<>();
+            if (!accept(")")) {
+                do {
+                    arguments.add(parseOr());
+                } while (accept(","));
+                expect(")");
+            }
+            return arguments;
+        }
+
+        private boolean peek(String token) {
+            return position < tokens.size() && tokens.get(position).equalsIgnoreCase(token);
+        }
+
+        private boolean accept(String token) {
+            if (peek(token)) {
+                position++;
+                return true;
+            }
+            return false;
+        }
+
+        private void expect(String token) {
+            if (!accept(token)) {
+                throw error("Expected '" + token + "'");
+            }
+        }
+
+        private String next() {
+            if (position >= tokens.size()) {
+                throw error("Unexpected end of query");
+            }
+            return tokens.get(position++);
+        }
+
+        private IllegalArgumentException error(String message) {
+            return new IllegalArgumentException(message + " in query '" + query + "'. ");
+        }
+    }
+}
@@ -30,25 +30,49 @@ import com.microsoft.azure.documentdb.SqlQuerySpec;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
+import java.io.IOException;
 import java.util.List;
 
 public class CosmosTableTestUtils {
 
     private static final Log log = LogFactory.getLog(CosmosTableTestUtils.class);
-    private static final String uri = "https://foo.documents.azure.com:443/";
-    private static final String key =
-            "R2dfUS8QyaUPd3fQyRr9bnFFlne75KFv8acRvuI2HS3NYpShFiGxyGVqlerf7FkT3OdpSC7tQ==";
     private static final String databaseName = "Production";
+    private static CosmosEmulator emulator;
 
     private CosmosTableTestUtils() {
     }
 
+    /**
+     * Resolves the uri of the account the tests run against. The account is given by the 'cosmosdb.uri' and
+     * 'cosmosdb.key' system properties, and the tests run against an in-process emulator if they are not set.
+     */
     public static String resolveBaseUri() {
-        return uri;
+        String uri = System.getProperty("cosmosdb.uri");
+        return uri != null ? uri : getEmulator().getUri();
     }
 
     public static String resolveMasterKey() {
-        return key;
+        String key = System.getProperty("cosmosdb.key");
+        return key != null ? key : CosmosEmulator.MASTER_KEY;
+    }
+
+    /**
+     * Returns the emulator the tests run against, which is started on first use, or null if the tests run against
+     * an account given by the system properties.
+     */
+    public static synchronized CosmosEmulator getEmulator() {
+        if (System.getProperty("cosmosdb.uri") != null) {
+            return null;
+        }
+        if (emulator == null) {
+            try {
+                emulator = new CosmosEmulator().start();
+            } catch (IOException e) {
+                throw new IllegalStateException("Failed to start the Cosmos DB emulator. ", e);
+            }
+            emulator.createDatabase(databaseName);
+        }
+        return emulator;
     }
 
     public static String resolveDatabase() {
@@ -129,6 +153,13 @@ public class CosmosTableTestUtils {
             throw e;
         }
     }
-}
-
 
+    public static void createDocument(String uri, String accessKey, String collectionLink, Document document) {
+        try (DocumentClient documentClient = new DocumentClient(uri, accessKey, ConnectionPolicy.GetDefault(),
+                ConsistencyLevel.Session)) {
+            documentClient.createDocument(collectionLink, document, null, false);
+        } catch (DocumentClientException e) {
+            log.error("Failed to create the document", e);
+        }
+    }
+}
@@ -26,10 +26,15 @@ import io.siddhi.core.stream.input.InputHandler;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.testng.Assert;
+import org.testng.SkipException;
 import org.testng.annotations.AfterClass;
 import org.testng.annotations.BeforeClass;
 import org.testng.annotations.Test;
 
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
 
 public class DeleteFromCosmosTableTest {
 
@@ -214,4 +219,145 @@ public class DeleteFromCosmosTableTest {
                 collectionLink);
         Assert.assertEquals(totalDocumentsInCollection, 3, "Deletion failed");
     }
+
+    @Test
+    public void deleteFromCosmosTableTest6() throws InterruptedException {
+        log.info("deleteFromCosmosTableTest6 - " +
+                "Delete events of a CosmosDB table by the document id");
+
+        String collectionLink = String.format("/dbs/%s/colls/%s", database, "FooTable");
+        CosmosTableTestUtils.dropCollection(uri, key, collectionLink);
+
+        SiddhiManager siddhiManager = new SiddhiManager();
+        String streams = "" +
+                "define stream StockStream (id string, symbol string, price float, volume long); " +
+                "define stream DeleteStockStream (id string); " +
+                "@store(type = 'cosmosdb' , uri='" + uri + "', access.key='" + key + "', " +
+                "database.name='" + database + "')" +
+                "define table FooTable (id string, symbol string, price float, volume long);";
+        String query = "" +
+                "@info(name = 'query1') " +
+                "from StockStream " +
+                "insert into FooTable ;" +
+                "" +
+                "@info(name = 'query2') " +
+                "from DeleteStockStream " +
+                "delete FooTable " +
+                "   on FooTable.id == id ";
+        SiddhiAppRuntime siddhiAppRuntime = siddhiManager.createSiddhiAppRuntime(streams + query);
+        InputHandler stockStream = siddhiAppRuntime.getInputHandler("StockStream");
+        InputHandler deleteStockStream = siddhiAppRuntime.getInputHandler("DeleteStockStream");
+        siddhiAppRuntime.start();
+
+        stockStream.send(new Object[]{"1", "WSO2", 55.6F, 100L});
+        stockStream.send(new Object[]{"2", "IBM", 75.6F, 100L});
+        stockStream.send(new Object[]{"3", "WSO2", 57.6F, 100L});
+        deleteStockStream.send(new Object[]{"2"});
+        deleteStockStream.send(new Object[]{"3"});
+        deleteStockStream.send(new Object[]{"4"});
+
+        siddhiAppRuntime.shutdown();
+
+        long totalDocumentsInCollection = CosmosTableTestUtils.getDocumentsCount(uri, key, "FooTable",
+                collectionLink);
+        Assert.assertEquals(totalDocumentsInCollection, 1, "Deletion failed");
+    }
+
+    @Test
+    public void deleteFromCosmosTableTest7() throws InterruptedException {
+        log.info("deleteFromCosmosTableTest7 - " +
+                "Delete events from a CosmosDB table with bulk deletes enabled");
+
+        String collectionLink = String.format("/dbs/%s/colls/%s", database, "FooTable");
+        CosmosTableTestUtils.dropCollection(uri, key, collectionLink);
+
+        SiddhiManager siddhiManager = new SiddhiManager();
+        String streams = "" +
+                "define stream StockStream (symbol string, price float, volume long); " +
+                "define stream DeleteStockStream (symbol string, price float, volume long); " +
+                "@store(type = 'cosmosdb' , uri='" + uri + "', access.key='" + key + "', " +
+                "database.name='" + database + "', is.enable.bulk.delete='true')" +
+                "define table FooTable (symbol string, price float, volume long);";
+        String query = "" +
+                "@info(name = 'query1') " +
+                "from StockStream " +
+                "insert into FooTable;" +
+                "" +
+                "@info(name = 'query2') " +
+                "from DeleteStockStream " +
+                "delete FooTable " +
+                "   on FooTable.symbol == symbol ";
+        SiddhiAppRuntime siddhiAppRuntime = siddhiManager.createSiddhiAppRuntime(streams + query);
+
+        InputHandler stockStream = siddhiAppRuntime.getInputHandler("StockStream");
+        InputHandler deleteStockStream = siddhiAppRuntime.getInputHandler("DeleteStockStream");
+        siddhiAppRuntime.start();
+
+        for (int i = 0; i < 250; i++) {
+            stockStream.send(new Object[]{"WSO2", 55.6F + i, 100L});
+        }
+        stockStream.send(new Object[]{"IBM", 75.6F, 100L});
+        deleteStockStream.send(new Object[]{"WSO2", 57.6F, 100L});
+
+        siddhiAppRuntime.shutdown();
+
+        long totalDocumentsInCollection = CosmosTableTestUtils.getDocumentsCount(uri, key, "FooTable",
+                collectionLink);
+        Assert.assertEquals(totalDocumentsInCollection, 1, "Deletion failed");
+    }
+
+    @Test
+    public void deleteFromCosmosTableTest8() throws InterruptedException {
+        log.info("deleteFromCosmosTableTest8 - " +
+                "Delete events from a CosmosDB table partitioned by an attribute with bulk deletes enabled");
+
+        CosmosEmulator emulator = CosmosTableTestUtils.getEmulator();
+        String collectionLink = String.format("/dbs/%s/colls/%s", database, "TenantTable");
+        CosmosTableTestUtils.dropCollection(uri, key, collectionLink);
+
+        SiddhiManager siddhiManager = new SiddhiManager();
+        String streams = "" +
+                "define stream FooStream (tenant string, symbol string, volume long); " +
+                "define stream DeleteStream (tenant string); " +
+                "@store(type = 'cosmosdb' , uri='" + uri + "', access.key='" + key + "', " +
+                "database.name='" + database + "', is.enable.bulk.delete='true', " +
+                "partition.key.attribute='tenant', is.enable.cross.partition.query='true')" +
+                "define table TenantTable (tenant string, symbol string, volume long);";
+        String query = "" +
+                "@info(name = 'query1') " +
+                "from FooStream " +
+                "insert into TenantTable;" +
+                "" +
+                "@info(name = 'query2') " +
+                "from DeleteStream " +
+                "delete TenantTable " +
+                "   on TenantTable.tenant != tenant ";
+        SiddhiAppRuntime siddhiAppRuntime = siddhiManager.createSiddhiAppRuntime(streams + query);
+
+        InputHandler fooStream = siddhiAppRuntime.getInputHandler("FooStream");
+        InputHandler deleteStream = siddhiAppRuntime.getInputHandler("DeleteStream");
+        siddhiAppRuntime.start();
+
+        for (int i = 0; i < 9; i++) {
+            fooStream.send(new Object[]{"TENANT" + (i % 3), "SYMBOL" + i, 100L});
+        }
+        int procedureExecutions = emulator == null ? 0 : emulator.getProcedurePartitionKeys().size();
+        deleteStream.send(new Object[]{"TENANT1"});
+
+        siddhiAppRuntime.shutdown();
+
+        long totalDocumentsInCollection = CosmosTableTestUtils.getDocumentsCount(uri, key, "TenantTable",
+                collectionLink);
+        Assert.assertEquals(totalDocumentsInCollection, 3, "Deletion failed");
+        if (emulator != null) {
+            if (!emulator.areProceduresAvailable()) {
+                throw new SkipException("Stored procedures are not available, since the JVM has no JavaScript " +
+                        "engine.");
+            }
+            List<String> partitionKeys = emulator.getProcedurePartitionKeys();
+            Assert.assertEquals(new HashSet<>(partitionKeys.subList(procedureExecutions, partitionKeys.size())),
+                    new HashSet<>(Arrays.asList("[\"TENANT0\"]", "[\"TENANT2\"]")),
+                    "Bulk deletion was not executed on the partitions of the matching documents");
+        }
+    }
 }
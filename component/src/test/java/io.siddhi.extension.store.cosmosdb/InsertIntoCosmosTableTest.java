@@ -19,19 +19,30 @@
 
 package io.siddhi.extension.store.cosmosdb;
 
+import com.microsoft.azure.documentdb.Document;
 import io.siddhi.core.SiddhiAppRuntime;
 import io.siddhi.core.SiddhiManager;
+import io.siddhi.core.event.Event;
 import io.siddhi.core.exception.SiddhiAppCreationException;
 import io.siddhi.core.stream.input.InputHandler;
+import io.siddhi.core.stream.output.StreamCallback;
 import io.siddhi.query.api.exception.DuplicateDefinitionException;
 import io.siddhi.query.api.exception.SiddhiAppValidationException;
 import org.apache.log4j.Logger;
 import org.testng.Assert;
+import org.testng.SkipException;
 import org.testng.annotations.AfterClass;
 import org.testng.annotations.BeforeClass;
 import org.testng.annotations.Test;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class InsertIntoCosmosTableTest {
 
@@ -232,4 +243,703 @@ public class InsertIntoCosmosTableTest {
         Assert.assertEquals(totalDocumentsInCollection, 1, "Insertion failed");
 
     }
+
+    @Test
+    public void insertIntoCosmosTableTest8() throws InterruptedException {
+        log.info("insertIntoCosmosTableTest8 - Insert a batch of events to a CosmosDB table with bulk insert enabled");
+
+        String collectionLink = String.format("/dbs/%s/colls/%s", database, "FooTable");
+        CosmosTableTestUtils.dropCollection(uri, key, collectionLink);
+
+        SiddhiManager siddhiManager = new SiddhiManager();
+        String streams = "" +
+                "@source(type='inMemory', topic='stock') " +
+                "define stream FooStream (symbol string, price float, volume long); " +
+                "@store(type = 'cosmosdb' , uri='" + uri + "', access.key='" + key + "', " +
+                "database.name='" + database + "', is.enable.bulk.insert='true', bulk.insert.batch.size='2')" +
+                "define table FooTable (symbol string, price float, volume long);";
+        String query = "" +
+                "@info(name = 'query1') " +
+                "from FooStream " +
+                "select symbol, price, volume " +
+                "insert into FooTable;";
+        SiddhiAppRuntime siddhiAppRuntime = siddhiManager.createSiddhiAppRuntime(streams + query);
+        InputHandler fooStream = siddhiAppRuntime.getInputHandler("FooStream");
+        siddhiAppRuntime.start();
+
+        fooStream.send(new Event[]{
+                new Event(System.currentTimeMillis(), new Object[]{"WSO2", 55.6f, 100L}),
+                new Event(System.currentTimeMillis(), new Object[]{"IBM", 75.6f, 100L}),
+                new Event(System.currentTimeMillis(), new Object[]{"MSFT", 57.6f, 100L}),
+                new Event(System.currentTimeMillis(), new Object[]{"GOOG", 51.6f, 100L}),
+                new Event(System.currentTimeMillis(), new Object[]{"ORCL", 53.6f, 100L})
+        });
+
+        siddhiAppRuntime.shutdown();
+
+        long totalDocumentsInCollection = CosmosTableTestUtils.getDocumentsCount(uri, key, "FooTable",
+                collectionLink);
+        Assert.assertEquals(totalDocumentsInCollection, 5, "Bulk insertion failed");
+    }
+
+    @Test(expectedExceptions = SiddhiAppCreationException.class)
+    public void insertIntoCosmosTableTest9() {
+        log.info("insertIntoCosmosTableTest9 - Define a CosmosDB table with an invalid bulk insert batch size");
+
+        SiddhiManager siddhiManager = new SiddhiManager();
+        String streams = "" +
+                "@source(type='inMemory', topic='stock') " +
+                "define stream FooStream (symbol string, price float, volume long); " +
+                "@store(type = 'cosmosdb' , uri='" + uri + "', access.key='" + key + "', " +
+                "database.name='" + database + "', is.enable.bulk.insert='true', bulk.insert.batch.size='0')" +
+                "define table FooTable (symbol string, price float, volume long);";
+        String query = "" +
+                "@info(name = 'query1') " +
+                "from FooStream " +
+                "select symbol, price, volume " +
+                "insert into FooTable;";
+        SiddhiAppRuntime siddhiAppRuntime = siddhiManager.createSiddhiAppRuntime(streams + query);
+        siddhiAppRuntime.start();
+        siddhiAppRuntime.shutdown();
+    }
+
+    @Test
+    public void insertIntoCosmosTableTest10() throws InterruptedException {
+        log.info("insertIntoCosmosTableTest10 - Insert events with duplicate primary keys to a CosmosDB table");
+
+        String collectionLink = String.format("/dbs/%s/colls/%s", database, "FooTable");
+        CosmosTableTestUtils.dropCollection(uri, key, collectionLink);
+
+        SiddhiManager siddhiManager = new SiddhiManager();
+        String streams = "" +
+                "define stream StockStream (symbol string, price float, volume long); " +
+                "@store(type = 'cosmosdb' , uri='" + uri + "', access.key='" + key + "', " +
+                "database.name='" + database + "')" +
+                "@PrimaryKey('symbol')" +
+                "define table FooTable (symbol string, price float, volume long);";
+        String query = "" +
+                "@info(name = 'query1') " +
+                "from StockStream " +
+                "select symbol, price, volume " +
+                "insert into FooTable;";
+        SiddhiAppRuntime siddhiAppRuntime = siddhiManager.createSiddhiAppRuntime(streams + query);
+        InputHandler stockStream = siddhiAppRuntime.getInputHandler("StockStream");
+        siddhiAppRuntime.start();
+
+        stockStream.send(new Object[]{"WSO2", 55.6f, 100L});
+        stockStream.send(new Object[]{"IBM/2", 75.6f, 100L});
+        stockStream.send(new Object[]{"WSO2", 57.6f, 100L});
+
+        siddhiAppRuntime.shutdown();
+
+        long totalDocumentsInCollection = CosmosTableTestUtils.getDocumentsCount(uri, key, "FooTable",
+                collectionLink);
+        Assert.assertEquals(totalDocumentsInCollection, 2, "Insertion failed");
+        Document document = CosmosTableTestUtils.getDocument(uri, key, collectionLink, "FooTable",
+                "FooTable.symbol='IBM/2'");
+        Assert.assertEquals(document.getId(), "IBM%2F2", "Document id is not derived from the primary key");
+    }
+
+    @Test(expectedExceptions = SiddhiAppCreationException.class)
+    public void insertIntoCosmosTableTest11() {
+        log.info("insertIntoCosmosTableTest11 - Define a CosmosDB table with an undefined primary key attribute");
+
+        SiddhiManager siddhiManager = new SiddhiManager();
+        String streams = "" +
+                "define stream StockStream (symbol string, price float, volume long); " +
+                "@store(type = 'cosmosdb' , uri='" + uri + "', access.key='" + key + "', " +
+                "database.name='" + database + "')" +
+                "@PrimaryKey('name')" +
+                "define table FooTable (symbol string, price float, volume long);";
+        String query = "" +
+                "@info(name = 'query1') " +
+                "from StockStream " +
+                "select symbol, price, volume " +
+                "insert into FooTable;";
+        SiddhiAppRuntime siddhiAppRuntime = siddhiManager.createSiddhiAppRuntime(streams + query);
+        siddhiAppRuntime.start();
+        siddhiAppRuntime.shutdown();
+    }
+
+    @Test
+    public void insertIntoCosmosTableTest12() throws InterruptedException {
+        log.info("insertIntoCosmosTableTest12 - Insert events to CosmosDB tables sharing the writer threads");
+
+        String fooCollectionLink = String.format("/dbs/%s/colls/%s", database, "FooTable");
+        String barCollectionLink = String.format("/dbs/%s/colls/%s", database, "BarTable");
+        CosmosTableTestUtils.dropCollection(uri, key, fooCollectionLink);
+        CosmosTableTestUtils.dropCollection(uri, key, barCollectionLink);
+
+        SiddhiManager siddhiManager = new SiddhiManager();
+        String streams = "" +
+                "define stream StockStream (symbol string, price float, volume long); " +
+                "@store(type = 'cosmosdb' , uri='" + uri + "', access.key='" + key + "', " +
+                "database.name='" + database + "', execution.mode='shared', max.inflight.writes='4')" +
+                "@PrimaryKey('symbol')" +
+                "define table FooTable (symbol string, price float, volume long);" +
+                "@store(type = 'cosmosdb' , uri='" + uri + "', access.key='" + key + "', " +
+                "database.name='" + database + "', execution.mode='shared', max.inflight.writes='4')" +
+                "define table BarTable (symbol string, price float, volume long);";
+        String query = "" +
+                "@info(name = 'query1') " +
+                "from StockStream " +
+                "insert into FooTable;" +
+                "" +
+                "@info(name = 'query2') " +
+                "from StockStream " +
+                "insert into BarTable;";
+        SiddhiAppRuntime siddhiAppRuntime = siddhiManager.createSiddhiAppRuntime(streams + query);
+        InputHandler stockStream = siddhiAppRuntime.getInputHandler("StockStream");
+        siddhiAppRuntime.start();
+
+        for (int i = 0; i < 20; i++) {
+            stockStream.send(new Object[]{"SYMBOL" + i, 55.6f, 100L});
+        }
+
+        siddhiAppRuntime.shutdown();
+
+        Assert.assertEquals(CosmosTableTestUtils.getDocumentsCount(uri, key, "FooTable", fooCollectionLink), 20,
+                "Insertion failed");
+        Assert.assertEquals(CosmosTableTestUtils.getDocumentsCount(uri, key, "BarTable", barCollectionLink), 20,
+                "Insertion failed");
+    }
+
+    @Test
+    public void insertIntoCosmosTableTest13() throws InterruptedException {
+        log.info("insertIntoCosmosTableTest13 - Insert events to a CosmosDB table after another table sharing " +
+                "its client is shut down");
+
+        String fooCollectionLink = String.format("/dbs/%s/colls/%s", database, "FooTable");
+        String barCollectionLink = String.format("/dbs/%s/colls/%s", database, "BarTable");
+        CosmosTableTestUtils.dropCollection(uri, key, fooCollectionLink);
+        CosmosTableTestUtils.dropCollection(uri, key, barCollectionLink);
+
+        SiddhiManager siddhiManager = new SiddhiManager();
+        String fooApp = "" +
+                "@app:name('FooApp')" +
+                "define stream StockStream (symbol string, price float, volume long); " +
+                "@store(type = 'cosmosdb' , uri='" + uri + "', access.key='" + key + "', " +
+                "database.name='" + database + "')" +
+                "define table FooTable (symbol string, price float, volume long);" +
+                "from StockStream " +
+                "insert into FooTable;";
+        String barApp = "" +
+                "@app:name('BarApp')" +
+                "define stream StockStream (symbol string, price float, volume long); " +
+                "@store(type = 'cosmosdb' , uri='" + uri + "', access.key='" + key + "', " +
+                "database.name='" + database + "')" +
+                "define table BarTable (symbol string, price float, volume long);" +
+                "from StockStream " +
+                "insert into BarTable;";
+        SiddhiAppRuntime fooAppRuntime = siddhiManager.createSiddhiAppRuntime(fooApp);
+        SiddhiAppRuntime barAppRuntime = siddhiManager.createSiddhiAppRuntime(barApp);
+        fooAppRuntime.start();
+        barAppRuntime.start();
+
+        fooAppRuntime.getInputHandler("StockStream").send(new Object[]{"WSO2", 55.6f, 100L});
+        fooAppRuntime.shutdown();
+        barAppRuntime.getInputHandler("StockStream").send(new Object[]{"IBM", 75.6f, 100L});
+        barAppRuntime.shutdown();
+
+        Assert.assertEquals(CosmosTableTestUtils.getDocumentsCount(uri, key, "FooTable", fooCollectionLink), 1,
+                "Insertion failed");
+        Assert.assertEquals(CosmosTableTestUtils.getDocumentsCount(uri, key, "BarTable", barCollectionLink), 1,
+                "Insertion failed");
+    }
+
+    @Test
+    public void insertIntoCosmosTableTest14() throws InterruptedException {
+        log.info("insertIntoCosmosTableTest14 - Insert events to a CosmosDB table with a request unit budget");
+
+        String collectionLink = String.format("/dbs/%s/colls/%s", database, "FooTable");
+        CosmosTableTestUtils.dropCollection(uri, key, collectionLink);
+
+        SiddhiManager siddhiManager = new SiddhiManager();
+        String streams = "" +
+                "define stream StockStream (symbol string, price float, volume long); " +
+                "@store(type = 'cosmosdb' , uri='" + uri + "', access.key='" + key + "', " +
+                "database.name='" + database + "', request.unit.budget='50')" +
+                "define table FooTable (symbol string, price float, volume long);";
+        String query = "" +
+                "@info(name = 'query1') " +
+                "from StockStream " +
+                "insert into FooTable;";
+        SiddhiAppRuntime siddhiAppRuntime = siddhiManager.createSiddhiAppRuntime(streams + query);
+        InputHandler stockStream = siddhiAppRuntime.getInputHandler("StockStream");
+        siddhiAppRuntime.start();
+
+        for (int i = 0; i < 20; i++) {
+            stockStream.send(new Object[]{"SYMBOL" + i, 55.6f, 100L});
+        }
+
+        siddhiAppRuntime.shutdown();
+
+        long totalDocumentsInCollection = CosmosTableTestUtils.getDocumentsCount(uri, key, "FooTable",
+                collectionLink);
+        Assert.assertEquals(totalDocumentsInCollection, 20, "Insertion failed");
+    }
+
+    @Test
+    public void insertIntoCosmosTableTest15() throws InterruptedException {
+        log.info("insertIntoCosmosTableTest15 - Insert events to a CosmosDB table with statistics enabled, " +
+                "including the fill level of its request unit budget");
+
+        String collectionLink = String.format("/dbs/%s/colls/%s", database, "FooTable");
+        CosmosTableTestUtils.dropCollection(uri, key, collectionLink);
+
+        SiddhiManager siddhiManager = new SiddhiManager();
+        String streams = "" +
+                "@app:statistics(reporter = 'console', interval = '5') " +
+                "define stream StockStream (symbol string, price float, volume long); " +
+                "@store(type = 'cosmosdb' , uri='" + uri + "', access.key='" + key + "', " +
+                "database.name='" + database + "', request.unit.budget='1000')" +
+                "define table FooTable (symbol string, price float, volume long);";
+        String query = "" +
+                "@info(name = 'query1') " +
+                "from StockStream " +
+                "insert into FooTable;";
+        SiddhiAppRuntime siddhiAppRuntime = siddhiManager.createSiddhiAppRuntime(streams + query);
+        InputHandler stockStream = siddhiAppRuntime.getInputHandler("StockStream");
+        siddhiAppRuntime.start();
+
+        for (int i = 0; i < 10; i++) {
+            stockStream.send(new Object[]{"SYMBOL" + i, 55.6f, 100L});
+        }
+
+        siddhiAppRuntime.shutdown();
+
+        long totalDocumentsInCollection = CosmosTableTestUtils.getDocumentsCount(uri, key, "FooTable",
+                collectionLink);
+        Assert.assertEquals(totalDocumentsInCollection, 10, "Insertion failed");
+    }
+
+    @Test
+    public void insertIntoCosmosTableTest16() throws InterruptedException {
+        log.info("insertIntoCosmosTableTest16 - Insert events to a CosmosDB table while requests are throttled");
+
+        CosmosEmulator emulator = CosmosTableTestUtils.getEmulator();
+        if (emulator == null) {
+            throw new SkipException("Throttling can only be injected when running against the emulator.");
+        }
+        String collectionLink = String.format("/dbs/%s/colls/%s", database, "FooTable");
+        CosmosTableTestUtils.dropCollection(uri, key, collectionLink);
+
+        SiddhiManager siddhiManager = new SiddhiManager();
+        String streams = "" +
+                "define stream StockStream (symbol string, price float, volume long); " +
+                "@store(type = 'cosmosdb' , uri='" + uri + "', access.key='" + key + "', " +
+                "database.name='" + database + "')" +
+                "define table FooTable (symbol string, price float, volume long);";
+        String query = "" +
+                "@info(name = 'query1') " +
+                "from StockStream " +
+                "insert into FooTable;";
+        SiddhiAppRuntime siddhiAppRuntime = siddhiManager.createSiddhiAppRuntime(streams + query);
+        InputHandler stockStream = siddhiAppRuntime.getInputHandler("StockStream");
+        siddhiAppRuntime.start();
+
+        long throttledRequests = emulator.getThrottledRequestCount();
+        emulator.throttleNextRequests(3);
+        for (int i = 0; i < 10; i++) {
+            stockStream.send(new Object[]{"SYMBOL" + i, 55.6f, 100L});
+        }
+
+        siddhiAppRuntime.shutdown();
+
+        long totalDocumentsInCollection = CosmosTableTestUtils.getDocumentsCount(uri, key, "FooTable",
+                collectionLink);
+        Assert.assertEquals(totalDocumentsInCollection, 10, "Insertion failed");
+        Assert.assertEquals(emulator.getThrottledRequestCount() - throttledRequests, 3, "Requests were not throttled");
+    }
+
+    @Test
+    public void insertIntoCosmosTableTest17() throws InterruptedException, IOException {
+        log.info("insertIntoCosmosTableTest17 - Insert events to a CosmosDB table through the write-ahead log " +
+                "while Cosmos DB is unavailable");
+
+        CosmosEmulator emulator = CosmosTableTestUtils.getEmulator();
+        if (emulator == null) {
+            throw new SkipException("Outages can only be injected when running against the emulator.");
+        }
+        String collectionLink = String.format("/dbs/%s/colls/%s", database, "FooTable");
+        CosmosTableTestUtils.dropCollection(uri, key, collectionLink);
+        Path logDirectory = Files.createTempDirectory("cosmosdb-wal");
+
+        SiddhiManager siddhiManager = new SiddhiManager();
+        String streams = "" +
+                "define stream StockStream (symbol string, price float, volume long); " +
+                "@store(type = 'cosmosdb' , uri='" + uri + "', access.key='" + key + "', " +
+                "database.name='" + database + "', write.ahead.log.directory='" + logDirectory + "', " +
+                "write.ahead.log.retry.interval.seconds='0.1')" +
+                "@PrimaryKey('symbol')" +
+                "define table FooTable (symbol string, price float, volume long);";
+        String query = "" +
+                "@info(name = 'query1') " +
+                "from StockStream " +
+                "insert into FooTable;";
+        SiddhiAppRuntime siddhiAppRuntime = siddhiManager.createSiddhiAppRuntime(streams + query);
+        InputHandler stockStream = siddhiAppRuntime.getInputHandler("StockStream");
+        siddhiAppRuntime.start();
+
+        emulator.setUnavailable(true);
+        try {
+            for (int i = 0; i < 10; i++) {
+                stockStream.send(new Object[]{"SYMBOL" + i, 55.6f, 100L});
+            }
+            siddhiAppRuntime.shutdown();
+        } finally {
+            emulator.setUnavailable(false);
+        }
+        Assert.assertEquals(CosmosTableTestUtils.getDocumentsCount(uri, key, "FooTable", collectionLink), 0,
+                "Logged writes were shipped while Cosmos DB was unavailable");
+
+        //The writes which were not acknowledged are shipped once the table is connected again.
+        siddhiAppRuntime = siddhiManager.createSiddhiAppRuntime(streams + query);
+        siddhiAppRuntime.start();
+        siddhiAppRuntime.shutdown();
+
+        long totalDocumentsInCollection = CosmosTableTestUtils.getDocumentsCount(uri, key, "FooTable",
+                collectionLink);
+        Assert.assertEquals(totalDocumentsInCollection, 10, "Insertion failed");
+    }
+
+    @Test
+    public void insertIntoCosmosTableTest18() throws InterruptedException {
+        log.info("insertIntoCosmosTableTest18 - Insert a batch of events to a CosmosDB table partitioned by an " +
+                "attribute with bulk insert enabled");
+
+        CosmosEmulator emulator = CosmosTableTestUtils.getEmulator();
+        String collectionLink = String.format("/dbs/%s/colls/%s", database, "TenantTable");
+        CosmosTableTestUtils.dropCollection(uri, key, collectionLink);
+
+        SiddhiManager siddhiManager = new SiddhiManager();
+        String streams = "" +
+                "define stream FooStream (tenant string, symbol string, price float); " +
+                "define stream DeleteStream (tenant string, symbol string); " +
+                "@store(type = 'cosmosdb' , uri='" + uri + "', access.key='" + key + "', " +
+                "database.name='" + database + "', is.enable.bulk.insert='true', " +
+                "partition.key.attribute='tenant', is.enable.cross.partition.query='true')" +
+                "@PrimaryKey('tenant', 'symbol')" +
+                "define table TenantTable (tenant string, symbol string, price float);";
+        String query = "" +
+                "@info(name = 'query1') " +
+                "from FooStream " +
+                "insert into TenantTable;" +
+                "" +
+                "@info(name = 'query2') " +
+                "from DeleteStream " +
+                "delete TenantTable " +
+                "on TenantTable.tenant == tenant and TenantTable.symbol == symbol;";
+        SiddhiAppRuntime siddhiAppRuntime = siddhiManager.createSiddhiAppRuntime(streams + query);
+        InputHandler fooStream = siddhiAppRuntime.getInputHandler("FooStream");
+        InputHandler deleteStream = siddhiAppRuntime.getInputHandler("DeleteStream");
+        siddhiAppRuntime.start();
+
+        int procedureExecutions = emulator == null ? 0 : emulator.getProcedurePartitionKeys().size();
+        Event[] events = new Event[9];
+        for (int i = 0; i < events.length; i++) {
+            events[i] = new Event(System.currentTimeMillis(), new Object[]{"TENANT" + (i % 3), "SYMBOL" + i, 55.6f});
+        }
+        fooStream.send(events);
+        deleteStream.send(new Object[]{"TENANT1", "SYMBOL4"});
+
+        siddhiAppRuntime.shutdown();
+
+        long totalDocumentsInCollection = CosmosTableTestUtils.getDocumentsCount(uri, key, "TenantTable",
+                collectionLink);
+        Assert.assertEquals(totalDocumentsInCollection, 8, "Bulk insertion failed");
+        if (emulator != null) {
+            if (!emulator.areProceduresAvailable()) {
+                throw new SkipException("Stored procedures are not available, since the JVM has no JavaScript " +
+                        "engine.");
+            }
+            List<String> partitionKeys = emulator.getProcedurePartitionKeys();
+            Assert.assertEquals(new HashSet<>(partitionKeys.subList(procedureExecutions, partitionKeys.size())),
+                    new HashSet<>(Arrays.asList("[\"TENANT0\"]", "[\"TENANT1\"]", "[\"TENANT2\"]")),
+                    "Bulk insertion was not grouped by partition");
+        }
+    }
+
+    @Test
+    public void insertIntoCosmosTableTest19() throws InterruptedException, IOException {
+        log.info("insertIntoCosmosTableTest19 - Delete from a CosmosDB table by a condition which is not addressed " +
+                "by a document id, after inserting through the write-ahead log while Cosmos DB is unavailable");
+
+        CosmosEmulator emulator = CosmosTableTestUtils.getEmulator();
+        if (emulator == null) {
+            throw new SkipException("Outages can only be injected when running against the emulator.");
+        }
+        String collectionLink = String.format("/dbs/%s/colls/%s", database, "FooTable");
+        CosmosTableTestUtils.dropCollection(uri, key, collectionLink);
+        Path logDirectory = Files.createTempDirectory("cosmosdb-wal");
+
+        SiddhiManager siddhiManager = new SiddhiManager();
+        String streams = "" +
+                "define stream StockStream (symbol string, price float, volume long); " +
+                "define stream DeleteStockStream (volume long); " +
+                "@store(type = 'cosmosdb' , uri='" + uri + "', access.key='" + key + "', " +
+                "database.name='" + database + "', write.ahead.log.directory='" + logDirectory + "', " +
+                "write.ahead.log.retry.interval.seconds='0.1')" +
+                "@PrimaryKey('symbol')" +
+                "define table FooTable (symbol string, price float, volume long);";
+        String query = "" +
+                "@info(name = 'query1') " +
+                "from StockStream " +
+                "insert into FooTable;" +
+                "" +
+                "@info(name = 'query2') " +
+                "from DeleteStockStream " +
+                "delete FooTable " +
+                "on FooTable.volume < volume;";
+        SiddhiAppRuntime siddhiAppRuntime = siddhiManager.createSiddhiAppRuntime(streams + query);
+        InputHandler stockStream = siddhiAppRuntime.getInputHandler("StockStream");
+        InputHandler deleteStockStream = siddhiAppRuntime.getInputHandler("DeleteStockStream");
+        siddhiAppRuntime.start();
+
+        emulator.setUnavailable(true);
+        Thread recovery = new Thread(() -> {
+            try {
+                Thread.sleep(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            emulator.setUnavailable(false);
+        });
+        try {
+            for (int i = 0; i < 10; i++) {
+                stockStream.send(new Object[]{"SYMBOL" + i, 55.6f, 100L});
+            }
+            recovery.start();
+            //The deletion is logged, and shipped after the logged insertions once Cosmos DB is available again.
+            deleteStockStream.send(new Object[]{150L});
+        } finally {
+            recovery.join();
+            emulator.setUnavailable(false);
+        }
+        siddhiAppRuntime.shutdown();
+
+        long totalDocumentsInCollection = CosmosTableTestUtils.getDocumentsCount(uri, key, "FooTable",
+                collectionLink);
+        Assert.assertEquals(totalDocumentsInCollection, 0, "Deletion was performed before the logged insertions");
+    }
+
+    @Test
+    public void insertIntoCosmosTableTest20() throws InterruptedException, IOException {
+        log.info("insertIntoCosmosTableTest20 - Insert a batch of events to a CosmosDB table through the " +
+                "write-ahead log with bulk insert enabled, while the bulk import fails");
+
+        CosmosEmulator emulator = CosmosTableTestUtils.getEmulator();
+        if (emulator == null) {
+            throw new SkipException("Bulk import failures can only be injected when running against the emulator.");
+        }
+        if (!emulator.areProceduresAvailable()) {
+            throw new SkipException("Stored procedures are not available, since the JVM has no JavaScript engine.");
+        }
+        String collectionLink = String.format("/dbs/%s/colls/%s", database, "FooTable");
+        CosmosTableTestUtils.dropCollection(uri, key, collectionLink);
+        Path logDirectory = Files.createTempDirectory("cosmosdb-wal");
+
+        SiddhiManager siddhiManager = new SiddhiManager();
+        String streams = "" +
+                "define stream StockStream (symbol string, price float, volume long); " +
+                "@store(type = 'cosmosdb' , uri='" + uri + "', access.key='" + key + "', " +
+                "database.name='" + database + "', write.ahead.log.directory='" + logDirectory + "', " +
+                "is.enable.bulk.insert='true')" +
+                "@PrimaryKey('symbol')" +
+                "define table FooTable (symbol string, price float, volume long);";
+        String query = "" +
+                "@info(name = 'query1') " +
+                "from StockStream " +
+                "insert into FooTable;";
+        SiddhiAppRuntime siddhiAppRuntime = siddhiManager.createSiddhiAppRuntime(streams + query);
+        InputHandler stockStream = siddhiAppRuntime.getInputHandler("StockStream");
+        siddhiAppRuntime.start();
+
+        Event[] events = new Event[5];
+        for (int i = 0; i < events.length; i++) {
+            events[i] = new Event(System.currentTimeMillis(), new Object[]{"SYMBOL" + i, 55.6f, 100L});
+        }
+        //The bulk import stored procedure cannot process any document.
+        emulator.setProcedureOperationLimit(0);
+        try {
+            stockStream.send(events);
+            siddhiAppRuntime.shutdown();
+        } finally {
+            emulator.setProcedureOperationLimit(1000);
+        }
+
+        long totalDocumentsInCollection = CosmosTableTestUtils.getDocumentsCount(uri, key, "FooTable",
+                collectionLink);
+        Assert.assertEquals(totalDocumentsInCollection, 5, "Logged insertions were skipped");
+    }
+
+    @Test
+    public void insertIntoCosmosTableTest21() throws InterruptedException {
+        log.info("insertIntoCosmosTableTest21 - Insert events to a CosmosDB table with asynchronous writes, where a " +
+                "write fails");
+
+        String collectionLink = String.format("/dbs/%s/colls/%s", database, "FooTable");
+        CosmosTableTestUtils.dropCollection(uri, key, collectionLink);
+
+        SiddhiManager siddhiManager = new SiddhiManager();
+        String streams = "" +
+                "@OnError(action='STREAM')" +
+                "define stream StockStream (symbol string, price float, volume long); " +
+                "@store(type = 'cosmosdb' , uri='" + uri + "', access.key='" + key + "', " +
+                "database.name='" + database + "', max.inflight.writes='8')" +
+                "@PrimaryKey('symbol')" +
+                "define table FooTable (symbol string, price float, volume long);";
+        String query = "" +
+                "@info(name = 'query1') " +
+                "from StockStream " +
+                "insert into FooTable ;" +
+                "" +
+                "@info(name = 'query2') " +
+                "from !StockStream " +
+                "select symbol, _error " +
+                "insert into FaultStream ;";
+        SiddhiAppRuntime siddhiAppRuntime = siddhiManager.createSiddhiAppRuntime(streams + query);
+        AtomicInteger faultCount = new AtomicInteger();
+        siddhiAppRuntime.addCallback("FaultStream", new StreamCallback() {
+            @Override
+            public void receive(Event[] events) {
+                faultCount.addAndGet(events.length);
+            }
+        });
+        InputHandler stockStream = siddhiAppRuntime.getInputHandler("StockStream");
+        siddhiAppRuntime.start();
+
+        stockStream.send(new Object[]{"WSO2", 55.6f, 100L});
+        //The creation of the same document fails after the event is dispatched.
+        stockStream.send(new Object[]{"WSO2", 57.6f, 100L});
+        Thread.sleep(500);
+        //The failure is reported to the next write of the table.
+        stockStream.send(new Object[]{"IBM", 75.6f, 100L});
+        stockStream.send(new Object[]{"MSFT", 57.6f, 100L});
+
+        siddhiAppRuntime.shutdown();
+
+        Assert.assertEquals(faultCount.get(), 1, "Failure of the asynchronous write was not reported");
+        long totalDocumentsInCollection = CosmosTableTestUtils.getDocumentsCount(uri, key, "FooTable",
+                collectionLink);
+        Assert.assertEquals(totalDocumentsInCollection, 2, "Insertion failed");
+    }
+
+    @Test
+    public void insertIntoCosmosTableTest22() throws InterruptedException, IOException {
+        log.info("insertIntoCosmosTableTest22 - Write to a CosmosDB table by conditions through the write-ahead log " +
+                "while Cosmos DB is unavailable");
+
+        CosmosEmulator emulator = CosmosTableTestUtils.getEmulator();
+        if (emulator == null) {
+            throw new SkipException("Outages can only be injected when running against the emulator.");
+        }
+        String collectionLink = String.format("/dbs/%s/colls/%s", database, "FooTable");
+        CosmosTableTestUtils.dropCollection(uri, key, collectionLink);
+        Path logDirectory = Files.createTempDirectory("cosmosdb-wal");
+
+        SiddhiManager siddhiManager = new SiddhiManager();
+        String streams = "" +
+                "define stream StockStream (symbol string, price float, volume long); " +
+                "define stream DeleteStockStream (volume long); " +
+                "define stream MoveStockStream (symbol string, newSymbol string); " +
+                "define stream PriceStream (price float, volume long); " +
+                "@OnError(action='STREAM')" +
+                "define stream CheckStockStream (symbol string); " +
+                "@store(type = 'cosmosdb' , uri='" + uri + "', access.key='" + key + "', " +
+                "database.name='" + database + "', write.ahead.log.directory='" + logDirectory + "', " +
+                "write.ahead.log.retry.interval.seconds='0.1', write.ahead.log.read.timeout.seconds='0.5')" +
+                "@PrimaryKey('symbol')" +
+                "define table FooTable (symbol string, price float, volume long);";
+        String query = "" +
+                "@info(name = 'query1') " +
+                "from StockStream[volume < 250] " +
+                "insert into FooTable;" +
+                "" +
+                "@info(name = 'query2') " +
+                "from DeleteStockStream " +
+                "delete FooTable " +
+                "on FooTable.volume < volume;" +
+                "" +
+                "@info(name = 'query3') " +
+                "from MoveStockStream " +
+                "update FooTable " +
+                "set FooTable.symbol = newSymbol " +
+                "on FooTable.symbol == symbol;" +
+                "" +
+                "@info(name = 'query4') " +
+                "from PriceStream " +
+                "update FooTable " +
+                "set FooTable.price = price " +
+                "on FooTable.volume == volume;" +
+                "" +
+                "@info(name = 'query5') " +
+                "from StockStream[volume > 250] " +
+                "update or insert into FooTable " +
+                "set FooTable.price = price " +
+                "on FooTable.volume == volume;" +
+                "" +
+                "@info(name = 'query6') " +
+                "from CheckStockStream join FooTable " +
+                "on CheckStockStream.symbol == FooTable.symbol " +
+                "select FooTable.symbol as symbol " +
+                "insert into OutputStream;" +
+                "" +
+                "@info(name = 'query7') " +
+                "from !CheckStockStream " +
+                "select symbol, _error " +
+                "insert into FaultStream;";
+        SiddhiAppRuntime siddhiAppRuntime = siddhiManager.createSiddhiAppRuntime(streams + query);
+        AtomicInteger faultCount = new AtomicInteger();
+        siddhiAppRuntime.addCallback("FaultStream", new StreamCallback() {
+            @Override
+            public void receive(Event[] events) {
+                faultCount.addAndGet(events.length);
+            }
+        });
+        InputHandler stockStream = siddhiAppRuntime.getInputHandler("StockStream");
+        siddhiAppRuntime.start();
+
+        emulator.setUnavailable(true);
+        Thread recovery = new Thread(() -> {
+            try {
+                Thread.sleep(3000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            emulator.setUnavailable(false);
+        });
+        long elapsedMillis;
+        try {
+            recovery.start();
+            long start = System.currentTimeMillis();
+            for (int i = 0; i < 10; i++) {
+                stockStream.send(new Object[]{"SYMBOL" + i, 55.6f, i < 5 ? 100L : 200L});
+            }
+            siddhiAppRuntime.getInputHandler("DeleteStockStream").send(new Object[]{150L});
+            siddhiAppRuntime.getInputHandler("MoveStockStream").send(new Object[]{"SYMBOL5", "MOVED"});
+            siddhiAppRuntime.getInputHandler("PriceStream").send(new Object[]{99.5f, 200L});
+            stockStream.send(new Object[]{"NEW", 10.5f, 300L});
+            //Reads cannot be served from the log, hence they fail instead of waiting for the outage to end.
+            siddhiAppRuntime.getInputHandler("CheckStockStream").send(new Object[]{"SYMBOL6"});
+            elapsedMillis = System.currentTimeMillis() - start;
+        } finally {
+            recovery.join();
+            emulator.setUnavailable(false);
+        }
+        siddhiAppRuntime.shutdown();
+
+        Assert.assertTrue(elapsedMillis < 2000, "Writes waited for Cosmos DB to be available, for " +
+                elapsedMillis + " ms");
+        Assert.assertEquals(faultCount.get(), 1, "Read during the outage did not fail");
+        long totalDocumentsInCollection = CosmosTableTestUtils.getDocumentsCount(uri, key, "FooTable",
+                collectionLink);
+        Assert.assertEquals(totalDocumentsInCollection, 6, "Logged writes were not shipped in order");
+        Document movedDocument = CosmosTableTestUtils.getDocument(uri, key, collectionLink, "FooTable",
+                "FooTable.symbol = 'MOVED'");
+        Assert.assertEquals(movedDocument.getDouble("price"), 99.5, "Logged update was not shipped");
+        Document addedDocument = CosmosTableTestUtils.getDocument(uri, key, collectionLink, "FooTable",
+                "FooTable.symbol = 'NEW'");
+        Assert.assertEquals(addedDocument.getDouble("price"), 10.5, "Logged update or insert was not shipped");
+    }
 }
@@ -19,6 +19,7 @@
 
 package io.siddhi.extension.store.cosmosdb;
 
+import com.microsoft.azure.documentdb.Document;
 import io.siddhi.core.SiddhiAppRuntime;
 import io.siddhi.core.SiddhiManager;
 import io.siddhi.core.event.Event;
@@ -33,6 +34,11 @@ import org.testng.annotations.BeforeClass;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
 
 public class JoinCosmosTableTest {
@@ -96,10 +102,10 @@ public class JoinCosmosTableTest {
                         eventCount.incrementAndGet();
                         switch (eventCount.intValue()) {
                             case 1:
-                                Assert.assertEquals(new Object[]{"WSO2_check", "WSO2", 100}, event.getData());
+                                Assert.assertEquals(new Object[]{"WSO2_check", "WSO2", 100L}, event.getData());
                                 break;
                             case 2:
-                                Assert.assertEquals(new Object[]{"WSO2_check", "IBM", 10}, event.getData());
+                                Assert.assertEquals(new Object[]{"WSO2_check", "IBM", 10L}, event.getData());
                                 break;
                             default:
                                 break;
@@ -322,4 +328,458 @@ public class JoinCosmosTableTest {
 
         Assert.assertEquals(eventCount.intValue(), 1, "Read events failed");
     }
+
+    @Test
+    public void testCosmosTableJoinQuery7() throws InterruptedException {
+        log.info("testCosmosTableJoinQuery7 - Join with an aggregation grouped by a table attribute");
+
+        String collectionLink = String.format("/dbs/%s/colls/%s", database, "FooTable");
+        CosmosTableTestUtils.dropCollection(uri, key, collectionLink);
+
+        SiddhiManager siddhiManager = new SiddhiManager();
+        String streams = "" +
+                "define stream StockStream (symbol string, price float, volume long); " +
+                "define stream FooStream (symbol string); " +
+                "@store(type = 'cosmosdb' , uri='" + uri + "', access.key='" + key + "', " +
+                "database.name='" + database + "')" +
+                "define table FooTable (symbol string, price float, volume long);";
+        String query = "" +
+                "@info(name = 'query1') " +
+                "from StockStream " +
+                "insert into FooTable ;" +
+                "" +
+                "@info(name = 'query2') " +
+                "from FooStream#window.length(1) join FooTable " +
+                "select FooTable.symbol as symbol, sum(FooTable.volume) as totalVolume, count() as trades " +
+                "group by FooTable.symbol " +
+                "insert into OutputStream ;";
+
+        Map<Object, Object[]> results = new ConcurrentHashMap<>();
+        SiddhiAppRuntime siddhiAppRuntime = siddhiManager.createSiddhiAppRuntime(streams + query);
+        siddhiAppRuntime.addCallback("query2", new QueryCallback() {
+            @Override
+            public void receive(long timeStamp, Event[] inEvents, Event[] removeEvents) {
+                if (inEvents != null) {
+                    for (Event event : inEvents) {
+                        results.put(event.getData(0), event.getData());
+                        eventCount.incrementAndGet();
+                    }
+                }
+            }
+
+        });
+
+        InputHandler stockStream = siddhiAppRuntime.getInputHandler("StockStream");
+        InputHandler fooStream = siddhiAppRuntime.getInputHandler("FooStream");
+        siddhiAppRuntime.start();
+
+        stockStream.send(new Object[]{"WSO2", 55.6f, 100L});
+        stockStream.send(new Object[]{"IBM", 75.6f, 10L});
+        stockStream.send(new Object[]{"WSO2", 57.6f, 50L});
+        fooStream.send(new Object[]{"WSO2"});
+        SiddhiTestHelper.waitForEvents(waitTime, 2, eventCount, timeout);
+
+        siddhiAppRuntime.shutdown();
+
+        Assert.assertEquals(eventCount.intValue(), 2, "Read events failed");
+        Assert.assertEquals(results.get("WSO2"), new Object[]{"WSO2", 150L, 2L});
+        Assert.assertEquals(results.get("IBM"), new Object[]{"IBM", 10L, 1L});
+    }
+
+    @Test
+    public void testCosmosTableJoinQuery8() throws InterruptedException {
+        log.info("testCosmosTableJoinQuery8 - On-demand queries ordering, limiting and filtering aggregates");
+
+        String collectionLink = String.format("/dbs/%s/colls/%s", database, "FooTable");
+        CosmosTableTestUtils.dropCollection(uri, key, collectionLink);
+
+        SiddhiManager siddhiManager = new SiddhiManager();
+        String streams = "" +
+                "define stream StockStream (symbol string, price float, volume long); " +
+                "@store(type = 'cosmosdb' , uri='" + uri + "', access.key='" + key + "', " +
+                "database.name='" + database + "')" +
+                "define table FooTable (symbol string, price float, volume long);";
+        String query = "" +
+                "@info(name = 'query1') " +
+                "from StockStream " +
+                "insert into FooTable ;";
+
+        SiddhiAppRuntime siddhiAppRuntime = siddhiManager.createSiddhiAppRuntime(streams + query);
+        InputHandler stockStream = siddhiAppRuntime.getInputHandler("StockStream");
+        siddhiAppRuntime.start();
+
+        stockStream.send(new Object[]{"WSO2", 55.6f, 100L});
+        stockStream.send(new Object[]{"IBM", 75.6f, 10L});
+        stockStream.send(new Object[]{"WSO2", 57.6f, 50L});
+
+        Event[] events = siddhiAppRuntime.query("" +
+                "from FooTable " +
+                "select symbol, volume " +
+                "order by volume desc " +
+                "limit 2 ");
+        Assert.assertNotNull(events, "Read events failed");
+        Assert.assertEquals(events.length, 2, "Read events failed");
+        Assert.assertEquals(events[0].getData(), new Object[]{"WSO2", 100L});
+        Assert.assertEquals(events[1].getData(), new Object[]{"WSO2", 50L});
+
+        //Having is not pushed down to Cosmos DB, hence the query is evaluated by Siddhi.
+        events = siddhiAppRuntime.query("" +
+                "from FooTable " +
+                "select symbol, sum(volume) as totalVolume " +
+                "group by symbol " +
+                "having totalVolume > 20 ");
+        siddhiAppRuntime.shutdown();
+
+        Assert.assertNotNull(events, "Read events failed");
+        Assert.assertEquals(events.length, 1, "Read events failed");
+        Assert.assertEquals(events[0].getData(), new Object[]{"WSO2", 150L});
+    }
+
+    @Test
+    public void testCosmosTableJoinQuery9() throws InterruptedException {
+        log.info("testCosmosTableJoinQuery9 - Join served from the near cache until the table is written");
+
+        String collectionLink = String.format("/dbs/%s/colls/%s", database, "FooTable");
+        CosmosTableTestUtils.dropCollection(uri, key, collectionLink);
+
+        SiddhiManager siddhiManager = new SiddhiManager();
+        String streams = "" +
+                "define stream StockStream (symbol string, price float, volume long); " +
+                "define stream FooStream (symbol string); " +
+                "@store(type = 'cosmosdb' , uri='" + uri + "', access.key='" + key + "', " +
+                "database.name='" + database + "', cache.max.size='100', cache.eviction.policy='LFU')" +
+                "define table FooTable (symbol string, price float, volume long);";
+        String query = "" +
+                "@info(name = 'query1') " +
+                "from StockStream " +
+                "insert into FooTable ;" +
+                "" +
+                "@info(name = 'query2') " +
+                "from FooStream#window.length(1) join FooTable " +
+                "on FooTable.symbol == FooStream.symbol " +
+                "select FooStream.symbol as checkSymbol, FooTable.volume as volume " +
+                "insert into OutputStream ;";
+
+        List<Object[]> results = Collections.synchronizedList(new ArrayList<>());
+        SiddhiAppRuntime siddhiAppRuntime = siddhiManager.createSiddhiAppRuntime(streams + query);
+        siddhiAppRuntime.addCallback("query2", new QueryCallback() {
+            @Override
+            public void receive(long timeStamp, Event[] inEvents, Event[] removeEvents) {
+                if (inEvents != null) {
+                    for (Event event : inEvents) {
+                        results.add(event.getData());
+                        eventCount.incrementAndGet();
+                    }
+                }
+            }
+
+        });
+
+        InputHandler stockStream = siddhiAppRuntime.getInputHandler("StockStream");
+        InputHandler fooStream = siddhiAppRuntime.getInputHandler("FooStream");
+        siddhiAppRuntime.start();
+
+        CosmosEmulator emulator = CosmosTableTestUtils.getEmulator();
+        stockStream.send(new Object[]{"WSO2", 55.6f, 100L});
+        fooStream.send(new Object[]{"WSO2"});
+        long requestCount = emulator == null ? 0 : emulator.getRequestCount();
+        fooStream.send(new Object[]{"WSO2"});
+        if (emulator != null) {
+            Assert.assertEquals(emulator.getRequestCount(), requestCount, "Join was not served from the cache");
+        }
+        stockStream.send(new Object[]{"WSO2", 57.6f, 50L});
+        fooStream.send(new Object[]{"WSO2"});
+        SiddhiTestHelper.waitForEvents(waitTime, 4, eventCount, timeout);
+
+        siddhiAppRuntime.shutdown();
+
+        Assert.assertEquals(eventCount.intValue(), 4, "Read events failed");
+        Assert.assertEquals(results.get(0), new Object[]{"WSO2", 100L});
+        Assert.assertEquals(results.get(1), new Object[]{"WSO2", 100L});
+        //The write invalidates the cache, hence the last join reads both documents.
+        Assert.assertEquals(results.get(2)[1], 100L);
+        Assert.assertEquals(results.get(3)[1], 50L);
+    }
+
+    @Test
+    public void testCosmosTableJoinQuery10() throws InterruptedException {
+        log.info("testCosmosTableJoinQuery10 - Join served from the change feed replica of the table");
+
+        String collectionLink = String.format("/dbs/%s/colls/%s", database, "FooTable");
+        CosmosTableTestUtils.dropCollection(uri, key, collectionLink);
+
+        SiddhiManager siddhiManager = new SiddhiManager();
+        String streams = "" +
+                "define stream StockStream (symbol string, price float, volume long); " +
+                "define stream DeleteStockStream (symbol string); " +
+                "define stream FooStream (symbol string); " +
+                "@store(type = 'cosmosdb' , uri='" + uri + "', access.key='" + key + "', " +
+                "database.name='" + database + "', is.enable.change.feed.replica='true', " +
+                "replica.poll.interval.seconds='0.1')" +
+                "define table FooTable (symbol string, price float, volume long);";
+        String query = "" +
+                "@info(name = 'query1') " +
+                "from StockStream " +
+                "insert into FooTable ;" +
+                "" +
+                "@info(name = 'query2') " +
+                "from DeleteStockStream " +
+                "delete FooTable " +
+                "on FooTable.symbol == symbol ;" +
+                "" +
+                "@info(name = 'query3') " +
+                "from FooStream#window.length(1) join FooTable " +
+                "on FooTable.symbol == FooStream.symbol and FooTable.volume > 10 " +
+                "select FooStream.symbol as checkSymbol, FooTable.volume as volume " +
+                "insert into OutputStream ;";
+
+        List<Object[]> results = Collections.synchronizedList(new ArrayList<>());
+        SiddhiAppRuntime siddhiAppRuntime = siddhiManager.createSiddhiAppRuntime(streams + query);
+        siddhiAppRuntime.addCallback("query3", new QueryCallback() {
+            @Override
+            public void receive(long timeStamp, Event[] inEvents, Event[] removeEvents) {
+                if (inEvents != null) {
+                    for (Event event : inEvents) {
+                        results.add(event.getData());
+                        eventCount.incrementAndGet();
+                    }
+                }
+            }
+
+        });
+
+        InputHandler stockStream = siddhiAppRuntime.getInputHandler("StockStream");
+        InputHandler deleteStockStream = siddhiAppRuntime.getInputHandler("DeleteStockStream");
+        InputHandler fooStream = siddhiAppRuntime.getInputHandler("FooStream");
+        siddhiAppRuntime.start();
+
+        //Writes of the table are seen by its following joins.
+        stockStream.send(new Object[]{"WSO2", 55.6f, 100L});
+        fooStream.send(new Object[]{"WSO2"});
+        //Writes of others are seen once the replica reads them from the change feed.
+        Document document = new Document();
+        document.set("symbol", "IBM");
+        document.set("price", 75.6);
+        document.set("volume", 20);
+        CosmosTableTestUtils.createDocument(uri, key, collectionLink, document);
+        Thread.sleep(1000);
+        fooStream.send(new Object[]{"IBM"});
+        deleteStockStream.send(new Object[]{"WSO2"});
+        fooStream.send(new Object[]{"WSO2"});
+        SiddhiTestHelper.waitForEvents(waitTime, 2, eventCount, timeout);
+        Thread.sleep(500);
+
+        siddhiAppRuntime.shutdown();
+
+        Assert.assertEquals(eventCount.intValue(), 2, "Read events failed");
+        Assert.assertEquals(results.get(0), new Object[]{"WSO2", 100L});
+        Assert.assertEquals(results.get(1), new Object[]{"IBM", 20L});
+    }
+
+    @Test
+    public void testCosmosTableJoinQuery11() throws InterruptedException {
+        log.info("testCosmosTableJoinQuery11 - Join with an aggregation over a table partitioned by an attribute");
+
+        String collectionLink = String.format("/dbs/%s/colls/%s", database, "FooTable");
+        CosmosTableTestUtils.dropCollection(uri, key, collectionLink);
+
+        SiddhiManager siddhiManager = new SiddhiManager();
+        String streams = "" +
+                "define stream StockStream (symbol string, price float, volume long); " +
+                "define stream FooStream (symbol string); " +
+                "@store(type = 'cosmosdb' , uri='" + uri + "', access.key='" + key + "', " +
+                "database.name='" + database + "', partition.key.attribute='symbol', " +
+                "is.enable.cross.partition.query='true')" +
+                "define table FooTable (symbol string, price float, volume long);";
+        String query = "" +
+                "@info(name = 'query1') " +
+                "from StockStream " +
+                "insert into FooTable ;" +
+                "" +
+                "@info(name = 'query2') " +
+                "from FooStream#window.length(1) join FooTable " +
+                "select FooTable.symbol as symbol, sum(FooTable.volume) as totalVolume, count() as trades " +
+                "group by FooTable.symbol " +
+                "insert into OutputStream ;";
+
+        Map<Object, Object[]> results = new ConcurrentHashMap<>();
+        SiddhiAppRuntime siddhiAppRuntime = siddhiManager.createSiddhiAppRuntime(streams + query);
+        siddhiAppRuntime.addCallback("query2", new QueryCallback() {
+            @Override
+            public void receive(long timeStamp, Event[] inEvents, Event[] removeEvents) {
+                if (inEvents != null) {
+                    for (Event event : inEvents) {
+                        results.put(event.getData(0), event.getData());
+                        eventCount.incrementAndGet();
+                    }
+                }
+            }
+
+        });
+
+        InputHandler stockStream = siddhiAppRuntime.getInputHandler("StockStream");
+        InputHandler fooStream = siddhiAppRuntime.getInputHandler("FooStream");
+        siddhiAppRuntime.start();
+
+        //The aggregation spans partitions, hence it is performed by Siddhi over the documents found.
+        stockStream.send(new Object[]{"WSO2", 55.6f, 100L});
+        stockStream.send(new Object[]{"IBM", 75.6f, 10L});
+        stockStream.send(new Object[]{"WSO2", 57.6f, 50L});
+        fooStream.send(new Object[]{"WSO2"});
+        SiddhiTestHelper.waitForEvents(waitTime, 2, eventCount, timeout);
+        Event[] events = siddhiAppRuntime.query("" +
+                "from FooTable " +
+                "select sum(volume) as totalVolume ");
+
+        siddhiAppRuntime.shutdown();
+
+        Assert.assertEquals(eventCount.intValue(), 2, "Read events failed");
+        Assert.assertEquals(results.get("WSO2"), new Object[]{"WSO2", 150L, 2L});
+        Assert.assertEquals(results.get("IBM"), new Object[]{"IBM", 10L, 1L});
+        Assert.assertNotNull(events, "Read events failed");
+        Assert.assertEquals(events.length, 1, "Read events failed");
+        Assert.assertEquals(events[0].getData(), new Object[]{160L});
+    }
+
+    @Test
+    public void testCosmosTableJoinQuery12() throws InterruptedException {
+        log.info("testCosmosTableJoinQuery12 - Join reading more documents than the near cache holds");
+
+        String collectionLink = String.format("/dbs/%s/colls/%s", database, "FooTable");
+        CosmosTableTestUtils.dropCollection(uri, key, collectionLink);
+
+        SiddhiManager siddhiManager = new SiddhiManager();
+        String streams = "" +
+                "define stream StockStream (symbol string, price float, volume long); " +
+                "define stream FooStream (symbol string); " +
+                "@store(type = 'cosmosdb' , uri='" + uri + "', access.key='" + key + "', " +
+                "database.name='" + database + "', cache.max.size='2')" +
+                "define table FooTable (symbol string, price float, volume long);";
+        String query = "" +
+                "@info(name = 'query1') " +
+                "from StockStream " +
+                "insert into FooTable ;" +
+                "" +
+                "@info(name = 'query2') " +
+                "from FooStream#window.length(1) join FooTable " +
+                "on FooTable.symbol == FooStream.symbol " +
+                "select FooStream.symbol as checkSymbol, FooTable.volume as volume " +
+                "insert into OutputStream ;";
+
+        SiddhiAppRuntime siddhiAppRuntime = siddhiManager.createSiddhiAppRuntime(streams + query);
+        siddhiAppRuntime.addCallback("query2", new QueryCallback() {
+            @Override
+            public void receive(long timeStamp, Event[] inEvents, Event[] removeEvents) {
+                if (inEvents != null) {
+                    eventCount.addAndGet(inEvents.length);
+                }
+            }
+
+        });
+
+        InputHandler stockStream = siddhiAppRuntime.getInputHandler("StockStream");
+        InputHandler fooStream = siddhiAppRuntime.getInputHandler("FooStream");
+        siddhiAppRuntime.start();
+
+        CosmosEmulator emulator = CosmosTableTestUtils.getEmulator();
+        stockStream.send(new Object[]{"WSO2", 55.6f, 100L});
+        stockStream.send(new Object[]{"WSO2", 57.6f, 50L});
+        stockStream.send(new Object[]{"WSO2", 56.6f, 20L});
+        fooStream.send(new Object[]{"WSO2"});
+        long requestCount = emulator == null ? 0 : emulator.getRequestCount();
+        fooStream.send(new Object[]{"WSO2"});
+        if (emulator != null) {
+            //The result exceeds the size of the cache, hence it is streamed from the store instead of being cached.
+            Assert.assertTrue(emulator.getRequestCount() > requestCount, "Join was served from the cache");
+        }
+        SiddhiTestHelper.waitForEvents(waitTime, 6, eventCount, timeout);
+
+        siddhiAppRuntime.shutdown();
+
+        Assert.assertEquals(eventCount.intValue(), 6, "Read events failed");
+    }
+
+    @Test
+    public void testCosmosTableJoinQuery13() throws InterruptedException {
+        log.info("testCosmosTableJoinQuery13 - Join served from the change feed replica after deletes of the table");
+
+        String collectionLink = String.format("/dbs/%s/colls/%s", database, "FooTable");
+        CosmosTableTestUtils.dropCollection(uri, key, collectionLink);
+
+        SiddhiManager siddhiManager = new SiddhiManager();
+        String streams = "" +
+                "define stream StockStream (symbol string, price float, volume long); " +
+                "define stream DeleteStockStream (symbol string); " +
+                "define stream DeleteVolumeStream (volume long); " +
+                "define stream FooStream (symbol string); " +
+                "@store(type = 'cosmosdb' , uri='" + uri + "', access.key='" + key + "', " +
+                "database.name='" + database + "', is.enable.change.feed.replica='true', " +
+                "replica.poll.interval.seconds='60')" +
+                "@PrimaryKey('symbol')" +
+                "define table FooTable (symbol string, price float, volume long);";
+        String query = "" +
+                "@info(name = 'query1') " +
+                "from StockStream " +
+                "insert into FooTable ;" +
+                "" +
+                "@info(name = 'query2') " +
+                "from DeleteStockStream " +
+                "delete FooTable " +
+                "on FooTable.symbol == symbol ;" +
+                "" +
+                "@info(name = 'query3') " +
+                "from DeleteVolumeStream " +
+                "delete FooTable " +
+                "on FooTable.volume < volume ;" +
+                "" +
+                "@info(name = 'query4') " +
+                "from FooStream#window.length(1) join FooTable " +
+                "on FooTable.symbol == FooStream.symbol " +
+                "select FooStream.symbol as checkSymbol, FooTable.volume as volume " +
+                "insert into OutputStream ;";
+
+        List<Object[]> results = Collections.synchronizedList(new ArrayList<>());
+        SiddhiAppRuntime siddhiAppRuntime = siddhiManager.createSiddhiAppRuntime(streams + query);
+        siddhiAppRuntime.addCallback("query4", new QueryCallback() {
+            @Override
+            public void receive(long timeStamp, Event[] inEvents, Event[] removeEvents) {
+                if (inEvents != null) {
+                    for (Event event : inEvents) {
+                        results.add(event.getData());
+                        eventCount.incrementAndGet();
+                    }
+                }
+            }
+
+        });
+
+        InputHandler stockStream = siddhiAppRuntime.getInputHandler("StockStream");
+        InputHandler deleteStockStream = siddhiAppRuntime.getInputHandler("DeleteStockStream");
+        InputHandler deleteVolumeStream = siddhiAppRuntime.getInputHandler("DeleteVolumeStream");
+        InputHandler fooStream = siddhiAppRuntime.getInputHandler("FooStream");
+        siddhiAppRuntime.start();
+
+        CosmosEmulator emulator = CosmosTableTestUtils.getEmulator();
+        stockStream.send(new Object[]{"WSO2", 55.6f, 100L});
+        stockStream.send(new Object[]{"IBM", 75.6f, 10L});
+        stockStream.send(new Object[]{"ORCL", 65.6f, 200L});
+        fooStream.send(new Object[]{"WSO2"});
+        deleteStockStream.send(new Object[]{"WSO2"});
+        deleteVolumeStream.send(new Object[]{50L});
+        //Deleted documents are removed from the replica directly, instead of reloading it.
+        long requestCount = emulator == null ? 0 : emulator.getRequestCount();
+        fooStream.send(new Object[]{"WSO2"});
+        fooStream.send(new Object[]{"IBM"});
+        fooStream.send(new Object[]{"ORCL"});
+        if (emulator != null) {
+            Assert.assertEquals(emulator.getRequestCount(), requestCount, "Replica was reloaded");
+        }
+        SiddhiTestHelper.waitForEvents(waitTime, 2, eventCount, timeout);
+
+        siddhiAppRuntime.shutdown();
+
+        Assert.assertEquals(eventCount.intValue(), 2, "Read events failed");
+        Assert.assertEquals(results.get(0), new Object[]{"WSO2", 100L});
+        Assert.assertEquals(results.get(1), new Object[]{"ORCL", 200L});
+    }
 }
@@ -22,15 +22,24 @@ package io.siddhi.extension.store.cosmosdb;
 import com.microsoft.azure.documentdb.Document;
 import io.siddhi.core.SiddhiAppRuntime;
 import io.siddhi.core.SiddhiManager;
+import io.siddhi.core.event.Event;
 import io.siddhi.core.exception.SiddhiAppCreationException;
 import io.siddhi.core.stream.input.InputHandler;
+import io.siddhi.core.stream.output.StreamCallback;
 import io.siddhi.query.api.exception.SiddhiAppValidationException;
 import org.apache.log4j.Logger;
 import org.testng.Assert;
+import org.testng.SkipException;
 import org.testng.annotations.AfterClass;
 import org.testng.annotations.BeforeClass;
 import org.testng.annotations.Test;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
 
 public class UpdateCosmosTableTest {
 
@@ -327,4 +336,363 @@ public class UpdateCosmosTableTest {
                 collectionLink);
         Assert.assertEquals(totalDocumentsInCollection, 3, "Update failed");
     }
+
+    @Test
+    public void updateFromCosmosTableTest9() throws InterruptedException {
+        log.info("updateFromCosmosTableTest9 - Update events of a CosmosDB table with a primary key");
+
+        String collectionLink = String.format("/dbs/%s/colls/%s", database, "FooTable");
+        CosmosTableTestUtils.dropCollection(uri, key, collectionLink);
+
+        SiddhiManager siddhiManager = new SiddhiManager();
+        String streams = "" +
+                "define stream StockStream (symbol string, price float, volume long); " +
+                "define stream FooStream (symbol string, price float); " +
+                "@store(type = 'cosmosdb' , uri='" + uri + "', access.key='" + key + "', " +
+                "database.name='" + database + "')" +
+                "@PrimaryKey('symbol')" +
+                "define table FooTable (symbol string, price float, volume long);";
+        String query = "" +
+                "@info(name = 'query1') " +
+                "from StockStream " +
+                "insert into FooTable ;" +
+                "" +
+                "@info(name = 'query2') " +
+                "from FooStream " +
+                "update FooTable " +
+                "set FooTable.price = price " +
+                "on FooTable.symbol == symbol;";
+        SiddhiAppRuntime siddhiAppRuntime = siddhiManager.createSiddhiAppRuntime(streams + query);
+        InputHandler stockStream = siddhiAppRuntime.getInputHandler("StockStream");
+        InputHandler fooStream = siddhiAppRuntime.getInputHandler("FooStream");
+        siddhiAppRuntime.start();
+
+        stockStream.send(new Object[]{"WSO2", 55.6f, 100L});
+        stockStream.send(new Object[]{"IBM", 74.6f, 100L});
+        fooStream.send(new Object[]{"IBM", 575.6f});
+        fooStream.send(new Object[]{"MSFT", 75.6f});
+
+        siddhiAppRuntime.shutdown();
+
+        long totalDocumentsInCollection = CosmosTableTestUtils.getDocumentsCount(uri, key, "FooTable",
+                collectionLink);
+        Assert.assertEquals(totalDocumentsInCollection, 2, "Update failed");
+        Document updatedDocument = CosmosTableTestUtils.getDocument(uri, key, collectionLink, "FooTable",
+                "FooTable.symbol='IBM'");
+        Assert.assertEquals(updatedDocument.get("price"), 575.6, "Update Failed");
+        Assert.assertEquals(updatedDocument.get("volume"), 100, "Update Failed");
+    }
+
+    @Test
+    public void updateFromCosmosTableTest10() throws InterruptedException {
+        log.info("updateFromCosmosTableTest10 - Update events of a CosmosDB table with partial updates enabled");
+
+        String collectionLink = String.format("/dbs/%s/colls/%s", database, "FooTable");
+        CosmosTableTestUtils.dropCollection(uri, key, collectionLink);
+
+        SiddhiManager siddhiManager = new SiddhiManager();
+        String streams = "" +
+                "define stream StockStream (symbol string, price float, volume long); " +
+                "define stream FooStream (symbol string, price float); " +
+                "@store(type = 'cosmosdb' , uri='" + uri + "', access.key='" + key + "', " +
+                "database.name='" + database + "', is.enable.partial.update='true')" +
+                "define table FooTable (symbol string, price float, volume long);";
+        String query = "" +
+                "@info(name = 'query1') " +
+                "from StockStream " +
+                "insert into FooTable ;" +
+                "" +
+                "@info(name = 'query2') " +
+                "from FooStream " +
+                "update FooTable " +
+                "set FooTable.price = price " +
+                "on FooTable.symbol == symbol;";
+        SiddhiAppRuntime siddhiAppRuntime = siddhiManager.createSiddhiAppRuntime(streams + query);
+        InputHandler stockStream = siddhiAppRuntime.getInputHandler("StockStream");
+        InputHandler fooStream = siddhiAppRuntime.getInputHandler("FooStream");
+        siddhiAppRuntime.start();
+
+        stockStream.send(new Object[]{"WSO2", 55.6f, 100L});
+        stockStream.send(new Object[]{"IBM", 74.6f, 100L});
+        fooStream.send(new Object[]{"IBM", 575.6f});
+
+        siddhiAppRuntime.shutdown();
+
+        long totalDocumentsInCollection = CosmosTableTestUtils.getDocumentsCount(uri, key, "FooTable",
+                collectionLink);
+        Assert.assertEquals(totalDocumentsInCollection, 2, "Update failed");
+        Document updatedDocument = CosmosTableTestUtils.getDocument(uri, key, collectionLink, "FooTable",
+                "FooTable.symbol='IBM'");
+        Assert.assertEquals(updatedDocument.get("price"), 575.6, "Update Failed");
+        Assert.assertEquals(updatedDocument.get("volume"), 100, "Update Failed");
+        Document unchangedDocument = CosmosTableTestUtils.getDocument(uri, key, collectionLink, "FooTable",
+                "FooTable.symbol='WSO2'");
+        Assert.assertEquals(unchangedDocument.get("price"), 55.6, "Update Failed");
+    }
+
+    @Test
+    public void updateFromCosmosTableTest11() throws InterruptedException {
+        log.info("updateFromCosmosTableTest11 - Update events of a CosmosDB table with asynchronous writes");
+
+        String collectionLink = String.format("/dbs/%s/colls/%s", database, "FooTable");
+        CosmosTableTestUtils.dropCollection(uri, key, collectionLink);
+
+        SiddhiManager siddhiManager = new SiddhiManager();
+        String streams = "" +
+                "define stream StockStream (symbol string, price float, volume long); " +
+                "define stream FooStream (symbol string, price float); " +
+                "@store(type = 'cosmosdb' , uri='" + uri + "', access.key='" + key + "', " +
+                "database.name='" + database + "', max.inflight.writes='8')" +
+                "@PrimaryKey('symbol')" +
+                "define table FooTable (symbol string, price float, volume long);";
+        String query = "" +
+                "@info(name = 'query1') " +
+                "from StockStream " +
+                "insert into FooTable ;" +
+                "" +
+                "@info(name = 'query2') " +
+                "from FooStream " +
+                "update FooTable " +
+                "set FooTable.price = price " +
+                "on FooTable.symbol == symbol;";
+        SiddhiAppRuntime siddhiAppRuntime = siddhiManager.createSiddhiAppRuntime(streams + query);
+        InputHandler stockStream = siddhiAppRuntime.getInputHandler("StockStream");
+        InputHandler fooStream = siddhiAppRuntime.getInputHandler("FooStream");
+        siddhiAppRuntime.start();
+
+        for (int i = 0; i < 50; i++) {
+            stockStream.send(new Object[]{"SYMBOL" + i, 55.6f, 100L});
+        }
+        for (int i = 0; i < 10; i++) {
+            fooStream.send(new Object[]{"SYMBOL7", 100f + i});
+        }
+
+        siddhiAppRuntime.shutdown();
+
+        long totalDocumentsInCollection = CosmosTableTestUtils.getDocumentsCount(uri, key, "FooTable",
+                collectionLink);
+        Assert.assertEquals(totalDocumentsInCollection, 50, "Update failed");
+        Document updatedDocument = CosmosTableTestUtils.getDocument(uri, key, collectionLink, "FooTable",
+                "FooTable.symbol='SYMBOL7'");
+        Assert.assertEquals(updatedDocument.getDouble("price"), 109.0, "Update Failed");
+    }
+
+    @Test
+    public void updateFromCosmosTableTest12() throws InterruptedException {
+        log.info("updateFromCosmosTableTest12 - Update events of a CosmosDB table through the write-behind buffer");
+
+        String collectionLink = String.format("/dbs/%s/colls/%s", database, "FooTable");
+        CosmosTableTestUtils.dropCollection(uri, key, collectionLink);
+
+        SiddhiManager siddhiManager = new SiddhiManager();
+        String streams = "" +
+                "define stream StockStream (symbol string, price float, volume long); " +
+                "define stream FooStream (symbol string, price float); " +
+                "@store(type = 'cosmosdb' , uri='" + uri + "', access.key='" + key + "', " +
+                "database.name='" + database + "', is.enable.write.behind='true', " +
+                "write.behind.flush.interval.seconds='60')" +
+                "@PrimaryKey('symbol')" +
+                "define table FooTable (symbol string, price float, volume long);";
+        String query = "" +
+                "@info(name = 'query1') " +
+                "from StockStream " +
+                "insert into FooTable ;" +
+                "" +
+                "@info(name = 'query2') " +
+                "from FooStream " +
+                "update FooTable " +
+                "set FooTable.price = price " +
+                "on FooTable.symbol == symbol;";
+        SiddhiAppRuntime siddhiAppRuntime = siddhiManager.createSiddhiAppRuntime(streams + query);
+        InputHandler stockStream = siddhiAppRuntime.getInputHandler("StockStream");
+        InputHandler fooStream = siddhiAppRuntime.getInputHandler("FooStream");
+        siddhiAppRuntime.start();
+
+        CosmosEmulator emulator = CosmosTableTestUtils.getEmulator();
+        long requestCount = emulator == null ? 0 : emulator.getRequestCount();
+        for (int i = 0; i < 50; i++) {
+            stockStream.send(new Object[]{"SYMBOL" + i, 55.6f, 100L});
+        }
+        for (int i = 0; i < 10; i++) {
+            fooStream.send(new Object[]{"SYMBOL7", 100f + i});
+        }
+        if (emulator != null) {
+            Assert.assertEquals(emulator.getRequestCount(), requestCount, "Writes were not buffered");
+        }
+
+        siddhiAppRuntime.shutdown();
+
+        long totalDocumentsInCollection = CosmosTableTestUtils.getDocumentsCount(uri, key, "FooTable",
+                collectionLink);
+        Assert.assertEquals(totalDocumentsInCollection, 50, "Update failed");
+        Document updatedDocument = CosmosTableTestUtils.getDocument(uri, key, collectionLink, "FooTable",
+                "FooTable.symbol='SYMBOL7'");
+        Assert.assertEquals(updatedDocument.getDouble("price"), 109.0, "Update Failed");
+    }
+
+    @Test
+    public void updateFromCosmosTableTest13() throws InterruptedException {
+        log.info("updateFromCosmosTableTest13 - Update events of a CosmosDB table partitioned by an attribute with " +
+                "partial updates enabled");
+
+        CosmosEmulator emulator = CosmosTableTestUtils.getEmulator();
+        String collectionLink = String.format("/dbs/%s/colls/%s", database, "TenantTable");
+        CosmosTableTestUtils.dropCollection(uri, key, collectionLink);
+
+        SiddhiManager siddhiManager = new SiddhiManager();
+        String streams = "" +
+                "define stream FooStream (tenant string, symbol string, volume long); " +
+                "define stream UpdateStream (tenant string, volume long); " +
+                "@store(type = 'cosmosdb' , uri='" + uri + "', access.key='" + key + "', " +
+                "database.name='" + database + "', is.enable.partial.update='true', " +
+                "partition.key.attribute='tenant', is.enable.cross.partition.query='true')" +
+                "define table TenantTable (tenant string, symbol string, volume long);";
+        String query = "" +
+                "@info(name = 'query1') " +
+                "from FooStream " +
+                "insert into TenantTable;" +
+                "" +
+                "@info(name = 'query2') " +
+                "from UpdateStream " +
+                "update TenantTable " +
+                "set TenantTable.volume = volume " +
+                "on TenantTable.tenant != tenant;";
+        SiddhiAppRuntime siddhiAppRuntime = siddhiManager.createSiddhiAppRuntime(streams + query);
+        InputHandler fooStream = siddhiAppRuntime.getInputHandler("FooStream");
+        InputHandler updateStream = siddhiAppRuntime.getInputHandler("UpdateStream");
+        siddhiAppRuntime.start();
+
+        for (int i = 0; i < 9; i++) {
+            fooStream.send(new Object[]{"TENANT" + (i % 3), "SYMBOL" + i, 100L});
+        }
+        int procedureExecutions = emulator == null ? 0 : emulator.getProcedurePartitionKeys().size();
+        updateStream.send(new Object[]{"TENANT1", 500L});
+        Event[] updatedEvents = siddhiAppRuntime.query("from TenantTable on volume == 500L select symbol");
+
+        siddhiAppRuntime.shutdown();
+
+        Assert.assertNotNull(updatedEvents, "Update failed");
+        Assert.assertEquals(updatedEvents.length, 6, "Update failed");
+        if (emulator != null) {
+            if (!emulator.areProceduresAvailable()) {
+                throw new SkipException("Stored procedures are not available, since the JVM has no JavaScript " +
+                        "engine.");
+            }
+            List<String> partitionKeys = emulator.getProcedurePartitionKeys();
+            Assert.assertEquals(new HashSet<>(partitionKeys.subList(procedureExecutions, partitionKeys.size())),
+                    new HashSet<>(Arrays.asList("[\"TENANT0\"]", "[\"TENANT2\"]")),
+                    "Partial update was not executed on the partitions of the matching documents");
+        }
+    }
+
+    @Test
+    public void updateFromCosmosTableTest14() throws InterruptedException {
+        log.info("updateFromCosmosTableTest14 - Update events of a CosmosDB table through the write-behind buffer " +
+                "while the table is checked and joined");
+
+        CosmosEmulator emulator = CosmosTableTestUtils.getEmulator();
+        if (emulator == null) {
+            throw new SkipException("Document writes can only be counted when running against the emulator.");
+        }
+        String collectionLink = String.format("/dbs/%s/colls/%s", database, "FooTable");
+        CosmosTableTestUtils.dropCollection(uri, key, collectionLink);
+
+        SiddhiManager siddhiManager = new SiddhiManager();
+        String streams = "" +
+                "define stream StockStream (symbol string, price float, volume long); " +
+                "define stream FooStream (symbol string, price float); " +
+                "define stream VolumeStream (symbol string, price float, volume long); " +
+                "define stream CheckStream (price float); " +
+                "define stream JoinStream (volume long); " +
+                "@store(type = 'cosmosdb' , uri='" + uri + "', access.key='" + key + "', " +
+                "database.name='" + database + "', is.enable.write.behind='true', " +
+                "write.behind.flush.interval.seconds='60')" +
+                "@PrimaryKey('symbol')" +
+                "define table FooTable (symbol string, price float, volume long);";
+        String query = "" +
+                "@info(name = 'query1') " +
+                "from StockStream " +
+                "insert into FooTable ;" +
+                "" +
+                "@info(name = 'query2') " +
+                "from FooStream " +
+                "update FooTable " +
+                "set FooTable.price = price " +
+                "on FooTable.symbol == symbol;" +
+                "" +
+                "@info(name = 'query3') " +
+                "from VolumeStream " +
+                "update or insert into FooTable " +
+                "set FooTable.volume = volume " +
+                "on FooTable.symbol == symbol;" +
+                "" +
+                "@info(name = 'query4') " +
+                "from CheckStream[(FooTable.price > price) in FooTable] " +
+                "insert into CheckedStream;" +
+                "" +
+                "@info(name = 'query5') " +
+                "from JoinStream join FooTable " +
+                "on FooTable.volume > JoinStream.volume " +
+                "select FooTable.symbol as symbol, FooTable.volume as volume " +
+                "insert into JoinedStream;";
+        SiddhiAppRuntime siddhiAppRuntime = siddhiManager.createSiddhiAppRuntime(streams + query);
+        InputHandler stockStream = siddhiAppRuntime.getInputHandler("StockStream");
+        InputHandler fooStream = siddhiAppRuntime.getInputHandler("FooStream");
+        InputHandler volumeStream = siddhiAppRuntime.getInputHandler("VolumeStream");
+        InputHandler checkStream = siddhiAppRuntime.getInputHandler("CheckStream");
+        InputHandler joinStream = siddhiAppRuntime.getInputHandler("JoinStream");
+        List<Object[]> checkedEvents = Collections.synchronizedList(new ArrayList<>());
+        List<Object[]> joinedEvents = Collections.synchronizedList(new ArrayList<>());
+        siddhiAppRuntime.addCallback("CheckedStream", new StreamCallback() {
+            @Override
+            public void receive(Event[] events) {
+                for (Event event : events) {
+                    checkedEvents.add(event.getData());
+                }
+            }
+        });
+        siddhiAppRuntime.addCallback("JoinedStream", new StreamCallback() {
+            @Override
+            public void receive(Event[] events) {
+                for (Event event : events) {
+                    joinedEvents.add(event.getData());
+                }
+            }
+        });
+        siddhiAppRuntime.start();
+
+        long documentWriteCount = emulator.getDocumentWriteCount();
+        for (int i = 0; i < 10; i++) {
+            stockStream.send(new Object[]{"SYMBOL" + i, 50f, 100L});
+        }
+        for (int round = 0; round < 5; round++) {
+            for (int i = 0; i < 10; i++) {
+                fooStream.send(new Object[]{"SYMBOL" + i, 60f + round});
+            }
+            volumeStream.send(new Object[]{"SYMBOL0", 60f + round, 1000L + round});
+            checkStream.send(new Object[]{59f + round});
+            joinStream.send(new Object[]{500L});
+        }
+        //The check is answered from the buffer, and the join performs only the write of the document it matches.
+        long flushedWriteCount = emulator.getDocumentWriteCount() - documentWriteCount;
+
+        siddhiAppRuntime.shutdown();
+
+        Assert.assertEquals(flushedWriteCount, 5, "Writes were not coalesced in the write-behind buffer");
+        Assert.assertEquals(checkedEvents.size(), 5, "Check did not read the buffered writes");
+        Assert.assertEquals(joinedEvents.size(), 5, "Join did not read the buffered writes");
+        for (int round = 0; round < 5; round++) {
+            Assert.assertEquals(joinedEvents.get(round), new Object[]{"SYMBOL0", 1000L + round},
+                    "Join did not read the buffered writes");
+        }
+        long totalDocumentsInCollection = CosmosTableTestUtils.getDocumentsCount(uri, key, "FooTable",
+                collectionLink);
+        Assert.assertEquals(totalDocumentsInCollection, 10, "Update failed");
+        Document updatedDocument = CosmosTableTestUtils.getDocument(uri, key, collectionLink, "FooTable",
+                "FooTable.symbol='SYMBOL9'");
+        Assert.assertEquals(updatedDocument.getDouble("price"), 64.0, "Update Failed");
+        updatedDocument = CosmosTableTestUtils.getDocument(uri, key, collectionLink, "FooTable",
+                "FooTable.symbol='SYMBOL0'");
+        Assert.assertEquals(updatedDocument.getLong("volume"), Long.valueOf(1004L), "Update Failed");
+    }
 }
@@ -22,6 +22,7 @@ package io.siddhi.extension.store.cosmosdb;
 import com.microsoft.azure.documentdb.Document;
 import io.siddhi.core.SiddhiAppRuntime;
 import io.siddhi.core.SiddhiManager;
+import io.siddhi.core.event.Event;
 import io.siddhi.core.exception.SiddhiAppCreationException;
 import io.siddhi.core.stream.input.InputHandler;
 import org.apache.log4j.Logger;
@@ -315,4 +316,58 @@ public class UpdateOrInsertCosmosTableTest {
         siddhiAppRuntime.start();
         siddhiAppRuntime.shutdown();
     }
+
+    @Test
+    public void updateOrInsertCosmosTableTest8() throws InterruptedException {
+        log.info("updateOrInsertCosmosTableTest8 - Configure siddhi to perform insert/update on CosmosDB documents " +
+                "identified by a primary key");
+
+        String collectionLink = String.format("/dbs/%s/colls/%s", database, "FooTable");
+        CosmosTableTestUtils.dropCollection(uri, key, collectionLink);
+
+        SiddhiManager siddhiManager = new SiddhiManager();
+        String streams = "" +
+                "define stream StockStream (symbol string, price float, volume long); " +
+                "define stream FooStream (symbol string, price float, volume long); " +
+                "@store(type = 'cosmosdb' , uri='" + uri + "', access.key='" + key + "', " +
+                "database.name='" + database + "', is.enable.bulk.insert='true')" +
+                "@PrimaryKey('symbol')" +
+                "define table FooTable (symbol string, price float, volume long);";
+        String query = "" +
+                "@info(name = 'query1') " +
+                "from StockStream " +
+                "insert into FooTable ;" +
+                "" +
+                "@info(name = 'query2') " +
+                "from FooStream " +
+                "update or insert into FooTable " +
+                "   on FooTable.symbol == symbol ;";
+        SiddhiAppRuntime siddhiAppRuntime = siddhiManager.createSiddhiAppRuntime(streams + query);
+        InputHandler stockStream = siddhiAppRuntime.getInputHandler("StockStream");
+        InputHandler fooStream = siddhiAppRuntime.getInputHandler("FooStream");
+        siddhiAppRuntime.start();
+
+        stockStream.send(new Object[]{"WSO2", 55.6F, 100L});
+        stockStream.send(new Object[]{"GOOG", 75.6F, 100L});
+        fooStream.send(new Event[]{
+                new Event(System.currentTimeMillis(), new Object[]{"GOOG", 10.6F, 200L}),
+                new Event(System.currentTimeMillis(), new Object[]{"MSFT", 20.6F, 100L}),
+                new Event(System.currentTimeMillis(), new Object[]{"MSFT", 30.6F, 300L})
+        });
+
+        siddhiAppRuntime.shutdown();
+
+        long totalDocumentsInCollection = CosmosTableTestUtils.getDocumentsCount(uri, key, "FooTable",
+                collectionLink);
+        Assert.assertEquals(totalDocumentsInCollection, 3, "Update failed");
+
+        Document updatedDocument = CosmosTableTestUtils.getDocument(uri, key, collectionLink, "FooTable",
+                "FooTable.symbol='GOOG'");
+        Assert.assertEquals(updatedDocument.get("price"), 10.6, "Update Failed");
+        Assert.assertEquals(updatedDocument.get("volume"), 200, "Update Failed");
+        Document insertedDocument = CosmosTableTestUtils.getDocument(uri, key, collectionLink, "FooTable",
+                "FooTable.symbol='MSFT'");
+        Assert.assertEquals(insertedDocument.get("price"), 30.6, "Update Failed");
+        Assert.assertEquals(insertedDocument.get("volume"), 300, "Update Failed");
+    }
 }